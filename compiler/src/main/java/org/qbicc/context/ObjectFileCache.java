@@ -0,0 +1,135 @@
+package org.qbicc.context;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A persistent, content-addressed cache of compiled object files. Each object file is stored under a key which is a
+ * hash of its input together with a description of the tools and options which compiled it, so an object file is
+ * only reused when compiling the input again would produce the same object file.
+ * <p>
+ * The cache directory may be shared between builds and between concurrent compilations; entries are written to a
+ * temporary file and then atomically moved into place.
+ */
+public final class ObjectFileCache {
+    private final String name;
+    private final Path directory;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Construct a new instance.
+     *
+     * @param name the name of the cache, used when reporting statistics (must not be {@code null})
+     * @param directory the cache directory (must not be {@code null})
+     */
+    public ObjectFileCache(final String name, final Path directory) {
+        this.name = name;
+        this.directory = directory;
+    }
+
+    /**
+     * Compute the cache key of an input.
+     *
+     * @param configuration the description of the tools and options which compile the input (must not be {@code null})
+     * @param input the stream of the input (must not be {@code null})
+     * @return the cache key
+     * @throws IOException if the input could not be read
+     */
+    public String computeKey(String configuration, InputStream input) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        digest.update(configuration.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        byte[] buf = new byte[16384];
+        int res;
+        while ((res = input.read(buf)) != -1) {
+            digest.update(buf, 0, res);
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Copy the cached object file with the given key to the given path, if there is one.
+     *
+     * @param key the cache key (must not be {@code null})
+     * @param objectPath the object file path (must not be {@code null})
+     * @return {@code true} if the object file was found in the cache, or {@code false} if it must be compiled
+     * @throws IOException if the cached object file could not be copied
+     */
+    public boolean restore(String key, Path objectPath) throws IOException {
+        try {
+            Files.copy(getCachedPath(key), objectPath, StandardCopyOption.REPLACE_EXISTING);
+        } catch (NoSuchFileException e) {
+            misses.incrementAndGet();
+            return false;
+        }
+        hits.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Store the given object file in the cache under the given key.
+     *
+     * @param key the cache key (must not be {@code null})
+     * @param objectPath the compiled object file path (must not be {@code null})
+     * @throws IOException if the object file could not be stored
+     */
+    public void store(String key, Path objectPath) throws IOException {
+        Path cachedPath = getCachedPath(key);
+        Path parent = cachedPath.getParent();
+        Files.createDirectories(parent);
+        Path tempPath = Files.createTempFile(parent, key, ".tmp");
+        try {
+            Files.copy(objectPath, tempPath, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(tempPath, cachedPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tempPath);
+        }
+    }
+
+    /**
+     * Get the number of object files which were found in the cache.
+     *
+     * @return the number of hits
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Get the number of object files which were not found in the cache.
+     *
+     * @return the number of misses
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Report the number of cache hits and misses.
+     *
+     * @param ctxt the context to report to
+     */
+    public void reportStats(DiagnosticContext ctxt) {
+        ctxt.note("%s in %s: %d hits, %d misses", name, directory, Long.valueOf(hits.get()), Long.valueOf(misses.get()));
+    }
+
+    private Path getCachedPath(String key) {
+        // spread the entries over subdirectories to keep the directories small
+        return directory.resolve(key.substring(0, 2)).resolve(key.substring(2) + ".o");
+    }
+}
@@ -70,4 +70,10 @@ public interface VmClass extends VmObject {
     TypeDescriptor getDescriptor();
 
     boolean isAssignableFrom(VmClass other);
+
+    /**
+     * Wait for another thread to finish initializing this class, if one is initializing it now. This never starts
+     * the initialization of this class, and returns immediately if it is not being initialized by another thread.
+     */
+    void awaitInitializationInProgress();
 }
@@ -0,0 +1,110 @@
+package org.qbicc.context;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests for the keys, hits, and misses of {@link ObjectFileCache}.
+ */
+public final class TestObjectFileCache {
+
+    @TempDir
+    Path dir;
+
+    ObjectFileCache cache;
+
+    @BeforeEach
+    public void setUpEach() {
+        cache = new ObjectFileCache("test cache", dir.resolve("cache"));
+    }
+
+    @Test
+    public void testKeyIsStable() throws IOException {
+        assertEquals(key("llc -O2", "module"), key("llc -O2", "module"));
+        // the key is usable as a file name
+        assertTrue(key("llc -O2", "module").matches("[0-9a-f]{64}"));
+    }
+
+    @Test
+    public void testKeyDependsOnInput() throws IOException {
+        assertNotEquals(key("llc -O2", "module"), key("llc -O2", "module "));
+        assertNotEquals(key("llc -O2", ""), key("llc -O2", "module"));
+    }
+
+    @Test
+    public void testKeyDependsOnConfiguration() throws IOException {
+        assertNotEquals(key("llc -O2", "module"), key("llc -O3", "module"));
+        assertNotEquals(key("llc -O2", "module"), key("llc -O2\nopt mem2reg", "module"));
+    }
+
+    @Test
+    public void testConfigurationDoesNotRunIntoInput() throws IOException {
+        // the same bytes split differently between the configuration and the input are different keys
+        assertNotEquals(key("llc -O2", "module"), key("llc -O2module", ""));
+        assertNotEquals(key("llc", " -O2"), key("llc -O2", ""));
+    }
+
+    @Test
+    public void testMissThenHit() throws IOException {
+        final String key = key("llc -O2", "module");
+        final Path objectPath = dir.resolve("module.o");
+        assertFalse(cache.restore(key, objectPath));
+        assertFalse(Files.exists(objectPath));
+        assertEquals(0, cache.getHits());
+        assertEquals(1, cache.getMisses());
+
+        Files.writeString(objectPath, "object", StandardCharsets.UTF_8);
+        cache.store(key, objectPath);
+        Files.delete(objectPath);
+
+        assertTrue(cache.restore(key, objectPath));
+        assertEquals("object", Files.readString(objectPath, StandardCharsets.UTF_8));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void testChangedInputMisses() throws IOException {
+        final Path objectPath = dir.resolve("module.o");
+        Files.writeString(objectPath, "object", StandardCharsets.UTF_8);
+        cache.store(key("llc -O2", "module"), objectPath);
+        assertFalse(cache.restore(key("llc -O2", "changed module"), objectPath));
+        assertFalse(cache.restore(key("llc -O3", "module"), objectPath));
+        assertEquals(0, cache.getHits());
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    public void testStoreReplaces() throws IOException {
+        final String key = key("llc -O2", "module");
+        final Path objectPath = dir.resolve("module.o");
+        Files.writeString(objectPath, "first", StandardCharsets.UTF_8);
+        cache.store(key, objectPath);
+        Files.writeString(objectPath, "second", StandardCharsets.UTF_8);
+        cache.store(key, objectPath);
+        final Path restoredPath = dir.resolve("restored.o");
+        // the restored file replaces whatever was at the object path
+        Files.writeString(restoredPath, "stale", StandardCharsets.UTF_8);
+        assertTrue(cache.restore(key, restoredPath));
+        assertEquals("second", Files.readString(restoredPath, StandardCharsets.UTF_8));
+        // a shared cache directory sees the entries of the other cache
+        final ObjectFileCache other = new ObjectFileCache("other cache", dir.resolve("cache"));
+        assertTrue(other.restore(key, restoredPath));
+    }
+
+    private String key(String configuration, String input) throws IOException {
+        return cache.computeKey(configuration, new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)));
+    }
+}
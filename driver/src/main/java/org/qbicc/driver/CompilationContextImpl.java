@@ -37,7 +37,9 @@ import org.qbicc.object.ProgramModule;
 import org.qbicc.object.ModuleSection;
 import org.qbicc.object.Section;
 import org.qbicc.object.Segment;
+import org.qbicc.plugin.metrics.CountMetric;
 import org.qbicc.plugin.metrics.Metrics;
+import org.qbicc.plugin.metrics.Timer;
 import org.qbicc.type.ClassObjectType;
 import org.qbicc.type.FunctionType;
 import org.qbicc.type.InstanceMethodType;
@@ -74,6 +76,9 @@ final class CompilationContextImpl implements CompilationContext {
     volatile Set<ExecutableElement> allowedSet = null;
     final Set<ExecutableElement> queued = ConcurrentHashMap.newKeySet();
     final Queue<ExecutableElement> queue = new ArrayDeque<>();
+    // work-stealing scheduler state
+    private final boolean workStealing;
+    private volatile WorkStealingScheduler<ExecutableElement> scheduler;
     final Set<ExecutableElement> entryPoints = ConcurrentHashMap.newKeySet();
     final Set<ExecutableElement> autoQueuedElements = ConcurrentHashMap.newKeySet();
     final ClassContext bootstrapClassContext;
@@ -95,7 +100,7 @@ final class CompilationContextImpl implements CompilationContext {
     private final Consumer<ClassContext> classContextListener;
     private final Section implicitSection = addSection(IMPLICIT_SECTION_NAME, 0, Segment.DATA);
 
-    CompilationContextImpl(final BaseDiagnosticContext baseDiagnosticContext, Platform platform, final TypeSystem typeSystem, final LiteralFactory literalFactory, BiFunction<ClassContext, String, DefinedTypeDefinition> bootstrapFinder, BiFunction<ClassContext, String, byte[]> bootstrapResourceFinder, BiFunction<ClassContext, String, List<byte[]>> bootstrapResourcesFinder, Function<CompilationContext, Vm> vmFactory, final Path outputDir, final List<BiFunction<? super ClassContext, DescriptorTypeResolver, DescriptorTypeResolver>> resolverFactories, List<BiFunction<? super ClassContext, DefinedTypeDefinition.Builder, DefinedTypeDefinition.Builder>> typeBuilderFactories, NativeMethodConfigurator nativeMethodConfigurator, Consumer<ClassContext> classContextListener) {
+    CompilationContextImpl(final BaseDiagnosticContext baseDiagnosticContext, Platform platform, final TypeSystem typeSystem, final LiteralFactory literalFactory, BiFunction<ClassContext, String, DefinedTypeDefinition> bootstrapFinder, BiFunction<ClassContext, String, byte[]> bootstrapResourceFinder, BiFunction<ClassContext, String, List<byte[]>> bootstrapResourcesFinder, Function<CompilationContext, Vm> vmFactory, final Path outputDir, final List<BiFunction<? super ClassContext, DescriptorTypeResolver, DescriptorTypeResolver>> resolverFactories, List<BiFunction<? super ClassContext, DefinedTypeDefinition.Builder, DefinedTypeDefinition.Builder>> typeBuilderFactories, NativeMethodConfigurator nativeMethodConfigurator, Consumer<ClassContext> classContextListener, boolean workStealing) {
         this.baseDiagnosticContext = baseDiagnosticContext;
         this.platform = platform;
         this.typeSystem = typeSystem;
@@ -106,6 +111,7 @@ final class CompilationContextImpl implements CompilationContext {
         bootstrapClassContext = new ClassContextImpl(this, null, bootstrapFinder, bootstrapResourceFinder, bootstrapResourcesFinder);
         this.typeBuilderFactories = typeBuilderFactories;
         this.nativeMethodConfigurator = nativeMethodConfigurator;
+        this.workStealing = workStealing;
         handleNewClassContext(bootstrapClassContext);
         // last!
         this.vm = vmFactory.apply(this);
@@ -283,6 +289,10 @@ final class CompilationContextImpl implements CompilationContext {
             error(element, "Element was unreachable in the previous phase but became reachable in this phase");
         }
         if (queued.add(element)) {
+            WorkStealingScheduler<ExecutableElement> scheduler = this.scheduler;
+            if (scheduler != null && scheduler.submit(element)) {
+                return;
+            }
             synchronized (queue) {
                 queue.add(element);
                 queue.notify();
@@ -793,6 +803,10 @@ final class CompilationContextImpl implements CompilationContext {
     int waiting;
 
     void processQueue(Consumer<ExecutableElement> consumer) {
+        if (workStealing) {
+            processQueueWorkStealing(consumer);
+            return;
+        }
         synchronized (this) {
             waiting = 0;
         }
@@ -836,6 +850,47 @@ final class CompilationContextImpl implements CompilationContext {
         });
     }
 
+    private void processQueueWorkStealing(Consumer<ExecutableElement> consumer) {
+        int threadCnt;
+        synchronized (this) {
+            threadCnt = activeThreads;
+        }
+        WorkStealingScheduler<ExecutableElement> scheduler = new WorkStealingScheduler<>(threadCnt, () -> {
+            // elements enqueued by non-worker threads
+            synchronized (queue) {
+                return queue.poll();
+            }
+        });
+        synchronized (queue) {
+            ExecutableElement element;
+            while ((element = queue.poll()) != null) {
+                scheduler.seed(element);
+            }
+        }
+        Phase phase = Phase.getCurrent(this);
+        String phaseName = phase == null ? "none" : phase.toString();
+        Metrics metrics = Metrics.get(this);
+        Timer idle = metrics.getOrCreateRootTimer("work-stealing idle").getOrAddChild(phaseName);
+        this.scheduler = scheduler;
+        try {
+            runParallelTask(ctxt -> scheduler.runWorker(element -> {
+                try {
+                    consumer.accept(element);
+                } catch (Throwable e) {
+                    log.error("An exception was thrown from a queue processing task", e);
+                    error(element, "Exception while processing queue task for element: %s", e);
+                }
+            }, idle::runTimed));
+        } finally {
+            this.scheduler = null;
+        }
+        // a failed worker stops the others and is reported as an error by its thread, so the driver stops after this phase
+        assert scheduler.getFailure() == null || errors() > 0;
+        CountMetric steals = metrics.getOrCreateRootCountMetric("work-stealing steals").getOrAddChild(phaseName);
+        steals.add(scheduler.getSteals());
+        log.debugf("Work-stealing scheduler (%s): %s steals, %s idle", phaseName, steals.getFormattedValue(), idle.getFormattedValue());
+    }
+
     void startThreads(final int threadCnt, final long stackSize) {
         ThreadGroup threadGroup = new ThreadGroup("qbicc compiler thread group");
         Thread[] threads = new Thread[threadCnt];
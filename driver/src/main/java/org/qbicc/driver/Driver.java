@@ -36,6 +36,7 @@ import org.qbicc.interpreter.Vm;
 import org.qbicc.machine.arch.Platform;
 import org.qbicc.machine.object.ObjectFileProvider;
 import org.qbicc.machine.tool.CToolChain;
+import org.qbicc.object.ThreadLocalMode;
 import org.qbicc.tool.llvm.LlvmToolChain;
 import org.qbicc.type.TypeSystem;
 import org.qbicc.type.definition.DefinedTypeDefinition;
@@ -164,7 +165,7 @@ public class Driver implements Closeable {
 
         java.util.function.Function<CompilationContext, Vm> vmFactory = Assert.checkNotNullParam("builder.vmFactory", builder.vmFactory);
         NativeMethodConfigurator nativeMethodConfigurator = constructNativeMethodConfigurator(builder);
-        compilationContext = new CompilationContextImpl(initialContext, builder.targetPlatform, typeSystem, literalFactory, this::defaultFinder, this::defaultResourceFinder, this::defaultResourcesFinder, vmFactory, outputDir, resolverFactories, typeBuilderFactories, nativeMethodConfigurator, classContextListener);
+        compilationContext = new CompilationContextImpl(initialContext, builder.targetPlatform, typeSystem, literalFactory, this::defaultFinder, this::defaultResourceFinder, this::defaultResourcesFinder, vmFactory, outputDir, resolverFactories, typeBuilderFactories, nativeMethodConfigurator, classContextListener, builder.workStealing);
         // start with ADD
         compilationContext.setBlockFactory(addBuilderFactory);
 
@@ -181,6 +182,20 @@ public class Driver implements Closeable {
         return driver;
     }
 
+    /**
+     * Get the thread-local storage model to use for a thread-local data object.  The output is always an executable,
+     * so thread-locals defined within the image are at a fixed offset from the thread pointer and use the local-exec
+     * model, while thread-locals that may be defined by a shared library loaded at startup use the initial-exec
+     * model; neither requires a call to {@code __tls_get_addr}.
+     *
+     * @param definedInImage {@code true} if the object is defined within the image being built, {@code false} if
+     *      it may be defined elsewhere
+     * @return the thread-local mode (not {@code null})
+     */
+    public ThreadLocalMode getThreadLocalMode(boolean definedInImage) {
+        return definedInImage ? ThreadLocalMode.LOCAL_EXEC : ThreadLocalMode.INITIAL_EXEC;
+    }
+
     public ClassPathItem getBootModuleClassPathItem(String name) {
         BootModule module = bootModules.get(name);
         if (module == null) {
@@ -686,6 +701,7 @@ public class Driver implements Closeable {
         float threadsPerCpu = 2.0f;
         // 16 MB is the default stack size
         long stackSize = 0x1000000L;
+        boolean workStealing = false;
 
         String mainClass;
         Consumer<ClassContext> classContextListener = Functions.discardingConsumer();
@@ -874,6 +890,24 @@ public class Driver implements Closeable {
             return this;
         }
 
+        public boolean isWorkStealing() {
+            return workStealing;
+        }
+
+        /**
+         * Select the work-stealing scheduler for element queue processing.  When enabled, each compiler thread
+         * keeps its own deque of elements and steals from other threads when its own deque is empty, instead of
+         * all threads contending on a single shared queue.  The number of threads is still governed by
+         * {@link #setThreadsPerCpu(float)}.
+         *
+         * @param workStealing {@code true} to use the work-stealing scheduler, {@code false} to use the shared queue
+         * @return this builder
+         */
+        public Builder setWorkStealing(boolean workStealing) {
+            this.workStealing = workStealing;
+            return this;
+        }
+
         public Builder addNativeMethodConfiguratorFactory(UnaryOperator<NativeMethodConfigurator> factory) {
             Assert.checkNotNullParam("factory", factory);
             nativeMethodConfiguratorFactories.add(factory);
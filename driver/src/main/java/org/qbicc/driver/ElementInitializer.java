@@ -1,21 +1,53 @@
 package org.qbicc.driver;
 
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.Set;
 import java.util.function.Consumer;
 
 import org.qbicc.context.CompilationContext;
+import org.qbicc.graph.BasicBlock;
+import org.qbicc.graph.Executable;
+import org.qbicc.graph.Field;
+import org.qbicc.graph.FunctionElementHandle;
+import org.qbicc.graph.InitCheck;
+import org.qbicc.graph.New;
+import org.qbicc.graph.Node;
+import org.qbicc.graph.OrderedNode;
+import org.qbicc.graph.Terminator;
 import org.qbicc.interpreter.Thrown;
 import org.qbicc.interpreter.Vm;
 import org.qbicc.interpreter.VmClass;
 import org.qbicc.interpreter.VmThrowable;
+import org.qbicc.type.definition.DefinedTypeDefinition;
+import org.qbicc.type.definition.LoadedTypeDefinition;
+import org.qbicc.type.definition.MethodBody;
 import org.qbicc.type.definition.classfile.ClassFile;
 import org.qbicc.type.definition.element.ExecutableElement;
 import org.qbicc.type.definition.element.InitializerElement;
 
 /**
- *
+ * An element handler which runs build-time class initializers.
+ * <p>
+ * Initializers run concurrently on every worker thread, and each class is initialized on its first use. In parallel
+ * mode, an initializer whose graph uses a class which another thread is initializing at that moment is ordered after
+ * it: the initializer waits before it starts rather than in the middle of running, so that its own class is not held
+ * in the initializing state meanwhile. Initializers which do not use such a class start at once. Waiting never starts
+ * the initialization of another class, so the classes which are initialized, and when, do not depend on the mode.
  */
 public class ElementInitializer implements Consumer<ExecutableElement> {
+    private final boolean parallel;
+
     public ElementInitializer() {
+        this(false);
+    }
+
+    public ElementInitializer(boolean parallel) {
+        this.parallel = parallel;
     }
 
     @Override
@@ -23,33 +55,113 @@ public class ElementInitializer implements Consumer<ExecutableElement> {
         if (element instanceof InitializerElement && element.hasNoModifiersOf(ClassFile.I_ACC_RUN_TIME)) {
             if (element.hasMethodBody()) {
                 Vm vm = Vm.requireCurrent();
-                VmClass vmClass = element.getEnclosingType().load().getVmClass();
-                try {
-                    vm.initialize(vmClass);
-                } catch (Thrown thrown) {
-                    VmThrowable throwable = thrown.getThrowable();
-                    String className = throwable.getVmClass().getName();
-                    String message = throwable.getMessage();
-                    CompilationContext ctxt = vm.getCompilationContext();
-                    String warningMessage;
-                    if (message != null) {
-                        warningMessage = String.format("Failed to initialize %s: %s: %s", vmClass.getName(), className, message);
-                    } else {
-                        warningMessage = String.format("Failed to initialize %s: %s", vmClass.getName(), className);
-                    }
-                    VmThrowable cause = throwable.getCause();
-                    while (cause != null) {
-                        message = cause.getMessage();
-                        if (message != null) {
-                            warningMessage += String.format(" caused by %s: %s", cause.getVmClass().getName(), message);
-                        } else {
-                            warningMessage += String.format(" caused by %s", cause.getVmClass().getName());
-                        }
-                        cause = cause.getCause();
+                LoadedTypeDefinition ltd = element.getEnclosingType().load();
+                VmClass vmClass = ltd.getVmClass();
+                if (parallel) {
+                    runInitializer(getDependencies(ltd, element.getMethodBody()), () -> initialize(vm, vmClass));
+                } else {
+                    initialize(vm, vmClass);
+                }
+            }
+        }
+    }
+
+    /**
+     * Run an initializer once each of its dependencies is no longer being initialized by another thread.
+     *
+     * @param dependencies the classes which the initializer uses
+     * @param action the action which runs the initializer
+     */
+    void runInitializer(Collection<VmClass> dependencies, Runnable action) {
+        for (VmClass dependency : dependencies) {
+            dependency.awaitInitializationInProgress();
+        }
+        action.run();
+    }
+
+    private static void initialize(Vm vm, VmClass vmClass) {
+        try {
+            vm.initialize(vmClass);
+        } catch (Thrown thrown) {
+            VmThrowable throwable = thrown.getThrowable();
+            String className = throwable.getVmClass().getName();
+            String message = throwable.getMessage();
+            CompilationContext ctxt = vm.getCompilationContext();
+            String warningMessage;
+            if (message != null) {
+                warningMessage = String.format("Failed to initialize %s: %s: %s", vmClass.getName(), className, message);
+            } else {
+                warningMessage = String.format("Failed to initialize %s: %s", vmClass.getName(), className);
+            }
+            VmThrowable cause = throwable.getCause();
+            while (cause != null) {
+                message = cause.getMessage();
+                if (message != null) {
+                    warningMessage += String.format(" caused by %s: %s", cause.getVmClass().getName(), message);
+                } else {
+                    warningMessage += String.format(" caused by %s", cause.getVmClass().getName());
+                }
+                cause = cause.getCause();
+            }
+            ctxt.warning(warningMessage);
+        }
+    }
+
+    /**
+     * Get the classes which the already-built graph of an initializer uses: the super class, the targets of
+     * its {@code InitCheck} nodes, and the owners of the members it accesses and the classes it instantiates,
+     * which are the uses that trigger build-time initialization. Methods called by the initializer are not examined.
+     */
+    private static Collection<VmClass> getDependencies(LoadedTypeDefinition self, MethodBody body) {
+        Set<LoadedTypeDefinition> dependencies = new LinkedHashSet<>();
+        LoadedTypeDefinition superClass = self.getSuperClass();
+        if (superClass != null) {
+            dependencies.add(superClass);
+        }
+        Set<Node> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+        Set<BasicBlock> visitedBlocks = Collections.newSetFromMap(new IdentityHashMap<>());
+        Deque<Node> nodes = new ArrayDeque<>();
+        nodes.add(body.getEntryBlock().getTerminator());
+        Node node;
+        while ((node = nodes.poll()) != null) {
+            if (! visited.add(node)) {
+                continue;
+            }
+            DefinedTypeDefinition dependency = null;
+            if (node instanceof InitCheck ic) {
+                dependency = ic.getInitializerElement().getEnclosingType();
+            } else if (node instanceof Field f) {
+                dependency = f.getVariableElement().getEnclosingType();
+            } else if (node instanceof Executable e && ! (node instanceof FunctionElementHandle)) {
+                dependency = e.getExecutable().getEnclosingType();
+            } else if (node instanceof New n) {
+                dependency = n.getClassObjectType().getDefinition();
+            }
+            if (dependency != null) {
+                dependencies.add(dependency.load());
+            }
+            if (node.hasValueHandleDependency()) {
+                nodes.add(node.getValueHandle());
+            }
+            if (node instanceof OrderedNode on) {
+                nodes.add(on.getDependency());
+            }
+            int cnt = node.getValueDependencyCount();
+            for (int i = 0; i < cnt; i ++) {
+                nodes.add(node.getValueDependency(i));
+            }
+            if (node instanceof Terminator t) {
+                nodes.addAll(t.getOutboundValues().values());
+                int sc = t.getSuccessorCount();
+                for (int i = 0; i < sc; i ++) {
+                    BasicBlock successor = t.getSuccessor(i);
+                    if (visitedBlocks.add(successor)) {
+                        nodes.add(successor.getTerminator());
                     }
-                    ctxt.warning(warningMessage);
                 }
             }
         }
+        dependencies.remove(self);
+        return dependencies.stream().map(LoadedTypeDefinition::getVmClass).toList();
     }
 }
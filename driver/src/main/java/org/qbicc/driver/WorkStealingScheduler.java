@@ -0,0 +1,168 @@
+package org.qbicc.driver;
+
+import java.util.Deque;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * A scheduler which processes the queued elements of one phase on the compiler threads. Each worker thread keeps its
+ * own deque of elements and steals from the others when it runs dry, instead of every thread contending on a single
+ * shared queue.
+ * <p>
+ * The scheduler counts the elements which were submitted but not yet processed, and the workers return once that
+ * count drops to zero. The count is decremented even if processing an element throws. A throwable which escapes the
+ * element consumer stops every worker, so that a failure can never leave the other workers waiting for work which
+ * will not arrive; the throwable is rethrown from the worker which caught it.
+ *
+ * @param <E> the element type
+ */
+final class WorkStealingScheduler<E> {
+    private final Deque<E>[] deques;
+    private final Supplier<E> external;
+    private final AtomicLong pending = new AtomicLong();
+    private final AtomicInteger nextWorker = new AtomicInteger();
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    private final ThreadLocal<Deque<E>> workerDeque = new ThreadLocal<>();
+    private final LongAdder steals = new LongAdder();
+    private int nextSeed;
+
+    /**
+     * Construct a new instance.
+     *
+     * @param workerCount the number of worker threads which will call {@link #runWorker}
+     * @param external the source of elements which were enqueued by threads other than the workers
+     */
+    @SuppressWarnings("unchecked")
+    WorkStealingScheduler(int workerCount, Supplier<E> external) {
+        deques = new Deque[Math.max(1, workerCount)];
+        for (int i = 0; i < deques.length; i ++) {
+            deques[i] = new ConcurrentLinkedDeque<>();
+        }
+        this.external = external;
+    }
+
+    /**
+     * Add an element before the workers start. The initial elements are distributed round-robin over the workers.
+     *
+     * @param element the element
+     */
+    void seed(E element) {
+        pending.getAndIncrement();
+        deques[nextSeed ++ % deques.length].addLast(element);
+    }
+
+    /**
+     * Submit an element which was enqueued while the workers are running. An element enqueued by a worker is kept in
+     * its own deque unless another worker steals it.
+     *
+     * @param element the element
+     * @return {@code true} if the element was submitted, or {@code false} if the current thread is not a worker, in
+     *      which case the element must be made available through the external source instead
+     */
+    boolean submit(E element) {
+        Deque<E> deque = workerDeque.get();
+        if (deque == null) {
+            return false;
+        }
+        // count it before it becomes visible so that the pending count never drops to zero early
+        pending.getAndIncrement();
+        deque.addLast(element);
+        return true;
+    }
+
+    /**
+     * Process elements on the current thread until every submitted element has been processed, or until a worker
+     * has failed.
+     *
+     * @param consumer the element consumer
+     * @param idleTimer the wrapper which runs (and may time) each idle wait
+     */
+    void runWorker(Consumer<E> consumer, Consumer<Runnable> idleTimer) {
+        int self = nextWorker.getAndIncrement() % deques.length;
+        Deque<E> own = deques[self];
+        workerDeque.set(own);
+        try {
+            int idleCount = 0;
+            while (failure.get() == null) {
+                // newest first from our own deque, to keep the working set warm
+                E element = own.pollLast();
+                if (element == null) {
+                    element = steal(self);
+                    if (element != null) {
+                        steals.increment();
+                    } else {
+                        element = external.get();
+                        if (element != null) {
+                            pending.getAndIncrement();
+                        }
+                    }
+                }
+                if (element == null) {
+                    if (pending.get() == 0) {
+                        // no elements left and nobody is producing more
+                        return;
+                    }
+                    int cnt = idleCount ++;
+                    idleTimer.accept(() -> idleWait(cnt));
+                    continue;
+                }
+                idleCount = 0;
+                try {
+                    consumer.accept(element);
+                } finally {
+                    pending.getAndDecrement();
+                }
+            }
+        } catch (Throwable t) {
+            failure.compareAndSet(null, t);
+            throw t;
+        } finally {
+            workerDeque.remove();
+        }
+    }
+
+    /**
+     * Get the throwable which stopped the workers, if any.
+     *
+     * @return the throwable, or {@code null} if no worker has failed
+     */
+    Throwable getFailure() {
+        return failure.get();
+    }
+
+    /**
+     * Get the number of elements which were taken from the deque of another worker.
+     *
+     * @return the number of steals
+     */
+    long getSteals() {
+        return steals.sum();
+    }
+
+    private E steal(int self) {
+        int cnt = deques.length;
+        for (int i = 1; i < cnt; i ++) {
+            // oldest first from the victim, which tends to be the largest remaining subgraph
+            E element = deques[(self + i) % cnt].pollFirst();
+            if (element != null) {
+                return element;
+            }
+        }
+        return null;
+    }
+
+    private static void idleWait(int idleCount) {
+        if (idleCount < 64) {
+            Thread.onSpinWait();
+        } else {
+            // back off up to about one millisecond
+            LockSupport.parkNanos(1000L << Math.min(10, idleCount - 64));
+        }
+    }
+}
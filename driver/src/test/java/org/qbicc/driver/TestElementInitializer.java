@@ -0,0 +1,119 @@
+package org.qbicc.driver;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.Test;
+import org.qbicc.interpreter.VmClass;
+
+/**
+ * Tests for the scheduling of build-time initializers by {@link ElementInitializer} in parallel mode.
+ */
+public final class TestElementInitializer {
+
+    @Test
+    public void testIndependentInitializersOverlap() throws InterruptedException {
+        final ElementInitializer initializer = new ElementInitializer(true);
+        // each initializer only gets past the barrier if the other one is running at the same time
+        final CyclicBarrier barrier = new CyclicBarrier(2);
+        final AtomicBoolean met = new AtomicBoolean(true);
+        final Runnable action = () -> {
+            try {
+                barrier.await(10, SECONDS);
+            } catch (InterruptedException | BrokenBarrierException | TimeoutException e) {
+                met.set(false);
+            }
+        };
+        final Thread first = new Thread(() -> initializer.runInitializer(List.of(), action));
+        final Thread second = new Thread(() -> initializer.runInitializer(List.of(), action));
+        first.start();
+        second.start();
+        first.join();
+        second.join();
+        assertTrue(met.get());
+    }
+
+    @Test
+    public void testInitializersWithFinishedDependencyOverlap() throws InterruptedException {
+        final ElementInitializer initializer = new ElementInitializer(true);
+        final VmClass dependency = classInitializedBy(new CountDownLatch(0));
+        final CyclicBarrier barrier = new CyclicBarrier(2);
+        final AtomicBoolean met = new AtomicBoolean(true);
+        final Runnable action = () -> {
+            try {
+                barrier.await(10, SECONDS);
+            } catch (InterruptedException | BrokenBarrierException | TimeoutException e) {
+                met.set(false);
+            }
+        };
+        final Thread first = new Thread(() -> initializer.runInitializer(List.of(dependency), action));
+        final Thread second = new Thread(() -> initializer.runInitializer(List.of(dependency), action));
+        first.start();
+        second.start();
+        first.join();
+        second.join();
+        assertTrue(met.get());
+    }
+
+    @Test
+    public void testDependentInitializerWaitsForDependency() throws InterruptedException {
+        final ElementInitializer initializer = new ElementInitializer(true);
+        final CountDownLatch dependencyDone = new CountDownLatch(1);
+        final VmClass dependency = classInitializedBy(dependencyDone);
+        final CountDownLatch dependentDone = new CountDownLatch(1);
+        final CountDownLatch independentDone = new CountDownLatch(1);
+        final Thread dependent = new Thread(() -> initializer.runInitializer(List.of(dependency), dependentDone::countDown));
+        final Thread independent = new Thread(() -> initializer.runInitializer(List.of(), independentDone::countDown));
+        dependent.start();
+        independent.start();
+        // an initializer which does not use the class is not held up by it
+        assertTrue(independentDone.await(10, SECONDS));
+        // the dependent initializer must not start while its dependency is being initialized
+        assertFalse(dependentDone.await(100, MILLISECONDS));
+        dependencyDone.countDown();
+        assertTrue(dependentDone.await(10, SECONDS));
+        dependent.join();
+        independent.join();
+    }
+
+    /**
+     * Create a class which is being initialized by another thread until the given latch is released.
+     */
+    private static VmClass classInitializedBy(CountDownLatch done) {
+        return (VmClass) Proxy.newProxyInstance(VmClass.class.getClassLoader(), new Class<?>[] { VmClass.class }, (proxy, method, args) -> {
+            if (method.getName().equals("awaitInitializationInProgress")) {
+                awaitUninterruptibly(done);
+                return null;
+            }
+            throw new UnsupportedOperationException(method.getName());
+        });
+    }
+
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        boolean intr = false;
+        try {
+            for (;;) {
+                try {
+                    latch.await();
+                    return;
+                } catch (InterruptedException e) {
+                    intr = true;
+                }
+            }
+        } finally {
+            if (intr) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package org.qbicc.driver;
+
+import static java.time.Duration.ofSeconds;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the element scheduling and failure handling of {@link WorkStealingScheduler}.
+ */
+public final class TestWorkStealingScheduler {
+
+    private static final int WORKERS = 4;
+
+    @Test
+    public void testProcessesSubmittedElementsOnce() {
+        final WorkStealingScheduler<Integer> scheduler = new WorkStealingScheduler<>(WORKERS, () -> null);
+        final Set<Integer> processed = ConcurrentHashMap.newKeySet();
+        final List<Integer> duplicates = new CopyOnWriteArrayList<>();
+        scheduler.seed(Integer.valueOf(1));
+        // each element n submits 2n and 2n+1, like a call graph being discovered
+        runWorkers(scheduler, element -> {
+            if (! processed.add(element)) {
+                duplicates.add(element);
+            }
+            int n = element.intValue();
+            if (n < 1024) {
+                assertTrue(scheduler.submit(Integer.valueOf(2 * n)));
+                assertTrue(scheduler.submit(Integer.valueOf(2 * n + 1)));
+            }
+        });
+        assertEquals(2047, processed.size());
+        assertEquals(List.of(), duplicates);
+        assertNull(scheduler.getFailure());
+    }
+
+    @Test
+    public void testProcessesExternalElements() {
+        final Queue<Integer> external = new ConcurrentLinkedQueue<>(List.of(Integer.valueOf(10), Integer.valueOf(11)));
+        final WorkStealingScheduler<Integer> scheduler = new WorkStealingScheduler<>(WORKERS, external::poll);
+        final Set<Integer> processed = ConcurrentHashMap.newKeySet();
+        scheduler.seed(Integer.valueOf(1));
+        runWorkers(scheduler, processed::add);
+        assertEquals(Set.of(Integer.valueOf(1), Integer.valueOf(10), Integer.valueOf(11)), processed);
+    }
+
+    @Test
+    public void testNonWorkerCannotSubmit() {
+        final WorkStealingScheduler<Integer> scheduler = new WorkStealingScheduler<>(WORKERS, () -> null);
+        assertEquals(false, scheduler.submit(Integer.valueOf(1)));
+    }
+
+    @Test
+    public void testFailureStopsAllWorkers() {
+        final WorkStealingScheduler<Integer> scheduler = new WorkStealingScheduler<>(WORKERS, () -> null);
+        final RuntimeException thrown = new RuntimeException("test");
+        for (int i = 0; i < 100; i ++) {
+            scheduler.seed(Integer.valueOf(i));
+        }
+        final List<Throwable> caught = runWorkers(scheduler, element -> {
+            if (element.intValue() == 50) {
+                throw thrown;
+            }
+            if (element.intValue() < 100) {
+                assertTrue(scheduler.submit(Integer.valueOf(element.intValue() + 100)));
+            }
+        });
+        assertSame(thrown, scheduler.getFailure());
+        assertEquals(List.of(thrown), caught);
+    }
+
+    /**
+     * Run the scheduler on {@link #WORKERS} threads and wait for all of them to return.
+     *
+     * @return the throwables which escaped the workers
+     */
+    private static List<Throwable> runWorkers(WorkStealingScheduler<Integer> scheduler, Consumer<Integer> consumer) {
+        final List<Throwable> caught = new CopyOnWriteArrayList<>();
+        final List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < WORKERS; i ++) {
+            threads.add(new Thread(() -> {
+                try {
+                    scheduler.runWorker(consumer, Runnable::run);
+                } catch (Throwable t) {
+                    caught.add(t);
+                }
+            }));
+        }
+        assertTimeoutPreemptively(ofSeconds(30), () -> {
+            for (Thread thread : threads) {
+                thread.start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        });
+        return caught;
+    }
+}
@@ -0,0 +1,63 @@
+import static org.qbicc.runtime.CNative.*;
+
+public class TlabAllocation {
+    @extern
+    public static native int putchar(int arg);
+
+    static class Node {
+        final int value;
+        final Node next;
+        Node(int value, Node next) {
+            this.value = value;
+            this.next = next;
+        }
+    }
+
+    public static void main(String[] args) {
+        /* Pattern is: ^YYY */
+        refill();
+        overflow();
+        interleaved();
+        putchar('\n');
+    }
+
+    /* many small objects need many fresh allocation buffers; objects from different buffers must not overlap */
+    static void refill() {
+        Node head = null;
+        for (int i = 0; i < 200000; i++) {
+            head = new Node(i, head);
+        }
+        long sum = 0;
+        int count = 0;
+        for (Node n = head; n != null; n = n.next) {
+            sum += n.value;
+            count++;
+        }
+        putchar(count == 200000 && sum == 199999L * 200000L / 2 ? 'Y' : 'N');
+    }
+
+    /* objects larger than half of a buffer get a region of their own */
+    static void overflow() {
+        byte[][] large = new byte[8][];
+        for (int i = 0; i < large.length; i++) {
+            large[i] = new byte[1 << 20];
+            large[i][0] = (byte) i;
+            large[i][large[i].length - 1] = (byte) i;
+        }
+        boolean ok = true;
+        for (int i = 0; i < large.length; i++) {
+            ok &= large[i][0] == (byte) i && large[i][large[i].length - 1] == (byte) i;
+        }
+        putchar(ok ? 'Y' : 'N');
+    }
+
+    /* a large allocation keeps the current buffer, so small objects around it stay intact */
+    static void interleaved() {
+        Node before = new Node(1, null);
+        long[] large = new long[1 << 16];
+        Node after = new Node(2, before);
+        large[0] = 3;
+        large[large.length - 1] = 4;
+        putchar(after.value == 2 && after.next == before && before.value == 1 && large[0] + large[large.length - 1] == 7 ? 'Y' : 'N');
+    }
+}
@@ -0,0 +1,88 @@
+import static org.qbicc.runtime.CNative.*;
+
+public class StackTraces {
+    @extern
+    public static native int putchar(int arg);
+
+    public static void main(String[] args) {
+        /* Each trace prints its frames in this class as method:line, and ends with '#' */
+        printTrace(thrown());
+        printTrace(created());
+        printTrace(rethrown());
+        /* the trace is decoded once, so a second request sees the same elements */
+        Throwable t = thrown();
+        StackTraceElement[] first = t.getStackTrace();
+        StackTraceElement[] second = t.getStackTrace();
+        putchar(first.length > 0 && java.util.Arrays.equals(first, second) ? 'P' : 'F');
+        putchar('\n');
+    }
+
+    static Throwable thrown() {
+        try {
+            level1();
+        } catch (IllegalStateException e) {
+            return e;
+        }
+        return null;
+    }
+
+    static void level1() {
+        level2(3);
+    }
+
+    static void level2(int n) {
+        if (n == 0) {
+            throw new IllegalStateException();
+        }
+        level2(n - 1);
+    }
+
+    /* a throwable which is never thrown has the trace of the place where it was created */
+    static Throwable created() {
+        return new Throwable();
+    }
+
+    /* a rethrown exception keeps the trace of the place where it was first thrown */
+    static Throwable rethrown() {
+        try {
+            try {
+                level1();
+            } catch (IllegalStateException e) {
+                throw e;
+            }
+        } catch (IllegalStateException e) {
+            return e;
+        }
+        return null;
+    }
+
+    static void printTrace(Throwable t) {
+        for (StackTraceElement element : t.getStackTrace()) {
+            /* frames beyond the program itself differ between stack walkers */
+            if (element.getClassName().equals("StackTraces")) {
+                printString(element.getMethodName());
+                putchar(':');
+                printInt(element.getLineNumber());
+                putchar(' ');
+            }
+        }
+        putchar('#');
+    }
+
+    static void printString(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            putchar(s.charAt(i));
+        }
+    }
+
+    static void printInt(int n) {
+        if (n < 0) {
+            putchar('-');
+            n = -n;
+        }
+        if (n >= 10) {
+            printInt(n / 10);
+        }
+        putchar('0' + n % 10);
+    }
+}
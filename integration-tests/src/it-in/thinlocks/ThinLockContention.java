@@ -0,0 +1,90 @@
+import static org.qbicc.runtime.CNative.*;
+
+public class ThinLockContention {
+    @extern
+    public static native int putchar(int arg);
+
+    static final Object lock = new Object();
+    static int count;
+    static boolean ready;
+    static int sink;
+
+    public static void main(String[] args) throws InterruptedException {
+        /* Pattern is: ^8#W#100# */
+        contend();
+        putchar('#');
+        waitNotify();
+        putchar('#');
+        printInt(nest(100));
+        putchar('#');
+    }
+
+    /* threads hold the thin lock long enough for the other thread to contend and inflate it */
+    static void contend() throws InterruptedException {
+        Thread t1 = new Thread(ThinLockContention::increment);
+        Thread t2 = new Thread(ThinLockContention::increment);
+        t1.start();
+        t2.start();
+        t1.join();
+        t2.join();
+        printInt(count);
+    }
+
+    static void increment() {
+        for (int i = 0; i < 4; i++) {
+            synchronized (lock) {
+                int c = count;
+                for (int j = 0; j < 1000000; j++) {
+                    sink += j;
+                }
+                count = c + 1;
+            }
+        }
+    }
+
+    /* wait and notify inflate a thin lock which is held by the current thread */
+    static void waitNotify() throws InterruptedException {
+        Object monitor = new Object();
+        Thread t = new Thread(() -> {
+            synchronized (monitor) {
+                ready = true;
+                monitor.notifyAll();
+            }
+        });
+        synchronized (monitor) {
+            t.start();
+            while (! ready) {
+                monitor.wait();
+            }
+        }
+        t.join();
+        putchar('W');
+    }
+
+    /* more recursive acquires than the thin lock can count */
+    static int nest(int depth) {
+        synchronized (lock) {
+            return depth == 1 ? 1 : nest(depth - 1) + 1;
+        }
+    }
+
+    static void printInt(int n) {
+        char[] numbers = new char[] {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9'};
+        boolean seenNonZero = false;
+        int divsor = 1000000000;
+        do {
+            int i = n / divsor;
+            if (!seenNonZero && i == 0) {
+                // skip
+            } else {
+                seenNonZero = true;
+                putchar(numbers[i]);
+            }
+            n %= divsor;
+            divsor /= 10;
+        } while (divsor != 0);
+        if (!seenNonZero) {
+            putchar(numbers[0]);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package org.qbicc.tests.integration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.function.Consumer;
+import java.util.logging.Handler;
+import java.util.regex.Pattern;
+
+import org.jboss.logging.Logger;
+import org.jboss.logmanager.formatters.PatternFormatter;
+import org.jboss.logmanager.handlers.ConsoleHandler;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.qbicc.context.DiagnosticContext;
+import org.qbicc.main.Main;
+import org.qbicc.tests.integration.utils.FileUtils;
+import org.qbicc.tests.integration.utils.Javac;
+import org.qbicc.tests.integration.utils.NativeExecutable;
+import org.qbicc.tests.integration.utils.Qbicc;
+import org.qbicc.tests.integration.utils.TestConstants;
+
+/**
+ * A program which prints the stack traces of thrown, created, and rethrown exceptions, built with eagerly decoded
+ * stack traces, with lazily decoded stack traces, and with the frame pointer stack walker. A lazily decoded trace
+ * must print exactly the same frames as the eager trace.
+ */
+@Tag("lazy-stack-traces")
+public class LazyStackTracesTest {
+
+    private static final Logger LOGGER = Logger.getLogger(LazyStackTracesTest.class.getName());
+
+    private static final String PROGRAM = "StackTraces";
+
+    @BeforeAll
+    static void setUpHandler() {
+        org.jboss.logmanager.Logger rootLogger = org.jboss.logmanager.Logger.getLogger("");
+        ConsoleHandler consoleHandler = new ConsoleHandler(ConsoleHandler.Target.SYSTEM_OUT, new PatternFormatter("[%1.1p] (%c) %X{phase}: %m%n"));
+        rootLogger.setHandlers(
+            new Handler[]{
+                consoleHandler
+            }
+        );
+    }
+
+    @Test
+    void lazyTraceEqualsEagerTrace() throws IOException {
+        Path source = Path.of(TestConstants.BASE_DIR, "integration-tests", "src", "it-in", "stacktraces", PROGRAM + ".java");
+        Pattern outputPattern = Pattern.compile(Files.readString(source.resolveSibling(PROGRAM + ".pattern")));
+
+        String eager = compileAndRun(source, "eager", builder -> {});
+        assertTrue(outputPattern.matcher(eager).matches(),
+            "Standard output should have matched the pattern:\n[" +
+                outputPattern.pattern() +
+                "] but output was:\n["+ eager + "]");
+
+        assertEquals(eager, compileAndRun(source, "lazy", builder -> builder.setLazyStackTraces(true)),
+            "Lazily decoded stack traces should equal the eager stack traces");
+        assertEquals(eager, compileAndRun(source, "frame-pointer", builder -> builder.setFramePointerStackWalk(true)),
+            "Stack traces captured through frame pointers should equal the eager stack traces");
+    }
+
+    private static String compileAndRun(Path source, String variant, Consumer<Main.Builder> options) throws IOException {
+        Path targetPath = Path.of(".").resolve("target");
+        Path baseOutputPath = targetPath.resolve("it/stacktraces").resolve(variant);
+        try {
+            Path classOutputPath = baseOutputPath.resolve("classes");
+            Path nativeOutputPath = baseOutputPath.resolve("native");
+            Path outputExecutable = nativeOutputPath.resolve("a.out");
+
+            boolean compilationResult = Javac.compile(classOutputPath, source, LOGGER);
+
+            assertTrue(compilationResult, "Compilation should succeed.");
+
+            DiagnosticContext diagnosticContext = Qbicc.build(classOutputPath, nativeOutputPath, PROGRAM, LOGGER, options);
+
+            assertEquals(0, diagnosticContext.errors(), "Native image creation should generate no errors.");
+
+            StringBuilder stdOut = new StringBuilder();
+            StringBuilder stdErr = new StringBuilder();
+            NativeExecutable.run(PROGRAM, outputExecutable, stdOut, stdErr, LOGGER);
+
+            assertTrue(stdErr.toString().isBlank(), "Native image execution should produce no error. " + stdErr);
+            return stdOut.toString();
+        } finally {
+            if (FileUtils.cleanTarget) {
+                FileUtils.deleteRecursively(baseOutputPath);
+            }
+        }
+    }
+}
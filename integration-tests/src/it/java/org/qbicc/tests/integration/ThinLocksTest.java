@@ -0,0 +1,85 @@
+package org.qbicc.tests.integration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.logging.Handler;
+import java.util.regex.Pattern;
+
+import org.jboss.logging.Logger;
+import org.jboss.logmanager.formatters.PatternFormatter;
+import org.jboss.logmanager.handlers.ConsoleHandler;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.qbicc.context.DiagnosticContext;
+import org.qbicc.tests.integration.utils.FileUtils;
+import org.qbicc.tests.integration.utils.Javac;
+import org.qbicc.tests.integration.utils.NativeExecutable;
+import org.qbicc.tests.integration.utils.Qbicc;
+import org.qbicc.tests.integration.utils.TestConstants;
+
+/**
+ * Programs which exercise object monitors, built with thin locks. They cover contended acquisition (which inflates
+ * the lock through the contention bit), {@code wait} and {@code notify} (which inflate a lock held by the current
+ * thread), and recursion beyond what the thin lock can count.
+ */
+@Tag("thin-locks")
+public class ThinLocksTest {
+
+    private static final Logger LOGGER = Logger.getLogger(ThinLocksTest.class.getName());
+
+    @BeforeAll
+    static void setUpHandler() {
+        org.jboss.logmanager.Logger rootLogger = org.jboss.logmanager.Logger.getLogger("");
+        ConsoleHandler consoleHandler = new ConsoleHandler(ConsoleHandler.Target.SYSTEM_OUT, new PatternFormatter("[%1.1p] (%c) %X{phase}: %m%n"));
+        rootLogger.setHandlers(
+            new Handler[]{
+                consoleHandler
+            }
+        );
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = { "snippets/Synchronized.java", "thinlocks/ThinLockContention.java" })
+    void compileAndRunWithThinLocks(final String program) throws IOException {
+        Path source = Path.of(TestConstants.BASE_DIR, "integration-tests", "src", "it-in").resolve(program);
+        String programName = source.getFileName().toString().replace(".java", "");
+        Pattern outputPattern = Pattern.compile(Files.readString(source.resolveSibling(programName + ".pattern")));
+
+        Path targetPath = Path.of(".").resolve("target");
+        Path baseOutputPath = targetPath.resolve("it/thinlocks").resolve(programName);
+        try {
+            Path classOutputPath = baseOutputPath.resolve("classes");
+            Path nativeOutputPath = baseOutputPath.resolve("native");
+            Path outputExecutable = nativeOutputPath.resolve("a.out");
+
+            boolean compilationResult = Javac.compile(classOutputPath, source, LOGGER);
+
+            assertTrue(compilationResult, "Compilation should succeed.");
+
+            DiagnosticContext diagnosticContext = Qbicc.build(classOutputPath, nativeOutputPath, programName, LOGGER, builder -> builder.setThinLocks(true));
+
+            assertEquals(0, diagnosticContext.errors(), "Native image creation should generate no errors.");
+
+            StringBuilder stdOut = new StringBuilder();
+            StringBuilder stdErr = new StringBuilder();
+            NativeExecutable.run(programName, outputExecutable, stdOut, stdErr, LOGGER);
+
+            assertTrue(stdErr.toString().isBlank(), "Native image execution should produce no error. " + stdErr);
+
+            assertTrue(outputPattern.matcher(stdOut.toString()).matches(),
+                "Standard output should have matched the pattern:\n[" +
+                    outputPattern.pattern() +
+                    "] but output was:\n["+ stdOut + "]");
+        } finally {
+            if (FileUtils.cleanTarget) {
+                FileUtils.deleteRecursively(baseOutputPath);
+            }
+        }
+    }
+}
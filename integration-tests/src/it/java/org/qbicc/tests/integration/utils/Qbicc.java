@@ -1,6 +1,7 @@
 package org.qbicc.tests.integration.utils;
 
 import java.nio.file.Path;
+import java.util.function.Consumer;
 
 import org.jboss.logging.Logger;
 import org.qbicc.context.DiagnosticContext;
@@ -10,12 +11,16 @@ import org.qbicc.main.Main;
 
 public class Qbicc {
     public static DiagnosticContext build(Path outputPath, Path nativeOutputPath, String mainClass, Logger logger) {
-        return Main.builder().appendBootPath(ClassPathEntry.of(outputPath))
+        return build(outputPath, nativeOutputPath, mainClass, logger, builder -> {});
+    }
+
+    public static DiagnosticContext build(Path outputPath, Path nativeOutputPath, String mainClass, Logger logger, Consumer<Main.Builder> options) {
+        Main.Builder builder = Main.builder().appendBootPath(ClassPathEntry.of(outputPath))
             .setOutputPath(nativeOutputPath)
             .setDiagnosticsHandler(new QbiccDiagnosticLogger(logger))
             .setGraphGenConfig(new GraphGenConfig())
-            .setMainClass(mainClass)
-            .build()
-            .call();
+            .setMainClass(mainClass);
+        options.accept(builder);
+        return builder.build().call();
     }
 }
@@ -4,10 +4,8 @@ import static org.qbicc.graph.atomic.AccessModes.*;
 
 import java.lang.invoke.VarHandle;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.locks.Lock;
 
@@ -187,7 +185,17 @@ import org.qbicc.type.definition.element.MethodElement;
 import org.qbicc.type.descriptor.MethodDescriptor;
 
 final strictfp class Frame implements ActionVisitor<VmThreadImpl, Void>, ValueVisitor<VmThreadImpl, Object>, TerminatorVisitor<VmThreadImpl, BasicBlock> {
-    private static final Object MISSING = new Object();
+    // the kinds of value held in a frame slot
+
+    private static final byte KIND_UNSET = 0;
+    private static final byte KIND_REF = 1;
+    private static final byte KIND_BOOL = 2;
+    private static final byte KIND_BYTE = 3;
+    private static final byte KIND_SHORT = 4;
+    private static final byte KIND_INT = 5;
+    private static final byte KIND_LONG = 6;
+    private static final byte KIND_FLOAT = 7;
+    private static final byte KIND_DOUBLE = 8;
 
     /**
      * The calling frame.
@@ -210,9 +218,25 @@ final strictfp class Frame implements ActionVisitor<VmThreadImpl, Void>, ValueVi
     final Memory memory;
 
     /**
-     * Frame values.
+     * The kind of value held in each slot; {@link #KIND_UNSET} indicates that the value was not yet computed.
      */
-    final Map<Value, Object> values = new HashMap<>();
+    private final byte[] kinds;
+
+    /**
+     * Reference values, indexed by slot number.
+     */
+    private final Object[] refs;
+
+    /**
+     * Primitive values, indexed by slot number. Integers are sign-extended and floating point values are kept as raw
+     * bits, so primitive results are never boxed in the frame.
+     */
+    private final long[] prims;
+
+    /**
+     * The pre-resolved operands of the current instruction, which hold the slot of every value it uses.
+     */
+    Operands operands = Operands.NONE;
 
     /**
      * Current block.
@@ -234,11 +258,22 @@ final strictfp class Frame implements ActionVisitor<VmThreadImpl, Void>, ValueVi
      */
     Set<Lock> heldLocks;
 
-    Frame(Frame enclosing, ExecutableElement element, Memory memory) {
+    Frame(Frame enclosing, ExecutableElement element, Memory memory, int slotCount) {
         this.enclosing = enclosing;
         this.depth = enclosing == null ? 0 : enclosing.depth + 1;
         this.element = element;
         this.memory = memory;
+        kinds = new byte[slotCount];
+        refs = new Object[slotCount];
+        prims = new long[slotCount];
+    }
+
+    /**
+     * The values used by an instruction, along with their frame slots (or -1 for values without a slot), resolved
+     * once when the method body is scheduled so that the frame does not have to look each one up by identity.
+     */
+    record Operands(Value[] values, int[] slots) {
+        static final Operands NONE = new Operands(new Value[0], new int[0]);
     }
 
     /////////////////////
@@ -546,15 +581,7 @@ final strictfp class Frame implements ActionVisitor<VmThreadImpl, Void>, ValueVi
         Value right = node.getRightInput();
         ValueType inputType = left.getType();
         if (isUnsigned(inputType)) {
-            if (isInt8(inputType)) {
-                return Integer.valueOf(Byte.compareUnsigned((byte) unboxInt(left), (byte) unboxInt(right)));
-            } else if (isInt16(inputType)) {
-                return Integer.valueOf(Short.compareUnsigned((short) unboxInt(left), (short) unboxInt(right)));
-            } else if (isInt32(inputType)) {
-                return Integer.valueOf(Integer.compareUnsigned(unboxInt(left), unboxInt(right)));
-            } else if (isInt64(inputType)) {
-                return Integer.valueOf(Long.compareUnsigned(unboxLong(left), unboxLong(right)));
-            }
+            return Integer.valueOf(compareUnsigned(left, right, inputType));
         } else if (isSigned(inputType)) {
             if (isInt8(inputType)) {
                 return Integer.valueOf(Byte.compare((byte) unboxInt(left), (byte) unboxInt(right)));
@@ -589,6 +616,19 @@ final strictfp class Frame implements ActionVisitor<VmThreadImpl, Void>, ValueVi
         throw new IllegalStateException("Invalid cmp");
     }
 
+    private int compareUnsigned(final Value left, final Value right, final ValueType inputType) {
+        if (isInt8(inputType)) {
+            return Byte.compareUnsigned((byte) unboxInt(left), (byte) unboxInt(right));
+        } else if (isInt16(inputType)) {
+            return Short.compareUnsigned((short) unboxInt(left), (short) unboxInt(right));
+        } else if (isInt32(inputType)) {
+            return Integer.compareUnsigned(unboxInt(left), unboxInt(right));
+        } else if (isInt64(inputType)) {
+            return Long.compareUnsigned(unboxLong(left), unboxLong(right));
+        }
+        throw new IllegalStateException("Invalid unsigned comparison");
+    }
+
     @Override
     public Object visit(VmThreadImpl thread, CmpG node) {
         assertSameTypes(node);
@@ -966,7 +1006,9 @@ final strictfp class Frame implements ActionVisitor<VmThreadImpl, Void>, ValueVi
         Value left = node.getLeftInput();
         Value right = node.getRightInput();
         ValueType inputType = left.getType();
-        if (isFloat32(inputType)) {
+        if (isUnsigned(inputType)) {
+            return Boolean.valueOf(compareUnsigned(left, right, inputType) >= 0);
+        } else if (isFloat32(inputType)) {
             return Boolean.valueOf(unboxFloat(left) >= unboxFloat(right));
         } else if (isFloat64(inputType)) {
             return Boolean.valueOf(unboxDouble(left) >= unboxDouble(right));
@@ -984,7 +1026,9 @@ final strictfp class Frame implements ActionVisitor<VmThreadImpl, Void>, ValueVi
         Value left = node.getLeftInput();
         Value right = node.getRightInput();
         ValueType inputType = left.getType();
-        if (isFloat32(inputType)) {
+        if (isUnsigned(inputType)) {
+            return Boolean.valueOf(compareUnsigned(left, right, inputType) > 0);
+        } else if (isFloat32(inputType)) {
             return Boolean.valueOf(unboxFloat(left) > unboxFloat(right));
         } else if (isFloat64(inputType)) {
             return Boolean.valueOf(unboxDouble(left) > unboxDouble(right));
@@ -1002,7 +1046,9 @@ final strictfp class Frame implements ActionVisitor<VmThreadImpl, Void>, ValueVi
         Value left = node.getLeftInput();
         Value right = node.getRightInput();
         ValueType inputType = left.getType();
-        if (isFloat32(inputType)) {
+        if (isUnsigned(inputType)) {
+            return Boolean.valueOf(compareUnsigned(left, right, inputType) <= 0);
+        } else if (isFloat32(inputType)) {
             return Boolean.valueOf(unboxFloat(left) <= unboxFloat(right));
         } else if (isFloat64(inputType)) {
             return Boolean.valueOf(unboxDouble(left) <= unboxDouble(right));
@@ -1020,7 +1066,9 @@ final strictfp class Frame implements ActionVisitor<VmThreadImpl, Void>, ValueVi
         Value left = node.getLeftInput();
         Value right = node.getRightInput();
         ValueType inputType = left.getType();
-        if (isFloat32(inputType)) {
+        if (isUnsigned(inputType)) {
+            return Boolean.valueOf(compareUnsigned(left, right, inputType) < 0);
+        } else if (isFloat32(inputType)) {
             return Boolean.valueOf(unboxFloat(left) < unboxFloat(right));
         } else if (isFloat64(inputType)) {
             return Boolean.valueOf(unboxDouble(left) < unboxDouble(right));
@@ -1434,11 +1482,7 @@ final strictfp class Frame implements ActionVisitor<VmThreadImpl, Void>, ValueVi
     ///////////////////////////
 
     private Object call(VmThreadImpl thread, ValueHandle handle, List<Object> arguments) {
-        if (depth == 4096) {
-            // todo: configure
-            VmThrowableClassImpl soeClass = (VmThrowableClassImpl) thread.vm.getBootstrapClassLoader().loadClass("java/lang/StackOverflowError");
-            throw new Thrown(soeClass.newInstance());
-        }
+        checkDepth(thread);
         ExecutableElement element = handle.accept(GET_EXECUTABLE_ELEMENT, this);
         VmObject receiver = handle.accept(GET_RECEIVER, this);
         DefinedTypeDefinition def = element.getEnclosingType();
@@ -1449,6 +1493,14 @@ final strictfp class Frame implements ActionVisitor<VmThreadImpl, Void>, ValueVi
         return invokable.invokeAny(thread, receiver, arguments);
     }
 
+    void checkDepth(VmThreadImpl thread) {
+        if (depth == 4096) {
+            // todo: configure
+            VmThrowableClassImpl soeClass = (VmThrowableClassImpl) thread.vm.getBootstrapClassLoader().loadClass("java/lang/StackOverflowError");
+            throw new Thrown(soeClass.newInstance());
+        }
+    }
+
     // Invocation
 
     @Override
@@ -1470,7 +1522,7 @@ final strictfp class Frame implements ActionVisitor<VmThreadImpl, Void>, ValueVi
     @Override
     public BasicBlock visit(VmThreadImpl thread, Invoke node) {
         try {
-            values.put(node.getReturnValue(), call(thread, node.getValueHandle(), require(node.getArguments())));
+            put(node.getReturnValue(), call(thread, node.getValueHandle(), require(node.getArguments())));
             return node.getResumeTarget();
         } catch (Thrown t) {
             thread.setThrown(t.getThrowable());
@@ -1890,8 +1942,19 @@ final strictfp class Frame implements ActionVisitor<VmThreadImpl, Void>, ValueVi
         }
         Memory memory = getMemory(valueHandle);
         long offset = getOffset(valueHandle);
-        ValueType type = valueHandle.getValueType();
-        ReadAccessMode mode = node.getAccessMode();
+        return load(memory, offset, valueHandle.getValueType(), node.getAccessMode());
+    }
+
+    /**
+     * Load a value from the interpreter memory.
+     *
+     * @param memory the memory to load from
+     * @param offset the offset of the value
+     * @param type the type of the value (must not be {@code null})
+     * @param mode the atomicity mode (must not be {@code null})
+     * @return the loaded value
+     */
+    Object load(final Memory memory, final long offset, final ValueType type, final ReadAccessMode mode) {
         if (isInt8(type)) {
             return Byte.valueOf((byte) memory.load8(offset, mode));
         } else if (isInt16(type)) {
@@ -2711,14 +2774,183 @@ final strictfp class Frame implements ActionVisitor<VmThreadImpl, Void>, ValueVi
         throw unsupportedType();
     }
 
+    /**
+     * Evaluate a value into the given slot. The common operations which produce an {@code int}, {@code long} or
+     * {@code boolean} are computed from their unboxed operands and stored without boxing; any other value is evaluated
+     * by the visitor.
+     *
+     * @param slot the slot of the value
+     * @param value the value to evaluate
+     * @param thread the current thread
+     */
+    void eval(int slot, Value value, VmThreadImpl thread) {
+        if (value instanceof BinaryValue node) {
+            ValueType type = node.getType();
+            if (isInt32(type) && isIntOp(node)) {
+                putInt(slot, evalInt(node));
+                return;
+            } else if (isInt64(type) && isIntOp(node) && isPrimitive(node.getLeftInput()) && isPrimitive(node.getRightInput())) {
+                // a reference operand means pointer arithmetic, which only the visitor knows about
+                putLong(slot, evalLong(node));
+                return;
+            } else if (isBool(type) && isBoolOp(node)) {
+                putBool(slot, evalBool(node));
+                return;
+            }
+        }
+        put(slot, value.accept(this, thread));
+    }
+
+    private static boolean isIntOp(BinaryValue node) {
+        return node instanceof Add || node instanceof Sub || node instanceof Multiply || node instanceof And
+            || node instanceof Or || node instanceof Xor || node instanceof Shl || node instanceof Shr;
+    }
+
+    private boolean isBoolOp(BinaryValue node) {
+        ValueType inputType = node.getLeftInput().getType();
+        if (node instanceof And || node instanceof Or || node instanceof Xor) {
+            return isBool(inputType);
+        } else if (node instanceof IsEq || node instanceof IsNe || node instanceof IsLt || node instanceof IsLe
+            || node instanceof IsGt || node instanceof IsGe) {
+            return isSigned(inputType) && (isInt32(inputType) || isInt64(inputType) && isPrimitive(node.getLeftInput()) && isPrimitive(node.getRightInput()));
+        }
+        return false;
+    }
+
+    /**
+     * Determine whether the given value is held as a primitive, rather than as a reference or pointer.
+     */
+    private boolean isPrimitive(Value value) {
+        if (value instanceof Literal) {
+            return value instanceof IntegerLiteral || value instanceof BooleanLiteral;
+        }
+        byte kind = kinds[requireSlot(value)];
+        return kind != KIND_REF;
+    }
+
+    /**
+     * Evaluate a 32-bit integer operation without boxing.
+     *
+     * @param node the operation, which must be accepted by {@link #isIntOp}
+     * @return the result
+     */
+    int evalInt(BinaryValue node) {
+        Value left = node.getLeftInput();
+        Value right = node.getRightInput();
+        if (node instanceof Add) {
+            return unboxInt(left) + unboxInt(right);
+        } else if (node instanceof Sub) {
+            return unboxInt(left) - unboxInt(right);
+        } else if (node instanceof Multiply) {
+            return unboxInt(left) * unboxInt(right);
+        } else if (node instanceof And) {
+            return unboxInt(left) & unboxInt(right);
+        } else if (node instanceof Or) {
+            return unboxInt(left) | unboxInt(right);
+        } else if (node instanceof Xor) {
+            return unboxInt(left) ^ unboxInt(right);
+        } else if (node instanceof Shl) {
+            return unboxInt(left) << unboxInt(right);
+        } else if (node instanceof Shr) {
+            return isSigned(left.getType()) ? unboxInt(left) >> unboxInt(right) : unboxInt(left) >>> unboxInt(right);
+        }
+        throw badInputType();
+    }
+
+    /**
+     * Evaluate a 64-bit integer operation without boxing.
+     *
+     * @param node the operation, which must be accepted by {@link #isIntOp}
+     * @return the result
+     */
+    long evalLong(BinaryValue node) {
+        Value left = node.getLeftInput();
+        Value right = node.getRightInput();
+        if (node instanceof Add) {
+            return unboxLong(left) + unboxLong(right);
+        } else if (node instanceof Sub) {
+            return unboxLong(left) - unboxLong(right);
+        } else if (node instanceof Multiply) {
+            return unboxLong(left) * unboxLong(right);
+        } else if (node instanceof And) {
+            return unboxLong(left) & unboxLong(right);
+        } else if (node instanceof Or) {
+            return unboxLong(left) | unboxLong(right);
+        } else if (node instanceof Xor) {
+            return unboxLong(left) ^ unboxLong(right);
+        } else if (node instanceof Shl) {
+            return unboxLong(left) << unboxLong(right);
+        } else if (node instanceof Shr) {
+            return isSigned(left.getType()) ? unboxLong(left) >> unboxLong(right) : unboxLong(left) >>> unboxLong(right);
+        }
+        throw badInputType();
+    }
+
+    /**
+     * Evaluate a boolean operation or a signed integer comparison without boxing.
+     *
+     * @param node the operation, which must be accepted by {@link #isBoolOp}
+     * @return the result
+     */
+    boolean evalBool(BinaryValue node) {
+        Value left = node.getLeftInput();
+        Value right = node.getRightInput();
+        if (node instanceof And) {
+            return unboxBool(left) & unboxBool(right);
+        } else if (node instanceof Or) {
+            return unboxBool(left) | unboxBool(right);
+        } else if (node instanceof Xor) {
+            return unboxBool(left) ^ unboxBool(right);
+        } else if (isInt64(left.getType())) {
+            long l = unboxLong(left);
+            long r = unboxLong(right);
+            if (node instanceof IsEq) {
+                return l == r;
+            } else if (node instanceof IsNe) {
+                return l != r;
+            } else if (node instanceof IsLt) {
+                return l < r;
+            } else if (node instanceof IsLe) {
+                return l <= r;
+            } else if (node instanceof IsGt) {
+                return l > r;
+            } else if (node instanceof IsGe) {
+                return l >= r;
+            }
+        } else {
+            int l = unboxInt(left);
+            int r = unboxInt(right);
+            if (node instanceof IsEq) {
+                return l == r;
+            } else if (node instanceof IsNe) {
+                return l != r;
+            } else if (node instanceof IsLt) {
+                return l < r;
+            } else if (node instanceof IsLe) {
+                return l <= r;
+            } else if (node instanceof IsGt) {
+                return l > r;
+            } else if (node instanceof IsGe) {
+                return l >= r;
+            }
+        }
+        throw badInputType();
+    }
+
     private boolean unboxBool(final Value rightInput) {
-        Object required = require(rightInput);
-        return required instanceof Number ? ((Number) required).byteValue() != 0 : ((Boolean)required).booleanValue();
+        if (rightInput instanceof Literal) {
+            Object required = require(rightInput);
+            return required instanceof Number ? ((Number) required).byteValue() != 0 : ((Boolean)required).booleanValue();
+        }
+        return getBool(requireSlot(rightInput));
     }
 
     private int unboxInt(final Value rightInput) {
-        Object required = require(rightInput);
-        return required instanceof Boolean boo ? boo.booleanValue() ? 1 : 0 : ((Number) required).intValue();
+        if (rightInput instanceof Literal) {
+            Object required = require(rightInput);
+            return required instanceof Boolean boo ? boo.booleanValue() ? 1 : 0 : ((Number) required).intValue();
+        }
+        return getInt(requireSlot(rightInput));
     }
 
     private Pointer unboxPointer(final Value rightInput) {
@@ -2726,7 +2958,29 @@ final strictfp class Frame implements ActionVisitor<VmThreadImpl, Void>, ValueVi
     }
 
     private long unboxLong(final Value rightInput) {
-        Object raw = require(rightInput);
+        if (rightInput instanceof Literal) {
+            return toLong(require(rightInput));
+        }
+        return getLong(requireSlot(rightInput));
+    }
+
+    private float unboxFloat(final Value rightInput) {
+        if (rightInput instanceof Literal) {
+            Number obj = (Number) require(rightInput);
+            return obj.floatValue();
+        }
+        return getFloat(requireSlot(rightInput));
+    }
+
+    private double unboxDouble(final Value rightInput) {
+        if (rightInput instanceof Literal) {
+            Number obj = (Number) require(rightInput);
+            return obj.doubleValue();
+        }
+        return getDouble(requireSlot(rightInput));
+    }
+
+    private static long toLong(Object raw) {
         if (raw instanceof Number num) {
             return num.longValue();
         } else if (raw instanceof IntegerAsPointer iap) {
@@ -2738,16 +2992,6 @@ final strictfp class Frame implements ActionVisitor<VmThreadImpl, Void>, ValueVi
         }
     }
 
-    private float unboxFloat(final Value rightInput) {
-        Number obj = (Number) require(rightInput);
-        return obj.floatValue();
-    }
-
-    private double unboxDouble(final Value rightInput) {
-        Number obj = (Number) require(rightInput);
-        return obj.doubleValue();
-    }
-
     private List<Object> require(List<? extends Value> values) {
         List<Object> output = new ArrayList<>(values.size());
         for (Value value : values) {
@@ -2760,11 +3004,166 @@ final strictfp class Frame implements ActionVisitor<VmThreadImpl, Void>, ValueVi
         if (value instanceof Literal) {
             return value.accept(this, null);
         }
-        Object v = values.getOrDefault(value, MISSING);
-        if (v == MISSING) {
+        return get(requireSlot(value));
+    }
+
+    /**
+     * Get the slot of a value from the operands of the current instruction. Every value which an instruction uses is
+     * one of its operands, and an instruction has only a few operands, so this never falls back to a map lookup.
+     *
+     * @param value the value (must not be a literal)
+     * @return the slot number, or -1 if the value is not an operand of the current instruction or has no slot
+     */
+    int slotOf(Value value) {
+        Operands operands = this.operands;
+        Value[] values = operands.values();
+        for (int i = 0; i < values.length; i ++) {
+            if (values[i] == value) {
+                return operands.slots()[i];
+            }
+        }
+        return -1;
+    }
+
+    private int requireSlot(Value value) {
+        int slot = slotOf(value);
+        if (slot == -1 || kinds[slot] == KIND_UNSET) {
             throw new IllegalStateException("Missing required value");
         }
-        return v;
+        return slot;
+    }
+
+    private void checkSet(int slot) {
+        if (kinds[slot] == KIND_UNSET) {
+            throw new IllegalStateException("Missing required value");
+        }
+    }
+
+    Object get(int slot) {
+        long prim = prims[slot];
+        return switch (kinds[slot]) {
+            case KIND_REF -> refs[slot];
+            case KIND_BOOL -> Boolean.valueOf(prim != 0);
+            case KIND_BYTE -> Byte.valueOf((byte) prim);
+            case KIND_SHORT -> Short.valueOf((short) prim);
+            case KIND_INT -> Integer.valueOf((int) prim);
+            case KIND_LONG -> Long.valueOf(prim);
+            case KIND_FLOAT -> Float.valueOf(Float.intBitsToFloat((int) prim));
+            case KIND_DOUBLE -> Double.valueOf(Double.longBitsToDouble(prim));
+            default -> throw new IllegalStateException("Missing required value");
+        };
+    }
+
+    // The typed getters apply the same conversions as unboxing the value which the slot holds.
+
+    int getInt(int slot) {
+        return switch (kinds[slot]) {
+            case KIND_BOOL, KIND_BYTE, KIND_SHORT, KIND_INT, KIND_LONG -> (int) prims[slot];
+            case KIND_FLOAT -> (int) Float.intBitsToFloat((int) prims[slot]);
+            case KIND_DOUBLE -> (int) Double.longBitsToDouble(prims[slot]);
+            default -> {
+                Object required = get(slot);
+                yield required instanceof Boolean boo ? boo.booleanValue() ? 1 : 0 : ((Number) required).intValue();
+            }
+        };
+    }
+
+    long getLong(int slot) {
+        return switch (kinds[slot]) {
+            case KIND_BOOL, KIND_BYTE, KIND_SHORT, KIND_INT, KIND_LONG -> prims[slot];
+            case KIND_FLOAT -> (long) Float.intBitsToFloat((int) prims[slot]);
+            case KIND_DOUBLE -> (long) Double.longBitsToDouble(prims[slot]);
+            default -> toLong(get(slot));
+        };
+    }
+
+    boolean getBool(int slot) {
+        return switch (kinds[slot]) {
+            case KIND_BOOL, KIND_BYTE, KIND_SHORT, KIND_INT, KIND_LONG -> (byte) prims[slot] != 0;
+            case KIND_FLOAT -> (byte) Float.intBitsToFloat((int) prims[slot]) != 0;
+            case KIND_DOUBLE -> (byte) Double.longBitsToDouble(prims[slot]) != 0;
+            default -> {
+                Object required = get(slot);
+                yield required instanceof Number ? ((Number) required).byteValue() != 0 : ((Boolean)required).booleanValue();
+            }
+        };
+    }
+
+    float getFloat(int slot) {
+        return switch (kinds[slot]) {
+            case KIND_BYTE, KIND_SHORT, KIND_INT, KIND_LONG -> (float) prims[slot];
+            case KIND_FLOAT -> Float.intBitsToFloat((int) prims[slot]);
+            case KIND_DOUBLE -> (float) Double.longBitsToDouble(prims[slot]);
+            default -> ((Number) get(slot)).floatValue();
+        };
+    }
+
+    double getDouble(int slot) {
+        return switch (kinds[slot]) {
+            case KIND_BYTE, KIND_SHORT, KIND_INT, KIND_LONG -> (double) prims[slot];
+            case KIND_FLOAT -> (double) Float.intBitsToFloat((int) prims[slot]);
+            case KIND_DOUBLE -> Double.longBitsToDouble(prims[slot]);
+            default -> ((Number) get(slot)).doubleValue();
+        };
+    }
+
+    void put(Value value, Object realValue) {
+        int slot = slotOf(value);
+        if (slot != -1) {
+            // otherwise, the value is never used
+            put(slot, realValue);
+        }
+    }
+
+    void put(int slot, Object realValue) {
+        if (realValue instanceof Integer val) {
+            putPrim(slot, KIND_INT, val.intValue());
+        } else if (realValue instanceof Boolean val) {
+            putPrim(slot, KIND_BOOL, val.booleanValue() ? 1 : 0);
+        } else if (realValue instanceof Long val) {
+            putPrim(slot, KIND_LONG, val.longValue());
+        } else if (realValue instanceof Byte val) {
+            putPrim(slot, KIND_BYTE, val.byteValue());
+        } else if (realValue instanceof Short val) {
+            putPrim(slot, KIND_SHORT, val.shortValue());
+        } else if (realValue instanceof Float val) {
+            putPrim(slot, KIND_FLOAT, Float.floatToRawIntBits(val.floatValue()));
+        } else if (realValue instanceof Double val) {
+            putPrim(slot, KIND_DOUBLE, Double.doubleToRawLongBits(val.doubleValue()));
+        } else {
+            refs[slot] = realValue;
+            kinds[slot] = KIND_REF;
+        }
+    }
+
+    void putInt(int slot, int value) {
+        putPrim(slot, KIND_INT, value);
+    }
+
+    void putLong(int slot, long value) {
+        putPrim(slot, KIND_LONG, value);
+    }
+
+    void putBool(int slot, boolean value) {
+        putPrim(slot, KIND_BOOL, value ? 1 : 0);
+    }
+
+    private void putPrim(int slot, byte kind, long value) {
+        prims[slot] = value;
+        kinds[slot] = kind;
+    }
+
+    /**
+     * Copy the value of one slot to another without boxing it.
+     *
+     * @param from the source slot
+     * @param to the target slot
+     */
+    void copy(int from, int to) {
+        checkSet(from);
+        kinds[to] = kinds[from];
+        prims[to] = prims[from];
+        refs[to] = refs[from];
     }
 
     ValueType unboxType(Value value) {
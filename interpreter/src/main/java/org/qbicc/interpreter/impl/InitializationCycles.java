@@ -0,0 +1,40 @@
+package org.qbicc.interpreter.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * The search for a cycle in the wait-for graph of class initialization. Each class which is being initialized is
+ * owned by the thread which runs its initializer, and each thread may be waiting for the initialization of one class.
+ */
+final class InitializationCycles {
+    private InitializationCycles() {}
+
+    /**
+     * Follow the chain of initializing threads and the classes they are waiting for, starting from the given class.
+     *
+     * @param start the class which the thread is about to wait for
+     * @param thread the thread which is about to wait
+     * @param owner the function which gives the thread initializing a class, or {@code null} if there is none
+     * @param waitingFor the function which gives the class a thread is waiting for, or {@code null} if there is none
+     * @return the classes in the chain if it leads back to the given thread, or {@code null} if waiting is safe
+     * @param <C> the class type
+     * @param <T> the thread type
+     */
+    static <C, T> List<C> find(C start, T thread, Function<C, T> owner, Function<T, C> waitingFor) {
+        List<C> chain = new ArrayList<>();
+        C current = start;
+        while (current != null && ! chain.contains(current)) {
+            chain.add(current);
+            T currentOwner = owner.apply(current);
+            if (currentOwner == null) {
+                return null;
+            } else if (currentOwner == thread) {
+                return chain;
+            }
+            current = waitingFor.apply(currentOwner);
+        }
+        return null;
+    }
+}
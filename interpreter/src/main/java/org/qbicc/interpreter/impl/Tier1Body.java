@@ -0,0 +1,501 @@
+package org.qbicc.interpreter.impl;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.qbicc.graph.Action;
+import org.qbicc.graph.Add;
+import org.qbicc.graph.And;
+import org.qbicc.graph.BasicBlock;
+import org.qbicc.graph.BinaryValue;
+import org.qbicc.graph.Call;
+import org.qbicc.graph.CallNoSideEffects;
+import org.qbicc.graph.ConstructorElementHandle;
+import org.qbicc.graph.ExactMethodElementHandle;
+import org.qbicc.graph.Goto;
+import org.qbicc.graph.If;
+import org.qbicc.graph.InstanceFieldOf;
+import org.qbicc.graph.IsEq;
+import org.qbicc.graph.IsGe;
+import org.qbicc.graph.IsGt;
+import org.qbicc.graph.IsLe;
+import org.qbicc.graph.IsLt;
+import org.qbicc.graph.IsNe;
+import org.qbicc.graph.Load;
+import org.qbicc.graph.Multiply;
+import org.qbicc.graph.Node;
+import org.qbicc.graph.Or;
+import org.qbicc.graph.ReferenceHandle;
+import org.qbicc.graph.StaticField;
+import org.qbicc.graph.StaticMethodElementHandle;
+import org.qbicc.graph.Store;
+import org.qbicc.graph.Sub;
+import org.qbicc.graph.Terminator;
+import org.qbicc.graph.Value;
+import org.qbicc.graph.ValueHandle;
+import org.qbicc.graph.Xor;
+import org.qbicc.graph.atomic.ReadAccessMode;
+import org.qbicc.graph.atomic.WriteAccessMode;
+import org.qbicc.graph.literal.BooleanLiteral;
+import org.qbicc.graph.literal.FloatLiteral;
+import org.qbicc.graph.literal.IntegerLiteral;
+import org.qbicc.graph.literal.Literal;
+import org.qbicc.interpreter.Memory;
+import org.qbicc.interpreter.VmInvokable;
+import org.qbicc.interpreter.VmObject;
+import org.qbicc.plugin.layout.Layout;
+import org.qbicc.plugin.layout.LayoutInfo;
+import org.qbicc.type.IntegerType;
+import org.qbicc.type.UnsignedIntegerType;
+import org.qbicc.type.ValueType;
+import org.qbicc.type.definition.DefinedTypeDefinition;
+import org.qbicc.type.definition.MethodBody;
+import org.qbicc.type.definition.classfile.ClassFile;
+import org.qbicc.type.definition.element.ExecutableElement;
+import org.qbicc.type.definition.element.FieldElement;
+
+/**
+ * The "tier 1" form of a frequently executed method body. The schedule of the method body is translated once into a
+ * tree of closures, in which value slots, primitive literals, successor blocks, and phi assignments are bound ahead of
+ * time. Common 32-bit integer operations are evaluated directly on the unboxed frame slots, field loads and stores reuse
+ * their resolved memory offset, and calls to exactly known methods reuse their resolved target. Every other node is
+ * delegated to the {@link Frame} visitor, and the specialized steps share its memory access and invocation helpers, so
+ * the two tiers always agree on semantics.
+ */
+final class Tier1Body {
+    private final Block entry;
+
+    Tier1Body(MethodBody body, Map<BasicBlock, VmInvokableImpl.ScheduledBlock> scheduled, Map<Value, Integer> slots, Frame frame) {
+        Map<BasicBlock, Block> blocks = new HashMap<>();
+        entry = block(body.getEntryBlock(), blocks);
+        Compiler compiler = new Compiler(slots, frame);
+        for (Block block : List.copyOf(blocks.values())) {
+            VmInvokableImpl.ScheduledBlock sb = scheduled.get(block.block);
+            Node[] nodes = sb.nodes();
+            Step[] steps = new Step[nodes.length];
+            for (int i = 0; i < nodes.length; i ++) {
+                steps[i] = compiler.step(nodes[i], sb.slots()[i], sb.operands()[i]);
+            }
+            block.steps = steps;
+            block.exit = compiler.exit(block.block.getTerminator(), sb, blocks);
+        }
+    }
+
+    private static Block block(BasicBlock bb, Map<BasicBlock, Block> blocks) {
+        Block block = blocks.get(bb);
+        if (block == null) {
+            block = new Block(bb);
+            blocks.put(bb, block);
+            Terminator t = bb.getTerminator();
+            int sc = t.getSuccessorCount();
+            for (int i = 0; i < sc; i ++) {
+                block(t.getSuccessor(i), blocks);
+            }
+        }
+        return block;
+    }
+
+    Object execute(Frame frame, VmThreadImpl thread) {
+        Block current = entry;
+        for (;;) {
+            frame.block = current.block;
+            for (Step step : current.steps) {
+                step.run(frame, thread);
+            }
+            frame.ip = current.block.getTerminator();
+            current = current.exit.run(frame, thread);
+            if (current == null) {
+                // we're returning
+                return frame.output;
+            }
+        }
+    }
+
+    static final class Block {
+        final BasicBlock block;
+        Step[] steps;
+        Exit exit;
+
+        Block(BasicBlock block) {
+            this.block = block;
+        }
+    }
+
+    interface Step {
+        void run(Frame frame, VmThreadImpl thread);
+    }
+
+    interface Exit {
+        /**
+         * Run the block terminator, assigning the phi values of the successor.
+         *
+         * @return the successor block, or {@code null} if the method returns
+         */
+        Block run(Frame frame, VmThreadImpl thread);
+    }
+
+    interface Operand {
+        Object get(Frame frame);
+    }
+
+    interface IntOperand {
+        int get(Frame frame);
+    }
+
+    interface IntOperation {
+        int apply(int left, int right);
+    }
+
+    interface IntComparison {
+        boolean test(int left, int right);
+    }
+
+    /**
+     * The transfer of control to a successor block, along with its phi assignments.
+     */
+    record Edge(Block target, VmInvokableImpl.PhiEdge phis) {
+        Block take(Frame frame) {
+            phis.assign(frame);
+            return target;
+        }
+    }
+
+    /**
+     * An instance or static field access. The offset of the field, and the class of a static field, are resolved on
+     * first execution and reused afterwards.
+     */
+    static final class FieldAccess {
+        private final FieldElement field;
+        /**
+         * The operand of the object holding the field, or {@code null} for a static field.
+         */
+        private final Operand instance;
+        private volatile Binding binding;
+
+        FieldAccess(FieldElement field, Operand instance) {
+            this.field = field;
+            this.instance = instance;
+        }
+
+        record Binding(VmClassImpl clazz, long offset) {}
+
+        /**
+         * Get the memory holding the field, initializing the enclosing class of a static field first.
+         */
+        Memory memory(Frame frame, VmThreadImpl thread) {
+            if (instance == null) {
+                VmClassImpl clazz = bind(frame).clazz();
+                clazz.initialize(thread);
+                return clazz.getStaticMemory();
+            }
+            VmObject object = (VmObject) instance.get(frame);
+            return object == null ? null : object.getMemory();
+        }
+
+        long offset(Frame frame) {
+            return bind(frame).offset();
+        }
+
+        private Binding bind(Frame frame) {
+            Binding binding = this.binding;
+            if (binding == null) {
+                // racing threads may each resolve the field, which is harmless
+                Layout layout = Layout.get(frame.element.getEnclosingType().getContext().getCompilationContext());
+                DefinedTypeDefinition enclosingType = field.getEnclosingType();
+                if (instance == null) {
+                    LayoutInfo layoutInfo = layout.getStaticLayoutInfo(enclosingType);
+                    if (layoutInfo == null) {
+                        throw new IllegalStateException("No static fields found");
+                    }
+                    binding = new Binding((VmClassImpl) enclosingType.load().getVmClass(), layoutInfo.getMember(field).getOffset());
+                } else {
+                    binding = new Binding(null, layout.getInstanceLayoutInfo(enclosingType).getMember(field).getOffset());
+                }
+                this.binding = binding;
+            }
+            return binding;
+        }
+    }
+
+    /**
+     * The target of a call whose executable element does not depend on the receiver. The class and invokable of the
+     * element are resolved on first execution and reused afterwards.
+     */
+    static final class CallTarget {
+        private final ExecutableElement element;
+        private volatile Binding binding;
+
+        CallTarget(ExecutableElement element) {
+            this.element = element;
+        }
+
+        record Binding(VmClassImpl clazz, VmInvokable invokable) {}
+
+        Object invoke(VmThreadImpl thread, VmObject receiver, List<Object> arguments) {
+            Binding binding = this.binding;
+            if (binding == null) {
+                // racing threads may each resolve the target, which is harmless
+                VmClassImpl clazz = (VmClassImpl) element.getEnclosingType().load().getVmClass();
+                clazz.initialize(thread);
+                binding = this.binding = new Binding(clazz, clazz.getOrCompile(element));
+            } else {
+                binding.clazz().initialize(thread);
+            }
+            return binding.invokable().invokeAny(thread, receiver, arguments);
+        }
+    }
+
+    static final class Compiler {
+        private final Map<Value, Integer> slots;
+        private final Frame bindingFrame;
+
+        Compiler(Map<Value, Integer> slots, Frame bindingFrame) {
+            this.slots = slots;
+            this.bindingFrame = bindingFrame;
+        }
+
+        Step step(Node node, int slot, Frame.Operands operands) {
+            if (node instanceof Value value) {
+                Step step;
+                if (value instanceof Load load) {
+                    step = load(load, slot, operands);
+                } else if (value instanceof Call call) {
+                    step = call(call, call.getValueHandle(), call.getArguments(), slot, operands);
+                } else if (value instanceof CallNoSideEffects call) {
+                    step = call(call, call.getValueHandle(), call.getArguments(), slot, operands);
+                } else {
+                    step = specialized(value, slot);
+                }
+                if (step != null) {
+                    return step;
+                }
+                return (frame, thread) -> {
+                    frame.ip = value;
+                    frame.operands = operands;
+                    frame.eval(slot, value, thread);
+                };
+            }
+            assert node instanceof Action;
+            Action action = (Action) node;
+            if (action instanceof Store store) {
+                Step step = store(store, operands);
+                if (step != null) {
+                    return step;
+                }
+            }
+            return (frame, thread) -> {
+                frame.ip = action;
+                frame.operands = operands;
+                action.accept(frame, thread);
+            };
+        }
+
+        private Step load(Load load, int slot, Frame.Operands operands) {
+            FieldAccess access = fieldAccess(load.getValueHandle());
+            if (access == null) {
+                return null;
+            }
+            ValueType type = load.getValueHandle().getValueType();
+            ReadAccessMode mode = load.getAccessMode();
+            if (isInt32(type)) {
+                return (frame, thread) -> {
+                    frame.ip = load;
+                    frame.operands = operands;
+                    Memory memory = access.memory(frame, thread);
+                    frame.putInt(slot, memory.load32(access.offset(frame), mode));
+                };
+            }
+            return (frame, thread) -> {
+                frame.ip = load;
+                frame.operands = operands;
+                Memory memory = access.memory(frame, thread);
+                frame.put(slot, frame.load(memory, access.offset(frame), type, mode));
+            };
+        }
+
+        private Step store(Store store, Frame.Operands operands) {
+            FieldAccess access = fieldAccess(store.getValueHandle());
+            if (access == null) {
+                return null;
+            }
+            ValueType type = store.getValueHandle().getValueType();
+            Value value = store.getValue();
+            WriteAccessMode mode = store.getAccessMode();
+            return (frame, thread) -> {
+                frame.ip = store;
+                frame.operands = operands;
+                Memory memory = access.memory(frame, thread);
+                frame.store(memory, access.offset(frame), type, value, mode);
+            };
+        }
+
+        /**
+         * Get the access for a handle to an instance field of a reference value or to a static field, or {@code null}
+         * if the handle is of some other kind, or must be rejected by the visitor because its field is a run time field.
+         */
+        private FieldAccess fieldAccess(ValueHandle handle) {
+            if (handle instanceof InstanceFieldOf fieldOf && fieldOf.getValueHandle() instanceof ReferenceHandle rh) {
+                FieldElement field = fieldOf.getVariableElement();
+                return field.hasAllModifiersOf(ClassFile.I_ACC_RUN_TIME) ? null : new FieldAccess(field, operand(rh.getReferenceValue()));
+            } else if (handle instanceof StaticField sf) {
+                FieldElement field = sf.getVariableElement();
+                return field.hasAllModifiersOf(ClassFile.I_ACC_RUN_TIME) ? null : new FieldAccess(field, null);
+            }
+            return null;
+        }
+
+        private Step call(Value call, ValueHandle handle, List<Value> arguments, int slot, Frame.Operands operands) {
+            CallTarget target;
+            Operand receiver;
+            if (handle instanceof StaticMethodElementHandle smh) {
+                target = new CallTarget(smh.getExecutable());
+                receiver = null;
+            } else if (handle instanceof ExactMethodElementHandle emh) {
+                target = new CallTarget(emh.getExecutable());
+                receiver = operand(emh.getInstance());
+            } else if (handle instanceof ConstructorElementHandle ceh) {
+                target = new CallTarget(ceh.getExecutable());
+                receiver = operand(ceh.getInstance());
+            } else {
+                // the target depends on the receiver
+                return null;
+            }
+            Operand[] args = arguments.stream().map(this::operand).toArray(Operand[]::new);
+            return (frame, thread) -> {
+                frame.ip = call;
+                frame.operands = operands;
+                List<Object> values = new ArrayList<>(args.length);
+                for (Operand arg : args) {
+                    values.add(arg.get(frame));
+                }
+                frame.checkDepth(thread);
+                VmObjectImpl instance = receiver == null ? null : (VmObjectImpl) receiver.get(frame);
+                frame.put(slot, target.invoke(thread, instance, values));
+            };
+        }
+
+        private Step specialized(Value value, int slot) {
+            if (! (value instanceof BinaryValue bv) || ! isInt32(bv.getLeftInput().getType()) || ! isInt32(bv.getRightInput().getType())) {
+                return null;
+            }
+            IntOperand left = intOperand(bv.getLeftInput());
+            IntOperand right = intOperand(bv.getRightInput());
+            if (isInt32(value.getType())) {
+                IntOperation op;
+                if (value instanceof Add) {
+                    op = Integer::sum;
+                } else if (value instanceof Sub) {
+                    op = (l, r) -> l - r;
+                } else if (value instanceof Multiply) {
+                    op = (l, r) -> l * r;
+                } else if (value instanceof And) {
+                    op = (l, r) -> l & r;
+                } else if (value instanceof Or) {
+                    op = (l, r) -> l | r;
+                } else if (value instanceof Xor) {
+                    op = (l, r) -> l ^ r;
+                } else {
+                    return null;
+                }
+                return (frame, thread) -> frame.putInt(slot, op.apply(left.get(frame), right.get(frame)));
+            }
+            if (bv.getLeftInput().getType() instanceof UnsignedIntegerType) {
+                // unsigned ordering is left to the visitor
+                return null;
+            }
+            IntComparison cmp;
+            if (value instanceof IsEq) {
+                cmp = (l, r) -> l == r;
+            } else if (value instanceof IsNe) {
+                cmp = (l, r) -> l != r;
+            } else if (value instanceof IsLt) {
+                cmp = (l, r) -> l < r;
+            } else if (value instanceof IsLe) {
+                cmp = (l, r) -> l <= r;
+            } else if (value instanceof IsGt) {
+                cmp = (l, r) -> l > r;
+            } else if (value instanceof IsGe) {
+                cmp = (l, r) -> l >= r;
+            } else {
+                return null;
+            }
+            return (frame, thread) -> frame.putBool(slot, cmp.test(left.get(frame), right.get(frame)));
+        }
+
+        Exit exit(Terminator t, VmInvokableImpl.ScheduledBlock sb, Map<BasicBlock, Block> blocks) {
+            if (t instanceof Goto g) {
+                Edge edge = edge(g.getResumeTarget(), sb, blocks);
+                return (frame, thread) -> edge.take(frame);
+            } else if (t instanceof If i) {
+                Operand condition = operand(i.getCondition());
+                Edge trueEdge = edge(i.getTrueBranch(), sb, blocks);
+                Edge falseEdge = edge(i.getFalseBranch(), sb, blocks);
+                Integer slot = i.getCondition() instanceof Literal ? null : slots.get(i.getCondition());
+                if (slot != null) {
+                    int idx = slot.intValue();
+                    return (frame, thread) -> (frame.getBool(idx) ? trueEdge : falseEdge).take(frame);
+                }
+                return (frame, thread) -> (toBool(condition.get(frame)) ? trueEdge : falseEdge).take(frame);
+            }
+            Map<BasicBlock, Edge> edges = new HashMap<>();
+            for (BasicBlock successor : sb.successors()) {
+                edges.put(successor, edge(successor, sb, blocks));
+            }
+            Frame.Operands operands = sb.terminatorOperands();
+            return (frame, thread) -> {
+                frame.operands = operands;
+                BasicBlock next = t.accept(frame, thread);
+                return next == null ? null : edges.get(next).take(frame);
+            };
+        }
+
+        private static Edge edge(BasicBlock successor, VmInvokableImpl.ScheduledBlock sb, Map<BasicBlock, Block> blocks) {
+            return new Edge(blocks.get(successor), sb.edgeTo(successor));
+        }
+
+        private Operand operand(Value value) {
+            if (value instanceof IntegerLiteral || value instanceof FloatLiteral || value instanceof BooleanLiteral) {
+                // immutable, so evaluate it once
+                Object constant = value.accept(bindingFrame, null);
+                return frame -> constant;
+            } else if (value instanceof Literal) {
+                return frame -> value.accept(frame, null);
+            }
+            Integer slot = slots.get(value);
+            if (slot == null) {
+                return frame -> frame.require(value);
+            }
+            int idx = slot.intValue();
+            return frame -> frame.get(idx);
+        }
+
+        private IntOperand intOperand(Value value) {
+            if (value instanceof IntegerLiteral || value instanceof BooleanLiteral) {
+                // immutable, so evaluate it once
+                int constant = toInt(value.accept(bindingFrame, null));
+                return frame -> constant;
+            }
+            Integer slot = value instanceof Literal ? null : slots.get(value);
+            if (slot == null) {
+                Operand operand = operand(value);
+                return frame -> toInt(operand.get(frame));
+            }
+            int idx = slot.intValue();
+            return frame -> frame.getInt(idx);
+        }
+
+        private static boolean isInt32(ValueType type) {
+            return type instanceof IntegerType it && it.getMinBits() == 32;
+        }
+
+        private static int toInt(Object value) {
+            return value instanceof Boolean boo ? boo.booleanValue() ? 1 : 0 : ((Number) value).intValue();
+        }
+
+        private static boolean toBool(Object value) {
+            return value instanceof Number num ? num.byteValue() != 0 : ((Boolean) value).booleanValue();
+        }
+    }
+}
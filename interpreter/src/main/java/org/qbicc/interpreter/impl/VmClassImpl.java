@@ -20,6 +20,7 @@ import org.qbicc.graph.literal.StringLiteral;
 import org.qbicc.graph.literal.ZeroInitializerLiteral;
 import org.qbicc.interpreter.Memory;
 import org.qbicc.interpreter.Thrown;
+import org.qbicc.interpreter.Vm;
 import org.qbicc.interpreter.VmClass;
 import org.qbicc.interpreter.VmClassLoader;
 import org.qbicc.interpreter.VmInvokable;
@@ -100,6 +101,10 @@ class VmClassImpl extends VmObjectImpl implements VmClass {
 
     private volatile State state = State.UNINITIALIZED;
     private volatile VmThrowableImpl initException;
+    /**
+     * The thread which is running the initializer, if the state is {@code INITIALIZING}.
+     */
+    private volatile VmThreadImpl initThread;
     private final Object initLock = new Object();
 
     VmClassImpl(VmImpl vmImpl, LoadedTypeDefinition typeDefinition) {
@@ -550,6 +555,11 @@ class VmClassImpl extends VmObjectImpl implements VmClass {
         throw new IllegalArgumentException("Field " + field + " is not present on " + this);
     }
 
+    /**
+     * Initialize this class, following the initialization lock protocol of JLS 12.4.2. The lock is not held while
+     * the initializer runs; other threads wait for the initializing thread, and a recursive request from the
+     * initializing thread returns immediately. A wait which would deadlock is reported instead.
+     */
     void initialize(VmThreadImpl thread) throws Thrown {
         VmClassImpl superClass = getSuperClass();
         if (superClass != null) {
@@ -558,30 +568,55 @@ class VmClassImpl extends VmObjectImpl implements VmClass {
         State state = this.state;
         VmThrowableImpl initException = this.initException; // always written before state
         if (state == State.UNINITIALIZED || state == State.INITIALIZING) {
-            synchronized (initLock) {
-                state = this.state;
-                initException = this.initException; // always written before state
-                if (state == State.UNINITIALIZED) {
-                    this.state = State.INITIALIZING;
-                    try {
-                        InitializerElement initializer = typeDefinition.getInitializer();
-                        if (initializer != null && initializer.hasMethodBodyFactory()) {
-                            if (initializer.tryCreateMethodBody()) {
-                                compile(initializer).invoke(thread, null, List.of());
-                                state = this.state = State.INITIALIZED;
-                            } else {
-                                throw new Thrown(vm.linkageErrorClass.newInstance("Failed to compile initializer body for " + getName()));
-                            }
+            boolean interrupted = false;
+            try {
+                synchronized (initLock) {
+                    for (;;) {
+                        state = this.state;
+                        initException = this.initException; // always written before state
+                        if (state != State.INITIALIZING || initThread == thread) {
+                            break;
+                        }
+                        interrupted |= awaitInitialization(thread);
+                    }
+                    if (state == State.UNINITIALIZED) {
+                        initThread = thread;
+                        this.state = State.INITIALIZING;
+                    }
+                    // otherwise it is done, failed, or a recursive request
+                }
+            } finally {
+                if (interrupted) {
+                    // restore the interrupt for the caller
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (state == State.UNINITIALIZED) {
+                State newState = State.INITIALIZATION_FAILED;
+                VmThrowableImpl newException = null;
+                try {
+                    InitializerElement initializer = typeDefinition.getInitializer();
+                    if (initializer != null && initializer.hasMethodBodyFactory()) {
+                        if (initializer.tryCreateMethodBody()) {
+                            compile(initializer).invoke(thread, null, List.of());
+                            newState = State.INITIALIZED;
                         } else {
-                            state = this.state = State.INITIALIZED;
+                            throw new Thrown(vm.linkageErrorClass.newInstance("Failed to compile initializer body for " + getName()));
                         }
-                    } catch (Thrown t) {
-                        initException = this.initException = (VmThrowableImpl) t.getThrowable();
-                        state = this.state = State.INITIALIZATION_FAILED;
-                        log.debug("Failed to initialize a class", t);
-                    } catch (Throwable t) {
-                        vm.getCompilationContext().error(t, "Crash in interpreter while initializing %s", this);
-                        state = this.state = State.INITIALIZATION_FAILED;
+                    } else {
+                        newState = State.INITIALIZED;
+                    }
+                } catch (Thrown t) {
+                    newException = (VmThrowableImpl) t.getThrowable();
+                    log.debug("Failed to initialize a class", t);
+                } catch (Throwable t) {
+                    vm.getCompilationContext().error(t, "Crash in interpreter while initializing %s", this);
+                } finally {
+                    synchronized (initLock) {
+                        initException = this.initException = newException;
+                        state = this.state = newState;
+                        initThread = null;
+                        initLock.notifyAll();
                     }
                 }
             }
@@ -603,6 +638,42 @@ class VmClassImpl extends VmObjectImpl implements VmClass {
         }
     }
 
+    /**
+     * Wait for another thread to finish initializing this class. Must be called while holding {@code initLock}.
+     * The wait cannot be abandoned, since the caller needs the class, so an interrupt is only reported to the caller.
+     *
+     * @return {@code true} if the waiting thread was interrupted
+     */
+    private boolean awaitInitialization(VmThreadImpl thread) throws Thrown {
+        List<VmClassImpl> cycle;
+        synchronized (vm.initWaitLock) {
+            cycle = InitializationCycles.find(this, thread, c -> c.initThread, t -> t.initWaitingFor);
+            if (cycle == null) {
+                thread.initWaitingFor = this;
+            }
+        }
+        if (cycle != null) {
+            StringBuilder b = new StringBuilder();
+            for (VmClassImpl clazz : cycle) {
+                b.append(clazz.getName()).append(" -> ");
+            }
+            b.append(getName());
+            vm.getCompilationContext().error("Deadlock detected in build-time class initialization: %s", b);
+            VmThrowableClassImpl internalErrorClass = (VmThrowableClassImpl) vm.getBootstrapClassLoader().loadClass("java/lang/InternalError");
+            VmThrowable throwable = internalErrorClass.newInstance("Class initialization deadlock: " + b);
+            thread.setThrown(throwable);
+            throw new Thrown(throwable);
+        }
+        try {
+            initLock.wait();
+            return false;
+        } catch (InterruptedException e) {
+            return true;
+        } finally {
+            thread.initWaitingFor = null;
+        }
+    }
+
     VmInvokable getOrCompile(ExecutableElement element) {
         VmInvokable target = methodTable.get(element);
         if (target == null) {
@@ -730,6 +801,27 @@ class VmClassImpl extends VmObjectImpl implements VmClass {
         return ourType.isSupertypeOf(otherType);
     }
 
+    @Override
+    public void awaitInitializationInProgress() {
+        if (state != State.INITIALIZING) {
+            return;
+        }
+        VmThreadImpl thread = (VmThreadImpl) Vm.requireCurrentThread();
+        boolean interrupted = false;
+        try {
+            synchronized (initLock) {
+                while (state == State.INITIALIZING && initThread != thread) {
+                    interrupted |= awaitInitialization(thread);
+                }
+            }
+        } finally {
+            if (interrupted) {
+                // restore the interrupt for the caller
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
     void addNestMember(final VmClassImpl member) {
         CoreClasses coreClasses = CoreClasses.get(vm.getCompilationContext());
         final int nestMembersIdx = indexOf(coreClasses.getClassNestMembersField());
@@ -144,6 +144,11 @@ public final class VmImpl implements Vm {
 
     final int refArrayContentOffset; // special
 
+    /**
+     * Guards the class initialization wait-for graph, so that a deadlock is always seen by the thread which closes it.
+     */
+    final Object initWaitLock = new Object();
+
     // exceptions
     final VmThrowableClassImpl interruptedException;
     final VmThrowableClassImpl illegalMonitorStateException;
@@ -6,12 +6,15 @@ import java.lang.invoke.VarHandle;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 import org.qbicc.graph.Action;
 import org.qbicc.graph.BasicBlock;
+import org.qbicc.graph.Invoke;
 import org.qbicc.graph.LocalVariable;
 import org.qbicc.graph.Node;
 import org.qbicc.graph.OrderedNode;
@@ -19,6 +22,7 @@ import org.qbicc.graph.PhiValue;
 import org.qbicc.graph.Terminator;
 import org.qbicc.graph.Unschedulable;
 import org.qbicc.graph.Value;
+import org.qbicc.graph.literal.Literal;
 import org.qbicc.graph.schedule.Schedule;
 import org.qbicc.interpreter.Memory;
 import org.qbicc.interpreter.Thrown;
@@ -36,59 +40,183 @@ import org.qbicc.type.definition.element.LocalVariableElement;
  *
  */
 final class VmInvokableImpl implements VmInvokable {
+    /**
+     * The number of invocations after which a method body is translated into its tier 1 form.
+     */
+    static final int TIER1_THRESHOLD = 256;
     private static final VarHandle countHandle = ConstantBootstraps.fieldVarHandle(MethodHandles.lookup(), "count", VarHandle.class, VmInvokableImpl.class, long.class);
 
     private final ExecutableElement element;
-    private final Map<BasicBlock, List<Node>> scheduled;
-    private final Schedule schedule;
+    private final Map<BasicBlock, ScheduledBlock> scheduled;
+    /**
+     * The frame slot number of each value of the method body, which is only used to prepare the body; frames find
+     * the slots of values through the pre-resolved operands of each instruction.
+     */
+    private final Map<Value, Integer> slots;
+    private final int slotCount;
+    /**
+     * The frame slot of the {@code this} value (or -1), and of each parameter value.
+     */
+    private final int thisSlot;
+    private final int[] paramSlots;
     private final int memorySize;
     private volatile long count;
+    private volatile Tier1Body tier1;
 
     VmInvokableImpl(ExecutableElement element) {
         this.element = element;
         int[] sizeHolder = new int[1];
-        scheduled = buildScheduled(element, sizeHolder);
-        schedule = element.getMethodBody().getSchedule();
+        slots = new IdentityHashMap<>();
+        scheduled = buildScheduled(element, sizeHolder, slots);
+        MethodBody body = element.getMethodBody();
+        thisSlot = element.isStatic() ? -1 : slots.get(body.getThisValue()).intValue();
+        int cnt = element instanceof InvokableElement ? element.getType().getParameterTypes().size() : 0;
+        paramSlots = new int[cnt];
+        for (int i = 0; i < cnt; i ++) {
+            paramSlots[i] = slots.get(body.getParameterValue(i)).intValue();
+        }
         memorySize = sizeHolder[0];
+        slotCount = slots.size();
     }
 
-    private static Map<BasicBlock, List<Node>> buildScheduled(final ExecutableElement element, final int[] sizeHolder) {
+    private static Map<BasicBlock, ScheduledBlock> buildScheduled(final ExecutableElement element, final int[] sizeHolder, final Map<Value, Integer> slots) {
         if (! element.tryCreateMethodBody()) {
             throw new IllegalStateException("No method body for " + element);
         }
         MethodBody body = element.getMethodBody();
-        Map<BasicBlock, List<Node>> scheduled = new HashMap<>();
-        buildScheduled(body, new HashSet<>(), scheduled, body.getEntryBlock().getTerminator(), sizeHolder);
+        // inputs are bound directly, so they must have slots even if they are not scheduled
+        if (! element.isStatic()) {
+            slots.putIfAbsent(body.getThisValue(), Integer.valueOf(slots.size()));
+        }
+        if (element instanceof InvokableElement) {
+            int cnt = element.getType().getParameterTypes().size();
+            for (int i = 0; i < cnt; i ++) {
+                slots.putIfAbsent(body.getParameterValue(i), Integer.valueOf(slots.size()));
+            }
+        }
+        Map<BasicBlock, List<Node>> nodes = new HashMap<>();
+        Set<BasicBlock> blocks = new LinkedHashSet<>();
+        buildScheduled(body, new HashSet<>(), nodes, blocks, slots, body.getEntryBlock().getTerminator(), sizeHolder);
+        Schedule schedule = body.getSchedule();
+        Map<BasicBlock, ScheduledBlock> scheduled = new HashMap<>(blocks.size());
+        for (BasicBlock block : blocks) {
+            Node[] array = nodes.getOrDefault(block, List.of()).toArray(Node[]::new);
+            int[] nodeSlots = new int[array.length];
+            Frame.Operands[] operands = new Frame.Operands[array.length];
+            for (int i = 0; i < array.length; i ++) {
+                nodeSlots[i] = array[i] instanceof Value value ? slots.get(value).intValue() : -1;
+                operands[i] = operands(array[i], slots);
+            }
+            Terminator t = block.getTerminator();
+            int sc = t.getSuccessorCount();
+            List<BasicBlock> successors = new ArrayList<>(sc);
+            List<PhiEdge> edges = new ArrayList<>(sc);
+            for (int i = 0; i < sc; i ++) {
+                BasicBlock successor = t.getSuccessor(i);
+                if (! successors.contains(successor)) {
+                    successors.add(successor);
+                    edges.add(edge(t, successor, schedule, slots));
+                }
+            }
+            scheduled.put(block, new ScheduledBlock(array, nodeSlots, operands, operands(t, slots), successors.toArray(BasicBlock[]::new), edges.toArray(PhiEdge[]::new)));
+        }
         return scheduled;
     }
 
-    private static void buildScheduled(final MethodBody body, final Set<Node> visited, final Map<BasicBlock, List<Node>> scheduled, Node node, int[] sizeHolder) {
+    /**
+     * Resolve the slots of the values used by a node, including those used by its value handle.
+     */
+    private static Frame.Operands operands(Node node, Map<Value, Integer> slots) {
+        List<Value> values = new ArrayList<>();
+        addOperands(node, values);
+        if (node instanceof Invoke invoke) {
+            // the return value is put by the terminator itself
+            values.add(invoke.getReturnValue());
+        }
+        if (values.isEmpty()) {
+            return Frame.Operands.NONE;
+        }
+        int[] operandSlots = new int[values.size()];
+        for (int i = 0; i < operandSlots.length; i ++) {
+            Integer slot = slots.get(values.get(i));
+            operandSlots[i] = slot == null ? -1 : slot.intValue();
+        }
+        return new Frame.Operands(values.toArray(Value[]::new), operandSlots);
+    }
+
+    private static void addOperands(Node node, List<Value> values) {
+        int cnt = node.getValueDependencyCount();
+        for (int i = 0; i < cnt; i ++) {
+            Value value = node.getValueDependency(i);
+            if (! (value instanceof Literal) && ! values.contains(value)) {
+                values.add(value);
+            }
+        }
+        if (node.hasValueHandleDependency()) {
+            addOperands(node.getValueHandle(), values);
+        }
+    }
+
+    /**
+     * Resolve the phi assignments of the transfer of control from a terminator to one of its successors. Only the
+     * reachable phis of the target which have slots are assigned.
+     */
+    private static PhiEdge edge(Terminator t, BasicBlock successor, Schedule schedule, Map<Value, Integer> slots) {
+        List<PhiValue> phis = new ArrayList<>();
+        for (PhiValue phiValue : t.getOutboundValues().keySet()) {
+            if (phiValue.getPinnedBlock() == successor && schedule.getBlockForNode(phiValue) != null && slots.containsKey(phiValue)) {
+                phis.add(phiValue);
+            }
+        }
+        int cnt = phis.size();
+        if (cnt == 0) {
+            return PhiEdge.EMPTY;
+        }
+        int[] from = new int[cnt];
+        Value[] fromValues = new Value[cnt];
+        int[] to = new int[cnt];
+        for (int i = 0; i < cnt; i ++) {
+            PhiValue phiValue = phis.get(i);
+            Value value = t.getOutboundValue(phiValue);
+            Integer slot = value instanceof Literal ? null : slots.get(value);
+            from[i] = slot == null ? -1 : slot.intValue();
+            fromValues[i] = value;
+            to[i] = slots.get(phiValue).intValue();
+        }
+        return new PhiEdge(from, fromValues, to);
+    }
+
+    private static void buildScheduled(final MethodBody body, final Set<Node> visited, final Map<BasicBlock, List<Node>> scheduled, final Set<BasicBlock> blocks, final Map<Value, Integer> slots, Node node, int[] sizeHolder) {
         if (! visited.add(node)) {
             // already scheduled
             return;
         }
+        if (node instanceof Value value && ! (value instanceof Literal)) {
+            slots.putIfAbsent(value, Integer.valueOf(slots.size()));
+        }
         if (node.hasValueHandleDependency()) {
-            buildScheduled(body, visited, scheduled, node.getValueHandle(), sizeHolder);
+            buildScheduled(body, visited, scheduled, blocks, slots, node.getValueHandle(), sizeHolder);
         }
         if (node instanceof OrderedNode) {
-            buildScheduled(body, visited, scheduled, ((OrderedNode) node).getDependency(), sizeHolder);
+            buildScheduled(body, visited, scheduled, blocks, slots, ((OrderedNode) node).getDependency(), sizeHolder);
         }
         int cnt = node.getValueDependencyCount();
         for (int i = 0; i < cnt; i ++) {
-            buildScheduled(body, visited, scheduled, node.getValueDependency(i), sizeHolder);
+            buildScheduled(body, visited, scheduled, blocks, slots, node.getValueDependency(i), sizeHolder);
         }
         if (node instanceof Terminator) {
             // add outbound values
             Terminator terminator = (Terminator) node;
+            blocks.add(terminator.getTerminatedBlock());
             Map<PhiValue, Value> outboundValues = terminator.getOutboundValues();
             for (PhiValue phiValue : outboundValues.keySet()) {
-                buildScheduled(body, visited, scheduled, terminator.getOutboundValue(phiValue), sizeHolder);
+                buildScheduled(body, visited, scheduled, blocks, slots, terminator.getOutboundValue(phiValue), sizeHolder);
             }
             // recurse to successors
             int sc = terminator.getSuccessorCount();
             for (int i = 0; i < sc; i ++) {
                 BasicBlock successor = terminator.getSuccessor(i);
-                buildScheduled(body, visited, scheduled, successor.getTerminator(), sizeHolder);
+                buildScheduled(body, visited, scheduled, blocks, slots, successor.getTerminator(), sizeHolder);
             }
         }
         if (node instanceof LocalVariable) {
@@ -114,6 +242,39 @@ final class VmInvokableImpl implements VmInvokable {
         return new ArrayList<>();
     }
 
+    /**
+     * The scheduled nodes of a block, along with the frame slot of each node which is a value (or -1), the operands of
+     * each node and of the terminator, and the phi assignments for each distinct successor.
+     */
+    record ScheduledBlock(Node[] nodes, int[] slots, Frame.Operands[] operands, Frame.Operands terminatorOperands, BasicBlock[] successors, PhiEdge[] edges) {
+        PhiEdge edgeTo(BasicBlock successor) {
+            for (int i = 0; i < successors.length; i ++) {
+                if (successors[i] == successor) {
+                    return edges[i];
+                }
+            }
+            throw new IllegalStateException("Not a successor");
+        }
+    }
+
+    /**
+     * The phi assignments of a transfer of control. Each source slot is copied to its phi slot without boxing; a
+     * source slot of -1 means that the source value (a literal, or a value without a slot) is evaluated instead.
+     */
+    record PhiEdge(int[] from, Value[] fromValues, int[] to) {
+        static final PhiEdge EMPTY = new PhiEdge(new int[0], new Value[0], new int[0]);
+
+        void assign(Frame frame) {
+            for (int i = 0; i < to.length; i ++) {
+                if (from[i] == -1) {
+                    frame.put(to[i], frame.require(fromValues[i]));
+                } else {
+                    frame.copy(from[i], to[i]);
+                }
+            }
+        }
+    }
+
     @Override
     public Object invokeAny(VmThread thread, VmObject target, List<Object> args) {
         VmThreadImpl threadImpl = (VmThreadImpl) thread;
@@ -128,9 +289,6 @@ final class VmInvokableImpl implements VmInvokable {
 
     Object run(VmThreadImpl thread, VmObject target, List<Object> args) {
         long invCnt = ((long) countHandle.getAndAdd(this, 1)) + 1;
-        if (false && invCnt == 100) {
-            thread.getVM().getCompilationContext().info(element, "Excessive invocation count (JIT candidate)");
-        }
         if (args.size() != element.getType().getParameterTypes().size()) {
             throw new Thrown(thread.vm.linkageErrorClass.newInstance("Parameter count mismatch"));
         }
@@ -138,73 +296,111 @@ final class VmInvokableImpl implements VmInvokable {
             ((VmClassImpl)element.getEnclosingType().load().getVmClass()).initialize(thread);
         }
         Frame caller = thread.currentFrame;
-        Memory memory = thread.getVM().allocate(memorySize);
-        Frame frame = new Frame(caller, element, memory);
+        List<Object> converted = new ArrayList<>(args.size());
+        for (Object arg : args) {
+            // convenience
+            if (arg instanceof String) {
+                arg = thread.getVM().manuallyInitialize(new VmStringImpl(thread.getVM(), thread.vm.stringClass, (String) arg));
+            }
+            converted.add(arg);
+        }
+        Frame frame = bind(caller, thread.getVM().allocate(memorySize), target, converted);
         thread.currentFrame = frame;
-        // bind inputs
-        MethodBody body = element.getMethodBody();
+        try {
+            return execute(frame, thread, invCnt);
+        } catch (IllegalStateException | UnsupportedOperationException t) {
+            // capture exception from frame state
+            VmThrowableClassImpl internalErrorClass = (VmThrowableClassImpl) thread.vm.getBootstrapClassLoader().loadClass("java/lang/InternalError");
+            throw new Thrown(internalErrorClass.newInstance("Internal error: " + t));
+        } finally {
+            frame.releaseLocks();
+            thread.currentFrame = caller;
+        }
+    }
+
+    /**
+     * Create a frame for an invocation of this method and bind its inputs.
+     *
+     * @param caller the calling frame, or {@code null} if there is none
+     * @param memory the local variable memory
+     * @param target the receiver, or {@code null} for a static method
+     * @param args the arguments
+     * @return the frame
+     */
+    Frame bind(Frame caller, Memory memory, VmObject target, List<Object> args) {
+        Frame frame = new Frame(caller, element, memory, slotCount);
         if (! element.isStatic()) {
-            frame.values.put(body.getThisValue(), target);
+            frame.put(thisSlot, target);
         }
         if (element instanceof InvokableElement) {
             for (int i = 0; i < args.size(); i++) {
-                Object arg = args.get(i);
-                // convenience
-                if (arg instanceof String) {
-                    arg = thread.getVM().manuallyInitialize(new VmStringImpl(thread.getVM(), thread.vm.stringClass, (String) arg));
-                }
                 try {
-                    frame.values.put(body.getParameterValue(i), arg);
+                    frame.put(paramSlots[i], args.get(i));
                 } catch (ArrayIndexOutOfBoundsException e) {
                     // for breakpoints
                     throw e;
                 }
             }
         }
-        try {
-            frame.block = body.getEntryBlock();
-            for (;;) {
-                List<Node> nodes = scheduled.getOrDefault(frame.block, List.of());
-                for (Node node : nodes) {
-                    frame.ip = node;
-                    if (frame.ip instanceof Value) {
-                        Value value = (Value) frame.ip;
-                        frame.values.put(value, value.accept(frame, thread));
-                    } else {
-                        assert frame.ip instanceof Action;
-                        ((Action) frame.ip).accept(frame, thread);
-                    }
-                }
-                Terminator t = frame.block.getTerminator();
-                frame.ip = t;
-                // keep it simple for now
-                BasicBlock next = t.accept(frame, thread);
-                if (next == null) {
-                    // we're returning
-                    return frame.output;
-                }
-                // register outbound phi values
-                for (PhiValue phiValue : t.getOutboundValues().keySet()) {
-                    // only register outbound values that will be used by the target
-                    if (phiValue.getPinnedBlock() == next) {
-                        if (schedule.getBlockForNode(phiValue) != null) {
-                            // reachable value
-                            Value value = t.getOutboundValue(phiValue);
-                            Object realValue = frame.require(value);
-                            frame.values.put(value, realValue);
-                            frame.values.put(phiValue, realValue);
-                        }
-                    }
+        return frame;
+    }
+
+    /**
+     * Execute the method body in a frame whose inputs are bound. Once the method has been invoked
+     * {@link #TIER1_THRESHOLD} times, the body is translated into its tier 1 form, which then runs every invocation.
+     *
+     * @param frame the frame
+     * @param thread the current thread
+     * @param invCnt the number of invocations of this method so far, including this one
+     * @return the return value
+     */
+    Object execute(Frame frame, VmThreadImpl thread, long invCnt) {
+        MethodBody body = element.getMethodBody();
+        Tier1Body tier1 = this.tier1;
+        if (tier1 == null && invCnt >= TIER1_THRESHOLD) {
+            // racing threads may each translate the body, which is harmless
+            tier1 = this.tier1 = new Tier1Body(body, scheduled, slots, frame);
+        }
+        if (tier1 != null) {
+            return tier1.execute(frame, thread);
+        }
+        frame.block = body.getEntryBlock();
+        for (;;) {
+            ScheduledBlock scheduledBlock = scheduled.get(frame.block);
+            Node[] nodes = scheduledBlock.nodes();
+            int[] nodeSlots = scheduledBlock.slots();
+            Frame.Operands[] operands = scheduledBlock.operands();
+            for (int i = 0; i < nodes.length; i ++) {
+                frame.ip = nodes[i];
+                frame.operands = operands[i];
+                if (frame.ip instanceof Value) {
+                    frame.eval(nodeSlots[i], (Value) frame.ip, thread);
+                } else {
+                    assert frame.ip instanceof Action;
+                    ((Action) frame.ip).accept(frame, thread);
                 }
-                frame.block = next;
             }
-        } catch (IllegalStateException | UnsupportedOperationException t) {
-            // capture exception from frame state
-            VmThrowableClassImpl internalErrorClass = (VmThrowableClassImpl) thread.vm.getBootstrapClassLoader().loadClass("java/lang/InternalError");
-            throw new Thrown(internalErrorClass.newInstance("Internal error: " + t));
-        } finally {
-            frame.releaseLocks();
-            thread.currentFrame = caller;
+            Terminator t = frame.block.getTerminator();
+            frame.ip = t;
+            frame.operands = scheduledBlock.terminatorOperands();
+            // keep it simple for now
+            BasicBlock next = t.accept(frame, thread);
+            if (next == null) {
+                // we're returning
+                return frame.output;
+            }
+            // register outbound phi values
+            scheduledBlock.edgeTo(next).assign(frame);
+            frame.block = next;
         }
     }
+
+    /**
+     * Determine whether the method body has been translated into its tier 1 form.
+     *
+     * @return {@code true} if the tier 1 form is used
+     */
+    boolean isTier1() {
+        return tier1 != null;
+    }
 }
@@ -12,6 +12,10 @@ final class VmThreadImpl extends VmObjectImpl implements VmThread {
     final VmImpl vm;
     volatile Thread boundThread;
     Frame currentFrame;
+    /**
+     * The class whose initialization by another thread this thread is waiting for.
+     */
+    volatile VmClassImpl initWaitingFor;
 
     VmThreadImpl(VmClassImpl clazz, VmImpl vm) {
         super(clazz);
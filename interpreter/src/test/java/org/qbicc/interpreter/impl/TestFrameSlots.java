@@ -0,0 +1,141 @@
+package org.qbicc.interpreter.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.qbicc.graph.BasicBlockBuilder;
+import org.qbicc.graph.BlockLabel;
+import org.qbicc.graph.Value;
+import org.qbicc.test.AbstractCompilerTestCase;
+import org.qbicc.type.ValueType;
+import org.qbicc.type.definition.element.MethodElement;
+
+/**
+ * Tests for the unboxed int, long and boolean slots of {@link Frame}, and for the resolution of values to slots
+ * through the operands of the current instruction.
+ */
+public final class TestFrameSlots extends AbstractCompilerTestCase {
+
+    BasicBlockBuilder bbb;
+
+    @BeforeEach
+    public void setUpEach() {
+        final MethodElement element = defineTestMethod(defineClass("TestClass", null));
+        bbb = BasicBlockBuilder.simpleBuilder(ts, element);
+        bbb.startMethod(List.of());
+        bbb.begin(new BlockLabel());
+    }
+
+    @Test
+    public void testIntSlots() {
+        final Value a = parameter(ts.getSignedInteger32Type(), 0);
+        final Value b = parameter(ts.getSignedInteger32Type(), 1);
+        final Frame frame = frameWithOperands(a, b);
+        frame.putInt(0, Integer.MAX_VALUE);
+        frame.putInt(1, 2);
+        frame.eval(2, bbb.add(a, b), null);
+        assertEquals(Integer.MIN_VALUE + 1, frame.getInt(2));
+        frame.eval(2, bbb.multiply(a, b), null);
+        assertEquals(-2, frame.getInt(2));
+        frame.eval(2, bbb.shr(a, b), null);
+        assertEquals(Integer.MAX_VALUE >> 2, frame.getInt(2));
+        // the unboxed value reads back as the same boxed value
+        assertEquals(Integer.valueOf(Integer.MAX_VALUE >> 2), frame.get(2));
+    }
+
+    @Test
+    public void testUnsignedShift() {
+        final Value a = parameter(ts.getUnsignedInteger32Type(), 0);
+        final Value b = parameter(ts.getUnsignedInteger32Type(), 1);
+        final Frame frame = frameWithOperands(a, b);
+        frame.putInt(0, -16);
+        frame.putInt(1, 2);
+        frame.eval(2, bbb.shr(a, b), null);
+        assertEquals(-16 >>> 2, frame.getInt(2));
+    }
+
+    @Test
+    public void testLongSlots() {
+        final Value a = parameter(ts.getSignedInteger64Type(), 0);
+        final Value b = parameter(ts.getSignedInteger64Type(), 1);
+        final Frame frame = frameWithOperands(a, b);
+        frame.putLong(0, Long.MAX_VALUE);
+        frame.putLong(1, 1L);
+        frame.eval(2, bbb.add(a, b), null);
+        assertEquals(Long.MIN_VALUE, frame.getLong(2));
+        frame.eval(2, bbb.sub(a, b), null);
+        assertEquals(Long.MAX_VALUE - 1, frame.getLong(2));
+        assertEquals(Long.valueOf(Long.MAX_VALUE - 1), frame.get(2));
+        // narrowing reads apply the same conversion as unboxing
+        assertEquals((int) (Long.MAX_VALUE - 1), frame.getInt(2));
+    }
+
+    @Test
+    public void testBoolSlots() {
+        final Value a = parameter(ts.getSignedInteger32Type(), 0);
+        final Value b = parameter(ts.getSignedInteger32Type(), 1);
+        final Value p = parameter(ts.getBooleanType(), 2);
+        final Value q = parameter(ts.getBooleanType(), 3);
+        final Frame frame = frameWithOperands(a, b, p, q);
+        frame.putInt(0, -1);
+        frame.putInt(1, 1);
+        frame.putBool(2, true);
+        frame.putBool(3, false);
+        frame.eval(4, bbb.isLt(a, b), null);
+        assertTrue(frame.getBool(4));
+        frame.eval(4, bbb.isGe(a, b), null);
+        assertFalse(frame.getBool(4));
+        frame.eval(4, bbb.and(p, q), null);
+        assertFalse(frame.getBool(4));
+        frame.eval(4, bbb.or(p, q), null);
+        assertTrue(frame.getBool(4));
+        assertEquals(Boolean.TRUE, frame.get(4));
+    }
+
+    @Test
+    public void testCopyKeepsKind() {
+        final Frame frame = new Frame(null, null, null, 2);
+        frame.putLong(0, -5L);
+        frame.copy(0, 1);
+        assertEquals(Long.valueOf(-5L), frame.get(1));
+        assertThrows(IllegalStateException.class, () -> new Frame(null, null, null, 2).copy(0, 1));
+    }
+
+    @Test
+    public void testValuesResolvedThroughOperands() {
+        final Value a = parameter(ts.getSignedInteger32Type(), 0);
+        final Value b = parameter(ts.getSignedInteger32Type(), 1);
+        final Frame frame = new Frame(null, null, null, 2);
+        frame.operands = new Frame.Operands(new Value[] { b, a }, new int[] { 1, 0 });
+        assertEquals(0, frame.slotOf(a));
+        assertEquals(1, frame.slotOf(b));
+        // a value which is not an operand of the current instruction has no slot
+        frame.operands = new Frame.Operands(new Value[] { a }, new int[] { 0 });
+        assertEquals(-1, frame.slotOf(b));
+        assertThrows(IllegalStateException.class, () -> frame.require(b));
+    }
+
+    private Value parameter(ValueType type, int index) {
+        return bbb.parameter(type, "p", index);
+    }
+
+    /**
+     * Create a frame whose current instruction uses the given values, in slots 0 to {@code n - 1}, and which has one
+     * more slot for the result.
+     */
+    private static Frame frameWithOperands(Value... values) {
+        final int[] slots = new int[values.length];
+        for (int i = 0; i < slots.length; i ++) {
+            slots[i] = i;
+        }
+        final Frame frame = new Frame(null, null, null, values.length + 1);
+        frame.operands = new Frame.Operands(values, slots);
+        return frame;
+    }
+}
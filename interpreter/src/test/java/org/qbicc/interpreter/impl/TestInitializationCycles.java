@@ -0,0 +1,79 @@
+package org.qbicc.interpreter.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the deadlock detection of {@link InitializationCycles}.
+ */
+public final class TestInitializationCycles {
+
+    record Cls(String name) {}
+
+    record Thr(String name) {}
+
+    final Cls a = new Cls("A");
+    final Cls b = new Cls("B");
+    final Thr t1 = new Thr("T1");
+    final Thr t2 = new Thr("T2");
+    final Thr t3 = new Thr("T3");
+
+    Map<Cls, Thr> owners;
+    Map<Thr, Cls> waiting;
+
+    @BeforeEach
+    public void setUpEach() {
+        owners = new IdentityHashMap<>();
+        waiting = new IdentityHashMap<>();
+    }
+
+    @Test
+    public void testNotInitializing() {
+        assertNull(find(a, t1));
+    }
+
+    @Test
+    public void testRecursiveRequest() {
+        owners.put(a, t1);
+        assertEquals(List.of(a), find(a, t1));
+    }
+
+    @Test
+    public void testTwoThreadCycle() {
+        // T2 initializes A and waits for B, which T1 initializes; T1 is about to wait for A
+        owners.put(a, t2);
+        waiting.put(t2, b);
+        owners.put(b, t1);
+        assertEquals(List.of(a, b), find(a, t1));
+    }
+
+    @Test
+    public void testChainWithoutCycle() {
+        // T2 initializes A and waits for B, which T3 initializes without waiting
+        owners.put(a, t2);
+        waiting.put(t2, b);
+        owners.put(b, t3);
+        assertNull(find(a, t1));
+    }
+
+    @Test
+    public void testOtherThreadsCycle() {
+        // T2 and T3 are deadlocked with each other; the search must still end, and T1 is not part of the cycle
+        owners.put(a, t2);
+        waiting.put(t2, b);
+        owners.put(b, t3);
+        waiting.put(t3, a);
+        assertNull(find(a, t1));
+    }
+
+    private List<Cls> find(Cls start, Thr thread) {
+        return InitializationCycles.find(start, thread, owners::get, waiting::get);
+    }
+}
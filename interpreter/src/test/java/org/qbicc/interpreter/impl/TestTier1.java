@@ -0,0 +1,147 @@
+package org.qbicc.interpreter.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.qbicc.graph.BasicBlock;
+import org.qbicc.graph.BasicBlockBuilder;
+import org.qbicc.graph.BlockLabel;
+import org.qbicc.graph.ParameterValue;
+import org.qbicc.graph.PhiValue;
+import org.qbicc.graph.Value;
+import org.qbicc.graph.schedule.Schedule;
+import org.qbicc.test.AbstractCompilerTestCase;
+import org.qbicc.type.ValueType;
+import org.qbicc.type.definition.DefinedTypeDefinition;
+import org.qbicc.type.definition.MethodBody;
+import org.qbicc.type.definition.classfile.ClassFile;
+import org.qbicc.type.definition.element.MethodElement;
+import org.qbicc.type.definition.element.ParameterElement;
+import org.qbicc.type.descriptor.BaseTypeDescriptor;
+import org.qbicc.type.descriptor.MethodDescriptor;
+import org.qbicc.type.descriptor.TypeDescriptor;
+import org.qbicc.type.generic.MethodSignature;
+import org.qbicc.type.generic.TypeSignature;
+
+/**
+ * Tests for the translation of a method body into its tier 1 form once the method has been invoked
+ * {@link VmInvokableImpl#TIER1_THRESHOLD} times. The method under test is
+ * {@code static int hash(int n, int a) { int h = 0; for (int i = 0; i < n; i ++) h = h * 31 + (i ^ a); return h; }}.
+ */
+public final class TestTier1 extends AbstractCompilerTestCase {
+
+    private static final int[][] INPUTS = {
+        { 0, 0 },
+        { 1, 7 },
+        { 10, -3 },
+        { 100, Integer.MAX_VALUE },
+        { 1000, 0x5a5a5a5a },
+    };
+
+    VmInvokableImpl invokable;
+
+    @BeforeEach
+    public void setUpEach() {
+        invokable = new VmInvokableImpl(defineHashMethod(defineClass("TestClass", null)));
+    }
+
+    @Test
+    public void testTierUpAtThreshold() {
+        for (long invCnt = 1; invCnt < VmInvokableImpl.TIER1_THRESHOLD; invCnt ++) {
+            assertEquals(Integer.valueOf(hash(10, (int) invCnt)), invoke(invCnt, 10, (int) invCnt));
+            assertFalse(invokable.isTier1());
+        }
+        assertEquals(Integer.valueOf(hash(10, 3)), invoke(VmInvokableImpl.TIER1_THRESHOLD, 10, 3));
+        assertTrue(invokable.isTier1());
+    }
+
+    @Test
+    public void testTier1AgreesWithInterpreter() {
+        final List<Object> interpreted = new ArrayList<>();
+        for (int[] input : INPUTS) {
+            interpreted.add(invoke(1, input[0], input[1]));
+        }
+        assertFalse(invokable.isTier1());
+        final List<Object> translated = new ArrayList<>();
+        for (int[] input : INPUTS) {
+            translated.add(invoke(VmInvokableImpl.TIER1_THRESHOLD, input[0], input[1]));
+        }
+        assertTrue(invokable.isTier1());
+        assertEquals(interpreted, translated);
+        for (int i = 0; i < INPUTS.length; i ++) {
+            assertEquals(Integer.valueOf(hash(INPUTS[i][0], INPUTS[i][1])), translated.get(i));
+        }
+    }
+
+    private Object invoke(long invCnt, int n, int a) {
+        final Frame frame = invokable.bind(null, null, null, List.of(Integer.valueOf(n), Integer.valueOf(a)));
+        return invokable.execute(frame, null, invCnt);
+    }
+
+    private static int hash(int n, int a) {
+        int h = 0;
+        for (int i = 0; i < n; i ++) {
+            h = h * 31 + (i ^ a);
+        }
+        return h;
+    }
+
+    private static MethodElement defineHashMethod(DefinedTypeDefinition enclosingType) {
+        final List<TypeDescriptor> parameterTypes = List.of(BaseTypeDescriptor.I, BaseTypeDescriptor.I);
+        final MethodDescriptor descriptor = MethodDescriptor.synthesize(bootClassContext, BaseTypeDescriptor.I, parameterTypes);
+        final MethodElement.Builder builder = MethodElement.builder("hash", descriptor, 0);
+        builder.setEnclosingType(enclosingType);
+        builder.setSignature(MethodSignature.synthesize(bootClassContext, descriptor));
+        builder.setModifiers(ClassFile.ACC_STATIC);
+        final List<ParameterElement> params = new ArrayList<>();
+        for (int i = 0; i < parameterTypes.size(); i ++) {
+            final ParameterElement.Builder pb = ParameterElement.builder("p" + i, parameterTypes.get(i), i);
+            pb.setEnclosingType(enclosingType);
+            pb.setTypeParameterContext(enclosingType);
+            pb.setSignature(TypeSignature.synthesize(bootClassContext, parameterTypes.get(i)));
+            params.add(pb.build());
+        }
+        builder.setParameters(params);
+        builder.setMethodBodyFactory((index, e) -> {
+            final ValueType int32 = ts.getSignedInteger32Type();
+            final BasicBlockBuilder bbb = BasicBlockBuilder.simpleBuilder(ts, e);
+            final ParameterValue n = bbb.parameter(int32, "p", 0);
+            final ParameterValue a = bbb.parameter(int32, "p", 1);
+            bbb.startMethod(List.of(n, a));
+            final BlockLabel entryLabel = new BlockLabel();
+            final BlockLabel header = new BlockLabel();
+            final BlockLabel body = new BlockLabel();
+            final BlockLabel exit = new BlockLabel();
+            bbb.begin(entryLabel);
+            final BasicBlock entry = bbb.goto_(header);
+
+            bbb.begin(header);
+            final PhiValue i = bbb.phi(int32, header);
+            final PhiValue h = bbb.phi(int32, header);
+            bbb.if_(bbb.isLt(i, n), body, exit);
+
+            bbb.begin(body);
+            final Value nextH = bbb.add(bbb.multiply(h, lf.literalOf(31)), bbb.xor(i, a));
+            final Value nextI = bbb.add(i, lf.literalOf(1));
+            final BasicBlock latch = bbb.goto_(header);
+
+            bbb.begin(exit);
+            bbb.return_(h);
+
+            i.setValueForBlock(ctxt, e, entry, lf.literalOf(0));
+            i.setValueForBlock(ctxt, e, latch, nextI);
+            h.setValueForBlock(ctxt, e, entry, lf.literalOf(0));
+            h.setValueForBlock(ctxt, e, latch, nextH);
+            bbb.finish();
+            final BasicBlock entryBlock = BlockLabel.getTargetOf(entryLabel);
+            return MethodBody.of(entryBlock, Schedule.forMethod(entryBlock), null, List.of(n, a));
+        }, 0);
+        return builder.build();
+    }
+}
@@ -165,6 +165,27 @@ public class ElfObjectFileProvider implements ObjectFileProvider {
                 return ".llvm_stackmaps";
             }
 
+            @Override
+            public String getRelocationSymbolForSectionOffset(String sectionName, long offset) {
+                ElfRelocationTableEntry entry = elfHeader.findReloEntryForOffset(".rela" + sectionName, offset);
+                if (entry == null) {
+                    entry = elfHeader.findReloEntryForOffset(".rel" + sectionName, offset);
+                    if (entry == null) {
+                        return null;
+                    }
+                }
+                ElfSymbolTableEntry reloSymbol = elfHeader.findSymbol(entry.getSymbolIndex());
+                if (reloSymbol == null) {
+                    return null;
+                }
+                return reloSymbol.getName();
+            }
+
+            @Override
+            public String getFaultMapSectionName() {
+                return ".llvm_faultmaps";
+            }
+
             private ElfSymbolTableEntry findSymbol(final String name) {
                 final ElfSymbolTableEntry symbol = elfHeader.findSymbol(name);
                 if (symbol == null) {
@@ -263,6 +263,17 @@ public final class MachOObjectFile implements ObjectFile {
         return "__llvm_stackmaps";
     }
 
+    @Override
+    public String getRelocationSymbolForSectionOffset(String sectionName, long offset) {
+        // relocations are not read from Mach-O files; implicit null checks, which need them, are not enabled for Mach-O targets
+        return null;
+    }
+
+    @Override
+    public String getFaultMapSectionName() {
+        return "__llvm_faultmaps";
+    }
+
     public void close() {
         buffer.close();
     }
@@ -33,4 +33,20 @@ public interface ObjectFile extends Closeable {
     String getRelocationSymbolForSymbolValue(String symbol);
 
     String getStackMapSectionName();
+
+    /**
+     * Get the name of the symbol referenced by the relocation which applies at the given offset of the given section.
+     *
+     * @param sectionName the name of the section containing the relocated location
+     * @param offset the offset of the relocated location within the section
+     * @return the symbol name, or {@code null} if there is no such relocation or it cannot be determined
+     */
+    String getRelocationSymbolForSectionOffset(String sectionName, long offset);
+
+    /**
+     * Get the name of the section which holds the LLVM fault map, if any.
+     *
+     * @return the section name, or {@code null} if fault maps are not supported for this object file format
+     */
+    String getFaultMapSectionName();
 }
@@ -137,6 +137,16 @@ public final class WasmObjectFile implements ObjectFile {
         return "__llvm_stackmaps";
     }
 
+    @Override
+    public String getRelocationSymbolForSectionOffset(String sectionName, long offset) {
+        return null;
+    }
+
+    @Override
+    public String getFaultMapSectionName() {
+        return null;
+    }
+
     @Override
     public void close() throws IOException {
 
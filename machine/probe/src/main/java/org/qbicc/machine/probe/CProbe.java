@@ -72,83 +72,115 @@ public final class CProbe {
      * @throws IOException if communications with or execution of the compiler failed
      */
     public Result run(CToolChain toolChain, ObjectFileProvider objectFileProvider, DiagnosticContext errorReporter) throws IOException {
+        return run(toolChain, objectFileProvider, errorReporter, null);
+    }
+
+    /**
+     * Run the probe, reusing the object file of an identical earlier probe if it is in the given cache.
+     * A probe which was found in the cache does not report any errors or warnings, except that a probe which failed
+     * to compile is compiled again if there is a context to report its errors to.
+     *
+     * @param toolChain the C tool chain to use (must not be {@code null})
+     * @param objectFileProvider the object file provider to use (must not be {@code null})
+     * @param errorReporter the context to report errors to, or {@code null} to skip error reporting
+     * @param cache the probe cache, or {@code null} to always compile the probe
+     * @return the result, or {@code null} if the compilation failed
+     * @throws IOException if communications with or execution of the compiler failed
+     */
+    public Result run(CToolChain toolChain, ObjectFileProvider objectFileProvider, DiagnosticContext errorReporter, CProbeCache cache) throws IOException {
         final CCompilerInvoker inv = toolChain.newCompilerInvoker();
         StringBuilder b = new StringBuilder();
         for (Step item : items) {
             item.appendTo(b);
         }
-        inv.setSource(InputSource.from(b));
         final Path path = Files.createTempFile("qbicc-probe-", "." + objectFileProvider.getObjectType().objectSuffix());
         try (Closeable c = ProbeUtil.deleting(path)) {
-            inv.setOutputPath(path);
-            if (errorReporter != null) {
-                inv.setMessageHandler(new ToolMessageHandler() {
-                    public void handleMessage(final ToolInvoker invoker, final Level level, final String file, final int line, final int column, final String message) {
-                        if (level == Level.ERROR) {
-                            errorReporter.error(Location.builder().setSourceFilePath(file).setLineNumber(line).build(), "%s: %s", invoker.getTool().getToolName(), message);
-                        } else if (level == Level.WARNING) {
-                            errorReporter.warning(Location.builder().setSourceFilePath(file).setLineNumber(line).build(), "%s: %s", invoker.getTool().getToolName(), message);
-                        } else if (level == Level.INFO) {
-                            errorReporter.note(Location.builder().setSourceFilePath(file).setLineNumber(line).build(), "%s: %s", invoker.getTool().getToolName(), message);
-                        }
-                    }
-                });
-            }
-            try {
-                inv.invoke();
-            } catch (CompilationFailureException e) {
-                // no result
-                return null;
-            }
-            // analyze the result
-            try (final ObjectFile objectFile = objectFileProvider.openObjectFile(path)) {
-                int cnt = constants.size();
-                ByteOrder byteOrder = objectFile.getByteOrder();
-                final Map<String, ConstantInfo> constantInfos = new HashMap<>(cnt);
-                for (int i = 0; i < cnt; i ++) {
-                    String name = constants.get(i);
-                    boolean defined = objectFile.getSymbolValueAsByte("cp_is_defined" + i) != 0;
-                    int size = (int) objectFile.getSymbolValueAsLong("cp_size" + i);
-                    boolean signed = objectFile.getSymbolValueAsByte("cp_is_signed" + i) != 0;
-                    boolean unsigned = objectFile.getSymbolValueAsByte("cp_is_unsigned" + i) != 0;
-                    boolean floating = objectFile.getSymbolValueAsByte("cp_is_floating" + i) != 0;
-                    boolean bool = objectFile.getSymbolValueAsByte("cp_is_bool" + i) != 0;
-                    String symbol = objectFile.getRelocationSymbolForSymbolValue(name);
-                    constantInfos.put(name, new ConstantInfo(defined, objectFile.getSymbolAsBytes("cp_value" + i, size), symbol, byteOrder, signed, unsigned, floating, bool));
+            String key = cache == null ? null : cache.computeKey(inv, objectFileProvider, b.toString());
+            if (key == null || ! cache.restore(key, path)) {
+                if (! compile(inv, b, path, errorReporter)) {
+                    return null;
                 }
-                cnt = functionNames.size();
-                final Map<String, FunctionInfo> functionInfos = new HashMap<>(cnt);
-                for (int i = 0; i < cnt; i ++) {
-                    String name = functionNames.get(i);
-                    int size = (int) objectFile.getSymbolValueAsLong("fn_name_size" + i) - 1; // -1 to exclude the '\0' character
-                    String stringValue = objectFile.getSymbolValueAsUtfString("fn_name" + i, size);
-                    functionInfos.put(name, new FunctionInfo(stringValue));
+                if (key != null) {
+                    cache.store(key, path);
                 }
-                cnt = types.size();
-                final Map<Type, Type.Info> typeInfos = new HashMap<>(cnt);
-                final Map<Type, Map<String, Type.Info>> memberInfos = new HashMap<>();
-                for (int i = 0; i < cnt; i ++) {
-                    Type type = types.get(i);
-                    long overallSize = objectFile.getSymbolValueAsLong("tp_overall_size" + i);
-                    long overallAlign = objectFile.getSymbolValueAsLong("tp_overall_align" + i);
-                    boolean signed = objectFile.getSymbolValueAsByte("tp_is_signed" + i) != 0;
-                    boolean unsigned = objectFile.getSymbolValueAsByte("tp_is_unsigned" + i) != 0;
-                    boolean floating = objectFile.getSymbolValueAsByte("tp_is_floating" + i) != 0;
-                    Type.Info info = new Type.Info(overallSize, overallAlign, 0, signed, unsigned, floating);
-                    Map<String, Type.Info> memberInfo = new HashMap<>(type.getMembers().size());
-                    for (String memberName : type.getMembers()) {
-                        long memberSize = objectFile.getSymbolValueAsLong("tp_sizeof_" + memberName + i);
-                        long memberOffset = objectFile.getSymbolValueAsLong("tp_offsetof_" + memberName + i);
-                        boolean memberSigned = objectFile.getSymbolValueAsByte("tp_is_signed_" + memberName + i) != 0;
-                        boolean memberUnsigned = objectFile.getSymbolValueAsByte("tp_is_unsigned_" + memberName + i) != 0;
-                        boolean memberFloating = objectFile.getSymbolValueAsByte("tp_is_floating_" + memberName + i) != 0;
-                        memberInfo.put(memberName, new Type.Info(memberSize, 0, memberOffset, memberSigned, memberUnsigned, memberFloating));
+            }
+            return analyze(objectFileProvider, path);
+        }
+    }
+
+    private static boolean compile(CCompilerInvoker inv, StringBuilder source, Path path, DiagnosticContext errorReporter) throws IOException {
+        inv.setSource(InputSource.from(source));
+        inv.setOutputPath(path);
+        if (errorReporter != null) {
+            inv.setMessageHandler(new ToolMessageHandler() {
+                public void handleMessage(final ToolInvoker invoker, final Level level, final String file, final int line, final int column, final String message) {
+                    if (level == Level.ERROR) {
+                        errorReporter.error(Location.builder().setSourceFilePath(file).setLineNumber(line).build(), "%s: %s", invoker.getTool().getToolName(), message);
+                    } else if (level == Level.WARNING) {
+                        errorReporter.warning(Location.builder().setSourceFilePath(file).setLineNumber(line).build(), "%s: %s", invoker.getTool().getToolName(), message);
+                    } else if (level == Level.INFO) {
+                        errorReporter.note(Location.builder().setSourceFilePath(file).setLineNumber(line).build(), "%s: %s", invoker.getTool().getToolName(), message);
                     }
-                    typeInfos.put(type, info);
-                    memberInfos.put(type, memberInfo);
                 }
-                return new Result(typeInfos, memberInfos, functionInfos, constantInfos, byteOrder);
+            });
+        }
+        try {
+            inv.invoke();
+        } catch (CompilationFailureException e) {
+            // no result
+            return false;
+        }
+        return true;
+    }
+
+    private Result analyze(ObjectFileProvider objectFileProvider, Path path) throws IOException {
+        try (final ObjectFile objectFile = objectFileProvider.openObjectFile(path)) {
+            int cnt = constants.size();
+            ByteOrder byteOrder = objectFile.getByteOrder();
+            final Map<String, ConstantInfo> constantInfos = new HashMap<>(cnt);
+            for (int i = 0; i < cnt; i ++) {
+                String name = constants.get(i);
+                boolean defined = objectFile.getSymbolValueAsByte("cp_is_defined" + i) != 0;
+                int size = (int) objectFile.getSymbolValueAsLong("cp_size" + i);
+                boolean signed = objectFile.getSymbolValueAsByte("cp_is_signed" + i) != 0;
+                boolean unsigned = objectFile.getSymbolValueAsByte("cp_is_unsigned" + i) != 0;
+                boolean floating = objectFile.getSymbolValueAsByte("cp_is_floating" + i) != 0;
+                boolean bool = objectFile.getSymbolValueAsByte("cp_is_bool" + i) != 0;
+                String symbol = objectFile.getRelocationSymbolForSymbolValue(name);
+                constantInfos.put(name, new ConstantInfo(defined, objectFile.getSymbolAsBytes("cp_value" + i, size), symbol, byteOrder, signed, unsigned, floating, bool));
             }
+            cnt = functionNames.size();
+            final Map<String, FunctionInfo> functionInfos = new HashMap<>(cnt);
+            for (int i = 0; i < cnt; i ++) {
+                String name = functionNames.get(i);
+                int size = (int) objectFile.getSymbolValueAsLong("fn_name_size" + i) - 1; // -1 to exclude the '\0' character
+                String stringValue = objectFile.getSymbolValueAsUtfString("fn_name" + i, size);
+                functionInfos.put(name, new FunctionInfo(stringValue));
+            }
+            cnt = types.size();
+            final Map<Type, Type.Info> typeInfos = new HashMap<>(cnt);
+            final Map<Type, Map<String, Type.Info>> memberInfos = new HashMap<>();
+            for (int i = 0; i < cnt; i ++) {
+                Type type = types.get(i);
+                long overallSize = objectFile.getSymbolValueAsLong("tp_overall_size" + i);
+                long overallAlign = objectFile.getSymbolValueAsLong("tp_overall_align" + i);
+                boolean signed = objectFile.getSymbolValueAsByte("tp_is_signed" + i) != 0;
+                boolean unsigned = objectFile.getSymbolValueAsByte("tp_is_unsigned" + i) != 0;
+                boolean floating = objectFile.getSymbolValueAsByte("tp_is_floating" + i) != 0;
+                Type.Info info = new Type.Info(overallSize, overallAlign, 0, signed, unsigned, floating);
+                Map<String, Type.Info> memberInfo = new HashMap<>(type.getMembers().size());
+                for (String memberName : type.getMembers()) {
+                    long memberSize = objectFile.getSymbolValueAsLong("tp_sizeof_" + memberName + i);
+                    long memberOffset = objectFile.getSymbolValueAsLong("tp_offsetof_" + memberName + i);
+                    boolean memberSigned = objectFile.getSymbolValueAsByte("tp_is_signed_" + memberName + i) != 0;
+                    boolean memberUnsigned = objectFile.getSymbolValueAsByte("tp_is_unsigned_" + memberName + i) != 0;
+                    boolean memberFloating = objectFile.getSymbolValueAsByte("tp_is_floating_" + memberName + i) != 0;
+                    memberInfo.put(memberName, new Type.Info(memberSize, 0, memberOffset, memberSigned, memberUnsigned, memberFloating));
+                }
+                typeInfos.put(type, info);
+                memberInfos.put(type, memberInfo);
+            }
+            return new Result(typeInfos, memberInfos, functionInfos, constantInfos, byteOrder);
         }
     }
 
@@ -167,6 +199,21 @@ public final class CProbe {
             include("<limits.h>");
         }
 
+        Builder(Builder preamble) {
+            if (! (preamble.types.isEmpty() && preamble.constants.isEmpty() && preamble.functionNames.isEmpty())) {
+                throw new IllegalArgumentException("Probe preamble must only contain preprocessor directives");
+            }
+            items.addAll(preamble.items);
+        }
+
+        String getSource() {
+            StringBuilder b = new StringBuilder();
+            for (Step item : items) {
+                item.appendTo(b);
+            }
+            return b.toString();
+        }
+
         // top level steps
 
         public Builder include(String include) {
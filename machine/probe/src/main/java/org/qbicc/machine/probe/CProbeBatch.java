@@ -0,0 +1,154 @@
+package org.qbicc.machine.probe;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
+
+import io.smallrye.common.constraint.Assert;
+import org.qbicc.context.DiagnosticContext;
+import org.qbicc.machine.object.ObjectFileProvider;
+import org.qbicc.machine.tool.CToolChain;
+
+/**
+ * A collector of probes which are resolved together. Probes which are submitted with the same preamble of
+ * preprocessor directives are held until the result of any one of them is requested, and are then compiled as a
+ * single {@link CProbe}, so that a binding class with many constants costs one compiler invocation instead of one
+ * per constant.
+ * <p>
+ * If the combined probe fails to compile (for example because one of the probed constants does not exist), the batch
+ * is split in half and each half is retried, until each failing probe has been run on its own.
+ */
+public final class CProbeBatch {
+    private final CToolChain toolChain;
+    private final ObjectFileProvider objectFileProvider;
+    private final CProbeCache cache;
+    private final Map<String, List<Request>> pending = new HashMap<>();
+
+    /**
+     * Construct a new instance.
+     *
+     * @param toolChain the C tool chain to use (must not be {@code null})
+     * @param objectFileProvider the object file provider to use (must not be {@code null})
+     */
+    public CProbeBatch(CToolChain toolChain, ObjectFileProvider objectFileProvider) {
+        this(toolChain, objectFileProvider, null);
+    }
+
+    /**
+     * Construct a new instance.
+     *
+     * @param toolChain the C tool chain to use (must not be {@code null})
+     * @param objectFileProvider the object file provider to use (must not be {@code null})
+     * @param cache the probe cache, or {@code null} to always compile the probes
+     */
+    public CProbeBatch(CToolChain toolChain, ObjectFileProvider objectFileProvider, CProbeCache cache) {
+        this.toolChain = Assert.checkNotNullParam("toolChain", toolChain);
+        this.objectFileProvider = Assert.checkNotNullParam("objectFileProvider", objectFileProvider);
+        this.cache = cache;
+    }
+
+    /**
+     * Submit a probe to be run with the other probes which share its preamble.
+     *
+     * @param preamble the builder holding the include, define and undef directives of the probe (must not be {@code null});
+     *      it is copied, and must not contain any probes
+     * @param probes the action which adds the probes to a builder (must not be {@code null}); it may be run more
+     *      than once and from any thread, so it must not have side effects
+     * @param errorReporter the context to report errors to when the probe is run on its own, or {@code null} to skip
+     *      error reporting
+     * @return the request, which is used to get the probe result
+     */
+    public Request submit(CProbe.Builder preamble, Consumer<CProbe.Builder> probes, DiagnosticContext errorReporter) {
+        Assert.checkNotNullParam("preamble", preamble);
+        Assert.checkNotNullParam("probes", probes);
+        CProbe.Builder copy = new CProbe.Builder(preamble);
+        Request request = new Request(copy.getSource(), copy, probes, errorReporter);
+        synchronized (pending) {
+            pending.computeIfAbsent(request.key, k -> new ArrayList<>()).add(request);
+        }
+        return request;
+    }
+
+    void runPending(String key) {
+        List<Request> group;
+        synchronized (pending) {
+            group = pending.remove(key);
+        }
+        if (group != null) {
+            run(group);
+        }
+    }
+
+    private void run(List<Request> group) {
+        CProbe.Builder builder = new CProbe.Builder(group.get(0).preamble);
+        CProbe.Result result;
+        try {
+            for (Request request : group) {
+                request.probes.accept(builder);
+            }
+            result = builder.build().run(toolChain, objectFileProvider, group.size() == 1 ? group.get(0).errorReporter : null, cache);
+        } catch (IOException | RuntimeException e) {
+            for (Request request : group) {
+                request.result.completeExceptionally(e);
+            }
+            return;
+        }
+        if (result == null && group.size() > 1) {
+            int half = group.size() >>> 1;
+            run(group.subList(0, half));
+            run(group.subList(half, group.size()));
+        } else {
+            for (Request request : group) {
+                request.result.complete(result);
+            }
+        }
+    }
+
+    /**
+     * A submitted probe.
+     */
+    public final class Request {
+        private final String key;
+        private final CProbe.Builder preamble;
+        private final Consumer<CProbe.Builder> probes;
+        private final DiagnosticContext errorReporter;
+        private final CompletableFuture<CProbe.Result> result = new CompletableFuture<>();
+
+        Request(String key, CProbe.Builder preamble, Consumer<CProbe.Builder> probes, DiagnosticContext errorReporter) {
+            this.key = key;
+            this.preamble = preamble;
+            this.probes = probes;
+            this.errorReporter = errorReporter;
+        }
+
+        /**
+         * Get the result of the probe, running it along with every pending probe which shares its preamble if it has
+         * not yet been run. The result may also hold the information of the other probes of the batch.
+         *
+         * @return the result, or {@code null} if the compilation failed
+         * @throws IOException if communications with or execution of the compiler failed
+         */
+        public CProbe.Result getResult() throws IOException {
+            if (! result.isDone()) {
+                runPending(key);
+            }
+            try {
+                return result.join();
+            } catch (CompletionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException ioe) {
+                    throw ioe;
+                } else if (cause instanceof RuntimeException re) {
+                    throw re;
+                } else {
+                    throw e;
+                }
+            }
+        }
+    }
+}
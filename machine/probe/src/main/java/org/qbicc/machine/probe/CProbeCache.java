@@ -0,0 +1,110 @@
+package org.qbicc.machine.probe;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+import org.qbicc.context.AttachmentKey;
+import org.qbicc.context.DiagnosticContext;
+import org.qbicc.context.ObjectFileCache;
+import org.qbicc.machine.object.ObjectFileProvider;
+import org.qbicc.machine.tool.CCompilerInvoker;
+import org.qbicc.machine.tool.Tool;
+
+/**
+ * The persistent cache of the object files compiled from probes. The key of a probe is a hash of the probe source
+ * together with a description of the C tool chain which compiled it. Only probes which compile are cached.
+ */
+public final class CProbeCache {
+    private static final AttachmentKey<CProbeCache> KEY = new AttachmentKey<>();
+
+    private final ObjectFileCache cache;
+
+    private CProbeCache(final Path directory) {
+        cache = new ObjectFileCache("C probe cache", directory);
+    }
+
+    /**
+     * Enable the probe cache for the compilation.
+     *
+     * @param ctxt the context of the compilation
+     * @param directory the cache directory (must not be {@code null})
+     */
+    public static void enable(DiagnosticContext ctxt, Path directory) {
+        ctxt.computeAttachmentIfAbsent(KEY, () -> new CProbeCache(directory));
+    }
+
+    /**
+     * Get the probe cache for the compilation.
+     *
+     * @param ctxt the context of the compilation
+     * @return the probe cache, or {@code null} if probes are not cached
+     */
+    public static CProbeCache get(DiagnosticContext ctxt) {
+        return ctxt.getAttachment(KEY);
+    }
+
+    /**
+     * Report the number of cache hits and misses of the compilation.
+     *
+     * @param ctxt the context of the compilation
+     */
+    public static void reportStats(DiagnosticContext ctxt) {
+        CProbeCache cache = get(ctxt);
+        if (cache != null) {
+            cache.cache.reportStats(ctxt);
+        }
+    }
+
+    /**
+     * Compute the cache key of a probe.
+     *
+     * @param invoker the compiler invoker which would compile the probe (must not be {@code null})
+     * @param objectFileProvider the object file provider which reads the compiled probe (must not be {@code null})
+     * @param source the probe source (must not be {@code null})
+     * @return the cache key
+     */
+    String computeKey(CCompilerInvoker invoker, ObjectFileProvider objectFileProvider, String source) throws IOException {
+        // everything which affects the object file produced from the probe
+        Tool tool = invoker.getTool();
+        StringBuilder b = new StringBuilder();
+        b.append(tool.getImplementationName()).append('\n');
+        b.append(tool.getVersion()).append('\n');
+        b.append(tool.getPlatform()).append('\n');
+        b.append(invoker.getPath()).append('\n');
+        b.append(objectFileProvider.getObjectType()).append('\n');
+        int cnt = invoker.getIncludePathCount();
+        for (int i = 0; i < cnt; i ++) {
+            b.append("-I").append(invoker.getIncludePath(i)).append('\n');
+        }
+        cnt = invoker.getDefinedSymbolCount();
+        for (int i = 0; i < cnt; i ++) {
+            b.append("-D").append(invoker.getDefinedSymbol(i)).append('=').append(invoker.getDefinedSymbolValue(i)).append('\n');
+        }
+        return cache.computeKey(b.toString(), new ByteArrayInputStream(source.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Copy the cached object file with the given key to the given path, if there is one.
+     *
+     * @param key the cache key (must not be {@code null})
+     * @param objectPath the object file path (must not be {@code null})
+     * @return {@code true} if the object file was found in the cache, or {@code false} otherwise
+     * @throws IOException if the cached object file could not be copied
+     */
+    boolean restore(String key, Path objectPath) throws IOException {
+        return cache.restore(key, objectPath);
+    }
+
+    /**
+     * Store the given object file in the cache under the given key.
+     *
+     * @param key the cache key (must not be {@code null})
+     * @param objectPath the compiled object file path (must not be {@code null})
+     * @throws IOException if the object file could not be stored
+     */
+    void store(String key, Path objectPath) throws IOException {
+        cache.store(key, objectPath);
+    }
+}
@@ -121,4 +121,20 @@ public class TestProbes {
         assertTrue(result.getConstantInfo("INT8_MAX").isDefined());
         assertEquals(Byte.MAX_VALUE, result.getConstantInfo("INT8_MAX").getValueAsInt());
     }
+
+    @ParameterizedTest
+    @ArgumentsSource(ArgProvider.class)
+    public void testBatchedProbes(CToolChain compiler, ObjectFileProvider objectFileProvider) throws Exception {
+        final CProbeBatch batch = new CProbeBatch(compiler, objectFileProvider);
+        final CProbe.Builder preamble = CProbe.builder().include("<stdint.h>");
+        final CProbeBatch.Request int8Max = batch.submit(preamble, b -> b.probeConstant("INT8_MAX"), null);
+        final CProbeBatch.Request missing = batch.submit(preamble, b -> b.probeConstant("QBICC_NO_SUCH_CONSTANT"), null);
+        final CProbeBatch.Request int16Max = batch.submit(preamble, b -> b.probeConstant("INT16_MAX"), null);
+        final CProbe.Result result = int8Max.getResult();
+        assertNotNull(result);
+        assertEquals(Byte.MAX_VALUE, result.getConstantInfo("INT8_MAX").getValueAsInt());
+        // the batch failed as a whole, so the undefined constant must have been split off
+        assertNull(missing.getResult());
+        assertEquals(Short.MAX_VALUE, int16Max.getResult().getConstantInfo("INT16_MAX").getValueAsInt());
+    }
 }
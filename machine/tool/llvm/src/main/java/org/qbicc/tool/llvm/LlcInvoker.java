@@ -17,4 +17,14 @@ public interface LlcInvoker extends LlvmInvoker {
     void setRelocationModel(RelocationModel relocationModel);
 
     RelocationModel getRelocationModel();
+
+    /**
+     * Enable or disable the folding of {@code make.implicit} null checks into faulting memory accesses.
+     * When enabled, the object file will contain a fault map section describing each folded check.
+     *
+     * @param implicitNullChecks {@code true} to enable implicit null checks
+     */
+    void setImplicitNullChecks(boolean implicitNullChecks);
+
+    boolean isImplicitNullChecks();
 }
@@ -13,6 +13,7 @@ final class LlcInvokerImpl extends AbstractLlvmInvoker implements LlcInvoker {
     private LlcOptLevel optLevel = LlcOptLevel.O2;
     private OutputFormat outputFormat = OutputFormat.OBJ;
     private RelocationModel relocationModel = RelocationModel.Static;
+    private boolean implicitNullChecks;
 
     LlcInvokerImpl(final LlvmToolChainImpl tool, final Path path) {
         super(tool, path);
@@ -46,6 +47,14 @@ final class LlcInvokerImpl extends AbstractLlvmInvoker implements LlcInvoker {
         return relocationModel;
     }
 
+    public void setImplicitNullChecks(final boolean implicitNullChecks) {
+        this.implicitNullChecks = implicitNullChecks;
+    }
+
+    public boolean isImplicitNullChecks() {
+        return implicitNullChecks;
+    }
+
     void addArguments(final List<String> cmd) {
         Platform platform = getTool().getPlatform();
         cmd.add("-mtriple=" + platform.getCpu().toString() + "-" + platform.getOs().toString() + "-" + platform.getAbi().toString());
@@ -56,5 +65,8 @@ final class LlcInvokerImpl extends AbstractLlvmInvoker implements LlcInvoker {
             cmd.add("--dwarf64");
         }
         cmd.add("--dwarf-version=4");
+        if (implicitNullChecks) {
+            cmd.add("-enable-implicit-null-checks");
+        }
     }
 }
@@ -0,0 +1,20 @@
+package org.qbicc.tool.llvm;
+
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * An invoker for {@code llvm-link}, which merges several modules into one bitcode module.
+ */
+public interface LlvmLinkInvoker extends LlvmInvoker {
+    LlvmToolChain getTool();
+
+    /**
+     * Add modules to be merged. The modules are merged in the order in which they are added.
+     *
+     * @param modulePaths the module paths (must not be {@code null})
+     */
+    void addModules(List<Path> modulePaths);
+
+    List<Path> getModules();
+}
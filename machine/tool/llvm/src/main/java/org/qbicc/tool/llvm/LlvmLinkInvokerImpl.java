@@ -0,0 +1,39 @@
+package org.qbicc.tool.llvm;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import io.smallrye.common.constraint.Assert;
+
+/**
+ *
+ */
+final class LlvmLinkInvokerImpl extends AbstractLlvmInvoker implements LlvmLinkInvoker {
+    private final List<Path> modules = new ArrayList<>();
+
+    LlvmLinkInvokerImpl(final LlvmToolChainImpl tool, final Path path) {
+        super(tool, path);
+    }
+
+    public LlvmToolChain getTool() {
+        return super.getTool();
+    }
+
+    void addArguments(final List<String> cmd) {
+        for (Path module : modules) {
+            cmd.add(module.toString());
+        }
+        // write the merged bitcode to the destination
+        cmd.add("-o");
+        cmd.add("-");
+    }
+
+    public void addModules(final List<Path> modulePaths) {
+        modules.addAll(Assert.checkNotNullParam("modulePaths", modulePaths));
+    }
+
+    public List<Path> getModules() {
+        return List.copyOf(modules);
+    }
+}
@@ -0,0 +1,40 @@
+package org.qbicc.tool.llvm;
+
+import java.nio.file.Path;
+
+/**
+ * An invoker for {@code llvm-split}, which splits a module into several modules which can be compiled separately.
+ * The partitions are written to the output prefix followed by the partition index, starting at zero.
+ */
+public interface LlvmSplitInvoker extends LlvmInvoker {
+    LlvmToolChain getTool();
+
+    /**
+     * Set the number of partitions to split the module into.
+     *
+     * @param partitionCount the number of partitions (must be at least one)
+     */
+    void setPartitionCount(int partitionCount);
+
+    int getPartitionCount();
+
+    /**
+     * Set the path prefix of the partitions.
+     *
+     * @param outputPrefix the path prefix (must not be {@code null})
+     */
+    void setOutputPrefix(Path outputPrefix);
+
+    Path getOutputPrefix();
+
+    /**
+     * Get the path of a partition.
+     *
+     * @param index the partition index
+     * @return the partition path
+     */
+    default Path getPartitionPath(int index) {
+        Path prefix = getOutputPrefix();
+        return prefix.resolveSibling(prefix.getFileName().toString() + index);
+    }
+}
@@ -0,0 +1,47 @@
+package org.qbicc.tool.llvm;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import io.smallrye.common.constraint.Assert;
+
+/**
+ *
+ */
+final class LlvmSplitInvokerImpl extends AbstractLlvmInvoker implements LlvmSplitInvoker {
+    private int partitionCount = 1;
+    private Path outputPrefix;
+
+    LlvmSplitInvokerImpl(final LlvmToolChainImpl tool, final Path path) {
+        super(tool, path);
+    }
+
+    public LlvmToolChain getTool() {
+        return super.getTool();
+    }
+
+    void addArguments(final List<String> cmd) {
+        cmd.add("-j" + partitionCount);
+        cmd.add("-o");
+        cmd.add(Assert.checkNotNullParam("outputPrefix", outputPrefix).toString());
+        // read the module from the source
+        cmd.add("-");
+    }
+
+    public void setPartitionCount(final int partitionCount) {
+        Assert.checkMinimumParameter("partitionCount", 1, partitionCount);
+        this.partitionCount = partitionCount;
+    }
+
+    public int getPartitionCount() {
+        return partitionCount;
+    }
+
+    public void setOutputPrefix(final Path outputPrefix) {
+        this.outputPrefix = Assert.checkNotNullParam("outputPrefix", outputPrefix);
+    }
+
+    public Path getOutputPrefix() {
+        return outputPrefix;
+    }
+}
@@ -29,6 +29,22 @@ public interface LlvmToolChain extends Tool {
 
     OptInvoker newOptInvoker();
 
+    /**
+     * Construct a new {@code llvm-link} invoker.
+     *
+     * @return the invoker
+     * @throws UnsupportedOperationException if {@code llvm-link} was not found
+     */
+    LlvmLinkInvoker newLlvmLinkInvoker();
+
+    /**
+     * Construct a new {@code llvm-split} invoker.
+     *
+     * @return the invoker
+     * @throws UnsupportedOperationException if {@code llvm-split} was not found
+     */
+    LlvmSplitInvoker newLlvmSplitInvoker();
+
     static Iterable<LlvmToolChain> findAllLlvmToolChains(Platform platform, Predicate<? super LlvmToolChain> filter, ClassLoader classLoader) {
         Path llcPath = ToolUtil.findExecutable("llc");
         if (llcPath != null) {
@@ -46,7 +62,10 @@ public interface LlvmToolChain extends Tool {
                 Matcher matcher = Llvm.LLVM_VERSION_PATTERN.matcher(stdOut);
                 if (matcher.find()) {
                     String version = matcher.group(1);
-                    return List.of(new LlvmToolChainImpl(llcPath, optPath, platform, version));
+                    // only needed to merge and split modules, so these are optional
+                    Path llvmLinkPath = ToolUtil.findExecutable("llvm-link");
+                    Path llvmSplitPath = ToolUtil.findExecutable("llvm-split");
+                    return List.of(new LlvmToolChainImpl(llcPath, optPath, llvmLinkPath, llvmSplitPath, platform, version));
                 }
                 Llvm.log.warn("Failed to identify LLVM version string; skipping");
             }
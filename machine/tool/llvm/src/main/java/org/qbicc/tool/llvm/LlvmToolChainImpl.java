@@ -8,12 +8,16 @@ import io.smallrye.common.version.VersionScheme;
 final class LlvmToolChainImpl implements LlvmToolChain {
     private final Path llcPath;
     private final Path optPath;
+    private final Path llvmLinkPath;
+    private final Path llvmSplitPath;
     private final Platform platform;
     private final String version;
 
-    LlvmToolChainImpl(final Path llcPath, final Path optPath, final Platform platform, final String version) {
+    LlvmToolChainImpl(final Path llcPath, final Path optPath, final Path llvmLinkPath, final Path llvmSplitPath, final Platform platform, final String version) {
         this.llcPath = llcPath;
         this.optPath = optPath;
+        this.llvmLinkPath = llvmLinkPath;
+        this.llvmSplitPath = llvmSplitPath;
         this.platform = platform;
         this.version = version;
     }
@@ -26,6 +30,20 @@ final class LlvmToolChainImpl implements LlvmToolChain {
         return new OptInvokerImpl(this, optPath);
     }
 
+    public LlvmLinkInvoker newLlvmLinkInvoker() {
+        if (llvmLinkPath == null) {
+            throw new UnsupportedOperationException("llvm-link was not found");
+        }
+        return new LlvmLinkInvokerImpl(this, llvmLinkPath);
+    }
+
+    public LlvmSplitInvoker newLlvmSplitInvoker() {
+        if (llvmSplitPath == null) {
+            throw new UnsupportedOperationException("llvm-split was not found");
+        }
+        return new LlvmSplitInvokerImpl(this, llvmSplitPath);
+    }
+
     public Platform getPlatform() {
         return platform;
     }
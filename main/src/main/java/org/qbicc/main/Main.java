@@ -49,6 +49,7 @@ import org.qbicc.interpreter.impl.VmImpl;
 import org.qbicc.machine.arch.Platform;
 import org.qbicc.machine.object.ObjectFileProvider;
 import org.qbicc.machine.probe.CProbe;
+import org.qbicc.machine.probe.CProbeCache;
 import org.qbicc.machine.tool.CToolChain;
 import org.qbicc.machine.vfs.AbsoluteVirtualPath;
 import org.qbicc.machine.vfs.VFSUtils;
@@ -63,6 +64,8 @@ import org.qbicc.plugin.correctness.BuildTimeOnlyElementHandler;
 import org.qbicc.plugin.correctness.RuntimeChecksBasicBlockBuilder;
 import org.qbicc.plugin.correctness.StaticChecksBasicBlockBuilder;
 import org.qbicc.plugin.dispatch.DevirtualizingBasicBlockBuilder;
+import org.qbicc.plugin.dispatch.GuardedDevirtualizingBasicBlockBuilder;
+import org.qbicc.plugin.dispatch.InstantiatedReceivers;
 import org.qbicc.plugin.dispatch.DispatchTableBuilder;
 import org.qbicc.plugin.dispatch.DispatchTableEmitter;
 import org.qbicc.plugin.dot.DotGenerator;
@@ -71,11 +74,18 @@ import org.qbicc.plugin.gc.nogc.NoGcBasicBlockBuilder;
 import org.qbicc.plugin.gc.common.MultiNewArrayExpansionBasicBlockBuilder;
 import org.qbicc.plugin.gc.nogc.NoGcSetupHook;
 import org.qbicc.plugin.gc.nogc.NoGcTypeSystemConfigurator;
+import org.qbicc.plugin.gc.semispace.Semispace;
+import org.qbicc.plugin.gc.semispace.SemispaceBasicBlockBuilder;
+import org.qbicc.plugin.gc.semispace.SemispaceIntrinsics;
+import org.qbicc.plugin.gc.semispace.SemispaceSetupHook;
+import org.qbicc.plugin.gc.semispace.SemispaceTablesEmitter;
+import org.qbicc.plugin.gc.semispace.SemispaceTypeSystemConfigurator;
 import org.qbicc.plugin.instanceofcheckcast.InstanceOfCheckCastBasicBlockBuilder;
 import org.qbicc.plugin.instanceofcheckcast.SupersDisplayBuilder;
 import org.qbicc.plugin.instanceofcheckcast.SupersDisplayEmitter;
 import org.qbicc.plugin.intrinsics.IntrinsicBasicBlockBuilder;
 import org.qbicc.plugin.intrinsics.core.CoreIntrinsics;
+import org.qbicc.plugin.intrinsics.core.LazyStackTraceIntrinsics;
 import org.qbicc.plugin.llvm.LLVMDefaultModuleCompileStage;
 import org.qbicc.plugin.llvm.LLVMIntrinsics;
 import org.qbicc.plugin.lowering.BooleanAccessCopier;
@@ -83,9 +93,11 @@ import org.qbicc.plugin.lowering.InitCheckLoweringBasicBlockBuilder;
 import org.qbicc.plugin.lowering.LocalVariableFindingBasicBlockBuilder;
 import org.qbicc.plugin.lowering.LocalVariableLoweringBasicBlockBuilder;
 import org.qbicc.plugin.layout.ObjectAccessLoweringBuilder;
+import org.qbicc.plugin.layout.ReferenceBitMapEmitter;
 import org.qbicc.plugin.linker.LinkStage;
 import org.qbicc.plugin.llvm.LLVMCompatibleBasicBlockBuilder;
 import org.qbicc.plugin.llvm.LLVMCompileStage;
+import org.qbicc.plugin.llvm.LLVMObjectCache;
 import org.qbicc.plugin.llvm.LLVMGenerator;
 import org.qbicc.plugin.lowering.FunctionLoweringElementHandler;
 import org.qbicc.plugin.lowering.InvocationLoweringBasicBlockBuilder;
@@ -96,6 +108,7 @@ import org.qbicc.plugin.lowering.ThrowLoweringBasicBlockBuilder;
 import org.qbicc.plugin.lowering.VMHelpersSetupHook;
 import org.qbicc.plugin.main_method.AddMainClassHook;
 import org.qbicc.plugin.main_method.MainMethod;
+import org.qbicc.plugin.methodinfo.ImplicitNullChecks;
 import org.qbicc.plugin.methodinfo.MethodDataEmitter;
 import org.qbicc.plugin.native_.ConstTypeResolver;
 import org.qbicc.plugin.native_.ConstantDefiningBasicBlockBuilder;
@@ -111,12 +124,18 @@ import org.qbicc.plugin.native_.PointerBasicBlockBuilder;
 import org.qbicc.plugin.native_.PointerTypeResolver;
 import org.qbicc.plugin.native_.StructMemberAccessBasicBlockBuilder;
 import org.qbicc.plugin.objectmonitor.ObjectMonitorBasicBlockBuilder;
+import org.qbicc.plugin.objectmonitor.ThinLockBasicBlockBuilder;
+import org.qbicc.plugin.objectmonitor.ThinLockIntrinsics;
+import org.qbicc.plugin.objectmonitor.ThinLocks;
 import org.qbicc.plugin.opt.GotoRemovingVisitor;
 import org.qbicc.plugin.opt.FinalFieldLoadOptimizer;
 import org.qbicc.plugin.opt.InliningBasicBlockBuilder;
+import org.qbicc.plugin.opt.InliningPlanner;
 import org.qbicc.plugin.opt.LocalMemoryTrackingBasicBlockBuilder;
 import org.qbicc.plugin.opt.PhiOptimizerVisitor;
+import org.qbicc.plugin.opt.RangeCheckEliminatingVisitor;
 import org.qbicc.plugin.opt.SimpleOptBasicBlockBuilder;
+import org.qbicc.plugin.opt.ValueNumberingBasicBlockBuilder;
 import org.qbicc.plugin.opt.ea.EscapeAnalysisDotGenerator;
 import org.qbicc.plugin.opt.ea.EscapeAnalysisDotVisitor;
 import org.qbicc.plugin.opt.ea.EscapeAnalysisIntraMethodAnalysis;
@@ -127,6 +146,13 @@ import org.qbicc.plugin.patcher.PatcherResolverBasicBlockBuilder;
 import org.qbicc.plugin.patcher.PatcherTypeResolver;
 import org.qbicc.plugin.opt.ea.EscapeAnalysisInterMethodAnalysis;
 import org.qbicc.plugin.opt.ea.EscapeAnalysisOptimizeVisitor;
+import org.qbicc.plugin.opt.ea.ScalarReplacingBasicBlockBuilder;
+import org.qbicc.plugin.profile.BranchHintBasicBlockBuilder;
+import org.qbicc.plugin.profile.Profile;
+import org.qbicc.plugin.profile.ProfileBranchWeightBasicBlockBuilder;
+import org.qbicc.plugin.profile.ProfileDataEmitter;
+import org.qbicc.plugin.profile.ProfileInstrumentation;
+import org.qbicc.plugin.profile.ProfileInstrumentingBasicBlockBuilder;
 import org.qbicc.plugin.reachability.ReachabilityInfo;
 import org.qbicc.plugin.reachability.ReachabilityBlockBuilder;
 import org.qbicc.plugin.reflection.Reflection;
@@ -172,9 +198,26 @@ public class Main implements Callable<DiagnosticContext> {
     private final boolean optGotos;
     private final boolean optInlining;
     private final boolean optEscapeAnalysis;
+    private final boolean optInlineCaches;
+    private final boolean optGvn;
+    private final boolean optRangeChecks;
+    private final boolean optImplicitNullChecks;
+    private final boolean pgoInstrument;
+    private final Path pgoProfile;
     private final Platform platform;
     private final boolean smallTypeIds;
     private final List<Path> librarySearchPaths;
+    private final boolean workStealing;
+    private final boolean thinLocks;
+    private final boolean selectorITables;
+    private final boolean parallelClassInit;
+    private final long tlabSize;
+    private final Path llvmObjectCache;
+    private final Path probeCache;
+    private final boolean llvmEmitAssembly;
+    private final boolean lto;
+    private final boolean lazyStackTraces;
+    private final boolean framePointerStackWalk;
 
     Main(Builder builder) {
         outputPath = builder.outputPath;
@@ -187,10 +230,18 @@ public class Main implements Callable<DiagnosticContext> {
         graphGenConfig = builder.graphGenConfig;
         compileOutput = builder.compileOutput;
         optMemoryTracking = builder.optMemoryTracking;
-        optInlining = builder.optInlining;
+        pgoInstrument = builder.pgoInstrument;
+        pgoProfile = builder.pgoProfile;
+        // the entry counts of an instrumented build must include the calls which would otherwise be inlined
+        optInlining = builder.optInlining && ! pgoInstrument;
         optPhis = builder.optPhis;
         optGotos = builder.optGotos;
         optEscapeAnalysis = builder.optEscapeAnalysis;
+        // the receiver counts of an instrumented build must include the calls which would otherwise be guarded
+        optInlineCaches = builder.optInlineCaches && ! pgoInstrument;
+        optGvn = builder.optGvn;
+        optRangeChecks = builder.optRangeChecks;
+        optImplicitNullChecks = builder.optImplicitNullChecks;
         platform = builder.platform;
         smallTypeIds = builder.smallTypeIds;
         ArrayList<ClassPathEntry> bootPaths = new ArrayList<>(builder.bootPathsPrepend.size() + 6 + builder.bootPathsAppend.size());
@@ -207,11 +258,26 @@ public class Main implements Callable<DiagnosticContext> {
         if (nogc) {
             bootPaths.add(getCoreComponent("qbicc-runtime-gc-nogc"));
         }
+        boolean semispace = gc.equals("semispace");
+        if (semispace) {
+            bootPaths.add(getCoreComponent("qbicc-runtime-gc-semispace"));
+        }
         bootPaths.add(ClassPathEntry.ofClassLibraries(builder.classLibVersion));
         bootPaths.addAll(builder.bootPathsAppend);
         this.bootPaths = bootPaths;
         appPaths = List.copyOf(builder.appPaths);
         librarySearchPaths = builder.librarySearchPaths;
+        workStealing = builder.workStealing;
+        thinLocks = builder.thinLocks;
+        selectorITables = builder.selectorITables;
+        parallelClassInit = builder.parallelClassInit;
+        tlabSize = builder.tlabSize;
+        llvmObjectCache = builder.llvmObjectCache;
+        probeCache = builder.probeCache;
+        llvmEmitAssembly = builder.llvmEmitAssembly;
+        lto = builder.lto;
+        framePointerStackWalk = builder.framePointerStackWalk;
+        lazyStackTraces = builder.lazyStackTraces || framePointerStackWalk;
     }
 
     public DiagnosticContext call() {
@@ -229,7 +295,13 @@ public class Main implements Callable<DiagnosticContext> {
     void call0(BaseDiagnosticContext initialContext) {
         final Driver.Builder builder = Driver.builder();
         builder.setInitialContext(initialContext);
+        builder.setWorkStealing(workStealing);
         boolean nogc = gc.equals("none");
+        boolean semispace = gc.equals("semispace");
+        if (semispace && thinLocks) {
+            // the lock word and the forwarded bit do not both fit in the first word of an object
+            initialContext.error("Thin locks cannot be used with the semispace GC");
+        }
         int errors = initialContext.errors();
         if (errors == 0) {
             builder.setOutputDirectory(outputPath);
@@ -254,6 +326,9 @@ public class Main implements Callable<DiagnosticContext> {
                 } else {
                     CToolChain toolChain = toolChains.next();
                     builder.setToolChain(toolChain);
+                    if (probeCache != null) {
+                        CProbeCache.enable(initialContext, probeCache);
+                    }
                     // probe the basic system sizes
                     CProbe.Builder probeBuilder = CProbe.builder();
                     probeBuilder.include("<stdint.h>");
@@ -289,7 +364,7 @@ public class Main implements Callable<DiagnosticContext> {
                     // execute
                     CProbe probe = probeBuilder.build();
                     try {
-                        CProbe.Result probeResult = probe.run(toolChain, objectFileProvider, initialContext);
+                        CProbe.Result probeResult = probe.run(toolChain, objectFileProvider, initialContext, CProbeCache.get(initialContext));
                         if (probeResult == null) {
                             initialContext.error("Type system probe compiler execution failed");
                         } else {
@@ -328,9 +403,19 @@ public class Main implements Callable<DiagnosticContext> {
                             if (nogc) {
                                 new NoGcTypeSystemConfigurator().accept(tsBuilder);
                             }
+                            if (semispace) {
+                                new SemispaceTypeSystemConfigurator().accept(tsBuilder);
+                            }
                             builder.setTypeSystem(tsBuilder.build());
                             // add additional manual initializers by chaining `.andThen(...)`
                             builder.setVmFactory(cc -> {
+                                if (semispace) {
+                                    // header bits must be reserved before the object header type is created
+                                    Semispace.reserveHeaderBits(cc);
+                                }
+                                if (thinLocks) {
+                                    ThinLocks.reserveHeaderBits(cc);
+                                }
                                 CoreClasses.init(cc);
                                 ThrowExceptionHelper.init(cc);
                                 return VmImpl.create(cc,
@@ -395,12 +480,17 @@ public class Main implements Callable<DiagnosticContext> {
                                     vm.doAttached(vm.newThread(Thread.currentThread().getName(), vm.getMainThreadGroup(), false, Thread.currentThread().getPriority()), () -> wrapper.accept(ctxt));
                                 });
                                 builder.addPreHook(Phase.ADD, LLVMIntrinsics::register);
+                                builder.addPostHook(Phase.ADD, CProbeCache::reportStats);
+                                if (lazyStackTraces) {
+                                    // must come before the core intrinsics, which capture stack traces eagerly
+                                    builder.addPreHook(Phase.ADD, ctxt -> LazyStackTraceIntrinsics.register(ctxt, framePointerStackWalk));
+                                }
                                 builder.addPreHook(Phase.ADD, CoreIntrinsics::register);
                                 builder.addPreHook(Phase.ADD, CoreClasses::get);
                                 builder.addPreHook(Phase.ADD, ReflectionIntrinsics::register);
                                 builder.addPreHook(Phase.ADD, Reflection::get);
                                 builder.addPreHook(Phase.ADD, ThrowExceptionHelper::get);
-                                builder.addPreHook(Phase.ADD, GcCommon::registerIntrinsics);
+                                builder.addPreHook(Phase.ADD, compilationContext -> GcCommon.registerIntrinsics(compilationContext, tlabSize));
                                 builder.addPreHook(Phase.ADD, new VMHelpersSetupHook());
                                 builder.addPreHook(Phase.ADD, compilationContext -> {
                                     Vm vm = compilationContext.getVm();
@@ -414,14 +504,34 @@ public class Main implements Callable<DiagnosticContext> {
                                 if (nogc) {
                                     builder.addPreHook(Phase.ADD, new NoGcSetupHook());
                                 }
+                                if (semispace) {
+                                    builder.addPreHook(Phase.ADD, new SemispaceSetupHook());
+                                    builder.addPreHook(Phase.ADD, SemispaceIntrinsics::register);
+                                }
+                                if (thinLocks) {
+                                    builder.addPreHook(Phase.ADD, ThinLockIntrinsics::register);
+                                }
+                                if (optImplicitNullChecks) {
+                                    builder.addPreHook(Phase.ADD, ImplicitNullChecks::enable);
+                                }
+                                if (pgoInstrument) {
+                                    builder.addPreHook(Phase.ADD, ProfileInstrumentation::enable);
+                                }
+                                if (pgoProfile != null) {
+                                    builder.addPreHook(Phase.ADD, ctxt -> Profile.load(ctxt, pgoProfile));
+                                }
                                 builder.addPreHook(Phase.ADD, ReachabilityInfo::forceCoreClassesReachable);
                                 builder.addElementHandler(Phase.ADD, new ElementBodyCreator());
                                 builder.addElementHandler(Phase.ADD, new BuildTimeOnlyElementHandler());
                                 builder.addElementHandler(Phase.ADD, new ElementVisitorAdapter(new DotGenerator(Phase.ADD, graphGenConfig)));
-                                builder.addElementHandler(Phase.ADD, new ElementInitializer());
+                                builder.addElementHandler(Phase.ADD, new ElementInitializer(parallelClassInit));
                                 builder.addElementHandler(Phase.ADD, elem -> ReachabilityInfo.processAutoQueuedElement(elem));
+                                if (optInlining) {
+                                    builder.addElementHandler(Phase.ADD, InliningPlanner::registerElement);
+                                }
                                 builder.addBuilderFactory(Phase.ADD, BuilderStage.TRANSFORM, IntrinsicBasicBlockBuilder::createForAddPhase);
-                                if (nogc) {
+                                builder.addBuilderFactory(Phase.ADD, BuilderStage.TRANSFORM, BranchHintBasicBlockBuilder::createForAddPhase);
+                                if (nogc || semispace) {
                                     builder.addBuilderFactory(Phase.ADD, BuilderStage.TRANSFORM, MultiNewArrayExpansionBasicBlockBuilder::new);
                                 }
                                 builder.addBuilderFactory(Phase.ADD, BuilderStage.TRANSFORM, PatcherResolverBasicBlockBuilder::createIfNeeded);
@@ -445,6 +555,9 @@ public class Main implements Callable<DiagnosticContext> {
                                 builder.addBuilderFactory(Phase.ADD, BuilderStage.CORRECT, LocalThrowHandlingBasicBlockBuilder::new);
                                 builder.addBuilderFactory(Phase.ADD, BuilderStage.CORRECT, SynchronizedMethodBasicBlockBuilder::createIfNeeded);
                                 builder.addBuilderFactory(Phase.ADD, BuilderStage.OPTIMIZE, SimpleOptBasicBlockBuilder::new);
+                                if (optGvn) {
+                                    builder.addBuilderFactory(Phase.ADD, BuilderStage.OPTIMIZE, ValueNumberingBasicBlockBuilder::new);
+                                }
                                 builder.addBuilderFactory(Phase.ADD, BuilderStage.INTEGRITY, ReachabilityBlockBuilder::new);
                                 builder.addBuilderFactory(Phase.ADD, BuilderStage.INTEGRITY, StaticChecksBasicBlockBuilder::new);
                                 builder.addPostHook(Phase.ADD, ReachabilityInfo::reportStats);
@@ -452,6 +565,9 @@ public class Main implements Callable<DiagnosticContext> {
 
                                 builder.addPreHook(Phase.ANALYZE, new VMHelpersSetupHook());
                                 builder.addPreHook(Phase.ANALYZE, ReachabilityInfo::forceCoreClassesReachable);
+                                if (optInlining) {
+                                    builder.addPreHook(Phase.ANALYZE, InliningPlanner::planAll);
+                                }
                                 builder.addElementHandler(Phase.ANALYZE, new ElementBodyCopier());
                                 if (optEscapeAnalysis) {
                                     builder.addElementHandler(Phase.ANALYZE, new ElementVisitorAdapter(new EscapeAnalysisIntraMethodAnalysis()));
@@ -468,7 +584,11 @@ public class Main implements Callable<DiagnosticContext> {
                                 if (optPhis) {
                                     builder.addCopyFactory(Phase.ANALYZE, PhiOptimizerVisitor::new);
                                 }
+                                if (optRangeChecks) {
+                                    builder.addCopyFactory(Phase.ANALYZE, RangeCheckEliminatingVisitor::new);
+                                }
                                 builder.addBuilderFactory(Phase.ANALYZE, BuilderStage.TRANSFORM, IntrinsicBasicBlockBuilder::createForAnalyzePhase);
+                                builder.addBuilderFactory(Phase.ANALYZE, BuilderStage.TRANSFORM, BranchHintBasicBlockBuilder::createForAnalyzePhase);
                                 builder.addBuilderFactory(Phase.ANALYZE, BuilderStage.TRANSFORM, FinalFieldLoadOptimizer::new);
                                 builder.addBuilderFactory(Phase.ANALYZE, BuilderStage.TRANSFORM, ThreadLocalBasicBlockBuilder::new);
                                 builder.addBuilderFactory(Phase.ANALYZE, BuilderStage.TRANSFORM, DevirtualizingBasicBlockBuilder::new);
@@ -477,6 +597,9 @@ public class Main implements Callable<DiagnosticContext> {
                                 }
                                 builder.addBuilderFactory(Phase.ANALYZE, BuilderStage.CORRECT, NumericalConversionBasicBlockBuilder::new);
                                 builder.addBuilderFactory(Phase.ANALYZE, BuilderStage.OPTIMIZE, SimpleOptBasicBlockBuilder::new);
+                                if (optGvn) {
+                                    builder.addBuilderFactory(Phase.ANALYZE, BuilderStage.OPTIMIZE, ValueNumberingBasicBlockBuilder::new);
+                                }
                                 if (optInlining) {
                                     builder.addBuilderFactory(Phase.ANALYZE, BuilderStage.OPTIMIZE, InliningBasicBlockBuilder::new);
                                 }
@@ -485,11 +608,17 @@ public class Main implements Callable<DiagnosticContext> {
                                 builder.addBuilderFactory(Phase.ANALYZE, BuilderStage.INTEGRITY, StaticChecksBasicBlockBuilder::new);
 
                                 builder.addPostHook(Phase.ANALYZE, ReachabilityInfo::reportStats);
+                                if (optInlineCaches) {
+                                    builder.addPostHook(Phase.ANALYZE, InstantiatedReceivers::record);
+                                }
+                                if (semispace) {
+                                    builder.addPostHook(Phase.ANALYZE, Semispace::checkSingleThreaded);
+                                }
                                 if (optEscapeAnalysis) {
                                     builder.addPostHook(Phase.ANALYZE, new EscapeAnalysisInterMethodAnalysis());
                                     builder.addPostHook(Phase.ANALYZE, new EscapeAnalysisDotGenerator(graphGenConfig));
                                 }
-                                builder.addPostHook(Phase.ANALYZE, new DispatchTableBuilder());
+                                builder.addPostHook(Phase.ANALYZE, new DispatchTableBuilder(selectorITables));
                                 builder.addPostHook(Phase.ANALYZE, new SupersDisplayBuilder());
 
                                 builder.addPreHook(Phase.LOWER, new ClassObjectSerializer());
@@ -508,11 +637,32 @@ public class Main implements Callable<DiagnosticContext> {
                                 builder.addCopyFactory(Phase.LOWER, MemberPointerCopier::new);
                                 builder.addCopyFactory(Phase.LOWER, ObjectLiteralSerializingVisitor::new);
 
+                                if (optEscapeAnalysis) {
+                                    // must see the allocations and field accesses before they are lowered
+                                    builder.addBuilderFactory(Phase.LOWER, BuilderStage.TRANSFORM, ScalarReplacingBasicBlockBuilder::new);
+                                }
+                                // the profile builders must see the same branches in the instrumented and optimized builds
+                                if (pgoInstrument) {
+                                    builder.addBuilderFactory(Phase.LOWER, BuilderStage.TRANSFORM, ProfileInstrumentingBasicBlockBuilder::new);
+                                } else if (pgoProfile != null) {
+                                    builder.addBuilderFactory(Phase.LOWER, BuilderStage.TRANSFORM, ProfileBranchWeightBasicBlockBuilder::new);
+                                }
+                                builder.addBuilderFactory(Phase.LOWER, BuilderStage.TRANSFORM, BranchHintBasicBlockBuilder::createForLowerPhase);
                                 builder.addBuilderFactory(Phase.LOWER, BuilderStage.TRANSFORM, ThrowLoweringBasicBlockBuilder::new);
                                 builder.addBuilderFactory(Phase.LOWER, BuilderStage.TRANSFORM, DevirtualizingBasicBlockBuilder::new);
+                                if (optInlineCaches) {
+                                    builder.addBuilderFactory(Phase.LOWER, BuilderStage.TRANSFORM, GuardedDevirtualizingBasicBlockBuilder::new);
+                                }
                                 if (nogc) {
                                     builder.addBuilderFactory(Phase.LOWER, BuilderStage.TRANSFORM, NoGcBasicBlockBuilder::new);
                                 }
+                                if (semispace) {
+                                    builder.addBuilderFactory(Phase.LOWER, BuilderStage.TRANSFORM, SemispaceBasicBlockBuilder::new);
+                                }
+                                if (thinLocks) {
+                                    // must see calls to wait/notify before they are lowered
+                                    builder.addBuilderFactory(Phase.LOWER, BuilderStage.TRANSFORM, ThinLockBasicBlockBuilder::new);
+                                }
                                 builder.addBuilderFactory(Phase.LOWER, BuilderStage.TRANSFORM, IntrinsicBasicBlockBuilder::createForLowerPhase);
                                 builder.addBuilderFactory(Phase.LOWER, BuilderStage.TRANSFORM, InvocationLoweringBasicBlockBuilder::new);
                                 builder.addBuilderFactory(Phase.LOWER, BuilderStage.TRANSFORM, LocalVariableLoweringBasicBlockBuilder::new);
@@ -520,9 +670,14 @@ public class Main implements Callable<DiagnosticContext> {
                                 builder.addBuilderFactory(Phase.LOWER, BuilderStage.TRANSFORM, InstanceOfCheckCastBasicBlockBuilder::new);
                                 builder.addBuilderFactory(Phase.LOWER, BuilderStage.TRANSFORM, InitCheckLoweringBasicBlockBuilder::new);
                                 builder.addBuilderFactory(Phase.LOWER, BuilderStage.TRANSFORM, ObjectAccessLoweringBuilder::new);
-                                builder.addBuilderFactory(Phase.LOWER, BuilderStage.TRANSFORM, ObjectMonitorBasicBlockBuilder::new);
+                                if (! thinLocks) {
+                                    builder.addBuilderFactory(Phase.LOWER, BuilderStage.TRANSFORM, ObjectMonitorBasicBlockBuilder::new);
+                                }
                                 builder.addBuilderFactory(Phase.LOWER, BuilderStage.TRANSFORM, LLVMCompatibleBasicBlockBuilder::new);
                                 builder.addBuilderFactory(Phase.LOWER, BuilderStage.OPTIMIZE, SimpleOptBasicBlockBuilder::new);
+                                if (optGvn) {
+                                    builder.addBuilderFactory(Phase.LOWER, BuilderStage.OPTIMIZE, ValueNumberingBasicBlockBuilder::new);
+                                }
                                 if (optMemoryTracking) {
                                     builder.addBuilderFactory(Phase.LOWER, BuilderStage.TRANSFORM, LocalMemoryTrackingBasicBlockBuilder::new);
                                 }
@@ -536,14 +691,25 @@ public class Main implements Callable<DiagnosticContext> {
                                 builder.addPreHook(Phase.GENERATE, new StringInternTableEmitter());
                                 builder.addPreHook(Phase.GENERATE, new SupersDisplayEmitter());
                                 builder.addPreHook(Phase.GENERATE, new DispatchTableEmitter());
+                                builder.addPreHook(Phase.GENERATE, new ReferenceBitMapEmitter());
+                                if (semispace) {
+                                    builder.addPreHook(Phase.GENERATE, new SemispaceTablesEmitter());
+                                }
+                                if (pgoInstrument) {
+                                    builder.addPreHook(Phase.GENERATE, new ProfileDataEmitter());
+                                }
                                 builder.addPreHook(Phase.GENERATE, new LLVMGenerator(isPie ? 2 : 0, isPie ? 2 : 0));
 
                                 builder.addPostHook(Phase.GENERATE, new DotGenerator(Phase.GENERATE, graphGenConfig));
+                                if (compileOutput && llvmObjectCache != null) {
+                                    builder.addPostHook(Phase.GENERATE, ctxt -> LLVMObjectCache.enable(ctxt, llvmObjectCache));
+                                }
                                 if (compileOutput) {
-                                    builder.addPostHook(Phase.GENERATE, new LLVMCompileStage(isPie));
+                                    builder.addPostHook(Phase.GENERATE, new LLVMCompileStage(isPie, llvmEmitAssembly, lto));
                                 }
                                 builder.addPostHook(Phase.GENERATE, new MethodDataEmitter());
-                                builder.addPostHook(Phase.GENERATE, new LLVMDefaultModuleCompileStage(isPie, compileOutput));
+                                builder.addPostHook(Phase.GENERATE, new LLVMDefaultModuleCompileStage(isPie, compileOutput, llvmEmitAssembly));
+                                builder.addPostHook(Phase.GENERATE, LLVMObjectCache::reportStats);
                                 if (compileOutput) {
                                     builder.addPostHook(Phase.GENERATE, new LinkStage(outputName, isPie, librarySearchPaths));
                                 }
@@ -695,7 +861,24 @@ public class Main implements Callable<DiagnosticContext> {
             .setOptGotos(optionsProcessor.optArgs.optGotos)
             .setOptPhis(optionsProcessor.optArgs.optPhis)
             .setOptEscapeAnalysis(optionsProcessor.optArgs.optEscapeAnalysis)
+            .setOptInlineCaches(optionsProcessor.optArgs.optInlineCaches)
+            .setOptGvn(optionsProcessor.optArgs.optGvn)
+            .setOptRangeChecks(optionsProcessor.optArgs.optRangeChecks)
+            .setOptImplicitNullChecks(optionsProcessor.optArgs.optImplicitNullChecks)
+            .setPgoInstrument(optionsProcessor.optArgs.pgoInstrument)
+            .setPgoProfile(optionsProcessor.optArgs.pgoProfile)
             .setSmallTypeIds(optionsProcessor.smallTypeIds)
+            .setWorkStealing(optionsProcessor.workStealing)
+            .setThinLocks(optionsProcessor.thinLocks)
+            .setSelectorITables(optionsProcessor.selectorITables)
+            .setParallelClassInit(optionsProcessor.parallelClassInit)
+            .setTlabSize(optionsProcessor.tlabSize)
+            .setLlvmObjectCache(optionsProcessor.llvmObjectCache)
+            .setProbeCache(optionsProcessor.probeCache)
+            .setLlvmEmitAssembly(optionsProcessor.llvmEmitAssembly)
+            .setLto(optionsProcessor.lto)
+            .setLazyStackTraces(optionsProcessor.lazyStackTraces)
+            .setFramePointerStackWalk(optionsProcessor.framePointerStackWalk)
             .setGraphGenConfig(optionsProcessor.graphGenConfig)
             .addLibrarySearchPaths(splitPathString(System.getenv("LIBRARY_PATH")))
             .addLibrarySearchPaths(optionsProcessor.libSearchPaths);
@@ -731,6 +914,7 @@ public class Main implements Callable<DiagnosticContext> {
     private static final class CommandLineProcessor {
         private enum GCType {
             NONE("none"),
+            SEMISPACE("semispace"),
             ;
             private final String gcType;
 
@@ -797,6 +981,8 @@ public class Main implements Callable<DiagnosticContext> {
         private boolean debugInterpreter;
         @CommandLine.Option(names = "--gc", defaultValue = "none", description = "Type of GC to use. Valid values: ${COMPLETION-CANDIDATES}")
         private GCType gc;
+        @CommandLine.Option(names = "--tlab-size", description = "Size in bytes of each thread-local allocation buffer. Default: ${DEFAULT-VALUE}")
+        private long tlabSize = GcCommon.DEFAULT_TLAB_SIZE;
         @CommandLine.Option(names = "--heap-stats")
         private boolean heapStats;
         @CommandLine.Option(names = "--method-data-stats")
@@ -814,6 +1000,36 @@ public class Main implements Callable<DiagnosticContext> {
         @CommandLine.Option(names = "--small-type-ids", negatable = true, defaultValue = "false", description = "Use narrow (16-bit) type ID values if true, wide (32-bit) type ID values if false")
         private boolean smallTypeIds;
 
+        @CommandLine.Option(names = "--work-stealing", negatable = true, defaultValue = "false", description = "Use the work-stealing scheduler for parallel compilation phases")
+        private boolean workStealing;
+
+        @CommandLine.Option(names = "--thin-locks", negatable = true, defaultValue = "false", description = "Use header-word thin locks for uncontended object monitors")
+        private boolean thinLocks;
+
+        @CommandLine.Option(names = "--selector-itables", negatable = true, defaultValue = "false", description = "Dispatch interface methods through selector-indexed itables instead of searching the itable dictionary")
+        private boolean selectorITables;
+
+        @CommandLine.Option(names = "--parallel-class-init", negatable = true, defaultValue = "false", description = "Start each build-time class initializer only once the classes it uses are not being initialized by another thread")
+        private boolean parallelClassInit;
+
+        @CommandLine.Option(names = "--llvm-object-cache", description = "Reuse the object files compiled from unchanged LLVM modules, which are kept in the given directory")
+        private Path llvmObjectCache;
+
+        @CommandLine.Option(names = "--probe-cache", description = "Reuse the results of C probes which are unchanged since an earlier build, which are kept in the given directory")
+        private Path probeCache;
+
+        @CommandLine.Option(names = "--llvm-emit-asm", negatable = true, defaultValue = "false", description = "Compile LLVM modules to assembly text which is then assembled, instead of emitting object files directly (for debugging)")
+        private boolean llvmEmitAssembly;
+
+        @CommandLine.Option(names = "--lto", negatable = true, defaultValue = "false", description = "Merge the LLVM modules of all classes into one module which is optimized and compiled as a whole, instead of compiling each class separately")
+        private boolean lto;
+
+        @CommandLine.Option(names = "--lazy-stack-traces", negatable = true, defaultValue = "false", description = "Capture only the raw frame addresses when an exception is created, and decode them into stack trace elements when the stack trace is first used")
+        private boolean lazyStackTraces;
+
+        @CommandLine.Option(names = "--frame-pointer-stack-walk", negatable = true, defaultValue = "false", description = "Capture lazy stack traces by following frame pointers instead of using libunwind; frames beyond native code or signal handlers are omitted. Implies --lazy-stack-traces")
+        private boolean framePointerStackWalk;
+
         @CommandLine.Parameters(index="0", arity="1", description = "Application main class")
         private String mainClass;
 
@@ -852,6 +1068,18 @@ public class Main implements Callable<DiagnosticContext> {
             boolean optGotos;
             @CommandLine.Option(names = "--escape-analysis", negatable = true, defaultValue = "false", description = "Enable/disable escape analysis")
             boolean optEscapeAnalysis;
+            @CommandLine.Option(names = "--opt-inline-caches", negatable = true, defaultValue = "false", description = "Enable/disable guarded direct calls for virtual and interface calls with few implementations")
+            boolean optInlineCaches;
+            @CommandLine.Option(names = "--opt-gvn", negatable = true, defaultValue = "false", description = "Enable/disable global value numbering")
+            boolean optGvn;
+            @CommandLine.Option(names = "--opt-range-checks", negatable = true, defaultValue = "false", description = "Enable/disable elimination of array index checks in counted loops")
+            boolean optRangeChecks;
+            @CommandLine.Option(names = "--opt-implicit-null-checks", negatable = true, defaultValue = "false", description = "Enable/disable folding of null checks into faulting memory accesses (Linux on x86 only)")
+            boolean optImplicitNullChecks;
+            @CommandLine.Option(names = "--pgo-instrument", negatable = true, defaultValue = "false", description = "Enable/disable profile instrumentation; the program writes its profile on exit to the file named by QBICC_PROFILE (default: qbicc.profile). Disables inlining")
+            boolean pgoInstrument;
+            @CommandLine.Option(names = "--pgo-profile", description = "Use the given profile, written by a profile instrumented build, to guide optimization")
+            Path pgoProfile;
         }
 
         public CmdResult process(String[] args) {
@@ -942,9 +1170,26 @@ public class Main implements Callable<DiagnosticContext> {
         private boolean optPhis = true;
         private boolean optGotos = true;
         private boolean optEscapeAnalysis = false;
+        private boolean optInlineCaches = false;
+        private boolean optGvn = false;
+        private boolean optRangeChecks = false;
+        private boolean optImplicitNullChecks = false;
+        private boolean pgoInstrument = false;
+        private Path pgoProfile;
         private GraphGenConfig graphGenConfig;
         private boolean smallTypeIds = false;
         private List<Path> librarySearchPaths = List.of();
+        private boolean workStealing = false;
+        private boolean thinLocks = false;
+        private boolean selectorITables = false;
+        private boolean parallelClassInit = false;
+        private long tlabSize = GcCommon.DEFAULT_TLAB_SIZE;
+        private Path llvmObjectCache;
+        private Path probeCache;
+        private boolean llvmEmitAssembly = false;
+        private boolean lto = false;
+        private boolean lazyStackTraces = false;
+        private boolean framePointerStackWalk = false;
 
         Builder() {}
 
@@ -1066,11 +1311,97 @@ public class Main implements Callable<DiagnosticContext> {
             return this;
         }
 
+        public Builder setOptInlineCaches(boolean optInlineCaches) {
+            this.optInlineCaches = optInlineCaches;
+            return this;
+        }
+
+        public Builder setOptGvn(boolean optGvn) {
+            this.optGvn = optGvn;
+            return this;
+        }
+
+        public Builder setOptRangeChecks(boolean optRangeChecks) {
+            this.optRangeChecks = optRangeChecks;
+            return this;
+        }
+
+        public Builder setOptImplicitNullChecks(boolean optImplicitNullChecks) {
+            this.optImplicitNullChecks = optImplicitNullChecks;
+            return this;
+        }
+
+        public Builder setPgoInstrument(boolean pgoInstrument) {
+            this.pgoInstrument = pgoInstrument;
+            return this;
+        }
+
+        public Builder setPgoProfile(Path pgoProfile) {
+            this.pgoProfile = pgoProfile;
+            return this;
+        }
+
         public Builder setSmallTypeIds(boolean smallTypeIds) {
             this.smallTypeIds = smallTypeIds;
             return this;
         }
 
+        public Builder setWorkStealing(boolean workStealing) {
+            this.workStealing = workStealing;
+            return this;
+        }
+
+        public Builder setThinLocks(boolean thinLocks) {
+            this.thinLocks = thinLocks;
+            return this;
+        }
+
+        public Builder setSelectorITables(boolean selectorITables) {
+            this.selectorITables = selectorITables;
+            return this;
+        }
+
+        public Builder setParallelClassInit(boolean parallelClassInit) {
+            this.parallelClassInit = parallelClassInit;
+            return this;
+        }
+
+        public Builder setLlvmObjectCache(Path llvmObjectCache) {
+            this.llvmObjectCache = llvmObjectCache;
+            return this;
+        }
+
+        public Builder setProbeCache(Path probeCache) {
+            this.probeCache = probeCache;
+            return this;
+        }
+
+        public Builder setLlvmEmitAssembly(boolean llvmEmitAssembly) {
+            this.llvmEmitAssembly = llvmEmitAssembly;
+            return this;
+        }
+
+        public Builder setLto(boolean lto) {
+            this.lto = lto;
+            return this;
+        }
+
+        public Builder setLazyStackTraces(boolean lazyStackTraces) {
+            this.lazyStackTraces = lazyStackTraces;
+            return this;
+        }
+
+        public Builder setFramePointerStackWalk(boolean framePointerStackWalk) {
+            this.framePointerStackWalk = framePointerStackWalk;
+            return this;
+        }
+
+        public Builder setTlabSize(long tlabSize) {
+            Assert.checkMinimumParameter("tlabSize", 1L, tlabSize);
+            this.tlabSize = tlabSize;
+            return this;
+        }
+
         public Builder addLibrarySearchPaths(List<Path> librarySearchPaths) {
             if (librarySearchPaths != null && !librarySearchPaths.isEmpty()) {
                 if (this.librarySearchPaths.isEmpty()) {
@@ -362,20 +362,12 @@ public class RuntimeChecksBasicBlockBuilder extends DelegatingBasicBlockBuilder
     }
 
     private void indexOutOfBoundsCheck(ValueHandle array, Value index) {
-        final BlockLabel notNegative = new BlockLabel();
         final BlockLabel throwIt = new BlockLabel();
         final BlockLabel goAhead = new BlockLabel();
-        LiteralFactory lf = ctxt.getLiteralFactory();
-        final IntegerLiteral zero = lf.literalOf(0);
 
-        if_(isLt(index, zero), throwIt, notNegative);
-        try {
-            begin(notNegative);
-            final Value length = load(instanceFieldOf(array, CoreClasses.get(ctxt).getArrayLengthField()));
-            if_(isGe(index, length), throwIt, goAhead);
-        } catch (BlockEarlyTermination ignored) {
-            // continue
-        }
+        final Value length = load(instanceFieldOf(array, CoreClasses.get(ctxt).getArrayLengthField()));
+        // a negative index is a very large unsigned index, so a single unsigned comparison checks both bounds
+        if_(isGe(asUnsigned(index), asUnsigned(length)), throwIt, goAhead);
         try {
             begin(throwIt);
             MethodElement helper = RuntimeMethodFinder.get(ctxt).getMethod("raiseArrayIndexOutOfBoundsException");
@@ -386,6 +378,10 @@ public class RuntimeChecksBasicBlockBuilder extends DelegatingBasicBlockBuilder
         begin(goAhead);
     }
 
+    private Value asUnsigned(Value value) {
+        return value.getType() instanceof SignedIntegerType sit ? bitCast(value, sit.asUnsigned()) : value;
+    }
+
     private void arraySizeCheck(Value size) {
         final BlockLabel throwIt = new BlockLabel();
         final BlockLabel goAhead = new BlockLabel();
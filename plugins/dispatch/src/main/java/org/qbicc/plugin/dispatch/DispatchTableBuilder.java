@@ -9,10 +9,27 @@ import org.qbicc.type.definition.LoadedTypeDefinition;
 import java.util.function.Consumer;
 
 public class DispatchTableBuilder implements Consumer<CompilationContext>  {
+    private final boolean selectorITables;
+
+    public DispatchTableBuilder() {
+        this(false);
+    }
+
+    /**
+     * Construct a new instance.
+     *
+     * @param selectorITables {@code true} to dispatch interface methods through selector-indexed itables,
+     *     or {@code false} to search the itable dictionary of the receiver's class
+     */
+    public DispatchTableBuilder(boolean selectorITables) {
+        this.selectorITables = selectorITables;
+    }
+
     @Override
     public void accept(CompilationContext ctxt) {
         ReachabilityInfo info = ReachabilityInfo.get(ctxt);
         DispatchTables tables = DispatchTables.get(ctxt);
+        tables.setSelectorITables(selectorITables);
 
         // Starting from java.lang.Object walk down the live class hierarchy and
         //  compute vtable layouts that contain just the dispatchable methods.
@@ -41,5 +58,8 @@ public class DispatchTableBuilder implements Consumer<CompilationContext>  {
 
         // Now build the interface dispatching structures for the dispatchable methods
         info.visitReachableInterfaces(tables::buildFilteredITableForInterface);
+        if (selectorITables) {
+            tables.assignITableSelectors(jlo);
+        }
     }
 }
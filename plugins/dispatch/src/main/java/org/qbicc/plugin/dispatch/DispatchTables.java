@@ -2,12 +2,15 @@ package org.qbicc.plugin.dispatch;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.ToIntFunction;
 
 import io.smallrye.common.constraint.Assert;
 import org.jboss.logging.Logger;
@@ -56,6 +59,14 @@ public class DispatchTables {
     private GlobalVariableElement rtinitsGlobal;
     private CompoundType itableDictType;
 
+    // Selector-indexed itables (used instead of the searched itable dictionaries when enabled)
+    private boolean selectorITables;
+    private final Map<LoadedTypeDefinition, Integer> selectorBases = new ConcurrentHashMap<>();
+    private final Map<LoadedTypeDefinition, Integer> selectorITableLengths = new ConcurrentHashMap<>();
+    private GlobalVariableElement selectorITablesGlobal;
+    private GlobalVariableElement selectorITableLengthsGlobal;
+    private CompoundType selectorITableEntryType;
+
     // Used to accumulate statistics
     private int emittedVTableCount;
     private int emittedVTableBytes;
@@ -63,6 +74,15 @@ public class DispatchTables {
     private int emittedClassITableBytes;
     private int emittedClassITableDictBytes;
     private int emittedClassITableDictCount;
+    private int emittedSelectorITableCount;
+    private int emittedSelectorITableSlots;
+    private int emittedSelectorITableEmptySlots;
+
+    /**
+     * The number of type IDs which are not assigned to reachable classes: the poison type, void, the 8 primitive types,
+     * the array base class, the 8 primitive arrays and the reference array.
+     */
+    private static final int NON_CLASS_TYPE_ID_COUNT = 20;
 
     private DispatchTables(final CompilationContext ctxt) {
         this.ctxt = ctxt;
@@ -86,6 +106,19 @@ public class DispatchTables {
 
     public ITableInfo getITableInfo(LoadedTypeDefinition cls) { return itables.get(cls); }
 
+    void setSelectorITables(boolean selectorITables) {
+        this.selectorITables = selectorITables;
+    }
+
+    /**
+     * Determine whether interface dispatch uses selector-indexed itables instead of searched itable dictionaries.
+     *
+     * @return {@code true} if selector-indexed itables are used
+     */
+    public boolean isSelectorITables() {
+        return selectorITables;
+    }
+
     void buildFilteredVTable(LoadedTypeDefinition cls) {
         tlog.debugf("Building VTable for %s", cls.getDescriptor());
         ReachabilityInfo reachabilityInfo = ReachabilityInfo.get(ctxt);
@@ -200,15 +233,98 @@ public class DispatchTables {
         itables.put(cls, new ITableInfo(itable, itableType, cls));
     }
 
+    /**
+     * Assign each interface a range of selectors for its itable methods, so that every class can use a single table
+     * indexed directly by selector. Two interfaces which are both implemented by some instantiable class must be given
+     * disjoint ranges; otherwise ranges may be shared, which keeps the per-class tables small.
+     */
+    void assignITableSelectors(LoadedTypeDefinition jlo) {
+        ReachabilityInfo reachabilityInfo = ReachabilityInfo.get(ctxt);
+        Map<LoadedTypeDefinition, Set<LoadedTypeDefinition>> conflicts = new HashMap<>();
+        Consumer<LoadedTypeDefinition> collector = cls -> {
+            if (cls.isAbstract() && ! cls.isFinal()) {
+                return;
+            }
+            List<LoadedTypeDefinition> implemented = new ArrayList<>();
+            cls.forEachInterfaceFullImplementedSet(i -> {
+                ITableInfo iti = itables.get(i);
+                if (iti != null && iti.getItable().length > 0) {
+                    implemented.add(i);
+                }
+            });
+            for (LoadedTypeDefinition i : implemented) {
+                conflicts.computeIfAbsent(i, k -> new HashSet<>()).addAll(implemented);
+            }
+        };
+        collector.accept(jlo);
+        reachabilityInfo.visitReachableSubclassesPreOrder(jlo, collector);
+
+        // Place the largest interfaces first (first fit); order by name for a reproducible layout
+        List<LoadedTypeDefinition> order = new ArrayList<>(conflicts.keySet());
+        order.sort(Comparator.comparingInt((LoadedTypeDefinition i) -> -itables.get(i).getItable().length).thenComparing(LoadedTypeDefinition::getInternalName));
+        Map<LoadedTypeDefinition, Integer> bases = assignSelectorBases(order, conflicts, i -> itables.get(i).getItable().length);
+        int width = 0;
+        for (LoadedTypeDefinition i : order) {
+            int base = bases.get(i).intValue();
+            int length = itables.get(i).getItable().length;
+            tlog.debugf("Assigned selectors [%d, %d) to %s", Integer.valueOf(base), Integer.valueOf(base + length), i.getDescriptor());
+            width = Math.max(width, base + length);
+        }
+        selectorBases.putAll(bases);
+        slog.debugf("Assigned selectors to %d interfaces using %d distinct selectors", order.size(), width);
+    }
+
+    /**
+     * Assign each interface the lowest base selector at which its selector range does not overlap the range of any
+     * conflicting interface which was placed before it.
+     *
+     * @param order the interfaces in placement order
+     * @param conflicts the interfaces which may not share selectors with each interface
+     * @param lengths the number of selectors of each interface
+     * @return the base selector of each interface
+     */
+    static <T> Map<T, Integer> assignSelectorBases(List<T> order, Map<T, Set<T>> conflicts, ToIntFunction<T> lengths) {
+        Map<T, Integer> bases = new HashMap<>();
+        for (T i : order) {
+            int length = lengths.applyAsInt(i);
+            List<int[]> taken = new ArrayList<>();
+            for (T other : conflicts.getOrDefault(i, Set.of())) {
+                Integer otherBase = bases.get(other);
+                if (otherBase != null) {
+                    taken.add(new int[] { otherBase.intValue(), otherBase.intValue() + lengths.applyAsInt(other) });
+                }
+            }
+            taken.sort(Comparator.comparingInt(r -> r[0]));
+            int base = 0;
+            for (int[] range : taken) {
+                if (base + length <= range[0]) {
+                    break;
+                }
+                base = Math.max(base, range[1]);
+            }
+            bases.put(i, Integer.valueOf(base));
+        }
+        return bases;
+    }
+
     public void registerRuntimeInitializer(InitializerElement init) {
         runtimeInitializers.add(init);
     }
 
+    /**
+     * Get the length of the global tables which are indexed by the type ID of a class. Type IDs are assigned after
+     * the tables are built, from 1...N, where N is the number of reachable classes as computed by RTA plus the type IDs
+     * which are not assigned to classes; all interfaces are numbered after the classes.
+     *
+     * @return the number of entries of each table
+     */
+    int getTypeIdTableLength() {
+        return vtables.size() + NON_CLASS_TYPE_ID_COUNT;
+    }
+
     void buildVTablesGlobal(DefinedTypeDefinition containingType) {
         GlobalVariableElement.Builder builder = GlobalVariableElement.builder("qbicc_vtables_array", BaseTypeDescriptor.V);
-        // Invariant: typeIds are assigned from 1...N, where N is the number of reachable classes as computed by RTA
-        // plus 20 for the poison type, void, 8 primitive types, the array base class, 8 primitive arrays and reference array.
-        builder.setType(ctxt.getTypeSystem().getArrayType(ctxt.getTypeSystem().getVoidType().getPointer().getPointer(), vtables.size()+20));  //TODO: communicate this +20 better
+        builder.setType(ctxt.getTypeSystem().getArrayType(ctxt.getTypeSystem().getVoidType().getPointer().getPointer(), getTypeIdTableLength()));
         builder.setEnclosingType(containingType);
         builder.setSignature(BaseTypeSignature.V);
         vtablesGlobal = builder.build();
@@ -222,12 +338,29 @@ public class DispatchTables {
             ts.getPointerAlignment(), () -> List.of(itableMember, typeIdMember));
 
         GlobalVariableElement.Builder builder = GlobalVariableElement.builder("qbicc_itable_dicts_array", BaseTypeDescriptor.V);
-        // Invariant: typeIds are assigned from 1...N, where N is the number of reachable classes as computed by RTA
-        // plus 20 for the poison type, void, 8 primitive types, the array base class, 8 primitive arrays and reference array.
-        builder.setType(ts.getArrayType(ts.getArrayType(itableDictType, 0).getPointer(), vtables.size()+20));  //TODO: communicate this +20 better
+        builder.setType(ts.getArrayType(ts.getArrayType(itableDictType, 0).getPointer(), getTypeIdTableLength()));
         builder.setEnclosingType(containingType);
         builder.setSignature(BaseTypeSignature.V);
         itablesGlobal = builder.build();
+
+        if (selectorITables) {
+            CompoundType.Member functionMember = ts.getCompoundTypeMember("function", ts.getVoidType().getPointer(), 0, ts.getPointerAlignment());
+            CompoundType.Member interfaceMember = ts.getCompoundTypeMember("typeId", ts.getTypeIdLiteralType(), ts.getPointerSize(), ts.getTypeIdAlignment());
+            selectorITableEntryType = ts.getCompoundType(CompoundType.Tag.STRUCT, "qbicc_selector_itable_entry", ts.getPointerSize() + ts.getTypeIdSize(),
+                ts.getPointerAlignment(), () -> List.of(functionMember, interfaceMember));
+
+            builder = GlobalVariableElement.builder("qbicc_selector_itables_array", BaseTypeDescriptor.V);
+            builder.setType(ts.getArrayType(ts.getArrayType(selectorITableEntryType, 0).getPointer(), getTypeIdTableLength()));
+            builder.setEnclosingType(containingType);
+            builder.setSignature(BaseTypeSignature.V);
+            selectorITablesGlobal = builder.build();
+
+            builder = GlobalVariableElement.builder("qbicc_selector_itable_lengths_array", BaseTypeDescriptor.V);
+            builder.setType(ts.getArrayType(ts.getUnsignedInteger32Type(), getTypeIdTableLength()));
+            builder.setEnclosingType(containingType);
+            builder.setSignature(BaseTypeSignature.V);
+            selectorITableLengthsGlobal = builder.build();
+        }
     }
 
     void buildRTInitGlobal(DefinedTypeDefinition containingType) {
@@ -327,47 +460,21 @@ public class DispatchTables {
         ModuleSection cSection = ctxt.getImplicitSection(cls);
         ProgramModule programModule = cSection.getProgramModule();
 
+        if (selectorITables) {
+            emitSelectorITable(cls, myITables);
+            return;
+        }
+
         ArrayList<Literal> itableLiterals = new ArrayList<>(myITables.size() + 1);
-        RuntimeMethodFinder methodFinder = RuntimeMethodFinder.get(ctxt);
-        ReachabilityInfo reachabilityInfo = ReachabilityInfo.get(ctxt);
         for (ITableInfo itableInfo : myITables) {
             MethodElement[] itable = itableInfo.getItable();
             LoadedTypeDefinition currentInterface = itableInfo.getInterface();
 
             HashMap<CompoundType.Member, Literal> valueMap = new HashMap<>();
             for (int i = 0; i < itable.length; i++) {
-                MethodElement methImpl = cls.resolveMethodElementVirtual(itable[i].getName(), itable[i].getDescriptor());
-                FunctionType implType = ctxt.getFunctionTypeForElement(methImpl);
-                if (methImpl == null) {
-                    MethodElement icceStub = methodFinder.getMethod("raiseIncompatibleClassChangeError");
-                    Function icceImpl = ctxt.getExactFunction(icceStub);
-                    ProgramObjectLiteral iceeLiteral = lf.literalOf(programModule.declareFunction(icceImpl));
-                    valueMap.put(itableInfo.getType().getMember(i), lf.bitcastLiteral(iceeLiteral, implType.getPointer()));
-                } else if (methImpl.isAbstract()) {
-                    MethodElement ameStub = methodFinder.getMethod("raiseAbstractMethodError");
-                    Function ameImpl = ctxt.getExactFunction(ameStub);
-                    ProgramObjectLiteral ameLiteral = lf.literalOf(programModule.declareFunction(ameImpl));
-                    valueMap.put(itableInfo.getType().getMember(i), lf.bitcastLiteral(ameLiteral, implType.getPointer()));
-                } else if (methImpl.isNative()) {
-                    MethodElement uleStub = methodFinder.getMethod("raiseUnsatisfiedLinkError");
-                    Function uleImpl = ctxt.getExactFunction(uleStub);
-                    ProgramObjectLiteral uleLiteral = lf.literalOf(programModule.declareFunction(uleImpl));
-                    valueMap.put(itableInfo.getType().getMember(i), lf.bitcastLiteral(uleLiteral, implType.getPointer()));
-                } else if (!reachabilityInfo.isInvokableInstanceMethod(methImpl)) {
-                    MethodElement uceStub = methodFinder.getMethod("raiseUnreachableCodeError");
-                    Function uceImpl = ctxt.getExactFunction(uceStub);
-                    ProgramObjectLiteral uceLiteral = lf.literalOf(programModule.declareFunction(uceImpl));
-                    valueMap.put(itableInfo.getType().getMember(i), lf.bitcastLiteral(uceLiteral, implType.getPointer()));
-                } else {
-                    Function impl = ctxt.getExactFunctionIfExists(methImpl);
-                    if (impl == null) {
-                        ctxt.error(methImpl, "Missing method implementation for itable of %s", cls.getInternalName());
-                    } else {
-                        if (!methImpl.getEnclosingType().load().equals(cls)) {
-                            programModule.declareFunction(methImpl, impl.getName(), implType);
-                        }
-                        valueMap.put(itableInfo.getType().getMember(i), ctxt.getLiteralFactory().literalOf(impl));
-                    }
+                Literal implLiteral = getITableImplementation(cls, programModule, itable[i]);
+                if (implLiteral != null) {
+                    valueMap.put(itableInfo.getType().getMember(i), implLiteral);
                 }
             }
 
@@ -389,6 +496,88 @@ public class DispatchTables {
         emittedClassITableDictBytes += (myITables.size() + 1) * itableDictType.getSize();
     }
 
+    private void emitSelectorITable(LoadedTypeDefinition cls, Set<ITableInfo> myITables) {
+        LiteralFactory lf = ctxt.getLiteralFactory();
+        TypeSystem ts = ctxt.getTypeSystem();
+        ModuleSection cSection = ctxt.getImplicitSection(cls);
+        ProgramModule programModule = cSection.getProgramModule();
+
+        int length = 0;
+        for (ITableInfo itableInfo : myITables) {
+            length = Math.max(length, selectorBases.get(itableInfo.getInterface()).intValue() + itableInfo.getItable().length);
+        }
+        // unused slots have a zero type ID, which never matches an interface, so they dispatch to the ICCE path
+        Literal[] entryLiterals = new Literal[length];
+        Arrays.fill(entryLiterals, lf.zeroInitializerLiteralOfType(selectorITableEntryType));
+        int usedSlots = 0;
+        for (ITableInfo itableInfo : myITables) {
+            MethodElement[] itable = itableInfo.getItable();
+            LoadedTypeDefinition currentInterface = itableInfo.getInterface();
+            int base = selectorBases.get(currentInterface).intValue();
+            for (int i = 0; i < itable.length; i++) {
+                Literal implLiteral = getITableImplementation(cls, programModule, itable[i]);
+                if (implLiteral != null) {
+                    entryLiterals[base + i] = lf.literalOf(selectorITableEntryType, Map.of(
+                        selectorITableEntryType.getMember("function"), lf.bitcastLiteral(implLiteral, ts.getVoidType().getPointer()),
+                        selectorITableEntryType.getMember("typeId"), lf.literalOf(currentInterface.getTypeId())));
+                }
+            }
+            usedSlots += itable.length;
+        }
+
+        cSection.addData(null, "qbicc_selector_itable_for_" + cls.getInternalName().replace('/', '.'),
+            lf.literalOf(ts.getArrayType(selectorITableEntryType, length), List.of(entryLiterals)));
+        selectorITableLengths.put(cls, Integer.valueOf(length));
+        emittedSelectorITableCount += 1;
+        emittedSelectorITableSlots += length;
+        emittedSelectorITableEmptySlots += length - usedSlots;
+    }
+
+    /**
+     * Get the function to place in an itable of the given class for the given interface method, which may be a stub
+     * that raises an error.
+     *
+     * @return the function literal, or {@code null} if the implementation is missing (an error is reported)
+     */
+    private Literal getITableImplementation(LoadedTypeDefinition cls, ProgramModule programModule, MethodElement method) {
+        LiteralFactory lf = ctxt.getLiteralFactory();
+        RuntimeMethodFinder methodFinder = RuntimeMethodFinder.get(ctxt);
+        ReachabilityInfo reachabilityInfo = ReachabilityInfo.get(ctxt);
+        MethodElement methImpl = cls.resolveMethodElementVirtual(method.getName(), method.getDescriptor());
+        FunctionType implType = ctxt.getFunctionTypeForElement(methImpl);
+        if (methImpl == null) {
+            MethodElement icceStub = methodFinder.getMethod("raiseIncompatibleClassChangeError");
+            Function icceImpl = ctxt.getExactFunction(icceStub);
+            ProgramObjectLiteral iceeLiteral = lf.literalOf(programModule.declareFunction(icceImpl));
+            return lf.bitcastLiteral(iceeLiteral, implType.getPointer());
+        } else if (methImpl.isAbstract()) {
+            MethodElement ameStub = methodFinder.getMethod("raiseAbstractMethodError");
+            Function ameImpl = ctxt.getExactFunction(ameStub);
+            ProgramObjectLiteral ameLiteral = lf.literalOf(programModule.declareFunction(ameImpl));
+            return lf.bitcastLiteral(ameLiteral, implType.getPointer());
+        } else if (methImpl.isNative()) {
+            MethodElement uleStub = methodFinder.getMethod("raiseUnsatisfiedLinkError");
+            Function uleImpl = ctxt.getExactFunction(uleStub);
+            ProgramObjectLiteral uleLiteral = lf.literalOf(programModule.declareFunction(uleImpl));
+            return lf.bitcastLiteral(uleLiteral, implType.getPointer());
+        } else if (!reachabilityInfo.isInvokableInstanceMethod(methImpl)) {
+            MethodElement uceStub = methodFinder.getMethod("raiseUnreachableCodeError");
+            Function uceImpl = ctxt.getExactFunction(uceStub);
+            ProgramObjectLiteral uceLiteral = lf.literalOf(programModule.declareFunction(uceImpl));
+            return lf.bitcastLiteral(uceLiteral, implType.getPointer());
+        } else {
+            Function impl = ctxt.getExactFunctionIfExists(methImpl);
+            if (impl == null) {
+                ctxt.error(methImpl, "Missing method implementation for itable of %s", cls.getInternalName());
+                return null;
+            }
+            if (!methImpl.getEnclosingType().load().equals(cls)) {
+                programModule.declareFunction(methImpl, impl.getName(), implType);
+            }
+            return lf.literalOf(impl);
+        }
+    }
+
     void emitITableTable(LoadedTypeDefinition jlo) {
         ArrayType itablesGlobalType = ((ArrayType) itablesGlobal.getType());
         ModuleSection section = ctxt.getImplicitSection(jlo);
@@ -412,6 +601,34 @@ public class DispatchTables {
         slog.debugf("Root itable_dict[] has %d slots (%d bytes)", itableLiterals.length, itableLiterals.length * ctxt.getTypeSystem().getPointerSize());
         slog.debugf("Emitted %d itables with combined size of %d bytes", emittedClassITableCount, emittedClassITableBytes);
         slog.debugf("Emitted %d class itable dictionaries with combined size of %d bytes", emittedClassITableDictCount, emittedClassITableDictBytes);
+        if (selectorITables) {
+            emitSelectorITableTables(jlo);
+        }
+    }
+
+    private void emitSelectorITableTables(LoadedTypeDefinition jlo) {
+        LiteralFactory lf = ctxt.getLiteralFactory();
+        ModuleSection section = ctxt.getImplicitSection(jlo);
+        ArrayType tablesGlobalType = (ArrayType) selectorITablesGlobal.getType();
+        ArrayType lengthsGlobalType = (ArrayType) selectorITableLengthsGlobal.getType();
+        Literal[] tableLiterals = new Literal[(int) tablesGlobalType.getElementCount()];
+        Literal[] lengthLiterals = new Literal[(int) lengthsGlobalType.getElementCount()];
+        Arrays.fill(tableLiterals, lf.zeroInitializerLiteralOfType(tablesGlobalType.getElementType()));
+        Arrays.fill(lengthLiterals, lf.zeroInitializerLiteralOfType(lengthsGlobalType.getElementType()));
+
+        for (Map.Entry<LoadedTypeDefinition, Integer> e : selectorITableLengths.entrySet()) {
+            LoadedTypeDefinition cls = e.getKey();
+            int typeId = cls.getTypeId();
+            String tableName = "qbicc_selector_itable_for_" + cls.getInternalName().replace('/', '.');
+            DataDeclaration decl = section.getProgramModule().declareData(null, tableName, ctxt.getTypeSystem().getArrayType(selectorITableEntryType, 0));
+            tableLiterals[typeId] = lf.literalOf(decl);
+            lengthLiterals[typeId] = lf.literalOf(e.getValue().intValue());
+        }
+
+        section.addData(null, selectorITablesGlobal.getName(), lf.literalOf(tablesGlobalType, List.of(tableLiterals)));
+        section.addData(null, selectorITableLengthsGlobal.getName(), lf.literalOf(lengthsGlobalType, List.of(lengthLiterals)));
+        slog.debugf("Emitted %d selector-indexed itables with %d slots (%d unused) of %d bytes each", emittedSelectorITableCount,
+            emittedSelectorITableSlots, emittedSelectorITableEmptySlots, selectorITableEntryType.getSize());
     }
 
     void emitRTInitTable(LoadedTypeDefinition jlo) {
@@ -448,6 +665,30 @@ public class DispatchTables {
         return itableDictType;
     }
 
+    public GlobalVariableElement getSelectorITablesGlobal() {
+        return selectorITablesGlobal;
+    }
+
+    public GlobalVariableElement getSelectorITableLengthsGlobal() {
+        return selectorITableLengthsGlobal;
+    }
+
+    public CompoundType getSelectorITableEntryType() {
+        return selectorITableEntryType;
+    }
+
+    /**
+     * Get the selector of the given interface method, which is its index in the selector-indexed itable of
+     * every class that implements the interface.
+     *
+     * @param target the interface method
+     * @return the selector, or -1 if no instantiable class implements the interface
+     */
+    public int getSelectorIndex(MethodElement target) {
+        Integer base = selectorBases.get(target.getEnclosingType().load());
+        return base == null ? -1 : base.intValue() + getITableIndex(target);
+    }
+
     public int getVTableIndex(MethodElement target) {
         LoadedTypeDefinition definingType = target.getEnclosingType().load();
         VTableInfo info = getVTableInfo(definingType);
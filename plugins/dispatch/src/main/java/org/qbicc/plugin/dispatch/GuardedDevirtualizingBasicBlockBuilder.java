@@ -0,0 +1,276 @@
+package org.qbicc.plugin.dispatch;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jboss.logging.Logger;
+import org.qbicc.context.CompilationContext;
+import org.qbicc.graph.BasicBlock;
+import org.qbicc.graph.BasicBlockBuilder;
+import org.qbicc.graph.BlockEarlyTermination;
+import org.qbicc.graph.BlockLabel;
+import org.qbicc.graph.DelegatingBasicBlockBuilder;
+import org.qbicc.graph.InstanceMethodElementHandle;
+import org.qbicc.graph.InterfaceMethodElementHandle;
+import org.qbicc.graph.PhiValue;
+import org.qbicc.graph.Value;
+import org.qbicc.graph.ValueHandle;
+import org.qbicc.graph.VirtualMethodElementHandle;
+import org.qbicc.graph.literal.LiteralFactory;
+import org.qbicc.plugin.coreclasses.CoreClasses;
+import org.qbicc.plugin.profile.Profile;
+import org.qbicc.plugin.profile.ProfileKeys;
+import org.qbicc.type.ValueType;
+import org.qbicc.type.VoidType;
+import org.qbicc.type.definition.LoadedTypeDefinition;
+import org.qbicc.type.definition.element.MethodElement;
+
+/**
+ * A graph factory which turns virtual and interface calls with only a few possible implementations into a series of
+ * comparisons of the receiver's type ID (a polymorphic inline cache), with a direct call for each implementation.
+ * Receivers which do not match any of the expected types fall back to table dispatch.
+ * <p>
+ * The candidate receivers are taken from the {@linkplain InstantiatedReceivers classes instantiated during
+ * {@code ANALYZE}}, so this builder must only be used during {@code LOWER}; the direct calls therefore never make an
+ * implementation reachable which the reachability analysis has pruned. The receiver's type ID is compared with the
+ * type ID of each candidate class. If the compilation is guided by a profile, only the receivers which were seen at
+ * the call site are compared, most frequent first.
+ */
+public class GuardedDevirtualizingBasicBlockBuilder extends DelegatingBasicBlockBuilder {
+    private static final Logger log = Logger.getLogger("org.qbicc.plugin.dispatch.devirt");
+
+    /**
+     * The maximum number of distinct implementation methods which are called directly.
+     */
+    private static final int MAX_TARGETS = 3;
+    /**
+     * The maximum number of receiver types which are compared.
+     */
+    private static final int MAX_RECEIVERS = 8;
+
+    private final CompilationContext ctxt;
+
+    public GuardedDevirtualizingBasicBlockBuilder(final CompilationContext ctxt, final BasicBlockBuilder delegate) {
+        super(delegate);
+        this.ctxt = ctxt;
+    }
+
+    public Value call(ValueHandle target, List<Value> arguments) {
+        Map<MethodElement, List<LoadedTypeDefinition>> candidates = findCandidates(target);
+        if (candidates == null) {
+            return super.call(target, arguments);
+        }
+        InstanceMethodElementHandle handle = (InstanceMethodElementHandle) target;
+        BlockLabel join = new BlockLabel();
+        PhiValue result = resultPhi(handle, join);
+        List<BlockLabel> implLabels = new ArrayList<>(candidates.size() + 1);
+        guard(handle, candidates, implLabels);
+        boolean joined = false;
+        int idx = 0;
+        for (MethodElement impl : candidates.keySet()) {
+            begin(implLabels.get(idx++));
+            joined |= callAndJoin(exactHandle(handle, impl), arguments, result, join);
+        }
+        begin(implLabels.get(idx));
+        joined |= callAndJoin(handle, arguments, result, join);
+
+        begin(join);
+        if (! joined) {
+            throw new BlockEarlyTermination(unreachable());
+        }
+        return resultOf(handle, result);
+    }
+
+    public Value invoke(ValueHandle target, List<Value> arguments, BlockLabel catchLabel, BlockLabel resumeLabel) {
+        Map<MethodElement, List<LoadedTypeDefinition>> candidates = findCandidates(target);
+        if (candidates == null) {
+            return super.invoke(target, arguments, catchLabel, resumeLabel);
+        }
+        InstanceMethodElementHandle handle = (InstanceMethodElementHandle) target;
+        // the caller begins the resume block, which receives the result of every path
+        PhiValue result = resultPhi(handle, resumeLabel);
+        List<BlockLabel> implLabels = new ArrayList<>(candidates.size() + 1);
+        guard(handle, candidates, implLabels);
+        int idx = 0;
+        for (MethodElement impl : candidates.keySet()) {
+            begin(implLabels.get(idx++));
+            invokeAndJoin(exactHandle(handle, impl), arguments, catchLabel, result, resumeLabel);
+        }
+        begin(implLabels.get(idx));
+        invokeAndJoin(handle, arguments, catchLabel, result, resumeLabel);
+        return resultOf(handle, result);
+    }
+
+    public BasicBlock tailCall(ValueHandle target, List<Value> arguments) {
+        Map<MethodElement, List<LoadedTypeDefinition>> candidates = findCandidates(target);
+        if (candidates == null) {
+            return super.tailCall(target, arguments);
+        }
+        InstanceMethodElementHandle handle = (InstanceMethodElementHandle) target;
+        List<BlockLabel> implLabels = new ArrayList<>(candidates.size() + 1);
+        BasicBlock guarded = guard(handle, candidates, implLabels);
+        int idx = 0;
+        for (MethodElement impl : candidates.keySet()) {
+            begin(implLabels.get(idx++));
+            super.tailCall(exactHandle(handle, impl), arguments);
+        }
+        begin(implLabels.get(idx));
+        super.tailCall(handle, arguments);
+        return guarded;
+    }
+
+    public BasicBlock tailInvoke(ValueHandle target, List<Value> arguments, BlockLabel catchLabel) {
+        Map<MethodElement, List<LoadedTypeDefinition>> candidates = findCandidates(target);
+        if (candidates == null) {
+            return super.tailInvoke(target, arguments, catchLabel);
+        }
+        InstanceMethodElementHandle handle = (InstanceMethodElementHandle) target;
+        List<BlockLabel> implLabels = new ArrayList<>(candidates.size() + 1);
+        BasicBlock guarded = guard(handle, candidates, implLabels);
+        int idx = 0;
+        for (MethodElement impl : candidates.keySet()) {
+            begin(implLabels.get(idx++));
+            super.tailInvoke(exactHandle(handle, impl), arguments, catchLabel);
+        }
+        begin(implLabels.get(idx));
+        super.tailInvoke(handle, arguments, catchLabel);
+        return guarded;
+    }
+
+    /**
+     * Find the implementations of the target method, grouped by the instantiated receiver classes which select them.
+     *
+     * @return the implementations, or {@code null} if the call site should use table dispatch
+     */
+    private Map<MethodElement, List<LoadedTypeDefinition>> findCandidates(ValueHandle target) {
+        if (! (target instanceof VirtualMethodElementHandle || target instanceof InterfaceMethodElementHandle)) {
+            return null;
+        }
+        InstantiatedReceivers instantiated = InstantiatedReceivers.get(ctxt);
+        if (instantiated == null) {
+            return null;
+        }
+        MethodElement method = ((InstanceMethodElementHandle) target).getExecutable();
+        List<LoadedTypeDefinition> receivers = instantiated.getInstantiatedSubtypes(method.getEnclosingType().load());
+        Profile profile = Profile.get(ctxt);
+        if (profile != null) {
+            receivers = filterProfiledReceivers(profile, method, receivers);
+        }
+        if (receivers.isEmpty() || receivers.size() > MAX_RECEIVERS) {
+            return null;
+        }
+        Map<MethodElement, List<LoadedTypeDefinition>> candidates = new LinkedHashMap<>();
+        for (LoadedTypeDefinition receiver : receivers) {
+            MethodElement impl = receiver.resolveMethodElementVirtual(method.getName(), method.getDescriptor());
+            if (impl == null || impl.isAbstract() || impl.isNative() || ! instantiated.isInvokableInstanceMethod(impl)) {
+                // leave error cases to the dispatch tables
+                return null;
+            }
+            candidates.computeIfAbsent(impl, m -> new ArrayList<>()).add(receiver);
+            if (candidates.size() > MAX_TARGETS) {
+                return null;
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * Select the receiver classes which were seen at this call site by the profile, most frequent first. Receivers
+     * which were never seen are left to table dispatch.
+     *
+     * @return the selected receivers, or all of the given receivers if the profile has no receivers for the call site
+     */
+    private List<LoadedTypeDefinition> filterProfiledReceivers(Profile profile, MethodElement target, List<LoadedTypeDefinition> receivers) {
+        String site = ProfileKeys.callSite(getCurrentElement(), getLocation().getByteCodeIndex(), target);
+        Map<LoadedTypeDefinition, Long> counts = new LinkedHashMap<>();
+        for (LoadedTypeDefinition receiver : receivers) {
+            long count = profile.getCount(ProfileKeys.receiver(site, receiver));
+            if (count > 0) {
+                counts.put(receiver, Long.valueOf(count));
+            }
+        }
+        if (counts.isEmpty()) {
+            return receivers;
+        }
+        List<LoadedTypeDefinition> seen = new ArrayList<>(counts.keySet());
+        seen.sort(Comparator.comparing(counts::get, Comparator.reverseOrder()));
+        return seen;
+    }
+
+    /**
+     * Terminate the current block with a comparison of the receiver's type against each candidate receiver.
+     *
+     * @param labels the list to which the label of each implementation is added in candidate order, followed by the
+     *      label of the table dispatch path
+     * @return the current block, terminated by the first comparison
+     */
+    private BasicBlock guard(InstanceMethodElementHandle handle, Map<MethodElement, List<LoadedTypeDefinition>> candidates, List<BlockLabel> labels) {
+        BasicBlockBuilder fb = getFirstBuilder();
+        LiteralFactory lf = ctxt.getLiteralFactory();
+        Value instance = handle.getInstance();
+        log.debugf("Guarding call to %s::%s in %s with %d direct target(s)", handle.getExecutable().getEnclosingType().getDescriptor(), handle.getExecutable().getName(), getCurrentElement(), Integer.valueOf(candidates.size()));
+
+        Value typeId = fb.load(fb.instanceFieldOf(fb.referenceHandle(instance), CoreClasses.get(ctxt).getObjectTypeIdField()));
+        int remaining = candidates.values().stream().mapToInt(List::size).sum();
+        BlockLabel fallback = new BlockLabel();
+        BasicBlock guarded = null;
+        for (List<LoadedTypeDefinition> receivers : candidates.values()) {
+            BlockLabel implLabel = new BlockLabel();
+            labels.add(implLabel);
+            for (LoadedTypeDefinition receiver : receivers) {
+                // the last comparison falls through to table dispatch
+                BlockLabel next = --remaining == 0 ? fallback : new BlockLabel();
+                BasicBlock compared = if_(isEq(typeId, lf.literalOf(receiver.getTypeId())), implLabel, next);
+                if (guarded == null) {
+                    guarded = compared;
+                }
+                if (next != fallback) {
+                    begin(next);
+                }
+            }
+        }
+        labels.add(fallback);
+        return guarded;
+    }
+
+    private ValueHandle exactHandle(InstanceMethodElementHandle handle, MethodElement impl) {
+        return exactMethodOf(handle.getInstance(), impl, handle.getCallSiteDescriptor(), handle.getCallSiteType());
+    }
+
+    private PhiValue resultPhi(InstanceMethodElementHandle handle, BlockLabel join) {
+        ValueType returnType = handle.getCallSiteType().getReturnType();
+        return returnType instanceof VoidType ? null : phi(returnType, join);
+    }
+
+    private Value resultOf(InstanceMethodElementHandle handle, PhiValue result) {
+        // the result of a void call is never used
+        return result == null ? ctxt.getLiteralFactory().zeroInitializerLiteralOfType(handle.getCallSiteType().getReturnType()) : result;
+    }
+
+    private boolean callAndJoin(ValueHandle target, List<Value> arguments, PhiValue result, BlockLabel join) {
+        try {
+            Value value = super.call(target, arguments);
+            BasicBlock from = goto_(join);
+            if (result != null) {
+                result.setValueForBlock(ctxt, getCurrentElement(), from, value);
+            }
+            return true;
+        } catch (BlockEarlyTermination ignored) {
+            // this path does not reach the join block
+            return false;
+        }
+    }
+
+    private void invokeAndJoin(ValueHandle target, List<Value> arguments, BlockLabel catchLabel, PhiValue result, BlockLabel join) {
+        BlockLabel resume = new BlockLabel();
+        Value value = super.invoke(target, arguments, catchLabel, resume);
+        begin(resume);
+        BasicBlock from = goto_(join);
+        if (result != null) {
+            result.setValueForBlock(ctxt, getCurrentElement(), from, value);
+        }
+    }
+}
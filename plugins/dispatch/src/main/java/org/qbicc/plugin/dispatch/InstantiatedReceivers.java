@@ -0,0 +1,114 @@
+package org.qbicc.plugin.dispatch;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.qbicc.context.AttachmentKey;
+import org.qbicc.context.CompilationContext;
+import org.qbicc.plugin.reachability.ReachabilityInfo;
+import org.qbicc.type.definition.LoadedTypeDefinition;
+import org.qbicc.type.definition.element.MethodElement;
+
+/**
+ * The classes which were instantiated and the instance methods which were invokable at the end of {@code ANALYZE}.
+ * <p>
+ * This is the receiver set which remains after the reachability analysis of {@code ANALYZE}, so the guarded
+ * devirtualization in {@code LOWER} only calls implementations which are compiled anyway. The instantiated subtypes
+ * of each type are indexed when the snapshot is recorded.
+ */
+public final class InstantiatedReceivers {
+    private static final AttachmentKey<InstantiatedReceivers> KEY = new AttachmentKey<>();
+
+    private final Map<LoadedTypeDefinition, List<LoadedTypeDefinition>> subtypes;
+    private final Set<MethodElement> invokableMethods;
+
+    InstantiatedReceivers(List<LoadedTypeDefinition> classes, Set<MethodElement> invokableMethods) {
+        List<LoadedTypeDefinition> sorted = new ArrayList<>(classes);
+        // keep the order of the guards stable from one build to the next
+        sorted.sort(Comparator.comparing(LoadedTypeDefinition::getInternalName));
+        Map<LoadedTypeDefinition, List<LoadedTypeDefinition>> subtypes = new HashMap<>();
+        Set<LoadedTypeDefinition> supertypes = new HashSet<>();
+        for (LoadedTypeDefinition cls : sorted) {
+            addSupertypes(cls, supertypes);
+            for (LoadedTypeDefinition supertype : supertypes) {
+                subtypes.computeIfAbsent(supertype, t -> new ArrayList<>()).add(cls);
+            }
+            supertypes.clear();
+        }
+        subtypes.replaceAll((t, l) -> List.copyOf(l));
+        this.subtypes = subtypes;
+        this.invokableMethods = Set.copyOf(invokableMethods);
+    }
+
+    private static void addSupertypes(LoadedTypeDefinition type, Set<LoadedTypeDefinition> supertypes) {
+        if (supertypes.add(type)) {
+            LoadedTypeDefinition superClass = type.getSuperClass();
+            if (superClass != null) {
+                addSupertypes(superClass, supertypes);
+            }
+            int cnt = type.getInterfaceCount();
+            for (int i = 0; i < cnt; i ++) {
+                addSupertypes(type.getInterface(i), supertypes);
+            }
+        }
+    }
+
+    /**
+     * Get the recorded snapshot.
+     *
+     * @param ctxt the compilation context
+     * @return the snapshot, or {@code null} if none was recorded
+     */
+    public static InstantiatedReceivers get(CompilationContext ctxt) {
+        return ctxt.getAttachment(KEY);
+    }
+
+    /**
+     * Record the instantiated classes of the reachability analysis of {@code ANALYZE}.
+     *
+     * @param ctxt the compilation context
+     */
+    public static void record(CompilationContext ctxt) {
+        ReachabilityInfo info = ReachabilityInfo.get(ctxt);
+        List<LoadedTypeDefinition> classes = new ArrayList<>();
+        Set<MethodElement> invokableMethods = new HashSet<>();
+        info.visitReachableTypes(type -> {
+            if (! type.isInterface() && info.isInstantiatedClass(type)) {
+                classes.add(type);
+            }
+            // an implementation may be inherited from a class which is never instantiated itself
+            for (int i = 0; i < type.getMethodCount(); i ++) {
+                MethodElement method = type.getMethod(i);
+                if (info.isInvokableInstanceMethod(method)) {
+                    invokableMethods.add(method);
+                }
+            }
+        });
+        ctxt.putAttachment(KEY, new InstantiatedReceivers(classes, invokableMethods));
+    }
+
+    /**
+     * Get the instantiated classes which are subtypes of the given class or interface, in a stable order.
+     *
+     * @param type the class or interface
+     * @return the instantiated subtypes (including {@code type} itself if it was instantiated)
+     */
+    public List<LoadedTypeDefinition> getInstantiatedSubtypes(LoadedTypeDefinition type) {
+        return subtypes.getOrDefault(type, List.of());
+    }
+
+    /**
+     * Determine whether the given instance method was invokable at the end of {@code ANALYZE}.
+     *
+     * @param method the method
+     * @return {@code true} if the method was invokable
+     */
+    public boolean isInvokableInstanceMethod(MethodElement method) {
+        return invokableMethods.contains(method);
+    }
+}
@@ -0,0 +1,68 @@
+package org.qbicc.plugin.dispatch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.qbicc.test.AbstractCompilerTestCase;
+import org.qbicc.type.definition.DefinedTypeDefinition;
+import org.qbicc.type.definition.classfile.ClassFile;
+import org.qbicc.type.definition.element.MethodElement;
+import org.qbicc.type.descriptor.MethodDescriptor;
+import org.qbicc.type.generic.MethodSignature;
+
+/**
+ * Tests for the subtype index of {@link InstantiatedReceivers}.
+ */
+public final class TestInstantiatedReceivers extends AbstractCompilerTestCase {
+
+    @Test
+    public void testInstantiatedSubtypes() {
+        final DefinedTypeDefinition base = defineClass("Base", null);
+        final DefinedTypeDefinition subB = defineClass("SubB", base);
+        final DefinedTypeDefinition subA = defineClass("SubA", base);
+        final DefinedTypeDefinition leaf = defineClass("Leaf", subA);
+        final DefinedTypeDefinition other = defineClass("Other", null);
+        final InstantiatedReceivers receivers = new InstantiatedReceivers(List.of(leaf.load(), subB.load(), subA.load(), other.load()), Set.of());
+
+        // sorted by name, and the base class itself is not instantiated
+        assertEquals(List.of(leaf.load(), subA.load(), subB.load()), receivers.getInstantiatedSubtypes(base.load()));
+        assertEquals(List.of(leaf.load(), subA.load()), receivers.getInstantiatedSubtypes(subA.load()));
+        assertEquals(List.of(leaf.load()), receivers.getInstantiatedSubtypes(leaf.load()));
+        assertEquals(List.of(other.load()), receivers.getInstantiatedSubtypes(other.load()));
+    }
+
+    @Test
+    public void testTypeWithoutInstantiatedSubtypes() {
+        final DefinedTypeDefinition base = defineClass("Base", null);
+        final DefinedTypeDefinition sub = defineClass("Sub", base);
+        final InstantiatedReceivers receivers = new InstantiatedReceivers(List.of(base.load()), Set.of());
+
+        assertEquals(List.of(), receivers.getInstantiatedSubtypes(sub.load()));
+        assertEquals(List.of(base.load()), receivers.getInstantiatedSubtypes(base.load()));
+    }
+
+    @Test
+    public void testInvokableMethods() {
+        final DefinedTypeDefinition type = defineClass("Base", null);
+        final MethodElement invokable = defineMethod(type, "invokable");
+        final MethodElement pruned = defineMethod(type, "pruned");
+        final InstantiatedReceivers receivers = new InstantiatedReceivers(List.of(type.load()), Set.of(invokable));
+
+        assertTrue(receivers.isInvokableInstanceMethod(invokable));
+        assertFalse(receivers.isInvokableInstanceMethod(pruned));
+    }
+
+    private static MethodElement defineMethod(DefinedTypeDefinition enclosingType, String name) {
+        final MethodElement.Builder builder = MethodElement.builder(name, MethodDescriptor.VOID_METHOD_DESCRIPTOR, 0);
+        builder.setEnclosingType(enclosingType);
+        builder.setSignature(MethodSignature.VOID_METHOD_SIGNATURE);
+        builder.setModifiers(ClassFile.ACC_PUBLIC);
+        builder.setParameters(List.of());
+        return builder.build();
+    }
+}
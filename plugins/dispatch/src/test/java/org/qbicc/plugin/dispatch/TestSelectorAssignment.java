@@ -0,0 +1,70 @@
+package org.qbicc.plugin.dispatch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the placement of interface selector ranges in the selector-indexed itables of {@link DispatchTables}.
+ */
+public final class TestSelectorAssignment {
+
+    @Test
+    public void testUnrelatedInterfacesShareSelectors() {
+        // A and B are never implemented by the same class
+        Map<String, Integer> lengths = Map.of("A", Integer.valueOf(3), "B", Integer.valueOf(2));
+        Map<String, Set<String>> conflicts = Map.of("A", Set.of("A"), "B", Set.of("B"));
+        Map<String, Integer> bases = DispatchTables.assignSelectorBases(List.of("A", "B"), conflicts, i -> lengths.get(i).intValue());
+
+        assertEquals(0, bases.get("A").intValue());
+        assertEquals(0, bases.get("B").intValue());
+    }
+
+    @Test
+    public void testCoImplementedInterfacesAreDisjoint() {
+        // one class implements A, B and C; another implements only D
+        Map<String, Integer> lengths = Map.of("A", Integer.valueOf(3), "B", Integer.valueOf(2), "C", Integer.valueOf(1), "D", Integer.valueOf(4));
+        Set<String> abc = Set.of("A", "B", "C");
+        Map<String, Set<String>> conflicts = Map.of("A", abc, "B", abc, "C", abc, "D", Set.of("D"));
+        Map<String, Integer> bases = DispatchTables.assignSelectorBases(List.of("D", "A", "B", "C"), conflicts, i -> lengths.get(i).intValue());
+
+        assertEquals(0, bases.get("D").intValue());
+        assertEquals(0, bases.get("A").intValue());
+        assertEquals(3, bases.get("B").intValue());
+        assertEquals(5, bases.get("C").intValue());
+        for (String i : abc) {
+            for (String j : abc) {
+                if (! i.equals(j)) {
+                    int iBase = bases.get(i).intValue();
+                    int jBase = bases.get(j).intValue();
+                    assertTrue(iBase + lengths.get(i).intValue() <= jBase || jBase + lengths.get(j).intValue() <= iBase, i + " overlaps " + j);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testFirstFitUsesGapBetweenRanges() {
+        // E is placed above A, which leaves a gap below E which B can use because B is never implemented with A
+        Map<String, Integer> lengths = Map.of("A", Integer.valueOf(2), "B", Integer.valueOf(2), "C", Integer.valueOf(3), "E", Integer.valueOf(2));
+        Map<String, Set<String>> conflicts = Map.of(
+            "A", Set.of("A", "E"),
+            "E", Set.of("A", "E", "B"),
+            "B", Set.of("E", "B", "C"),
+            "C", Set.of("B", "C")
+        );
+        Map<String, Integer> bases = DispatchTables.assignSelectorBases(List.of("A", "E", "B", "C"), conflicts, i -> lengths.get(i).intValue());
+
+        assertEquals(0, bases.get("A").intValue());
+        assertEquals(2, bases.get("E").intValue());
+        // B only conflicts with E, so it fits below it
+        assertEquals(0, bases.get("B").intValue());
+        // C only conflicts with B
+        assertEquals(2, bases.get("C").intValue());
+    }
+}
@@ -0,0 +1,122 @@
+package org.qbicc.plugin.gc.common;
+
+import java.util.List;
+
+import org.qbicc.context.CompilationContext;
+import org.qbicc.graph.BasicBlockBuilder;
+import org.qbicc.graph.DelegatingBasicBlockBuilder;
+import org.qbicc.graph.Value;
+import org.qbicc.graph.literal.IntegerLiteral;
+import org.qbicc.graph.literal.LiteralFactory;
+import org.qbicc.graph.literal.TypeLiteral;
+import org.qbicc.plugin.coreclasses.BasicHeaderInitializer;
+import org.qbicc.plugin.coreclasses.CoreClasses;
+import org.qbicc.plugin.layout.Layout;
+import org.qbicc.plugin.layout.LayoutInfo;
+import org.qbicc.type.ClassObjectType;
+import org.qbicc.type.CompoundType;
+import org.qbicc.type.IntegerType;
+import org.qbicc.type.PrimitiveArrayObjectType;
+import org.qbicc.type.ReferenceArrayObjectType;
+import org.qbicc.type.definition.LoadedTypeDefinition;
+import org.qbicc.type.definition.element.MethodElement;
+
+/**
+ * The base of the lowering builders of the GC implementations.  Object and array allocations are lowered to a call
+ * to the GC's allocation method, followed by zeroing of the storage and initialization of the object header.
+ * Instances of the GC's stack object type are allocated on the stack instead.
+ */
+public abstract class AbstractGcBasicBlockBuilder extends DelegatingBasicBlockBuilder {
+    protected final CompilationContext ctxt;
+    private final CoreClasses coreClasses;
+
+    protected AbstractGcBasicBlockBuilder(final CompilationContext ctxt, final BasicBlockBuilder delegate) {
+        super(delegate);
+        this.ctxt = ctxt;
+        this.coreClasses = CoreClasses.get(ctxt);
+    }
+
+    /**
+     * Get the method which allocates storage of a given size and alignment.
+     *
+     * @return the allocation method (not {@code null})
+     */
+    protected abstract MethodElement getAllocateMethod();
+
+    /**
+     * Get the method which zeroes storage of a given size.
+     *
+     * @return the zeroing method (not {@code null})
+     */
+    protected abstract MethodElement getZeroMethod();
+
+    /**
+     * Get the type whose instances are always allocated on the stack.
+     *
+     * @return the stack object type (not {@code null})
+     */
+    protected abstract ClassObjectType getStackObjectType();
+
+    @Override
+    public Value new_(final ClassObjectType type, final Value typeId, final Value size, final Value align) {
+        LiteralFactory lf = ctxt.getLiteralFactory();
+        Value ptrVal = null;
+        if (typeId instanceof TypeLiteral tl && tl.getValue() instanceof ClassObjectType cot) {
+            // We can only even attempt stack allocation if the typeId is a literal (ie, known precisely at compile time).
+            if (cot.isSubtypeOf(getStackObjectType())) {
+                CompoundType compoundType = Layout.get(ctxt).getInstanceLayoutInfo(cot.getDefinition()).getCompoundType();
+                ptrVal = valueConvert(stackAllocate(compoundType, lf.literalOf(1), align), type.getReference());
+            }
+        }
+        if (ptrVal == null) {
+            ptrVal = notNull(call(staticMethod(getAllocateMethod()), List.of(size, align)));
+        }
+
+        // zero initialize the allocated storage
+        call(staticMethod(getZeroMethod()), List.of(ptrVal, size));
+
+        Value oop = valueConvert(ptrVal, type.getReference());
+        BasicHeaderInitializer.initializeObjectHeader(ctxt, this, referenceHandle(oop), typeId);
+        return oop;
+    }
+
+    @Override
+    public Value newArray(final PrimitiveArrayObjectType arrayType, Value size) {
+        LoadedTypeDefinition ltd = coreClasses.getArrayContentField(arrayType).getEnclosingType().load();
+        CompoundType compoundType = Layout.get(ctxt).getInstanceLayoutInfo(ltd).getCompoundType();
+        Value ptrVal = allocateArray(compoundType, size, arrayType.getElementType().getSize());
+        Value oop = valueConvert(ptrVal, arrayType.getReference());
+        BasicHeaderInitializer.initializeArrayHeader(ctxt, this, referenceHandle(oop), ctxt.getLiteralFactory().literalOfType(ltd.getClassType()), size);
+        return oop;
+    }
+
+    @Override
+    public Value newReferenceArray(final ReferenceArrayObjectType arrayType, Value elemTypeId, Value dimensions, Value size) {
+        Layout layout = Layout.get(ctxt);
+        LayoutInfo info = layout.getInstanceLayoutInfo(coreClasses.getRefArrayContentField().getEnclosingType());
+        CompoundType compoundType = info.getCompoundType();
+        Value ptrVal = allocateArray(compoundType, size, ctxt.getTypeSystem().getReferenceSize());
+        Value oop = valueConvert(ptrVal, arrayType.getReference());
+        BasicHeaderInitializer.initializeRefArrayHeader(ctxt, this, referenceHandle(oop), elemTypeId, dimensions, size);
+        return oop;
+    }
+
+    private Value allocateArray(CompoundType compoundType, Value size, long elementSize) {
+        LiteralFactory lf = ctxt.getLiteralFactory();
+        IntegerLiteral align = lf.literalOf(compoundType.getAlign());
+        IntegerLiteral baseSize = lf.literalOf(compoundType.getSize());
+        IntegerType sizeType = (IntegerType) size.getType();
+        if (sizeType.getMinBits() < 64) {
+            size = extend(size, ctxt.getTypeSystem().getSignedInteger64Type());
+        }
+        assert Long.bitCount(elementSize) == 1;
+        int elementShift = Long.numberOfTrailingZeros(elementSize);
+        Value realSize = add(baseSize, elementShift == 0 ? size : shl(size, lf.literalOf((IntegerType)size.getType(), elementShift)));
+
+        // Allocate and zero-initialize the storage
+        Value ptrVal = notNull(call(staticMethod(getAllocateMethod()), List.of(realSize, align)));
+        call(staticMethod(getZeroMethod()), List.of(ptrVal, realSize));
+
+        return ptrVal;
+    }
+}
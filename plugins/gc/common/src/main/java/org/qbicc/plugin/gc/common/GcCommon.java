@@ -15,13 +15,22 @@ import org.qbicc.type.descriptor.MethodDescriptor;
  * Common utilities and setup for GC.
  */
 public final class GcCommon {
+    /**
+     * The default size of thread-local allocation buffers (64 KiB).
+     */
+    public static final long DEFAULT_TLAB_SIZE = 64L * (1L << 10);
+
     private GcCommon() {}
 
     public static void registerIntrinsics(CompilationContext ctxt) {
-        registerHeapIntrinsics(ctxt);
+        registerIntrinsics(ctxt, DEFAULT_TLAB_SIZE);
+    }
+
+    public static void registerIntrinsics(CompilationContext ctxt, long tlabSize) {
+        registerHeapIntrinsics(ctxt, tlabSize);
     }
 
-    private static void registerHeapIntrinsics(final CompilationContext ctxt) {
+    private static void registerHeapIntrinsics(final CompilationContext ctxt, final long tlabSize) {
         Intrinsics intrinsics = Intrinsics.get(ctxt);
         ClassContext classContext = ctxt.getBootstrapClassContext();
         LiteralFactory lf = classContext.getLiteralFactory();
@@ -55,5 +64,7 @@ public final class GcCommon {
             // hard-coded to pointer alignment for now
             return lf.literalOf(ts.getPointerAlignment());
         });
+
+        intrinsics.registerIntrinsic(heapDesc, "getConfiguredTlabSize", emptyToLong, (builder, target, arguments) -> lf.literalOf(tlabSize));
     }
 }
@@ -0,0 +1,192 @@
+package org.qbicc.plugin.gc.semispace;
+
+import java.nio.ByteOrder;
+
+import org.qbicc.context.AttachmentKey;
+import org.qbicc.context.ClassContext;
+import org.qbicc.context.CompilationContext;
+import org.qbicc.plugin.coreclasses.CoreClasses;
+import org.qbicc.plugin.coreclasses.HeaderBits;
+import org.qbicc.plugin.layout.Layout;
+import org.qbicc.plugin.reachability.ReachabilityInfo;
+import org.qbicc.type.ClassObjectType;
+import org.qbicc.type.CompoundType;
+import org.qbicc.type.TypeSystem;
+import org.qbicc.type.definition.DefinedTypeDefinition;
+import org.qbicc.type.definition.LoadedTypeDefinition;
+import org.qbicc.type.definition.element.FieldElement;
+import org.qbicc.type.definition.element.MethodElement;
+
+/**
+ *
+ */
+public final class Semispace {
+    private static final AttachmentKey<Integer> HEADER_BIT_KEY = new AttachmentKey<>();
+
+    private final CompilationContext ctxt;
+    private final MethodElement allocateMethod;
+    private final MethodElement copyMethod;
+    private final MethodElement zeroMethod;
+    private final ClassObjectType stackObjectType;
+    private final LoadedTypeDefinition referenceType;
+    private final FieldElement referentField;
+    private final int forwardedBit;
+
+    private Semispace(final CompilationContext ctxt) {
+        this.ctxt = ctxt;
+        ClassContext classContext = ctxt.getBootstrapClassContext();
+        DefinedTypeDefinition defined = classContext.findDefinedType("org/qbicc/runtime/gc/semispace/SemispaceHelpers");
+        if (defined == null) {
+            throw runtimeMissing();
+        }
+        LoadedTypeDefinition loaded = defined.load();
+        int index = loaded.findMethodIndex(e -> e.getName().equals("allocate"));
+        if (index == -1) {
+            throw methodMissing();
+        }
+        allocateMethod = loaded.getMethod(index);
+        index = loaded.findMethodIndex(e -> e.getName().equals("copy"));
+        if (index == -1) {
+            throw methodMissing();
+        }
+        copyMethod = loaded.getMethod(index);
+        index = loaded.findMethodIndex(e -> e.getName().equals("clear"));
+        if (index == -1) {
+            throw methodMissing();
+        }
+        zeroMethod = loaded.getMethod(index);
+        defined = classContext.findDefinedType("org/qbicc/runtime/StackObject");
+        if (defined == null) {
+            throw runtimeMissing();
+        }
+        loaded = defined.load();
+        stackObjectType = loaded.getClassType();
+        defined = classContext.findDefinedType("java/lang/ref/Reference");
+        if (defined == null) {
+            throw new IllegalStateException("The java.lang.ref.Reference class is missing from the bootstrap class path");
+        }
+        referenceType = defined.load();
+        referentField = referenceType.findField("referent");
+        if (referentField == null) {
+            throw new IllegalStateException("The referent field is missing from java.lang.ref.Reference");
+        }
+        forwardedBit = computeForwardedBit();
+    }
+
+    private static IllegalStateException methodMissing() {
+        return new IllegalStateException("Required method is missing from the semispace GC helpers");
+    }
+
+    private static IllegalStateException runtimeMissing() {
+        return new IllegalStateException("The semispace GC runtime classes are not present in the bootstrap class path");
+    }
+
+    private static final AttachmentKey<Semispace> KEY = new AttachmentKey<>();
+
+    public static Semispace get(CompilationContext ctxt) {
+        return ctxt.computeAttachmentIfAbsent(KEY, () -> new Semispace(ctxt));
+    }
+
+    /**
+     * Reserve the object header bit which marks evacuated objects. This must be called before the core classes
+     * are initialized.
+     *
+     * @param ctxt the compilation context (must not be {@code null})
+     */
+    public static void reserveHeaderBits(CompilationContext ctxt) {
+        ctxt.putAttachment(HEADER_BIT_KEY, Integer.valueOf(HeaderBits.get(ctxt).reserveHeaderBits(1)));
+    }
+
+    /**
+     * Find the position of the forwarded header bit within the first word of an object. The collector stores
+     * the new address of an evacuated object in the rest of that word, so the whole header must lie within it.
+     */
+    private int computeForwardedBit() {
+        Integer headerBit = ctxt.getAttachment(HEADER_BIT_KEY);
+        if (headerBit == null) {
+            throw new IllegalStateException("The semispace GC header bit was not reserved");
+        }
+        TypeSystem ts = ctxt.getTypeSystem();
+        CoreClasses coreClasses = CoreClasses.get(ctxt);
+        CompoundType.Member header = Layout.get(ctxt).getInstanceLayoutInfo(coreClasses.getObjectTypeDefinition()).getMember(coreClasses.getObjectHeaderField());
+        int wordSize = ts.getPointerSize();
+        int offset = header.getOffset();
+        int size = (int) header.getType().getSize();
+        if (ts.getReferenceSize() != wordSize) {
+            ctxt.error("The semispace GC requires references to be the same size as pointers");
+        }
+        if (offset + size > wordSize) {
+            ctxt.error("The semispace GC requires the object header to be within the first word of each object");
+        }
+        int bit = headerBit.intValue();
+        int byteIdx = offset + (ts.getEndianness() == ByteOrder.LITTLE_ENDIAN ? bit >> 3 : size - 1 - (bit >> 3));
+        return (ts.getEndianness() == ByteOrder.LITTLE_ENDIAN ? byteIdx : wordSize - 1 - byteIdx) * 8 + (bit & 7);
+    }
+
+    public MethodElement getAllocateMethod() {
+        return allocateMethod;
+    }
+
+    public MethodElement getCopyMethod() {
+        return copyMethod;
+    }
+
+    public MethodElement getZeroMethod() {
+        return zeroMethod;
+    }
+
+    public ClassObjectType getStackObjectType() {
+        return stackObjectType;
+    }
+
+    /**
+     * Get the position of the forwarded bit within the first word of an object, as loaded from memory.
+     *
+     * @return the bit position
+     */
+    public int getForwardedBit() {
+        return forwardedBit;
+    }
+
+    /**
+     * Determine whether the given type is a reference object type, whose referent is not traced by the collector.
+     *
+     * @param type the type (must not be {@code null})
+     * @return {@code true} if the type is {@code java.lang.ref.Reference} or a subclass of it
+     */
+    public boolean isReferenceType(LoadedTypeDefinition type) {
+        return type.isSubtypeOf(referenceType);
+    }
+
+    /**
+     * Get the offset of the referent field within a reference object.
+     *
+     * @return the offset in bytes
+     */
+    public int getReferentOffset() {
+        return Layout.get(ctxt).getInstanceLayoutInfo(referenceType).getMember(referentField).getOffset();
+    }
+
+    /**
+     * Refuse to build a program which can start threads. The collector cannot stop other threads yet, so such a
+     * program would stop collecting garbage as soon as it started a thread. This must run once the set of
+     * reachable methods is final.
+     *
+     * @param ctxt the compilation context (must not be {@code null})
+     */
+    public static void checkSingleThreaded(CompilationContext ctxt) {
+        DefinedTypeDefinition defined = ctxt.getBootstrapClassContext().findDefinedType("java/lang/Thread");
+        if (defined == null) {
+            return;
+        }
+        LoadedTypeDefinition thread = defined.load();
+        int index = thread.findMethodIndex(e -> e.getName().equals("start") && e.getDescriptor().getParameterTypes().isEmpty());
+        if (index == -1) {
+            return;
+        }
+        MethodElement start = thread.getMethod(index);
+        if (ReachabilityInfo.get(ctxt).isInvokableInstanceMethod(start)) {
+            ctxt.error(start, "The semispace GC cannot stop other threads, so it cannot be used for a program which starts threads; use \"--gc none\" instead");
+        }
+    }
+}
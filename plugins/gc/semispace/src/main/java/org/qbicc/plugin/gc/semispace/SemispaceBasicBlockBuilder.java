@@ -0,0 +1,31 @@
+package org.qbicc.plugin.gc.semispace;
+
+import org.qbicc.context.CompilationContext;
+import org.qbicc.graph.BasicBlockBuilder;
+import org.qbicc.plugin.gc.common.AbstractGcBasicBlockBuilder;
+import org.qbicc.type.ClassObjectType;
+import org.qbicc.type.definition.element.MethodElement;
+
+/**
+ * The allocation lowering builder for the semispace GC.
+ */
+public class SemispaceBasicBlockBuilder extends AbstractGcBasicBlockBuilder {
+    public SemispaceBasicBlockBuilder(final CompilationContext ctxt, final BasicBlockBuilder delegate) {
+        super(ctxt, delegate);
+    }
+
+    @Override
+    protected MethodElement getAllocateMethod() {
+        return Semispace.get(ctxt).getAllocateMethod();
+    }
+
+    @Override
+    protected MethodElement getZeroMethod() {
+        return Semispace.get(ctxt).getZeroMethod();
+    }
+
+    @Override
+    protected ClassObjectType getStackObjectType() {
+        return Semispace.get(ctxt).getStackObjectType();
+    }
+}
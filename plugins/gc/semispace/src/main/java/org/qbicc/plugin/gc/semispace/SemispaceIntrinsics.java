@@ -0,0 +1,106 @@
+package org.qbicc.plugin.gc.semispace;
+
+import java.util.List;
+
+import org.qbicc.context.ClassContext;
+import org.qbicc.context.CompilationContext;
+import org.qbicc.driver.Phase;
+import org.qbicc.graph.GlobalVariable;
+import org.qbicc.graph.Value;
+import org.qbicc.graph.ValueHandle;
+import org.qbicc.graph.literal.LiteralFactory;
+import org.qbicc.plugin.intrinsics.Intrinsics;
+import org.qbicc.plugin.intrinsics.StaticIntrinsic;
+import org.qbicc.type.CompoundType;
+import org.qbicc.type.ReferenceType;
+import org.qbicc.type.descriptor.BaseTypeDescriptor;
+import org.qbicc.type.descriptor.ClassTypeDescriptor;
+import org.qbicc.type.descriptor.MethodDescriptor;
+
+/**
+ * Intrinsics which give the semispace collector access to the compiler-generated heap tables.
+ */
+public final class SemispaceIntrinsics {
+    private SemispaceIntrinsics() {}
+
+    public static void register(CompilationContext ctxt) {
+        Intrinsics intrinsics = Intrinsics.get(ctxt);
+        ClassContext classContext = ctxt.getBootstrapClassContext();
+        LiteralFactory lf = ctxt.getLiteralFactory();
+        SemispaceTables tables = SemispaceTables.get(ctxt);
+        CompoundType infoType = tables.getSemispaceInfoType();
+        ReferenceType jloRef = classContext.findDefinedType("java/lang/Object").load().getObjectType().getReference();
+
+        ClassTypeDescriptor collectorDesc = ClassTypeDescriptor.synthesize(classContext, "org/qbicc/runtime/gc/semispace/SemispaceCollector");
+        ClassTypeDescriptor objDesc = ClassTypeDescriptor.synthesize(classContext, "java/lang/Object");
+        ClassTypeDescriptor voidPtrDesc = ClassTypeDescriptor.synthesize(classContext, "org/qbicc/runtime/CNative$void_ptr");
+
+        MethodDescriptor voidToIntDesc = MethodDescriptor.synthesize(classContext, BaseTypeDescriptor.I, List.of());
+        MethodDescriptor intToIntDesc = MethodDescriptor.synthesize(classContext, BaseTypeDescriptor.I, List.of(BaseTypeDescriptor.I));
+        MethodDescriptor intToLongDesc = MethodDescriptor.synthesize(classContext, BaseTypeDescriptor.J, List.of(BaseTypeDescriptor.I));
+        MethodDescriptor intToVoidPtrDesc = MethodDescriptor.synthesize(classContext, voidPtrDesc, List.of(BaseTypeDescriptor.I));
+        MethodDescriptor intToObjDesc = MethodDescriptor.synthesize(classContext, objDesc, List.of(BaseTypeDescriptor.I));
+
+        intrinsics.registerIntrinsic(collectorDesc, "getForwardedBit", voidToIntDesc, (builder, target, arguments) ->
+            lf.literalOf(Semispace.get(ctxt).getForwardedBit()));
+
+        intrinsics.registerIntrinsic(Phase.LOWER, collectorDesc, "getReferentOffset", voidToIntDesc, (builder, target, arguments) ->
+            lf.literalOf(Semispace.get(ctxt).getReferentOffset()));
+
+        registerTypeInfoIntrinsic(intrinsics, tables, collectorDesc, "getTypeKind", intToIntDesc, "kind");
+        registerTypeInfoIntrinsic(intrinsics, tables, collectorDesc, "getTypeSize", intToLongDesc, "size");
+        registerTypeInfoIntrinsic(intrinsics, tables, collectorDesc, "getElementShift", intToIntDesc, "elementShift");
+        registerTypeInfoIntrinsic(intrinsics, tables, collectorDesc, "getRefMapIndex", intToIntDesc, "refMapIndex");
+        registerTypeInfoIntrinsic(intrinsics, tables, collectorDesc, "getRefMapWordCount", intToIntDesc, "refMapWords");
+
+        StaticIntrinsic getRefMapWord = (builder, target, arguments) -> {
+            GlobalVariable infoVariable = (GlobalVariable) builder.globalVariable(tables.getAndRegisterSemispaceInfo(builder.getCurrentElement()));
+            Value tablePointer = builder.load(builder.memberOf(infoVariable, infoType.getMember("refMapTable")));
+            return builder.load(builder.pointerHandle(tablePointer, arguments.get(0)));
+        };
+
+        intrinsics.registerIntrinsic(Phase.LOWER, collectorDesc, "getRefMapWord", intToLongDesc, getRefMapWord);
+
+        StaticIntrinsic getStaticRootCount = (builder, target, arguments) -> {
+            GlobalVariable infoVariable = (GlobalVariable) builder.globalVariable(tables.getAndRegisterSemispaceInfo(builder.getCurrentElement()));
+            return builder.load(builder.memberOf(infoVariable, infoType.getMember("staticRootCount")));
+        };
+
+        intrinsics.registerIntrinsic(Phase.LOWER, collectorDesc, "getStaticRootCount", voidToIntDesc, getStaticRootCount);
+
+        StaticIntrinsic getStaticRoot = (builder, target, arguments) -> {
+            GlobalVariable infoVariable = (GlobalVariable) builder.globalVariable(tables.getAndRegisterSemispaceInfo(builder.getCurrentElement()));
+            Value tablePointer = builder.load(builder.memberOf(infoVariable, infoType.getMember("staticRootTable")));
+            return builder.load(builder.pointerHandle(tablePointer, arguments.get(0)));
+        };
+
+        intrinsics.registerIntrinsic(Phase.LOWER, collectorDesc, "getStaticRoot", intToVoidPtrDesc, getStaticRoot);
+
+        StaticIntrinsic getInitialHeapObjectCount = (builder, target, arguments) -> {
+            GlobalVariable infoVariable = (GlobalVariable) builder.globalVariable(tables.getAndRegisterSemispaceInfo(builder.getCurrentElement()));
+            return builder.load(builder.memberOf(infoVariable, infoType.getMember("initialHeapObjectCount")));
+        };
+
+        intrinsics.registerIntrinsic(Phase.LOWER, collectorDesc, "getInitialHeapObjectCount", voidToIntDesc, getInitialHeapObjectCount);
+
+        StaticIntrinsic getInitialHeapObject = (builder, target, arguments) -> {
+            GlobalVariable infoVariable = (GlobalVariable) builder.globalVariable(tables.getAndRegisterSemispaceInfo(builder.getCurrentElement()));
+            Value tablePointer = builder.load(builder.memberOf(infoVariable, infoType.getMember("initialHeapObjectTable")));
+            return builder.load(builder.pointerHandle(builder.bitCast(tablePointer, jloRef.getPointer()), arguments.get(0)));
+        };
+
+        intrinsics.registerIntrinsic(Phase.LOWER, collectorDesc, "getInitialHeapObject", intToObjDesc, getInitialHeapObject);
+    }
+
+    private static void registerTypeInfoIntrinsic(Intrinsics intrinsics, SemispaceTables tables, ClassTypeDescriptor owner, String name, MethodDescriptor desc, String memberName) {
+        CompoundType infoType = tables.getSemispaceInfoType();
+        CompoundType typeInfoType = tables.getTypeInfoType();
+        StaticIntrinsic intrinsic = (builder, target, arguments) -> {
+            GlobalVariable infoVariable = (GlobalVariable) builder.globalVariable(tables.getAndRegisterSemispaceInfo(builder.getCurrentElement()));
+            Value tablePointer = builder.load(builder.memberOf(infoVariable, infoType.getMember("typeInfoTable")));
+            ValueHandle typeInfoHandle = builder.pointerHandle(tablePointer, arguments.get(0));
+            return builder.load(builder.memberOf(typeInfoHandle, typeInfoType.getMember(memberName)));
+        };
+        intrinsics.registerIntrinsic(Phase.LOWER, owner, name, desc, intrinsic);
+    }
+}
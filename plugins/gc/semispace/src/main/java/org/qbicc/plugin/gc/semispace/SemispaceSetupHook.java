@@ -0,0 +1,14 @@
+package org.qbicc.plugin.gc.semispace;
+
+import java.util.function.Consumer;
+
+import org.qbicc.context.CompilationContext;
+
+/**
+ *
+ */
+public class SemispaceSetupHook implements Consumer<CompilationContext> {
+    public void accept(final CompilationContext ctxt) {
+        Semispace.get(ctxt); // Causes semispace runtime classes to be loaded.
+    }
+}
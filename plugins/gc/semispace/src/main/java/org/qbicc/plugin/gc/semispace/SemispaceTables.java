@@ -0,0 +1,95 @@
+package org.qbicc.plugin.gc.semispace;
+
+import io.smallrye.common.constraint.Assert;
+import org.qbicc.context.AttachmentKey;
+import org.qbicc.context.CompilationContext;
+import org.qbicc.object.ProgramModule;
+import org.qbicc.type.CompoundType;
+import org.qbicc.type.TypeSystem;
+import org.qbicc.type.ValueType;
+import org.qbicc.type.definition.element.ExecutableElement;
+import org.qbicc.type.definition.element.GlobalVariableElement;
+import org.qbicc.type.descriptor.BaseTypeDescriptor;
+import org.qbicc.type.generic.BaseTypeSignature;
+
+/**
+ * The types of the tables which describe the heap to the semispace collector at run time.
+ */
+public final class SemispaceTables {
+    private static final AttachmentKey<SemispaceTables> KEY = new AttachmentKey<>();
+
+    public static final String QBICC_SEMISPACE_INFO = "qbicc_semispace_info";
+
+    // type kinds; these must agree with SemispaceCollector
+
+    public static final int KIND_NONE = 0;
+    public static final int KIND_INSTANCE = 1;
+    public static final int KIND_PRIM_ARRAY = 2;
+    public static final int KIND_REF_ARRAY = 3;
+    public static final int KIND_REFERENCE = 4;
+
+    private final CompilationContext ctxt;
+
+    private final GlobalVariableElement semispaceInfo;
+
+    private final CompoundType typeInfoType;
+    private final CompoundType semispaceInfoType;
+
+    private SemispaceTables(final CompilationContext ctxt) {
+        this.ctxt = ctxt;
+        TypeSystem ts = ctxt.getTypeSystem();
+        ValueType uint8Type = ts.getUnsignedInteger8Type();
+        ValueType int32Type = ts.getSignedInteger32Type();
+        ValueType int64Type = ts.getSignedInteger64Type();
+
+        typeInfoType = CompoundType.builder(ts)
+            .setTag(CompoundType.Tag.STRUCT)
+            .setName("qbicc_semispace_type_info")
+            .setOverallAlignment(int64Type.getAlign())
+            .addNextMember("size", int64Type)
+            .addNextMember("kind", int32Type)
+            .addNextMember("elementShift", int32Type)
+            .addNextMember("refMapIndex", int32Type)
+            .addNextMember("refMapWords", int32Type)
+            .build();
+
+        semispaceInfoType = CompoundType.builder(ts)
+            .setTag(CompoundType.Tag.STRUCT)
+            .setName("qbicc_semispace_info_t")
+            .setOverallAlignment(ts.getPointerAlignment())
+            .addNextMember("typeInfoTable", typeInfoType.getPointer())
+            .addNextMember("refMapTable", int64Type.getPointer())
+            .addNextMember("staticRootTable", ts.getVoidType().getPointer().getPointer())
+            .addNextMember("staticRootCount", int32Type)
+            .addNextMember("initialHeapObjectTable", uint8Type.getPointer())
+            .addNextMember("initialHeapObjectCount", int32Type)
+            .build();
+
+        GlobalVariableElement.Builder builder = GlobalVariableElement.builder(QBICC_SEMISPACE_INFO, BaseTypeDescriptor.V);
+        builder.setType(semispaceInfoType);
+        builder.setEnclosingType(ctxt.getDefaultTypeDefinition().load());
+        builder.setSignature(BaseTypeSignature.V);
+        semispaceInfo = builder.build();
+    }
+
+    public static SemispaceTables get(CompilationContext ctxt) {
+        return ctxt.computeAttachmentIfAbsent(KEY, () -> new SemispaceTables(ctxt));
+    }
+
+    public GlobalVariableElement getAndRegisterSemispaceInfo(ExecutableElement originalElement) {
+        Assert.assertNotNull(semispaceInfo);
+        if (originalElement != null && !semispaceInfo.getEnclosingType().equals(originalElement.getEnclosingType())) {
+            ProgramModule programModule = ctxt.getOrAddProgramModule(originalElement.getEnclosingType());
+            programModule.declareData(null, semispaceInfo.getName(), semispaceInfo.getType());
+        }
+        return semispaceInfo;
+    }
+
+    public CompoundType getTypeInfoType() {
+        return typeInfoType;
+    }
+
+    public CompoundType getSemispaceInfoType() {
+        return semispaceInfoType;
+    }
+}
@@ -0,0 +1,164 @@
+package org.qbicc.plugin.gc.semispace;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import org.qbicc.context.CompilationContext;
+import org.qbicc.graph.literal.Literal;
+import org.qbicc.graph.literal.LiteralFactory;
+import org.qbicc.object.Data;
+import org.qbicc.object.DataDeclaration;
+import org.qbicc.object.ModuleSection;
+import org.qbicc.object.ProgramModule;
+import org.qbicc.plugin.coreclasses.CoreClasses;
+import org.qbicc.plugin.instanceofcheckcast.SupersDisplayTables;
+import org.qbicc.plugin.layout.Layout;
+import org.qbicc.plugin.layout.LayoutInfo;
+import org.qbicc.plugin.lowering.Lowering;
+import org.qbicc.plugin.serialization.BuildtimeHeap;
+import org.qbicc.type.ArrayType;
+import org.qbicc.type.CompoundType;
+import org.qbicc.type.PointerType;
+import org.qbicc.type.ReferenceType;
+import org.qbicc.type.TypeSystem;
+import org.qbicc.type.WordType;
+import org.qbicc.type.definition.LoadedTypeDefinition;
+import org.qbicc.type.definition.element.FieldElement;
+import org.qbicc.type.definition.element.GlobalVariableElement;
+
+/**
+ * Emit the tables which describe the heap to the semispace collector: the size and reference map of every
+ * type (leaving out the referent of reference objects), the addresses of the static fields which hold references, and the initial heap objects which might
+ * refer to objects allocated at run time.
+ */
+public class SemispaceTablesEmitter implements Consumer<CompilationContext> {
+    public SemispaceTablesEmitter() {}
+
+    @Override
+    public void accept(CompilationContext ctxt) {
+        TypeSystem ts = ctxt.getTypeSystem();
+        LiteralFactory lf = ctxt.getLiteralFactory();
+        SemispaceTables tables = SemispaceTables.get(ctxt);
+        Semispace semispace = Semispace.get(ctxt);
+        CompoundType typeInfoType = tables.getTypeInfoType();
+        ProgramModule module = ctxt.getOrAddProgramModule(ctxt.getDefaultTypeDefinition());
+        ReferenceType jloRef = CoreClasses.get(ctxt).getObjectTypeDefinition().getObjectType().getReference();
+
+        // type information, indexed by type ID
+        Literal[] typeInfos = new Literal[SupersDisplayTables.get(ctxt).get_number_of_typeids()];
+        Arrays.fill(typeInfos, lf.zeroInitializerLiteralOfType(typeInfoType));
+        List<Literal> refMapWords = new ArrayList<>();
+        Map<LoadedTypeDefinition, Integer> arrayElementShifts = getArrayElementShifts(ctxt);
+        LoadedTypeDefinition refArrayType = CoreClasses.get(ctxt).getRefArrayContentField().getEnclosingType().load();
+        List<LoadedTypeDefinition> types = new ArrayList<>();
+        SupersDisplayTables.get(ctxt).forEachTypeWithTypeId(types::add);
+        types.sort(Comparator.comparingInt(LoadedTypeDefinition::getTypeId));
+        for (LoadedTypeDefinition type : types) {
+            if (type.isInterface()) {
+                continue;
+            }
+            LayoutInfo info = Layout.get(ctxt).getInstanceLayoutInfo(type);
+            HashMap<CompoundType.Member, Literal> valueMap = new HashMap<>();
+            valueMap.put(typeInfoType.getMember("size"), lf.literalOf(info.getCompoundType().getSize()));
+            Integer elementShift = arrayElementShifts.get(type);
+            if (elementShift != null) {
+                valueMap.put(typeInfoType.getMember("kind"), lf.literalOf(type == refArrayType ? SemispaceTables.KIND_REF_ARRAY : SemispaceTables.KIND_PRIM_ARRAY));
+                valueMap.put(typeInfoType.getMember("elementShift"), lf.literalOf(elementShift.intValue()));
+                valueMap.put(typeInfoType.getMember("refMapIndex"), lf.literalOf(0));
+                valueMap.put(typeInfoType.getMember("refMapWords"), lf.literalOf(0));
+            } else {
+                long[] refMap = info.getReferenceBitMap();
+                int kind = SemispaceTables.KIND_INSTANCE;
+                if (semispace.isReferenceType(type)) {
+                    // the referent is only updated once the collector knows whether it is otherwise reachable
+                    int referentIdx = semispace.getReferentOffset() / ts.getReferenceSize();
+                    refMap[referentIdx >> 6] &= ~(1L << referentIdx);
+                    kind = SemispaceTables.KIND_REFERENCE;
+                }
+                valueMap.put(typeInfoType.getMember("kind"), lf.literalOf(kind));
+                valueMap.put(typeInfoType.getMember("elementShift"), lf.literalOf(0));
+                valueMap.put(typeInfoType.getMember("refMapIndex"), lf.literalOf(refMapWords.size()));
+                valueMap.put(typeInfoType.getMember("refMapWords"), lf.literalOf(refMap.length));
+                for (long word : refMap) {
+                    refMapWords.add(lf.literalOf(word));
+                }
+            }
+            typeInfos[type.getTypeId()] = lf.literalOf(typeInfoType, valueMap);
+        }
+        Data typeInfoData = defineData(ctxt, "qbicc_semispace_type_info_table", lf.literalOf(ts.getArrayType(typeInfoType, typeInfos.length), List.of(typeInfos)));
+        Data refMapData = defineData(ctxt, "qbicc_semispace_ref_map_table", lf.literalOf(ts.getArrayType(ts.getSignedInteger64Type(), refMapWords.size()), refMapWords));
+
+        // the addresses of static fields which hold references
+        PointerType voidPtr = ts.getVoidType().getPointer();
+        List<Literal> staticRoots = new ArrayList<>();
+        Lowering.get(ctxt).getStaticFieldGlobals().entrySet().stream()
+            .filter(e -> e.getValue().getType() instanceof ReferenceType)
+            // the initial heap fields only ever refer to initial heap objects
+            .filter(e -> ! e.getKey().getEnclosingType().internalPackageAndNameEquals("org/qbicc/runtime/main", "InitialHeap"))
+            .sorted(Comparator.comparing(e -> e.getValue().getName()))
+            .forEachOrdered(e -> {
+                FieldElement field = e.getKey();
+                GlobalVariableElement global = e.getValue();
+                DataDeclaration decl = module.declareData(field, global.getName(), global.getType());
+                staticRoots.add(lf.bitcastLiteral(lf.literalOf(decl), voidPtr));
+            });
+        Data staticRootData = defineData(ctxt, "qbicc_semispace_static_root_table", lf.literalOf(ts.getArrayType(voidPtr, staticRoots.size()), staticRoots));
+
+        // the initial heap objects which might refer to run time objects
+        List<Literal> initialHeapObjects = BuildtimeHeap.get(ctxt).referToMutableObjects(jloRef, module);
+        Data initialHeapData = defineData(ctxt, "qbicc_semispace_initial_heap_table", lf.literalOf(ts.getArrayType(jloRef, initialHeapObjects.size()), initialHeapObjects));
+
+        CompoundType infoType = tables.getSemispaceInfoType();
+        HashMap<CompoundType.Member, Literal> valueMap = new HashMap<>();
+        CompoundType.Member member;
+
+        member = infoType.getMember("typeInfoTable");
+        valueMap.put(member, lf.bitcastLiteral(lf.literalOf(typeInfoData), (WordType) member.getType()));
+
+        member = infoType.getMember("refMapTable");
+        valueMap.put(member, lf.bitcastLiteral(lf.literalOf(refMapData), (WordType) member.getType()));
+
+        member = infoType.getMember("staticRootTable");
+        valueMap.put(member, lf.bitcastLiteral(lf.literalOf(staticRootData), (WordType) member.getType()));
+        valueMap.put(infoType.getMember("staticRootCount"), lf.literalOf(staticRoots.size()));
+
+        member = infoType.getMember("initialHeapObjectTable");
+        valueMap.put(member, lf.bitcastLiteral(lf.literalOf(initialHeapData), (WordType) member.getType()));
+        valueMap.put(infoType.getMember("initialHeapObjectCount"), lf.literalOf(initialHeapObjects.size()));
+
+        defineData(ctxt, SemispaceTables.QBICC_SEMISPACE_INFO, lf.literalOf(infoType, valueMap));
+    }
+
+    private static Data defineData(CompilationContext ctxt, String variableName, Literal value) {
+        ModuleSection section = ctxt.getImplicitSection(ctxt.getDefaultTypeDefinition());
+        return section.addData(null, variableName, value);
+    }
+
+    /**
+     * Get the element shift of each array type, keyed by the type which holds the array content.
+     */
+    private static Map<LoadedTypeDefinition, Integer> getArrayElementShifts(CompilationContext ctxt) {
+        CoreClasses coreClasses = CoreClasses.get(ctxt);
+        Map<LoadedTypeDefinition, Integer> map = new HashMap<>();
+        for (FieldElement contentField : List.of(
+            coreClasses.getBooleanArrayContentField(),
+            coreClasses.getByteArrayContentField(),
+            coreClasses.getShortArrayContentField(),
+            coreClasses.getCharArrayContentField(),
+            coreClasses.getIntArrayContentField(),
+            coreClasses.getLongArrayContentField(),
+            coreClasses.getFloatArrayContentField(),
+            coreClasses.getDoubleArrayContentField(),
+            coreClasses.getRefArrayContentField()
+        )) {
+            long elementSize = ((ArrayType) contentField.getType()).getElementType().getSize();
+            map.put(contentField.getEnclosingType().load(), Integer.valueOf(Long.numberOfTrailingZeros(elementSize)));
+        }
+        return map;
+    }
+}
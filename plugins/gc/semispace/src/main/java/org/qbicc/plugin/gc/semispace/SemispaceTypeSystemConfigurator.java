@@ -0,0 +1,18 @@
+package org.qbicc.plugin.gc.semispace;
+
+import java.util.function.Consumer;
+
+import org.qbicc.type.TypeSystem;
+
+/**
+ *
+ */
+public class SemispaceTypeSystemConfigurator implements Consumer<TypeSystem.Builder> {
+    public SemispaceTypeSystemConfigurator() {}
+
+    public void accept(final TypeSystem.Builder builder) {
+        // the collector finds and updates references as raw pointers
+        builder.setReferenceSize(builder.getPointerSize());
+        builder.setReferenceAlignment(builder.getPointerAlignment());
+    }
+}
@@ -6,6 +6,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 import java.util.stream.IntStream;
 
 import org.qbicc.context.AttachmentKey;
@@ -491,6 +492,15 @@ public class SupersDisplayTables {
         return typeIdStructType;
     }
 
+    /**
+     * Call the given action for every class, interface, and array type which has been assigned a type ID.
+     *
+     * @param action the action to call (must not be {@code null})
+     */
+    public void forEachTypeWithTypeId(Consumer<LoadedTypeDefinition> action) {
+        typeids.keySet().forEach(action);
+    }
+
     public int get_number_of_typeids() {
         Assert.assertTrue(idAndRange.typeid_index == (typeids.size() + 1));
         supersLog.debug("get_highest_typeid == " + (typeids.size() + 1));
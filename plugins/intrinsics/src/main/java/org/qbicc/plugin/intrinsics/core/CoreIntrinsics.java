@@ -40,13 +40,13 @@ import org.qbicc.object.ProgramObject;
 import org.qbicc.plugin.coreclasses.CoreClasses;
 import org.qbicc.plugin.coreclasses.RuntimeMethodFinder;
 import org.qbicc.plugin.dispatch.DispatchTables;
-import org.qbicc.plugin.gc.nogc.NoGc;
 import org.qbicc.plugin.instanceofcheckcast.SupersDisplayTables;
 import org.qbicc.plugin.intrinsics.InstanceIntrinsic;
 import org.qbicc.plugin.intrinsics.Intrinsics;
 import org.qbicc.plugin.intrinsics.StaticIntrinsic;
 import org.qbicc.plugin.layout.Layout;
 import org.qbicc.plugin.methodinfo.MethodDataTypes;
+import org.qbicc.plugin.profile.ProfileInstrumentation;
 import org.qbicc.plugin.serialization.BuildtimeHeap;
 import org.qbicc.pointer.ProgramObjectPointer;
 import org.qbicc.type.ClassObjectType;
@@ -83,6 +83,7 @@ public final class CoreIntrinsics {
     public static void register(CompilationContext ctxt) {
         CNativeIntrinsics.register(ctxt);
         registerJavaLangClassIntrinsics(ctxt);
+        registerJavaLangStringIntrinsics(ctxt);
         registerJavaLangStringUTF16Intrinsics(ctxt);
         registerJavaLangSystemIntrinsics(ctxt);
         registerJavaLangStackTraceElementInstrinsics(ctxt);
@@ -98,6 +99,7 @@ public final class CoreIntrinsics {
         registerJavaLangMathIntrinsics(ctxt);
         registerJavaUtilConcurrentAtomicLongIntrinsics(ctxt);
         registerOrgQbiccRuntimeMethodDataIntrinsics(ctxt);
+        registerOrgQbiccRuntimeProfileDataIntrinsics(ctxt);
         UnsafeIntrinsics.register(ctxt);
         registerJDKInternalIntrinsics(ctxt);
     }
@@ -169,6 +171,24 @@ public final class CoreIntrinsics {
         intrinsics.registerIntrinsic(Phase.ANALYZE, jlcDesc, "getDeclaringClass0", emptyToClass, getDeclaringClass0);
     }
 
+    public static void registerJavaLangStringIntrinsics(CompilationContext ctxt) {
+        Intrinsics intrinsics = Intrinsics.get(ctxt);
+        ClassContext classContext = ctxt.getBootstrapClassContext();
+        RuntimeMethodFinder methodFinder = RuntimeMethodFinder.get(ctxt);
+
+        ClassTypeDescriptor jlsDesc = ClassTypeDescriptor.synthesize(classContext, "java/lang/String");
+
+        MethodDescriptor emptyToString = MethodDescriptor.synthesize(classContext, jlsDesc, List.of());
+
+        // look up the string in the intern hash table which was built at build time
+        MethodElement internElement = methodFinder.getMethod("org/qbicc/runtime/main/InitialHeap", "intern");
+
+        InstanceIntrinsic intern = (builder, instance, target, arguments) ->
+            builder.getFirstBuilder().call(builder.staticMethod(internElement), List.of(instance));
+
+        intrinsics.registerIntrinsic(jlsDesc, "intern", emptyToString, intern);
+    }
+
     public static void registerJavaLangStringUTF16Intrinsics(CompilationContext ctxt) {
         Intrinsics intrinsics = Intrinsics.get(ctxt);
         ClassContext classContext = ctxt.getBootstrapClassContext();
@@ -384,6 +404,46 @@ public final class CoreIntrinsics {
         intrinsics.registerIntrinsic(Phase.ANALYZE, steDesc, "initStackTraceElements", steArrayThrowableToVoidDesc, initStackTraceElements);
     }
 
+    private static void registerOrgQbiccRuntimeProfileDataIntrinsics(final CompilationContext ctxt) {
+        Intrinsics intrinsics = Intrinsics.get(ctxt);
+        ClassContext classContext = ctxt.getBootstrapClassContext();
+
+        ClassTypeDescriptor pdDesc = ClassTypeDescriptor.synthesize(classContext, "org/qbicc/runtime/main/ProfileData");
+        ClassTypeDescriptor constCharPtrDesc = ClassTypeDescriptor.synthesize(classContext, "org/qbicc/runtime/CNative$const_char_ptr");
+
+        MethodDescriptor voidToIntDesc = MethodDescriptor.synthesize(classContext, BaseTypeDescriptor.I, List.of());
+        MethodDescriptor intToLongDesc = MethodDescriptor.synthesize(classContext, BaseTypeDescriptor.J, List.of(BaseTypeDescriptor.I));
+        MethodDescriptor voidToConstCharPtrDesc = MethodDescriptor.synthesize(classContext, constCharPtrDesc, List.of());
+
+        // the profile data run time class is only loaded when profile instrumentation is enabled
+
+        StaticIntrinsic getCounterCount = (builder, target, arguments) -> {
+            ProfileInstrumentation instrumentation = ProfileInstrumentation.get(ctxt);
+            GlobalVariable pdVariable = (GlobalVariable) builder.globalVariable(instrumentation.getAndRegisterProfileData(builder.getRootElement()));
+            return builder.load(builder.memberOf(pdVariable, instrumentation.getProfileDataType().getMember("counterCount")));
+        };
+
+        intrinsics.registerIntrinsic(Phase.LOWER, pdDesc, "getCounterCount", voidToIntDesc, getCounterCount);
+
+        StaticIntrinsic getCounter = (builder, target, arguments) -> {
+            ProfileInstrumentation instrumentation = ProfileInstrumentation.get(ctxt);
+            GlobalVariable pdVariable = (GlobalVariable) builder.globalVariable(instrumentation.getAndRegisterProfileData(builder.getRootElement()));
+            Value counters = builder.load(builder.memberOf(pdVariable, instrumentation.getProfileDataType().getMember("counters")));
+            return builder.load(builder.pointerHandle(counters, arguments.get(0)));
+        };
+
+        intrinsics.registerIntrinsic(Phase.LOWER, pdDesc, "getCounter", intToLongDesc, getCounter);
+
+        StaticIntrinsic getNames = (builder, target, arguments) -> {
+            ProfileInstrumentation instrumentation = ProfileInstrumentation.get(ctxt);
+            GlobalVariable pdVariable = (GlobalVariable) builder.globalVariable(instrumentation.getAndRegisterProfileData(builder.getRootElement()));
+            Value names = builder.load(builder.memberOf(pdVariable, instrumentation.getProfileDataType().getMember("names")));
+            return builder.bitCast(names, (WordType) target.getExecutable().getType().getReturnType());
+        };
+
+        intrinsics.registerIntrinsic(Phase.LOWER, pdDesc, "getNames", voidToConstCharPtrDesc, getNames);
+    }
+
     private static void registerOrgQbiccRuntimeMethodDataIntrinsics(final CompilationContext ctxt) {
         Intrinsics intrinsics = Intrinsics.get(ctxt);
         ClassContext classContext = ctxt.getBootstrapClassContext();
@@ -429,6 +489,37 @@ public final class CoreIntrinsics {
 
         intrinsics.registerIntrinsic(Phase.LOWER, mdDesc, "getSourceCodeInfoIndex", intToIntDesc, getSourceCodeInfoIndex);
 
+        StaticIntrinsic getLiveSlotIndex = (builder, target, arguments) -> {
+            GlobalVariable gmdVariable = (GlobalVariable) builder.globalVariable(mdTypes.getAndRegisterGlobalMethodData(builder.getCurrentElement()));
+            Value tablePointer = builder.load(builder.memberOf(gmdVariable, gmdType.getMember("liveSlotIndexTable")));
+            return builder.load(builder.pointerHandle(tablePointer, arguments.get(0)));
+        };
+
+        intrinsics.registerIntrinsic(Phase.LOWER, mdDesc, "getLiveSlotIndex", intToIntDesc, getLiveSlotIndex);
+
+        StaticIntrinsic getLiveSlotWord = (builder, target, arguments) -> {
+            GlobalVariable gmdVariable = (GlobalVariable) builder.globalVariable(mdTypes.getAndRegisterGlobalMethodData(builder.getCurrentElement()));
+            Value tablePointer = builder.load(builder.memberOf(gmdVariable, gmdType.getMember("liveSlotTable")));
+            return builder.load(builder.pointerHandle(tablePointer, arguments.get(0)));
+        };
+
+        intrinsics.registerIntrinsic(Phase.LOWER, mdDesc, "getLiveSlotWord", intToIntDesc, getLiveSlotWord);
+
+        StaticIntrinsic getImplicitNullCheckTableSize = (builder, target, arguments) -> {
+            GlobalVariable gmdVariable = (GlobalVariable) builder.globalVariable(mdTypes.getAndRegisterGlobalMethodData(builder.getCurrentElement()));
+            return builder.load(builder.memberOf(gmdVariable, gmdType.getMember("implicitNullCheckTableSize")));
+        };
+
+        intrinsics.registerIntrinsic(Phase.LOWER, mdDesc, "getImplicitNullCheckTableSize", voidToIntDesc, getImplicitNullCheckTableSize);
+
+        StaticIntrinsic getImplicitNullCheckAddress = (builder, target, arguments) -> {
+            GlobalVariable gmdVariable = (GlobalVariable) builder.globalVariable(mdTypes.getAndRegisterGlobalMethodData(builder.getCurrentElement()));
+            Value tablePointer = builder.load(builder.memberOf(gmdVariable, gmdType.getMember("implicitNullCheckTable")));
+            return builder.load(builder.pointerHandle(tablePointer, arguments.get(0)));
+        };
+
+        intrinsics.registerIntrinsic(Phase.LOWER, mdDesc, "getImplicitNullCheckAddress", intToLongDesc, getImplicitNullCheckAddress);
+
         StaticIntrinsic getMethodInfoIndex = (builder, target, arguments) -> {
             GlobalVariable gmdVariable = (GlobalVariable) builder.globalVariable(mdTypes.getAndRegisterGlobalMethodData(builder.getCurrentElement()));
             Value tablePointer = builder.load(builder.memberOf(gmdVariable, gmdType.getMember("sourceCodeInfoTable")));
@@ -704,12 +795,14 @@ public final class CoreIntrinsics {
             Value size32 = builder.load(builder.instanceFieldOf(builder.referenceHandle(cls), coreClasses.getClassInstanceSizeField()));
             Value size = builder.extend(size32, ctxt.getTypeSystem().getSignedInteger64Type());
 
-            // TODO: This is a kludge in multiple ways:
-            //  1. We should not directly call a NoGc method here.
-            //  2. We are overwriting the object header fields initialized by new when doing the copy
+            // TODO: This is a kludge: we are overwriting the object header fields initialized by new when doing the copy
             //     (to make sure we copy any instance fields that have been assigned to use the padding bytes in the basic object header).
-            MethodElement method = NoGc.get(ctxt).getCopyMethod();
-            return builder.call(builder.staticMethod(method), List.of(dst, src, size));
+            MethodElement method = RuntimeMethodFinder.get(ctxt).getMethod("copyObjectMemory");
+            Value result = builder.call(builder.staticMethod(method), List.of(dst, src, size));
+            // ...so restore the header bits of the new object; in particular, the copy must not appear to be locked
+            FieldElement headerField = coreClasses.getObjectHeaderField();
+            builder.store(builder.instanceFieldOf(builder.referenceHandle(dst), headerField), ctxt.getLiteralFactory().zeroInitializerLiteralOfType(headerField.getType()), SinglePlain);
+            return result;
         };
         intrinsics.registerIntrinsic(Phase.LOWER, ciDesc, "copyInstanceFields", copyDesc, copy);
     }
@@ -1017,6 +1110,21 @@ public final class CoreIntrinsics {
         StaticIntrinsic sysThrGrp = (builder, target, arguments) -> ctxt.getLiteralFactory().literalOf(ctxt.getVm().getMainThreadGroup());
         MethodDescriptor returnTgDesc = MethodDescriptor.synthesize(classContext, tgDesc, List.of());
         intrinsics.registerIntrinsic(mainDesc, "getSystemThreadGroup", returnTgDesc, sysThrGrp);
+
+        ClassTypeDescriptor incDesc = ClassTypeDescriptor.synthesize(classContext, "org/qbicc/runtime/main/ImplicitNullChecks");
+        ClassTypeDescriptor cIntDesc = ClassTypeDescriptor.synthesize(classContext, "org/qbicc/runtime/CNative$c_int");
+        ClassTypeDescriptor sigInfoPtrDesc = ClassTypeDescriptor.synthesize(classContext, "org/qbicc/runtime/posix/Signal$siginfo_t_ptr");
+        ClassTypeDescriptor voidPtrDesc = ClassTypeDescriptor.synthesize(classContext, "org/qbicc/runtime/CNative$void_ptr");
+        ClassTypeDescriptor functionPtrDesc = ClassTypeDescriptor.synthesize(classContext, "org/qbicc/runtime/CNative$function_ptr");
+        MethodDescriptor handleImplicitNullCheckFaultDesc = MethodDescriptor.synthesize(classContext, BaseTypeDescriptor.V, List.of(cIntDesc, sigInfoPtrDesc, voidPtrDesc));
+
+        // Get the address of the signal handler for faulting implicit null checks
+        StaticIntrinsic faultHandler = (builder, target, arguments) -> {
+            Value handler = builder.addressOf(builder.staticMethod(incDesc, "handleImplicitNullCheckFault", handleImplicitNullCheckFaultDesc));
+            return builder.bitCast(handler, (WordType) target.getExecutable().getType().getReturnType());
+        };
+        MethodDescriptor returnFunctionPtrDesc = MethodDescriptor.synthesize(classContext, functionPtrDesc, List.of());
+        intrinsics.registerIntrinsic(incDesc, "faultHandler", returnFunctionPtrDesc, faultHandler);
     }
 
     public static void registerJavaLangMathIntrinsics(CompilationContext ctxt) {
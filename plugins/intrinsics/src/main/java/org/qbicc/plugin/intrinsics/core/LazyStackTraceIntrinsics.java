@@ -0,0 +1,75 @@
+package org.qbicc.plugin.intrinsics.core;
+
+import static org.qbicc.graph.atomic.AccessModes.*;
+
+import java.util.List;
+
+import org.qbicc.context.ClassContext;
+import org.qbicc.context.CompilationContext;
+import org.qbicc.driver.Phase;
+import org.qbicc.graph.Value;
+import org.qbicc.plugin.coreclasses.RuntimeMethodFinder;
+import org.qbicc.plugin.intrinsics.InstanceIntrinsic;
+import org.qbicc.plugin.intrinsics.Intrinsics;
+import org.qbicc.type.definition.LoadedTypeDefinition;
+import org.qbicc.type.definition.element.FieldElement;
+import org.qbicc.type.definition.element.MethodElement;
+import org.qbicc.type.descriptor.ArrayTypeDescriptor;
+import org.qbicc.type.descriptor.BaseTypeDescriptor;
+import org.qbicc.type.descriptor.ClassTypeDescriptor;
+import org.qbicc.type.descriptor.MethodDescriptor;
+
+/**
+ * Intrinsics for lazy stack trace capture. When a throwable fills in its stack trace, only the raw instruction
+ * pointers of the stack are stored in its {@code backtrace} field. They are decoded into Java frames, replacing the
+ * {@code backtrace} and {@code depth} fields, just before the throwable first builds its stack trace elements.
+ * <p>
+ * These intrinsics must be registered before the {@linkplain CoreIntrinsics core intrinsics}, so that they take the
+ * place of the eager stack trace capture.
+ */
+public final class LazyStackTraceIntrinsics {
+    private LazyStackTraceIntrinsics() {}
+
+    /**
+     * Register the lazy stack trace intrinsics.
+     *
+     * @param ctxt the compilation context
+     * @param framePointers {@code true} to capture the stack by following frame pointers, or {@code false} to capture
+     *      it using libunwind
+     */
+    public static void register(CompilationContext ctxt, boolean framePointers) {
+        Intrinsics intrinsics = Intrinsics.get(ctxt);
+        ClassContext classContext = ctxt.getBootstrapClassContext();
+        RuntimeMethodFinder methodFinder = RuntimeMethodFinder.get(ctxt);
+
+        String jswClass = "org/qbicc/runtime/stackwalk/JavaStackWalker";
+
+        ClassTypeDescriptor jltDesc = ClassTypeDescriptor.synthesize(classContext, "java/lang/Throwable");
+        ClassTypeDescriptor steDesc = ClassTypeDescriptor.synthesize(classContext, "java/lang/StackTraceElement");
+
+        MethodElement captureElement = methodFinder.getMethod(jswClass, framePointers ? "captureBacktraceFromFramePointers" : "captureBacktrace");
+        MethodElement decodeElement = methodFinder.getMethod(jswClass, "decodeBacktrace");
+
+        LoadedTypeDefinition jlt = classContext.findDefinedType("java/lang/Throwable").load();
+        FieldElement backtraceField = jlt.findField("backtrace");
+        FieldElement depthField = jlt.findField("depth");
+
+        InstanceIntrinsic fillInStackTrace = (builder, instance, target, arguments) -> {
+            Value backtrace = builder.call(builder.staticMethod(captureElement), List.of());
+            builder.store(builder.instanceFieldOf(builder.referenceHandle(instance), backtraceField), backtrace, SingleUnshared);
+            // the depth is not known until the backtrace is decoded
+            builder.store(builder.instanceFieldOf(builder.referenceHandle(instance), depthField), ctxt.getLiteralFactory().literalOf(0), SingleUnshared);
+            return instance;
+        };
+
+        intrinsics.registerIntrinsic(Phase.ANALYZE, jltDesc, "fillInStackTrace", MethodDescriptor.synthesize(classContext, jltDesc, List.of(BaseTypeDescriptor.I)), fillInStackTrace);
+
+        InstanceIntrinsic getOurStackTrace = (builder, instance, target, arguments) -> {
+            builder.call(builder.staticMethod(decodeElement), List.of(instance));
+            // now make the original call
+            return null;
+        };
+
+        intrinsics.registerIntrinsic(Phase.ANALYZE, jltDesc, "getOurStackTrace", MethodDescriptor.synthesize(classContext, ArrayTypeDescriptor.of(classContext, steDesc), List.of()), getOurStackTrace);
+    }
+}
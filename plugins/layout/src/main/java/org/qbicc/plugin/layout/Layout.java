@@ -6,6 +6,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
 
 import io.smallrye.common.constraint.Assert;
 import org.qbicc.context.AttachmentKey;
@@ -155,6 +156,15 @@ public final class Layout {
         return appearing != null ? appearing : layoutInfo;
     }
 
+    /**
+     * Call the given action for every class whose instance layout has been computed.
+     *
+     * @param action the action to call (must not be {@code null})
+     */
+    public void forEachInstanceLayout(BiConsumer<LoadedTypeDefinition, LayoutInfo> action) {
+        instanceLayouts.forEach(action);
+    }
+
     /**
      * Compute the static layout information of the given type.
      *
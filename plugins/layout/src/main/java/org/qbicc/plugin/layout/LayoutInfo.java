@@ -1,6 +1,7 @@
 package org.qbicc.plugin.layout;
 
 import org.qbicc.type.CompoundType;
+import org.qbicc.type.ReferenceType;
 import org.qbicc.type.definition.element.FieldElement;
 
 import java.util.BitSet;
@@ -11,11 +12,24 @@ public final class LayoutInfo {
     private final BitSet allocated;
     private final CompoundType compoundType;
     private final Map<FieldElement, CompoundType.Member> fieldToMember;
+    private final long[] referenceBitMap;
 
     LayoutInfo(final BitSet allocated, final CompoundType compoundType, final Map<FieldElement, CompoundType.Member> fieldToMember) {
         this.allocated = allocated;
         this.compoundType = compoundType;
         this.fieldToMember = fieldToMember;
+        this.referenceBitMap = computeReferenceBitMap(fieldToMember);
+    }
+
+    private static long[] computeReferenceBitMap(final Map<FieldElement, CompoundType.Member> fieldToMember) {
+        BitSet bits = new BitSet();
+        for (CompoundType.Member member : fieldToMember.values()) {
+            if (member.getType() instanceof ReferenceType rt) {
+                // references are always naturally aligned
+                bits.set(member.getOffset() / (int) rt.getSize());
+            }
+        }
+        return bits.toLongArray();
     }
 
     public BitSet getAllocatedBits() {
@@ -31,4 +45,16 @@ public final class LayoutInfo {
     public CompoundType.Member getMember(FieldElement element) {
         return fieldToMember.get(element);
     }
+
+    /**
+     * Get the reference bit map of this layout. Bit {@code n} of the map (that is, bit {@code n % 64} of word
+     * {@code n / 64}) is set if there is a reference at offset {@code n} times the reference size. Trailing
+     * array content is not included. The map has no trailing zero words, so it is empty if there are no
+     * reference members.
+     *
+     * @return the reference bit map words (not {@code null})
+     */
+    public long[] getReferenceBitMap() {
+        return referenceBitMap.clone();
+    }
 }
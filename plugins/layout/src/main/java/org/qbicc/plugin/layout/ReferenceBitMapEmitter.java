@@ -0,0 +1,111 @@
+package org.qbicc.plugin.layout;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+import org.qbicc.context.CompilationContext;
+import org.qbicc.graph.literal.Literal;
+import org.qbicc.graph.literal.LiteralFactory;
+import org.qbicc.object.ModuleSection;
+import org.qbicc.type.CompoundType;
+import org.qbicc.type.TypeSystem;
+import org.qbicc.type.ValueType;
+
+/**
+ * Emit the reference bit map of every class which has an instance layout, whichever collector is used. The words of
+ * all of the bit maps are emitted into {@value #REFERENCE_BITMAP_TABLE}, where classes with equal bit maps share their
+ * words. The {@value #REFERENCE_BITMAP_INDEX_TABLE} is indexed by type ID, and gives the index of the first word of the
+ * bit map of each class and its number of words; types without an instance layout have no words.
+ *
+ * @see LayoutInfo#getReferenceBitMap()
+ */
+public class ReferenceBitMapEmitter implements Consumer<CompilationContext> {
+    public static final String REFERENCE_BITMAP_TABLE = "qbicc_reference_bitmap_table";
+    public static final String REFERENCE_BITMAP_INDEX_TABLE = "qbicc_reference_bitmap_index_table";
+
+    public ReferenceBitMapEmitter() {}
+
+    @Override
+    public void accept(CompilationContext ctxt) {
+        TypeSystem ts = ctxt.getTypeSystem();
+        LiteralFactory lf = ctxt.getLiteralFactory();
+        Map<Integer, long[]> bitMaps = new TreeMap<>();
+        Layout.get(ctxt).forEachInstanceLayout((type, info) -> {
+            if (type.isTypeIdValid()) {
+                bitMaps.put(Integer.valueOf(type.getTypeId()), info.getReferenceBitMap());
+            }
+        });
+        Tables tables = buildTables(bitMaps);
+
+        ValueType int32Type = ts.getSignedInteger32Type();
+        ValueType int64Type = ts.getSignedInteger64Type();
+        CompoundType entryType = CompoundType.builder(ts)
+            .setTag(CompoundType.Tag.STRUCT)
+            .setName("qbicc_reference_bitmap_index")
+            .setOverallAlignment(int32Type.getAlign())
+            .addNextMember("index", int32Type)
+            .addNextMember("words", int32Type)
+            .build();
+        CompoundType.Member indexMember = entryType.getMember("index");
+        CompoundType.Member wordsMember = entryType.getMember("words");
+        List<Literal> entries = new ArrayList<>(tables.indexes().length);
+        for (int i = 0; i < tables.indexes().length; i ++) {
+            entries.add(lf.literalOf(entryType, Map.of(
+                indexMember, lf.literalOf(tables.indexes()[i]),
+                wordsMember, lf.literalOf(tables.lengths()[i])
+            )));
+        }
+        List<Literal> words = new ArrayList<>(tables.words().length);
+        for (long word : tables.words()) {
+            words.add(lf.literalOf(word));
+        }
+        ModuleSection section = ctxt.getImplicitSection(ctxt.getDefaultTypeDefinition());
+        section.addData(null, REFERENCE_BITMAP_INDEX_TABLE, lf.literalOf(ts.getArrayType(entryType, entries.size()), entries));
+        section.addData(null, REFERENCE_BITMAP_TABLE, lf.literalOf(ts.getArrayType(int64Type, words.size()), words));
+    }
+
+    /**
+     * The contents of the reference bit map tables.
+     *
+     * @param words the bit map words of all of the classes
+     * @param indexes the index of the first word of each type, by type ID
+     * @param lengths the number of words of each type, by type ID
+     */
+    record Tables(long[] words, int[] indexes, int[] lengths) {}
+
+    /**
+     * Pack the bit maps of the given types into tables indexed by type ID.
+     *
+     * @param bitMaps the bit map of each type, by type ID
+     * @return the tables
+     */
+    static Tables buildTables(Map<Integer, long[]> bitMaps) {
+        int typeIdCount = bitMaps.keySet().stream().mapToInt(Integer::intValue).max().orElse(-1) + 1;
+        int[] indexes = new int[typeIdCount];
+        int[] lengths = new int[typeIdCount];
+        Map<List<Long>, Integer> shared = new HashMap<>();
+        List<Long> words = new ArrayList<>();
+        for (Map.Entry<Integer, long[]> entry : bitMaps.entrySet()) {
+            long[] bitMap = entry.getValue();
+            if (bitMap.length == 0) {
+                continue;
+            }
+            List<Long> key = Arrays.stream(bitMap).boxed().toList();
+            Integer index = shared.get(key);
+            if (index == null) {
+                index = Integer.valueOf(words.size());
+                shared.put(key, index);
+                words.addAll(key);
+            }
+            int typeId = entry.getKey().intValue();
+            indexes[typeId] = index.intValue();
+            lengths[typeId] = bitMap.length;
+        }
+        return new Tables(words.stream().mapToLong(Long::longValue).toArray(), indexes, lengths);
+    }
+}
@@ -0,0 +1,87 @@
+package org.qbicc.plugin.layout;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.qbicc.test.AbstractCompilerTestCase;
+import org.qbicc.type.CompoundType;
+import org.qbicc.type.ReferenceType;
+import org.qbicc.type.definition.DefinedTypeDefinition;
+import org.qbicc.type.definition.element.FieldElement;
+
+/**
+ * Tests for the reference bit maps of instance layouts and the tables which {@link ReferenceBitMapEmitter} emits
+ * from them.
+ */
+public final class TestReferenceBitMap extends AbstractCompilerTestCase {
+
+    @Test
+    public void testMixedFields() {
+        final ReferenceType ref = defineClass("Referenced", null).load().getObjectType().getReference();
+        final DefinedTypeDefinition type = defineClass("Mixed", null, List.of(
+            ts.getSignedInteger32Type(),
+            ref,
+            ts.getSignedInteger64Type(),
+            ts.getBooleanType(),
+            ref
+        ));
+        final LayoutInfo info = Layout.get(ctxt).getInstanceLayoutInfo(type);
+        long expected = 0;
+        for (int i = 0; i < type.load().getFieldCount(); i ++) {
+            final FieldElement field = type.load().getField(i);
+            final CompoundType.Member member = info.getMember(field);
+            if (field.getType() instanceof ReferenceType) {
+                expected |= 1L << (member.getOffset() / ref.getSize());
+            }
+        }
+        assertEquals(2, Long.bitCount(expected));
+        assertArrayEquals(new long[] { expected }, info.getReferenceBitMap());
+    }
+
+    @Test
+    public void testSubclassInheritsReferences() {
+        final ReferenceType ref = defineClass("Referenced", null).load().getObjectType().getReference();
+        final DefinedTypeDefinition base = defineClass("Base", null, List.of(ref, ts.getSignedInteger32Type()));
+        final DefinedTypeDefinition sub = defineClass("Sub", base, List.of(ts.getSignedInteger64Type(), ref));
+        final Layout layout = Layout.get(ctxt);
+        final long baseMap = layout.getInstanceLayoutInfo(base).getReferenceBitMap()[0];
+        final long subMap = layout.getInstanceLayoutInfo(sub).getReferenceBitMap()[0];
+        assertEquals(1, Long.bitCount(baseMap));
+        assertEquals(2, Long.bitCount(subMap));
+        assertEquals(baseMap, subMap & baseMap);
+    }
+
+    @Test
+    public void testPrimitiveFieldsOnly() {
+        final DefinedTypeDefinition type = defineClass("Primitives", null, List.of(ts.getSignedInteger32Type(), ts.getFloat64Type()));
+        assertArrayEquals(new long[0], Layout.get(ctxt).getInstanceLayoutInfo(type).getReferenceBitMap());
+    }
+
+    @Test
+    public void testTables() {
+        final ReferenceBitMapEmitter.Tables tables = ReferenceBitMapEmitter.buildTables(Map.of(
+            Integer.valueOf(3), new long[] { 0b1010 },
+            Integer.valueOf(5), new long[0],
+            Integer.valueOf(6), new long[] { 1, 2 },
+            Integer.valueOf(7), new long[] { 0b1010 }
+        ));
+        assertEquals(8, tables.indexes().length);
+        assertEquals(8, tables.lengths().length);
+        // type 7 shares the words of type 3
+        assertEquals(tables.indexes()[3], tables.indexes()[7]);
+        assertEquals(1, tables.lengths()[3]);
+        assertEquals(1, tables.lengths()[7]);
+        assertEquals(0b1010, tables.words()[tables.indexes()[3]]);
+        assertEquals(2, tables.lengths()[6]);
+        assertEquals(1, tables.words()[tables.indexes()[6]]);
+        assertEquals(2, tables.words()[tables.indexes()[6] + 1]);
+        // types without references or without a layout have no words
+        assertEquals(0, tables.lengths()[5]);
+        assertEquals(0, tables.lengths()[4]);
+        assertEquals(3, tables.words().length);
+    }
+}
@@ -1,6 +1,8 @@
 package org.qbicc.plugin.linker;
 
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -18,6 +20,7 @@ public final class Linker {
     private static final AttachmentKey<Linker> KEY = new AttachmentKey<>();
 
     private final Map<LoadedTypeDefinition, Path> objectPathsByType = new ConcurrentHashMap<>();
+    private final Set<Path> mergedObjectPaths = ConcurrentHashMap.newKeySet();
     private final Set<String> libraries = ConcurrentHashMap.newKeySet();
     private final CompilationContext ctxt;
 
@@ -37,10 +40,40 @@ public final class Linker {
         }
     }
 
+    /**
+     * Add an object file which was compiled from the modules of several types.
+     *
+     * @param objectFilePath the object file path
+     */
+    public void addMergedObjectFilePath(Path objectFilePath) {
+        if (objectFilePath != null) {
+            mergedObjectPaths.add(objectFilePath);
+        }
+    }
+
     public Map<LoadedTypeDefinition, Path> getObjectFilePathsByType() {
         return new HashMap<>(objectPathsByType);
     }
 
+    /**
+     * Get all of the object files, in link order: the object file of each type by type ID, followed by the merged
+     * object files.
+     *
+     * @return the object file paths
+     */
+    public List<Path> getObjectFilePaths() {
+        List<LoadedTypeDefinition> types = new ArrayList<>(objectPathsByType.keySet());
+        types.sort(Comparator.comparingInt(LoadedTypeDefinition::getTypeId));
+        List<Path> paths = new ArrayList<>(types.size() + mergedObjectPaths.size());
+        for (LoadedTypeDefinition type : types) {
+            paths.add(objectPathsByType.get(type));
+        }
+        List<Path> merged = new ArrayList<>(mergedObjectPaths);
+        merged.sort(Comparator.naturalOrder());
+        paths.addAll(merged);
+        return paths;
+    }
+
     public void addLibrary(String library) {
         libraries.add(library);
     }
@@ -1,7 +1,10 @@
 package org.qbicc.plugin.llvm;
 
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.function.Consumer;
 
@@ -10,9 +13,22 @@ import org.qbicc.type.definition.LoadedTypeDefinition;
 
 public class LLVMCompileStage implements Consumer<CompilationContext> {
     private final boolean isPie;
+    private final boolean emitAssembly;
+    private final boolean merge;
 
-    public LLVMCompileStage(final boolean isPie) {
+    /**
+     * Construct a new instance.
+     *
+     * @param isPie {@code true} to compile position independent code
+     * @param emitAssembly {@code true} to have {@code llc} emit assembly text
+     * @param merge {@code true} to merge the modules of all types into one module which is optimized as a whole
+     *      (link-time optimization) and then compiled in parallel partitions, or {@code false} to compile each module
+     *      separately and in parallel
+     */
+    public LLVMCompileStage(final boolean isPie, final boolean emitAssembly, final boolean merge) {
         this.isPie = isPie;
+        this.emitAssembly = emitAssembly;
+        this.merge = merge;
     }
 
     public void accept(final CompilationContext context) {
@@ -22,9 +38,24 @@ public class LLVMCompileStage implements Consumer<CompilationContext> {
             return;
         }
 
+        if (merge) {
+            Map<LoadedTypeDefinition, Path> modulePaths = llvmState.getModulePaths();
+            List<LoadedTypeDefinition> types = new ArrayList<>(modulePaths.keySet());
+            // merge in a stable order so that the merged module can be cached
+            types.sort(Comparator.comparingInt(LoadedTypeDefinition::getTypeId));
+            List<Path> sortedPaths = new ArrayList<>(types.size());
+            for (LoadedTypeDefinition type : types) {
+                sortedPaths.add(modulePaths.get(type));
+            }
+            LLVMCompiler compiler = new LLVMCompiler(context, isPie, emitAssembly);
+            // llc is single threaded, so compile a partition of the merged module on each processor
+            int partitionCount = Runtime.getRuntime().availableProcessors();
+            compiler.compileMergedModules(context, sortedPaths, context.getOutputDirectory().resolve("merged.bc"), partitionCount);
+            return;
+        }
         Iterator<Map.Entry<LoadedTypeDefinition, Path>> iterator = llvmState.getModulePaths().entrySet().iterator();
         context.runParallelTask(ctxt -> {
-            LLVMCompiler compiler = new LLVMCompiler(context, isPie);
+            LLVMCompiler compiler = new LLVMCompiler(context, isPie, emitAssembly);
             for (;;) {
                 Map.Entry<LoadedTypeDefinition, Path> entry;
                 synchronized (iterator) {
@@ -5,11 +5,15 @@ import org.qbicc.context.Location;
 import org.qbicc.driver.Driver;
 import org.qbicc.machine.tool.CCompilerInvoker;
 import org.qbicc.machine.tool.CToolChain;
+import org.qbicc.machine.tool.Tool;
 import org.qbicc.machine.tool.ToolMessageHandler;
 import org.qbicc.machine.tool.process.InputSource;
 import org.qbicc.machine.tool.process.OutputDestination;
 import org.qbicc.plugin.linker.Linker;
+import org.qbicc.plugin.methodinfo.ImplicitNullChecks;
 import org.qbicc.tool.llvm.LlcInvoker;
+import org.qbicc.tool.llvm.LlvmLinkInvoker;
+import org.qbicc.tool.llvm.LlvmSplitInvoker;
 import org.qbicc.tool.llvm.LlvmToolChain;
 import org.qbicc.tool.llvm.OptInvoker;
 import org.qbicc.tool.llvm.OptPass;
@@ -19,73 +23,295 @@ import org.qbicc.type.definition.LoadedTypeDefinition;
 
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class LLVMCompiler {
+    private static final List<OptPass> OPT_PASSES = List.of(OptPass.RewriteStatepointsForGc, OptPass.AlwaysInline);
+    /**
+     * The passes which are run on a merged module. The standard pipeline inlines across the boundaries of the original
+     * modules and runs the interprocedural optimizations on the whole program. It comes first so that it works on plain
+     * pointers, before the statepoints are inserted.
+     */
+    private static final List<OptPass> MERGED_OPT_PASSES = List.of(OptPass.O2, OptPass.RewriteStatepointsForGc, OptPass.AlwaysInline);
+
+    private final boolean isPie;
     private final LlcInvoker llcInvoker;
     private final OptInvoker optInvoker;
     private final CCompilerInvoker ccInvoker;
+    private final boolean emitAssembly;
+    private final LLVMObjectCache cache;
+    /**
+     * The description of the tools and options used to compile modules, which is a part of the object cache key.
+     */
+    private final String configuration;
 
-    public LLVMCompiler(CompilationContext context, boolean isPie) {
-        llcInvoker = createLlcInvoker(context, isPie);
-        optInvoker = createOptInvoker(context);
-        ccInvoker = createCCompilerInvoker(context);
+    /**
+     * Construct a new instance.
+     *
+     * @param context the compilation context
+     * @param isPie {@code true} to compile position independent code
+     * @param emitAssembly {@code true} to have {@code llc} emit assembly text which is then assembled by the C
+     *      compiler, or {@code false} to have {@code llc} emit the object file directly
+     */
+    public LLVMCompiler(CompilationContext context, boolean isPie, boolean emitAssembly) {
+        this.isPie = isPie;
+        this.emitAssembly = emitAssembly;
+        llcInvoker = createLlcInvoker(context, isPie, emitAssembly);
+        optInvoker = createOptInvoker(context, OPT_PASSES);
+        ccInvoker = emitAssembly ? createCCompilerInvoker(context) : null;
+        cache = LLVMObjectCache.get(context);
+        configuration = cache == null || llcInvoker == null || emitAssembly && ccInvoker == null ? null : describeConfiguration();
     }
 
     public void compileModule(final CompilationContext context, LoadedTypeDefinition typeDefinition, Path modulePath) {
-        CToolChain cToolChain = context.getAttachment(Driver.C_TOOL_CHAIN_KEY);
-
         String moduleName = modulePath.getFileName().toString();
         if (moduleName.endsWith(".ll")) {
-            String baseName = moduleName.substring(0, moduleName.length() - 3);
-            String optBitCodeName = baseName + "_opt.bc";
-            String assemblyName = baseName + ".s";
-            String objectName = baseName + "." + cToolChain.getPlatform().getObjectType().objectSuffix();
-
-            Path optBitCodePath = modulePath.resolveSibling(optBitCodeName);
-            Path assemblyPath = modulePath.resolveSibling(assemblyName);
-            Path objectPath = modulePath.resolveSibling(objectName);
-
-            optInvoker.setSource(InputSource.from(modulePath));
-            optInvoker.setDestination(OutputDestination.of(optBitCodePath));
-            int errCnt = context.errors();
+            Path objectPath = compile(context, modulePath, moduleName.substring(0, moduleName.length() - 3));
+            if (objectPath != null) {
+                Linker.get(context).addObjectFilePath(typeDefinition, objectPath);
+            }
+        } else {
+            context.warning("Ignoring unknown module file name \"%s\"", modulePath);
+        }
+    }
+
+    /**
+     * Merge several modules into one module with {@code llvm-link}, optimize it as a whole, and compile it to object
+     * files. The merged module is split into the given number of partitions with {@code llvm-split} (if it is
+     * available) after it is optimized, and the partitions are compiled in parallel. Since the results are still
+     * object files produced by {@code llc}, their stack map and fault map sections are available to the method data
+     * emitter.
+     *
+     * @param context the compilation context
+     * @param modulePaths the paths of the modules to merge, in a stable order
+     * @param mergedPath the path of the merged bitcode module, which must end with {@code .bc}
+     * @param partitionCount the number of partitions to compile in parallel
+     */
+    public void compileMergedModules(final CompilationContext context, List<Path> modulePaths, Path mergedPath, int partitionCount) {
+        LlvmToolChain llvmToolChain = context.getAttachment(Driver.LLVM_TOOL_KEY);
+        if (llvmToolChain == null) {
+            context.error("No LLVM tool chain is available");
+            return;
+        }
+        LlvmLinkInvoker linkInvoker;
+        try {
+            linkInvoker = llvmToolChain.newLlvmLinkInvoker();
+        } catch (UnsupportedOperationException e) {
+            context.error("Cannot merge LLVM modules: %s", e.getMessage());
+            return;
+        }
+        linkInvoker.setMessageHandler(ToolMessageHandler.reporting(context));
+        linkInvoker.addModules(modulePaths);
+        linkInvoker.setDestination(OutputDestination.of(mergedPath));
+        int errCnt = context.errors();
+        try {
+            linkInvoker.invoke();
+        } catch (IOException e) {
+            if (errCnt == context.errors()) {
+                // whatever the problem was, it wasn't reported, so add an additional error here
+                context.error(Location.builder().setSourceFilePath(mergedPath.toString()).build(), "`llvm-link` invocation has failed: %s", e.toString());
+            }
+            return;
+        }
+        LlvmSplitInvoker splitInvoker = null;
+        if (partitionCount > 1) {
             try {
-                optInvoker.invoke();
-            } catch (IOException e) {
-                if (errCnt == context.errors()) {
-                    // whatever the problem was, it wasn't reported, so add an additional error here
-                    context.error(Location.builder().setSourceFilePath(modulePath.toString()).build(), "`opt` invocation has failed: %s", e.toString());
+                splitInvoker = llvmToolChain.newLlvmSplitInvoker();
+            } catch (UnsupportedOperationException e) {
+                context.note("Compiling the merged LLVM module in one piece: %s", e.getMessage());
+                partitionCount = 1;
+            }
+        }
+        String moduleName = mergedPath.getFileName().toString();
+        String baseName = moduleName.substring(0, moduleName.length() - 3);
+        String objectSuffix = context.getAttachment(Driver.C_TOOL_CHAIN_KEY).getPlatform().getObjectType().objectSuffix();
+        List<Path> objectPaths = new ArrayList<>(partitionCount);
+        for (int i = 0; i < partitionCount; i ++) {
+            objectPaths.add(mergedPath.resolveSibling(baseName + "_" + i + "." + objectSuffix));
+        }
+
+        String cacheKey = null;
+        if (configuration != null) {
+            try {
+                cacheKey = cache.computeKey(mergedPath, configuration + "\nopt " + MERGED_OPT_PASSES + "\npartitions " + partitionCount);
+                boolean restored = true;
+                for (int i = 0; restored && i < partitionCount; i ++) {
+                    restored = cache.restore(cacheKey + "-" + i, objectPaths.get(i));
                 }
-                return;
+                if (restored) {
+                    for (Path objectPath : objectPaths) {
+                        Linker.get(context).addMergedObjectFilePath(objectPath);
+                    }
+                    return;
+                }
+            } catch (IOException e) {
+                context.warning("Failed to read the LLVM object cache for %s: %s", mergedPath, e.toString());
+                cacheKey = null;
             }
+        }
 
-            llcInvoker.setSource(InputSource.from(optBitCodePath));
-            llcInvoker.setDestination(OutputDestination.of(assemblyPath));
+        Path optBitCodePath = mergedPath.resolveSibling(baseName + "_opt.bc");
+        if (! optimize(context, createOptInvoker(context, MERGED_OPT_PASSES), mergedPath, optBitCodePath)) {
+            return;
+        }
+        List<Path> partitionPaths;
+        if (splitInvoker == null) {
+            partitionPaths = List.of(optBitCodePath);
+        } else {
+            splitInvoker.setMessageHandler(ToolMessageHandler.reporting(context));
+            splitInvoker.setPartitionCount(partitionCount);
+            splitInvoker.setOutputPrefix(mergedPath.resolveSibling(baseName + "_part"));
+            splitInvoker.setSource(InputSource.from(optBitCodePath));
             errCnt = context.errors();
             try {
-                llcInvoker.invoke();
+                splitInvoker.invoke();
             } catch (IOException e) {
                 if (errCnt == context.errors()) {
                     // whatever the problem was, it wasn't reported, so add an additional error here
-                    context.error(Location.builder().setSourceFilePath(modulePath.toString()).build(), "`llc` invocation has failed: %s", e.toString());
+                    context.error(Location.builder().setSourceFilePath(optBitCodePath.toString()).build(), "`llvm-split` invocation has failed: %s", e.toString());
                 }
                 return;
             }
+            partitionPaths = new ArrayList<>(partitionCount);
+            for (int i = 0; i < partitionCount; i ++) {
+                partitionPaths.add(splitInvoker.getPartitionPath(i));
+            }
+        }
+
+        // each thread needs its own invokers
+        AtomicInteger next = new AtomicInteger();
+        String partitionCacheKey = cacheKey;
+        context.runParallelTask(ctxt -> {
+            LLVMCompiler compiler = new LLVMCompiler(ctxt, isPie, emitAssembly);
+            int i;
+            while ((i = next.getAndIncrement()) < partitionPaths.size()) {
+                Path objectPath = compiler.generateCode(ctxt, partitionPaths.get(i), objectPaths.get(i));
+                if (objectPath != null) {
+                    if (partitionCacheKey != null) {
+                        compiler.store(ctxt, partitionCacheKey + "-" + i, objectPath, mergedPath);
+                    }
+                    Linker.get(ctxt).addMergedObjectFilePath(objectPath);
+                }
+            }
+        });
+    }
+
+    /**
+     * Compile a module to an object file next to it.
+     *
+     * @return the object file path, or {@code null} if compilation failed
+     */
+    private Path compile(final CompilationContext context, Path modulePath, String baseName) {
+        CToolChain cToolChain = context.getAttachment(Driver.C_TOOL_CHAIN_KEY);
+
+        String optBitCodeName = baseName + "_opt.bc";
+        String objectName = baseName + "." + cToolChain.getPlatform().getObjectType().objectSuffix();
+
+        Path optBitCodePath = modulePath.resolveSibling(optBitCodeName);
+        Path objectPath = modulePath.resolveSibling(objectName);
+
+        String cacheKey = null;
+        if (configuration != null) {
+            try {
+                cacheKey = cache.computeKey(modulePath, configuration + "\nopt " + OPT_PASSES);
+                if (cache.restore(cacheKey, objectPath)) {
+                    return objectPath;
+                }
+            } catch (IOException e) {
+                context.warning("Failed to read the LLVM object cache for %s: %s", modulePath, e.toString());
+            }
+        }
 
+        if (! optimize(context, optInvoker, modulePath, optBitCodePath) || generateCode(context, optBitCodePath, objectPath) == null) {
+            return null;
+        }
+        if (cacheKey != null) {
+            store(context, cacheKey, objectPath, modulePath);
+        }
+        return objectPath;
+    }
+
+    /**
+     * Run {@code opt} on a module.
+     *
+     * @return {@code true} if it succeeded, or {@code false} if it failed
+     */
+    private static boolean optimize(final CompilationContext context, OptInvoker optInvoker, Path modulePath, Path optBitCodePath) {
+        optInvoker.setSource(InputSource.from(modulePath));
+        optInvoker.setDestination(OutputDestination.of(optBitCodePath));
+        int errCnt = context.errors();
+        try {
+            optInvoker.invoke();
+        } catch (IOException e) {
+            if (errCnt == context.errors()) {
+                // whatever the problem was, it wasn't reported, so add an additional error here
+                context.error(Location.builder().setSourceFilePath(modulePath.toString()).build(), "`opt` invocation has failed: %s", e.toString());
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Compile an optimized module to the given object file.
+     *
+     * @return the object file path, or {@code null} if compilation failed
+     */
+    private Path generateCode(final CompilationContext context, Path optBitCodePath, Path objectPath) {
+        String objectName = objectPath.getFileName().toString();
+        Path assemblyPath = objectPath.resolveSibling(objectName.substring(0, objectName.lastIndexOf('.')) + ".s");
+
+        llcInvoker.setSource(InputSource.from(optBitCodePath));
+        llcInvoker.setDestination(OutputDestination.of(emitAssembly ? assemblyPath : objectPath));
+        int errCnt = context.errors();
+        try {
+            llcInvoker.invoke();
+        } catch (IOException e) {
+            if (errCnt == context.errors()) {
+                // whatever the problem was, it wasn't reported, so add an additional error here
+                context.error(Location.builder().setSourceFilePath(optBitCodePath.toString()).build(), "`llc` invocation has failed: %s", e.toString());
+            }
+            return null;
+        }
+
+        if (emitAssembly) {
             // now compile it
             ccInvoker.setSource(InputSource.from(assemblyPath));
             ccInvoker.setOutputPath(objectPath);
             try {
                 ccInvoker.invoke();
             } catch (IOException e) {
-                context.error("Compiler invocation has failed for %s: %s", modulePath, e.toString());
-                return;
+                context.error("Compiler invocation has failed for %s: %s", optBitCodePath, e.toString());
+                return null;
             }
-            Linker.get(context).addObjectFilePath(typeDefinition, objectPath);
-        } else {
-            context.warning("Ignoring unknown module file name \"%s\"", modulePath);
+        }
+        return objectPath;
+    }
+
+    private void store(final CompilationContext context, String cacheKey, Path objectPath, Path modulePath) {
+        try {
+            cache.store(cacheKey, objectPath);
+        } catch (IOException e) {
+            context.warning("Failed to write the LLVM object cache for %s: %s", modulePath, e.toString());
         }
     }
 
+    private String describeConfiguration() {
+        // everything which affects the object file produced from a module, except for the opt passes
+        LlvmToolChain llvmToolChain = llcInvoker.getTool();
+        String description = String.join("\n",
+            llvmToolChain.getImplementationName(), llvmToolChain.getVersion(), llvmToolChain.getPlatform().toString(),
+            "llc " + llcInvoker.getOptimizationLevel() + " " + llcInvoker.getOutputFormat() + " " + llcInvoker.getRelocationModel() + " " + llcInvoker.isImplicitNullChecks()
+        );
+        if (emitAssembly) {
+            Tool cToolChain = ccInvoker.getTool();
+            description = String.join("\n", description, cToolChain.getImplementationName(), cToolChain.getVersion(), cToolChain.getPlatform().toString());
+        }
+        return description;
+    }
+
     private static CCompilerInvoker createCCompilerInvoker(CompilationContext context) {
         CToolChain cToolChain = context.getAttachment(Driver.C_TOOL_CHAIN_KEY);
         if (cToolChain == null) {
@@ -98,7 +324,7 @@ public class LLVMCompiler {
         return ccInvoker;
     }
 
-    private static OptInvoker createOptInvoker(CompilationContext context) {
+    private static OptInvoker createOptInvoker(CompilationContext context, List<OptPass> passes) {
         LlvmToolChain llvmToolChain = context.getAttachment(Driver.LLVM_TOOL_KEY);
         if (llvmToolChain == null) {
             context.error("No LLVM tool chain is available");
@@ -106,12 +332,13 @@ public class LLVMCompiler {
         }
         OptInvoker optInvoker = llvmToolChain.newOptInvoker();
         optInvoker.setMessageHandler(ToolMessageHandler.reporting(context));
-        optInvoker.addOptimizationPass(OptPass.RewriteStatepointsForGc);
-        optInvoker.addOptimizationPass(OptPass.AlwaysInline);
+        for (OptPass pass : passes) {
+            optInvoker.addOptimizationPass(pass);
+        }
         return optInvoker;
     }
 
-    private static LlcInvoker createLlcInvoker(CompilationContext context, boolean isPie) {
+    private static LlcInvoker createLlcInvoker(CompilationContext context, boolean isPie, boolean emitAssembly) {
         LlvmToolChain llvmToolChain = context.getAttachment(Driver.LLVM_TOOL_KEY);
         if (llvmToolChain == null) {
             context.error("No LLVM tool chain is available");
@@ -119,8 +346,9 @@ public class LLVMCompiler {
         }
         LlcInvoker llcInvoker = llvmToolChain.newLlcInvoker();
         llcInvoker.setMessageHandler(ToolMessageHandler.reporting(context));
-        llcInvoker.setOutputFormat(OutputFormat.ASM);
+        llcInvoker.setOutputFormat(emitAssembly ? OutputFormat.ASM : OutputFormat.OBJ);
         llcInvoker.setRelocationModel(isPie ? RelocationModel.Pic : RelocationModel.Static);
+        llcInvoker.setImplicitNullChecks(ImplicitNullChecks.get(context) != null);
         return llcInvoker;
     }
 }
@@ -9,10 +9,12 @@ import java.util.function.Consumer;
 public class LLVMDefaultModuleCompileStage implements Consumer<CompilationContext> {
     private final boolean isPie;
     private final boolean compileOutput;
+    private final boolean emitAssembly;
 
-    public LLVMDefaultModuleCompileStage(boolean isPie, boolean compileOutput) {
+    public LLVMDefaultModuleCompileStage(boolean isPie, boolean compileOutput, boolean emitAssembly) {
         this.isPie = isPie;
         this.compileOutput = compileOutput;
+        this.emitAssembly = emitAssembly;
     }
 
     @Override
@@ -21,7 +23,7 @@ public class LLVMDefaultModuleCompileStage implements Consumer<CompilationContex
         DefinedTypeDefinition defaultTypeDefinition = context.getDefaultTypeDefinition();
         Path modulePath = generator.processProgramModule(context.getOrAddProgramModule(defaultTypeDefinition));
         if (compileOutput) {
-            LLVMCompiler compiler = new LLVMCompiler(context, isPie);
+            LLVMCompiler compiler = new LLVMCompiler(context, isPie, emitAssembly);
             compiler.compileModule(context, defaultTypeDefinition.load(), modulePath);
         }
     }
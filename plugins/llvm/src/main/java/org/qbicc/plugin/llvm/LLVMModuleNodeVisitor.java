@@ -71,12 +71,42 @@ final class LLVMModuleNodeVisitor implements ValueVisitor<Void, LLValue>, Pointe
     final Map<Type, LLValue> types = new HashMap<>();
     final Map<CompoundType, Map<CompoundType.Member, LLValue>> structureOffsets = new HashMap<>();
     final Map<Value, LLValue> globalValues = new HashMap<>();
+    final Map<Long, LLValue> branchWeights = new HashMap<>();
+    private LLValue emptyMetadata;
 
     LLVMModuleNodeVisitor(final Module module, final CompilationContext ctxt) {
         this.module = module;
         this.ctxt = ctxt;
     }
 
+    /**
+     * Get the shared empty metadata node of this module, used for metadata kinds whose presence is what matters.
+     *
+     * @return the reference to the empty metadata node
+     */
+    LLValue getEmptyMetadata() {
+        LLValue emptyMetadata = this.emptyMetadata;
+        if (emptyMetadata == null) {
+            emptyMetadata = this.emptyMetadata = module.metadataTuple().asRef();
+        }
+        return emptyMetadata;
+    }
+
+    /**
+     * Get the shared branch weight metadata node of this module for the given weights.
+     *
+     * @param trueWeight the weight of the {@code true} outcome, as an unsigned value
+     * @param falseWeight the weight of the {@code false} outcome, as an unsigned value
+     * @return the reference to the branch weight metadata node
+     */
+    LLValue getBranchWeights(int trueWeight, int falseWeight) {
+        return branchWeights.computeIfAbsent(Long.valueOf((long) trueWeight << 32 | Integer.toUnsignedLong(falseWeight)), k -> module.metadataTuple()
+            .elem(null, metadataString("branch_weights"))
+            .elem(i32, intConstant(Integer.toUnsignedLong(trueWeight)))
+            .elem(i32, intConstant(Integer.toUnsignedLong(falseWeight)))
+            .asRef());
+    }
+
     LLValue map(Type type) {
         LLValue res = types.get(type);
         if (res != null) {
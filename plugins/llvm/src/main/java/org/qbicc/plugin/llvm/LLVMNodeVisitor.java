@@ -94,6 +94,7 @@ import org.qbicc.graph.atomic.AccessMode;
 import org.qbicc.graph.atomic.GlobalAccessMode;
 import org.qbicc.graph.atomic.ReadAccessMode;
 import org.qbicc.graph.atomic.WriteAccessMode;
+import org.qbicc.graph.literal.Literal;
 import org.qbicc.graph.literal.ProgramObjectLiteral;
 import org.qbicc.graph.schedule.Schedule;
 import org.qbicc.machine.llvm.AsmFlag;
@@ -113,6 +114,7 @@ import org.qbicc.machine.llvm.debuginfo.DIOpcode;
 import org.qbicc.machine.llvm.debuginfo.MetadataNode;
 import org.qbicc.machine.llvm.impl.LLVM;
 import org.qbicc.machine.llvm.op.AtomicRmw;
+import org.qbicc.machine.llvm.op.Branch;
 import org.qbicc.machine.llvm.op.Call;
 import org.qbicc.machine.llvm.op.GetElementPtr;
 import org.qbicc.machine.llvm.op.Instruction;
@@ -120,7 +122,10 @@ import org.qbicc.machine.llvm.op.OrderingConstraint;
 import org.qbicc.machine.llvm.op.Phi;
 import org.qbicc.machine.llvm.op.YieldingInstruction;
 import org.qbicc.object.Function;
+import org.qbicc.object.Linkage;
 import org.qbicc.plugin.methodinfo.CallSiteInfo;
+import org.qbicc.plugin.methodinfo.ImplicitNullChecks;
+import org.qbicc.plugin.profile.BranchWeights;
 import org.qbicc.plugin.unwind.UnwindHelper;
 import org.qbicc.type.BooleanType;
 import org.qbicc.type.CompoundType;
@@ -322,9 +327,63 @@ final class LLVMNodeVisitor implements NodeVisitor<Void, LLValue, Instruction, I
         return builder.br(map(node.getResumeTarget()));
     }
 
+    /**
+     * The branch weights given to a path which never returns and to the other path, like {@code __builtin_expect}.
+     */
+    private static final int COLD_WEIGHT = 1;
+    private static final int HOT_WEIGHT = 2000;
+
     public Instruction visit(final Void param, final If node) {
         map(node.getDependency());
-        return builder.br(map(node.getCondition()), map(node.getTrueBranch()), map(node.getFalseBranch()));
+        Branch br = builder.br(map(node.getCondition()), map(node.getTrueBranch()), map(node.getFalseBranch()));
+        if (isImplicitNullCheckCandidate(node)) {
+            ImplicitNullChecks inc = ImplicitNullChecks.get(ctxt);
+            if (inc != null) {
+                inc.registerFunction(functionObj);
+                br.meta("make.implicit", moduleVisitor.getEmptyMetadata());
+            }
+        }
+        BranchWeights branchWeights = BranchWeights.getIfPresent(ctxt);
+        BranchWeights.Weights weights = branchWeights == null ? null : branchWeights.getWeights(node);
+        if (weights != null) {
+            br.meta("prof", moduleVisitor.getBranchWeights(weights.trueWeight(), weights.falseWeight()));
+        } else {
+            // paths which never return, such as the exception-raising paths of the runtime checks, are cold
+            boolean trueCold = isNoReturn(node.getTrueBranch());
+            boolean falseCold = isNoReturn(node.getFalseBranch());
+            if (trueCold != falseCold) {
+                br.meta("prof", moduleVisitor.getBranchWeights(trueCold ? COLD_WEIGHT : HOT_WEIGHT, trueCold ? HOT_WEIGHT : COLD_WEIGHT));
+            }
+        }
+        return br;
+    }
+
+    private static boolean isNoReturn(BasicBlock block) {
+        Terminator t = block.getTerminator();
+        return t instanceof CallNoReturn || t instanceof InvokeNoReturn;
+    }
+
+    /**
+     * Determine whether the given branch is a null check whose null path never returns, which the back end may fold
+     * into a faulting memory access. Functions which are not visible in the object file symbol table are excluded,
+     * because their fault map entries could not be mapped back to the function.
+     */
+    private boolean isImplicitNullCheckCandidate(If node) {
+        if (! (node.getCondition() instanceof IsEq isEq) || functionObj.getLinkage() == Linkage.PRIVATE || functionObj.getLinkage() == Linkage.INTERNAL) {
+            return false;
+        }
+        Value left = isEq.getLeftInput();
+        Value right = isEq.getRightInput();
+        if (! (right instanceof Literal lit && lit.isZero())) {
+            if (! (left instanceof Literal lit && lit.isZero())) {
+                return false;
+            }
+            left = right;
+        }
+        if (! (left.getType() instanceof ReferenceType || left.getType() instanceof PointerType)) {
+            return false;
+        }
+        return isNoReturn(node.getTrueBranch());
     }
 
     public Instruction visit(final Void param, final Return node) {
@@ -0,0 +1,93 @@
+package org.qbicc.plugin.llvm;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.qbicc.context.AttachmentKey;
+import org.qbicc.context.CompilationContext;
+import org.qbicc.context.ObjectFileCache;
+
+/**
+ * The persistent cache of the object files compiled from LLVM modules. The key of a module is a hash of the module
+ * text together with a description of the tools and options which compiled it.
+ */
+public final class LLVMObjectCache {
+    private static final AttachmentKey<LLVMObjectCache> KEY = new AttachmentKey<>();
+
+    private final ObjectFileCache cache;
+
+    private LLVMObjectCache(final Path directory) {
+        cache = new ObjectFileCache("LLVM object cache", directory);
+    }
+
+    /**
+     * Enable the object file cache for the compilation.
+     *
+     * @param ctxt the compilation context
+     * @param directory the cache directory (must not be {@code null})
+     */
+    public static void enable(CompilationContext ctxt, Path directory) {
+        ctxt.computeAttachmentIfAbsent(KEY, () -> new LLVMObjectCache(directory));
+    }
+
+    /**
+     * Get the object file cache for the compilation.
+     *
+     * @param ctxt the compilation context
+     * @return the object file cache, or {@code null} if object files are not cached
+     */
+    public static LLVMObjectCache get(CompilationContext ctxt) {
+        return ctxt.getAttachment(KEY);
+    }
+
+    /**
+     * Report the number of cache hits and misses of the compilation.
+     *
+     * @param ctxt the compilation context
+     */
+    public static void reportStats(CompilationContext ctxt) {
+        LLVMObjectCache cache = get(ctxt);
+        if (cache != null) {
+            cache.cache.reportStats(ctxt);
+        }
+    }
+
+    /**
+     * Compute the cache key of a module.
+     *
+     * @param modulePath the path of the module (must not be {@code null})
+     * @param configuration the description of the tools and options which compile the module (must not be {@code null})
+     * @return the cache key
+     * @throws IOException if the module could not be read
+     */
+    public String computeKey(Path modulePath, String configuration) throws IOException {
+        try (InputStream is = Files.newInputStream(modulePath)) {
+            return cache.computeKey(configuration, is);
+        }
+    }
+
+    /**
+     * Copy the cached object file with the given key to the given path, if there is one.
+     *
+     * @param key the cache key (must not be {@code null})
+     * @param objectPath the object file path (must not be {@code null})
+     * @return {@code true} if the object file was found in the cache, or {@code false} if it must be compiled
+     * @throws IOException if the cached object file could not be copied
+     */
+    public boolean restore(String key, Path objectPath) throws IOException {
+        return cache.restore(key, objectPath);
+    }
+
+    /**
+     * Store the given object file in the cache under the given key.
+     *
+     * @param key the cache key (must not be {@code null})
+     * @param objectPath the compiled object file path (must not be {@code null})
+     * @throws IOException if the object file could not be stored
+     */
+    public void store(String key, Path objectPath) throws IOException {
+        cache.store(key, objectPath);
+    }
+}
@@ -5,6 +5,7 @@ import java.util.List;
 
 import io.smallrye.common.constraint.Assert;
 import org.qbicc.context.CompilationContext;
+import org.qbicc.driver.Driver;
 import org.qbicc.graph.BasicBlock;
 import org.qbicc.graph.BasicBlockBuilder;
 import org.qbicc.graph.BlockEarlyTermination;
@@ -32,7 +33,6 @@ import org.qbicc.object.DataDeclaration;
 import org.qbicc.object.Function;
 import org.qbicc.object.FunctionDeclaration;
 import org.qbicc.object.ProgramModule;
-import org.qbicc.object.ThreadLocalMode;
 import org.qbicc.plugin.coreclasses.CoreClasses;
 import org.qbicc.plugin.coreclasses.RuntimeMethodFinder;
 import org.qbicc.plugin.dispatch.DispatchTables;
@@ -41,6 +41,7 @@ import org.qbicc.plugin.serialization.BuildtimeHeap;
 import org.qbicc.type.MethodType;
 import org.qbicc.type.ReferenceType;
 import org.qbicc.type.ValueType;
+import org.qbicc.type.WordType;
 import org.qbicc.type.definition.classfile.ClassFile;
 import org.qbicc.type.definition.element.ExecutableElement;
 import org.qbicc.type.definition.element.FunctionElement;
@@ -76,7 +77,7 @@ public class InvocationLoweringBasicBlockBuilder extends DelegatingBasicBlockBui
             ProgramModule programModule = ctxt.getOrAddProgramModule(fe.getEnclosingType());
             ReferenceType type = ctxt.getBootstrapClassContext().findDefinedType("java/lang/Thread").load().getClassType().getReference();
             DataDeclaration decl = programModule.declareData(null, "_qbicc_bound_thread", type);
-            decl.setThreadLocalMode(ThreadLocalMode.GENERAL_DYNAMIC);
+            decl.setThreadLocalMode(Driver.get(ctxt).getThreadLocalMode(true));
             final LiteralFactory lf = ctxt.getLiteralFactory();
             return pointerHandle(lf.literalOf(decl));
         }
@@ -201,6 +202,10 @@ public class InvocationLoweringBasicBlockBuilder extends DelegatingBasicBlockBui
             throw new BlockEarlyTermination(fb.callNoReturn(staticMethod(method), List.of()));
         }
 
+        if (dt.isSelectorITables()) {
+            return selectorITableDispatch(node, info);
+        }
+
         ProgramModule programModule = ctxt.getOrAddProgramModule(originalElement.getEnclosingType());
         GlobalVariableElement rootITables = dt.getITablesGlobal();
         if (!rootITables.getEnclosingType().equals(originalElement.getEnclosingType())) {
@@ -243,6 +248,52 @@ public class InvocationLoweringBasicBlockBuilder extends DelegatingBasicBlockBui
         return pointerHandle(ptr);
     }
 
+    // Alternative strategy: "directly indexed itables" in the terminology of [Alpern et al 2001], where each interface
+    // method has a selector which is unique among the interfaces implemented by any one class.
+    private ValueHandle selectorITableDispatch(InterfaceMethodElementHandle node, DispatchTables.ITableInfo info) {
+        final BasicBlockBuilder fb = getFirstBuilder();
+        final MethodElement target = node.getExecutable();
+        final LiteralFactory lf = ctxt.getLiteralFactory();
+        DispatchTables dt = DispatchTables.get(ctxt);
+        int selector = dt.getSelectorIndex(target);
+        MethodElement icceMethod = RuntimeMethodFinder.get(ctxt).getMethod("raiseIncompatibleClassChangeError");
+        if (selector == -1) {
+            // No instantiable class implements the interface
+            throw new BlockEarlyTermination(fb.callNoReturn(staticMethod(icceMethod), List.of()));
+        }
+
+        GlobalVariableElement rootTables = dt.getSelectorITablesGlobal();
+        GlobalVariableElement rootLengths = dt.getSelectorITableLengthsGlobal();
+        if (!rootTables.getEnclosingType().equals(originalElement.getEnclosingType())) {
+            ProgramModule programModule = ctxt.getOrAddProgramModule(originalElement.getEnclosingType());
+            programModule.declareData(null, rootTables.getName(), rootTables.getType());
+            programModule.declareData(null, rootLengths.getName(), rootLengths.getType());
+        }
+
+        // Index the receiver class's table by selector; the slot must be in range and belong to the target interface
+        Value typeId = fb.load(fb.instanceFieldOf(fb.referenceHandle(node.getInstance()), CoreClasses.get(ctxt).getObjectTypeIdField()));
+        Value length = fb.load(elementOf(globalVariable(rootLengths), typeId));
+        BlockLabel failLabel = new BlockLabel();
+        BlockLabel inRange = new BlockLabel();
+        BlockLabel exitMatched = new BlockLabel();
+        if_(isLt(lf.literalOf(ctxt.getTypeSystem().getUnsignedInteger32Type(), selector), length), inRange, failLabel);
+        begin(inRange);
+        Value table = fb.load(elementOf(globalVariable(rootTables), typeId));
+        ValueHandle entry = fb.elementOf(fb.pointerHandle(table), lf.literalOf(selector));
+        Value slotTypeId = fb.load(fb.memberOf(entry, dt.getSelectorITableEntryType().getMember("typeId")));
+        if_(isEq(slotTypeId, lf.literalOf(info.getInterface().getTypeId())), exitMatched, failLabel);
+        try {
+            begin(failLabel);
+            callNoReturn(staticMethod(icceMethod), List.of());
+        } catch (BlockEarlyTermination ignored) {
+            // ignore; continue to generate validEntry block
+        }
+        begin(exitMatched);
+        WordType functionPointerType = (WordType) info.getType().getMember(dt.getITableIndex(target)).getType();
+        final Value ptr = fb.bitCast(fb.load(fb.memberOf(entry, dt.getSelectorITableEntryType().getMember("function"))), functionPointerType);
+        return pointerHandle(ptr);
+    }
+
     @Override
     public ValueHandle visit(ArrayList<Value> args, StaticMethodElementHandle node) {
         if (!node.getExecutable().hasMethodBodyFactory() && node.getExecutable().hasAllModifiersOf(ClassFile.ACC_NATIVE)) {
@@ -1,5 +1,6 @@
 package org.qbicc.plugin.lowering;
 
+import java.util.Collections;
 import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.NoSuchElementException;
@@ -138,6 +139,15 @@ public class Lowering {
         return global;
     }
 
+    /**
+     * Get the global variables which have been created for static fields so far, keyed by field.
+     *
+     * @return an unmodifiable view of the static field globals
+     */
+    public Map<FieldElement, GlobalVariableElement> getStaticFieldGlobals() {
+        return Collections.unmodifiableMap(staticFields);
+    }
+
     private ValueType widenBoolean(ValueType type) {
         // todo: n-bit booleans
         if (type instanceof BooleanType) {
@@ -0,0 +1,76 @@
+package org.qbicc.plugin.methodinfo;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.qbicc.context.AttachmentKey;
+import org.qbicc.context.CompilationContext;
+import org.qbicc.machine.arch.Cpu;
+import org.qbicc.machine.arch.OS;
+import org.qbicc.machine.arch.Platform;
+import org.qbicc.object.Function;
+import org.qbicc.type.definition.DefinedTypeDefinition;
+
+/**
+ * The set of functions whose null checks may be folded by the back end into the first memory access of the checked
+ * reference. When such an access faults, the runtime signal handler transfers control to the explicit null path of
+ * the check, which is located through the fault map that the back end emits for each object file.
+ */
+public final class ImplicitNullChecks {
+    private static final AttachmentKey<ImplicitNullChecks> KEY = new AttachmentKey<>();
+
+    private final Map<String, Function> functions = new ConcurrentHashMap<>();
+
+    private ImplicitNullChecks() {}
+
+    /**
+     * Enable implicit null checks for the compilation, and load the run time class which installs the signal handler.
+     * Implicit null checks are only enabled for targets on which the signal handler is installed and the fault map
+     * relocations can be resolved (Linux on x86); elsewhere a warning is reported and explicit checks remain.
+     *
+     * @param ctxt the compilation context
+     */
+    public static void enable(CompilationContext ctxt) {
+        Platform platform = ctxt.getPlatform();
+        if (platform.getOs() != OS.LINUX || platform.getCpu() != Cpu.X86_64 && platform.getCpu() != Cpu.X86) {
+            ctxt.warning("Implicit null checks are not supported for %s; explicit null checks will be used", platform);
+            return;
+        }
+        ctxt.computeAttachmentIfAbsent(KEY, ImplicitNullChecks::new);
+        DefinedTypeDefinition defined = ctxt.getBootstrapClassContext().findDefinedType("org/qbicc/runtime/main/ImplicitNullChecks");
+        if (defined == null) {
+            ctxt.error("The implicit null check run time class is not present in the bootstrap class path");
+            return;
+        }
+        defined.load();
+    }
+
+    /**
+     * Get the implicit null check information for the compilation.
+     *
+     * @param ctxt the compilation context
+     * @return the implicit null check information, or {@code null} if implicit null checks are not enabled
+     */
+    public static ImplicitNullChecks get(CompilationContext ctxt) {
+        return ctxt.getAttachment(KEY);
+    }
+
+    /**
+     * Record that the given function contains implicit null checks.
+     *
+     * @param function the function (must not be {@code null})
+     */
+    public void registerFunction(Function function) {
+        functions.putIfAbsent(function.getName(), function);
+    }
+
+    /**
+     * Get the function with the given symbol name which contains implicit null checks.
+     *
+     * @param name the symbol name
+     * @return the function, or {@code null} if no such function was registered
+     */
+    public Function getFunction(String name) {
+        return functions.get(name);
+    }
+}
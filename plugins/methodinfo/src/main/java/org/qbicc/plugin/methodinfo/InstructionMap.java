@@ -6,11 +6,13 @@ final class InstructionMap {
     private int offset;
     private int sourceCodeIndex;
     private ExecutableElement function;
+    private int liveSlotIndex;
 
-    InstructionMap(int offset, int sourceCodeIndex, ExecutableElement element) {
+    InstructionMap(int offset, int sourceCodeIndex, ExecutableElement element, int liveSlotIndex) {
         this.offset = offset;
         this.sourceCodeIndex = sourceCodeIndex;
         this.function = element;
+        this.liveSlotIndex = liveSlotIndex;
     }
     public int getOffset() {
         return offset;
@@ -23,4 +25,8 @@ final class InstructionMap {
     public ExecutableElement getFunction() {
         return function;
     }
+
+    public int getLiveSlotIndex() {
+        return liveSlotIndex;
+    }
 }
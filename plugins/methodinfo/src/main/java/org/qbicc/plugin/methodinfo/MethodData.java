@@ -1,9 +1,13 @@
 package org.qbicc.plugin.methodinfo;
 
 import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -11,11 +15,38 @@ final class MethodData {
     private final IndexableSet<MethodInfo> methodInfoSet = new IndexableSet<>();
     private final IndexableSet<SourceCodeInfo> sourceCodeInfoSet = new IndexableSet<>();
     private InstructionMap[] instructionMapList;
+    /**
+     * The live slot table: a sequence of entries, each of which is a slot count followed by that many slots.
+     * The entry at index 0 is always the empty entry.
+     */
+    private final ArrayList<Integer> liveSlotTable = new ArrayList<>(List.of(Integer.valueOf(0)));
+    private final Map<List<Integer>, Integer> liveSlotIndexes = new HashMap<>();
 
     MethodData(int instructionsCount) {
         this.instructionMapList = new InstructionMap[instructionsCount];
     }
 
+    /**
+     * Add an entry to the live slot table, sharing an existing identical entry if there is one.
+     *
+     * @param liveSlots the encoded live slots
+     * @return the index of the entry in the live slot table
+     */
+    int addLiveSlots(int[] liveSlots) {
+        if (liveSlots.length == 0) {
+            return 0;
+        }
+        List<Integer> key = Arrays.stream(liveSlots).boxed().toList();
+        synchronized (liveSlotTable) {
+            return liveSlotIndexes.computeIfAbsent(key, k -> {
+                int index = liveSlotTable.size();
+                liveSlotTable.add(Integer.valueOf(k.size()));
+                liveSlotTable.addAll(k);
+                return Integer.valueOf(index);
+            }).intValue();
+        }
+    }
+
     int add(SourceCodeInfo sourceCodeInfo) {
         return sourceCodeInfoSet.addIfAbsent(sourceCodeInfo);
     }
@@ -36,6 +67,12 @@ final class MethodData {
         return sourceCodeInfoSet.toArray(new SourceCodeInfo[0]);
     }
 
+    int[] getLiveSlotTable() {
+        synchronized (liveSlotTable) {
+            return liveSlotTable.stream().mapToInt(Integer::intValue).toArray();
+        }
+    }
+
     InstructionMap[] getInstructionMapList() {
         InstructionMap[] map = new InstructionMap[instructionMapList.length];
         System.arraycopy(instructionMapList, 0, map, 0, map.length);
@@ -8,6 +8,7 @@ import org.qbicc.graph.literal.Literal;
 import org.qbicc.graph.literal.LiteralFactory;
 import org.qbicc.graph.literal.ProgramObjectLiteral;
 import org.qbicc.interpreter.Vm;
+import org.qbicc.machine.llvm.stackmap.LocationType;
 import org.qbicc.machine.llvm.stackmap.StackMap;
 import org.qbicc.machine.llvm.stackmap.StackMapVisitor;
 import org.qbicc.machine.object.ObjectFile;
@@ -22,6 +23,7 @@ import org.qbicc.type.CompoundType;
 import org.qbicc.type.NullableType;
 import org.qbicc.type.ReferenceType;
 import org.qbicc.type.TypeSystem;
+import org.qbicc.type.UnsignedIntegerType;
 import org.qbicc.type.ValueType;
 import org.qbicc.type.WordType;
 import org.qbicc.type.definition.LoadedTypeDefinition;
@@ -36,10 +38,12 @@ import java.nio.ByteBuffer;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Objects;
+import java.util.TreeSet;
 import java.util.function.Consumer;
 import java.util.stream.IntStream;
 
@@ -59,6 +63,10 @@ public class MethodDataEmitter implements Consumer<CompilationContext> {
     private int sourceCodeIndexListSize;
     private int instructionListCount;
     private int instructionListSize;
+    private int liveSlotTableCount;
+    private int liveSlotTableSize;
+    private int implicitNullCheckTableCount;
+    private int implicitNullCheckTableSize;
 
     private int createMethodInfo(CompilationContext ctxt, NullableType jlsRef, ProgramModule from, MethodData methodData, ExecutableElement element) {
         String methodName = "";
@@ -151,7 +159,8 @@ public class MethodDataEmitter implements Consumer<CompilationContext> {
                 int instructionOffset = record.getOffset();
                 Node node = callSiteInfo.getNodeForStatepointId((int)spId);
                 int scIndex = createSourceCodeInfo(ctxt, methodData, jlsRef, module, node);
-                methodData.add(index, new InstructionMap(instructionOffset, scIndex, getRootMethodOfInlineSequence(node)));
+                int liveSlotIndex = methodData.addLiveSlots(record.getLiveSlots());
+                methodData.add(index, new InstructionMap(instructionOffset, scIndex, getRootMethodOfInlineSequence(node), liveSlotIndex));
             }
         });
 
@@ -257,12 +266,68 @@ public class MethodDataEmitter implements Consumer<CompilationContext> {
         return lf.literalOf(data);
     }
 
+    Literal emitLiveSlotIndexList(CompilationContext ctxt, InstructionMap[] imapList) {
+        TypeSystem ts = ctxt.getTypeSystem();
+        LiteralFactory lf = ctxt.getLiteralFactory();
+        ValueType uint32Type = ts.getUnsignedInteger32Type();
+
+        Literal[] liveSlotIndexLiterals = IntStream.range(0, imapList.length)
+            .parallel()
+            .mapToObj(i -> lf.literalOf(imapList[i].getLiveSlotIndex())).toArray(Literal[]::new);
+
+        Data data = defineData(ctxt, "qbicc_live_slot_index_table", lf.literalOf(ts.getArrayType(uint32Type, liveSlotIndexLiterals.length), List.of(liveSlotIndexLiterals)));
+        return lf.literalOf(data);
+    }
+
+    Literal emitLiveSlotTable(CompilationContext ctxt, int[] liveSlotTable) {
+        TypeSystem ts = ctxt.getTypeSystem();
+        LiteralFactory lf = ctxt.getLiteralFactory();
+        ValueType int32Type = ts.getSignedInteger32Type();
+
+        Literal[] liveSlotLiterals = Arrays.stream(liveSlotTable).mapToObj(lf::literalOf).toArray(Literal[]::new);
+
+        liveSlotTableCount += liveSlotLiterals.length;
+        liveSlotTableSize += liveSlotLiterals.length * int32Type.getSize();
+
+        Data data = defineData(ctxt, "qbicc_live_slot_table", lf.literalOf(ts.getArrayType(int32Type, liveSlotLiterals.length), List.of(liveSlotLiterals)));
+        return lf.literalOf(data);
+    }
+
+    Literal emitImplicitNullCheckTable(CompilationContext ctxt, List<FaultRecord> faultRecords) {
+        TypeSystem ts = ctxt.getTypeSystem();
+        LiteralFactory lf = ctxt.getLiteralFactory();
+        ProgramModule programModule = ctxt.getOrAddProgramModule(ctxt.getDefaultTypeDefinition());
+        UnsignedIntegerType uint64Type = ts.getUnsignedInteger64Type();
+
+        // each entry is a pair of the faulting instruction address and the address of the explicit null path;
+        // the records are in link order, which is the order of the addresses, so the run time can search the table
+        Literal[] addressLiterals = new Literal[faultRecords.size() << 1];
+        for (int i = 0; i < faultRecords.size(); i ++) {
+            FaultRecord record = faultRecords.get(i);
+            Function function = record.function();
+            Literal functionCastLiteral = lf.bitcastLiteral(lf.literalOf(function), ts.getUnsignedInteger8Type().getPointer());
+            addressLiterals[i << 1] = lf.valueConvertLiteral(lf.elementOfLiteral(functionCastLiteral, lf.literalOf(record.faultingOffset())), uint64Type);
+            addressLiterals[(i << 1) + 1] = lf.valueConvertLiteral(lf.elementOfLiteral(functionCastLiteral, lf.literalOf(record.handlerOffset())), uint64Type);
+            programModule.declareFunction(null, function.getName(), function.getValueType());
+        }
+
+        implicitNullCheckTableCount += faultRecords.size();
+        implicitNullCheckTableSize += addressLiterals.length * uint64Type.getSize();
+
+        Data data = defineData(ctxt, "qbicc_implicit_null_check_table", lf.literalOf(ts.getArrayType(uint64Type, addressLiterals.length), List.of(addressLiterals)));
+        return lf.literalOf(data);
+    }
+
     void emitGlobalMethodData(CompilationContext ctxt,
                               ProgramObjectLiteral minfoTable,
                               ProgramObjectLiteral scInfoTable,
                               ProgramObjectLiteral scIndexTable,
                               ProgramObjectLiteral instructionTable,
-                              int instructionTableSize) {
+                              int instructionTableSize,
+                              ProgramObjectLiteral liveSlotIndexTable,
+                              ProgramObjectLiteral liveSlotTable,
+                              ProgramObjectLiteral implicitNullCheckTable,
+                              int implicitNullCheckTableSize) {
         LiteralFactory lf = ctxt.getLiteralFactory();
         TypeSystem ts = ctxt.getTypeSystem();
         MethodDataTypes mdTypes = MethodDataTypes.get(ctxt);
@@ -284,16 +349,30 @@ public class MethodDataEmitter implements Consumer<CompilationContext> {
 
         valueMap.put(mdhType.getMember("instructionTableSize"), lf.literalOf(instructionTableSize));
 
+        member = mdhType.getMember("liveSlotIndexTable");
+        valueMap.put(member, lf.bitcastLiteral(liveSlotIndexTable, (WordType) member.getType()));
+
+        member = mdhType.getMember("liveSlotTable");
+        valueMap.put(member, lf.bitcastLiteral(liveSlotTable, (WordType) member.getType()));
+
+        member = mdhType.getMember("implicitNullCheckTable");
+        valueMap.put(member, lf.bitcastLiteral(implicitNullCheckTable, (WordType) member.getType()));
+
+        valueMap.put(mdhType.getMember("implicitNullCheckTableSize"), lf.literalOf(implicitNullCheckTableSize));
+
         Literal mdhLiteral = lf.literalOf(mdhType, valueMap);
         defineData(ctxt, MethodDataTypes.QBICC_GLOBAL_METHOD_DATA, mdhLiteral);
     }
 
-    public void emitMethodData(CompilationContext ctxt, MethodData methodData) {
+    public void emitMethodData(CompilationContext ctxt, MethodData methodData, List<FaultRecord> faultRecords) {
         ProgramObjectLiteral minfoTableSymbol = (ProgramObjectLiteral) emitMethodInfoTable(ctxt, methodData.getMethodInfoTable());
         ProgramObjectLiteral scInfoTableSymbol = (ProgramObjectLiteral) emitSourceCodeInfoTable(ctxt, methodData.getSourceCodeInfoTable());
         ProgramObjectLiteral scIndexTableSymbol = (ProgramObjectLiteral) emitSourceCodeIndexList(ctxt, methodData.getInstructionMapList());
         ProgramObjectLiteral instructionTableSymbol = (ProgramObjectLiteral) emitInstructionList(ctxt, methodData.getInstructionMapList());
-        emitGlobalMethodData(ctxt, minfoTableSymbol, scInfoTableSymbol, scIndexTableSymbol, instructionTableSymbol, methodData.getInstructionMapList().length);
+        ProgramObjectLiteral liveSlotIndexTableSymbol = (ProgramObjectLiteral) emitLiveSlotIndexList(ctxt, methodData.getInstructionMapList());
+        ProgramObjectLiteral liveSlotTableSymbol = (ProgramObjectLiteral) emitLiveSlotTable(ctxt, methodData.getLiveSlotTable());
+        ProgramObjectLiteral implicitNullCheckTableSymbol = (ProgramObjectLiteral) emitImplicitNullCheckTable(ctxt, faultRecords);
+        emitGlobalMethodData(ctxt, minfoTableSymbol, scInfoTableSymbol, scIndexTableSymbol, instructionTableSymbol, methodData.getInstructionMapList().length, liveSlotIndexTableSymbol, liveSlotTableSymbol, implicitNullCheckTableSymbol, faultRecords.size());
     }
 
     private void displayStats() {
@@ -307,12 +386,17 @@ public class MethodDataEmitter implements Consumer<CompilationContext> {
         slog.debugf("qbicc_source_code_index_list size: %d bytes", sourceCodeIndexListSize);
         slog.debugf("qbicc_instruction_list entry count: %d", instructionListCount);
         slog.debugf("qbicc_instruction_list size: %d bytes", instructionListSize);
+        slog.debugf("qbicc_live_slot_table entry count: %d", liveSlotTableCount);
+        slog.debugf("qbicc_live_slot_table size: %d bytes", liveSlotTableSize);
+        slog.debugf("qbicc_implicit_null_check_table entry count: %d", implicitNullCheckTableCount);
+        slog.debugf("qbicc_implicit_null_check_table size: %d bytes", implicitNullCheckTableSize);
     }
 
     @Override
     public void accept(CompilationContext context) {
         MethodData methodData = createMethodData(context);
-        emitMethodData(context, methodData);
+        List<FaultRecord> faultRecords = ImplicitNullChecks.get(context) == null ? List.of() : new FaultRecordCollector(context).collect();
+        emitMethodData(context, methodData, faultRecords);
         displayStats();
     }
 
@@ -321,17 +405,27 @@ public class MethodDataEmitter implements Consumer<CompilationContext> {
         private final int functionIndex;
         private final int offset;
         private final long statepoindId;
+        private final int[] liveSlots;
 
-        StackMapRecord(final int objectFileIndex, final int functionIndex, final int offset, final long statepoindId) {
+        StackMapRecord(final int objectFileIndex, final int functionIndex, final int offset, final long statepoindId, final int[] liveSlots) {
             this.objectFileIndex = objectFileIndex;
             this.functionIndex = functionIndex;
             this.offset = offset;
             this.statepoindId = statepoindId;
+            this.liveSlots = liveSlots;
         }
 
         long getStatepoindId() { return statepoindId; }
         int getOffset() { return offset; }
 
+        /**
+         * Get the stack slots which hold live references at this call site. Each slot is encoded as the
+         * offset from its base register shifted left by 8, combined with the (DWARF) base register number.
+         *
+         * @return the encoded live slots, in ascending order
+         */
+        int[] getLiveSlots() { return liveSlots; }
+
         @Override
         public int hashCode() {
             return Objects.hash(objectFileIndex, statepoindId, offset);
@@ -368,6 +462,12 @@ public class MethodDataEmitter implements Consumer<CompilationContext> {
     }
 
     private final class StackMapRecordCollector {
+        /**
+         * The number of constant locations (calling convention, flags, and deoptimization location count) at the start
+         * of every statepoint record.
+         */
+        private static final int STATEPOINT_HEADER_LOCATIONS = 3;
+
         CompilationContext context;
         StackMapRecordCollector(CompilationContext context) {
             this.context = context;
@@ -377,7 +477,7 @@ public class MethodDataEmitter implements Consumer<CompilationContext> {
             Linker linker = Linker.get(context);
             List<StackMapRecord> recordList = new ArrayList<>();
             ObjectFileProvider objFileProvider = context.getAttachment(Driver.OBJ_PROVIDER_TOOL_KEY);
-            Iterator<Path> objFileIterator = linker.getObjectFilePathsByType().values().iterator();
+            Iterator<Path> objFileIterator = linker.getObjectFilePaths().iterator();
             final int[] index = { 0 };
 
             context.runParallelTask(ctxt -> {
@@ -398,18 +498,38 @@ public class MethodDataEmitter implements Consumer<CompilationContext> {
                             ByteBuffer stackMapData = stackMapSection.getSectionContent();
                             StackMap.parse(stackMapData, new StackMapVisitor() {
                                 private long currentFnIndex;
+                                private long currentPatchPointId;
+                                private int currentOffset;
+                                private int gcLocationsStart;
+                                private final TreeSet<Integer> liveSlots = new TreeSet<>();
                                 public void startFunction(long fnIndex, long address, long stackSize, long recordCount) {
                                     currentFnIndex = fnIndex;
                                 }
                                 public void startRecord(long recIndex, long patchPointId, long offset, int locCnt, int liveOutCnt) {
+                                    currentPatchPointId = patchPointId;
+                                    currentOffset = (int) offset;
+                                    gcLocationsStart = STATEPOINT_HEADER_LOCATIONS;
+                                    liveSlots.clear();
+                                }
+                                public void location(int locIndex, LocationType type, int size, int regNum, long data) {
+                                    if (locIndex == STATEPOINT_HEADER_LOCATIONS - 1 && type == LocationType.Constant) {
+                                        // the last header location is the number of deoptimization locations which precede the GC locations
+                                        gcLocationsStart += (int) data;
+                                    } else if (locIndex >= gcLocationsStart && type == LocationType.Indirect) {
+                                        // base and derived pointers are both recorded; slots shared between them are recorded once
+                                        liveSlots.add(Integer.valueOf((int) data << 8 | regNum & 0xff));
+                                    }
+                                }
+                                public void endRecord(long recIndex) {
+                                    int[] slots = liveSlots.stream().mapToInt(Integer::intValue).toArray();
                                     synchronized (recordList) {
-                                        recordList.add(new StackMapRecord(objFileIndex, (int)currentFnIndex, (int) offset, patchPointId));
+                                        recordList.add(new StackMapRecord(objFileIndex, (int)currentFnIndex, currentOffset, currentPatchPointId, slots));
                                     }
                                 }
                             });
                         }
                     } catch (IOException e) {
-                        e.printStackTrace();
+                        ctxt.error(e, "Failed to read the stack map of \"%s\"", objFile);
                     }
                 }
             });
@@ -418,4 +538,103 @@ public class MethodDataEmitter implements Consumer<CompilationContext> {
             return recordList;
         }
     }
+
+    /**
+     * A null check which was folded into a faulting memory access.
+     *
+     * @param function the function containing the access
+     * @param objectFileIndex the index of the object file in link order
+     * @param functionIndex the index of the function in the fault map section of the object file
+     * @param faultingOffset the offset of the faulting instruction from the start of the function
+     * @param handlerOffset the offset of the explicit null path from the start of the function
+     */
+    record FaultRecord(int objectFileIndex, int functionIndex, Function function, int faultingOffset, int handlerOffset) {}
+
+    private static final class FaultRecordCollector {
+        private static final int FAULT_MAP_VERSION = 1;
+
+        CompilationContext context;
+        FaultRecordCollector(CompilationContext context) {
+            this.context = context;
+        }
+
+        public List<FaultRecord> collect() {
+            Linker linker = Linker.get(context);
+            ImplicitNullChecks inc = ImplicitNullChecks.get(context);
+            List<FaultRecord> recordList = new ArrayList<>();
+            ObjectFileProvider objFileProvider = context.getAttachment(Driver.OBJ_PROVIDER_TOOL_KEY);
+            Iterator<Path> objFileIterator = linker.getObjectFilePaths().iterator();
+            final int[] index = { 0 };
+
+            context.runParallelTask(ctxt -> {
+                Path objFile;
+                for (;;) {
+                    int objFileIndex;
+                    synchronized (objFileIterator) {
+                        if (!objFileIterator.hasNext()) {
+                            return;
+                        }
+                        objFile = objFileIterator.next();
+                        objFileIndex = index[0];
+                        index[0] += 1;
+                    }
+                    try (ObjectFile objectFile = objFileProvider.openObjectFile(objFile)) {
+                        String sectionName = objectFile.getFaultMapSectionName();
+                        org.qbicc.machine.object.Section faultMapSection = sectionName == null ? null : objectFile.getSection(sectionName);
+                        if (faultMapSection != null) {
+                            ByteBuffer faultMapData = faultMapSection.getSectionContent().order(objectFile.getByteOrder());
+                            parse(objFileIndex, objFile, objectFile, sectionName, faultMapData, inc, recordList);
+                        }
+                    } catch (IOException e) {
+                        // without its records, a null reference would crash the program instead of raising an exception
+                        ctxt.error(e, "Failed to read the fault map of \"%s\"", objFile);
+                    }
+                }
+            });
+            // sort the list based on the object file index, function index and the instruction offset
+            recordList.sort(Comparator.comparingInt(FaultRecord::objectFileIndex).thenComparingInt(FaultRecord::functionIndex).thenComparingInt(FaultRecord::faultingOffset));
+            return recordList;
+        }
+
+        private void parse(int objFileIndex, Path objFile, ObjectFile objectFile, String sectionName, ByteBuffer buffer, ImplicitNullChecks inc, List<FaultRecord> recordList) {
+            int start = buffer.position();
+            int functionIndex = 0;
+            // the section may hold several fault maps if objects were merged
+            while (buffer.remaining() >= 8) {
+                int version = buffer.get() & 0xff;
+                if (version == 0) {
+                    // alignment padding
+                    continue;
+                }
+                if (version != FAULT_MAP_VERSION) {
+                    context.error("Unsupported fault map version %d in %s", Integer.valueOf(version), objFile);
+                    return;
+                }
+                buffer.get(); // reserved
+                buffer.getShort(); // reserved
+                int numFunctions = buffer.getInt();
+                for (int i = 0; i < numFunctions; i ++, functionIndex ++) {
+                    String symbol = objectFile.getRelocationSymbolForSectionOffset(sectionName, buffer.position() - start);
+                    buffer.getLong(); // function address, to be relocated
+                    int numFaultingPCs = buffer.getInt();
+                    buffer.getInt(); // reserved
+                    Function function = symbol == null ? null : inc.getFunction(symbol);
+                    if (function == null) {
+                        // without an entry, a null reference would crash the program instead of raising an exception
+                        context.error("Implicit null checks of function %s in %s cannot be mapped", symbol, objFile);
+                        buffer.position(buffer.position() + 12 * numFaultingPCs);
+                        continue;
+                    }
+                    for (int j = 0; j < numFaultingPCs; j ++) {
+                        buffer.getInt(); // fault kind
+                        int faultingOffset = buffer.getInt();
+                        int handlerOffset = buffer.getInt();
+                        synchronized (recordList) {
+                            recordList.add(new FaultRecord(objFileIndex, functionIndex, function, faultingOffset, handlerOffset));
+                        }
+                    }
+                }
+            }
+        }
+    }
 }
@@ -33,6 +33,7 @@ public class MethodDataTypes {
         LoadedTypeDefinition jls = ctxt.getBootstrapClassContext().findDefinedType("java/lang/String").load();
         ReferenceType jlsRef = jls.getObjectType().getReference();
         ValueType uint8Type = ts.getUnsignedInteger8Type();
+        ValueType int32Type = ts.getSignedInteger32Type();
         ValueType uint32Type = ts.getUnsignedInteger32Type();
         ValueType uint64Type = ts.getUnsignedInteger64Type();
 
@@ -66,6 +67,10 @@ public class MethodDataTypes {
             .addNextMember("sourceCodeIndexTable", uint32Type.getPointer())
             .addNextMember("instructionTable", uint64Type.getPointer())
             .addNextMember("instructionTableSize", uint32Type)
+            .addNextMember("liveSlotIndexTable", uint32Type.getPointer())
+            .addNextMember("liveSlotTable", int32Type.getPointer())
+            .addNextMember("implicitNullCheckTable", uint64Type.getPointer())
+            .addNextMember("implicitNullCheckTableSize", uint32Type)
             .build();
 
         GlobalVariableElement.Builder builder = GlobalVariableElement.builder(QBICC_GLOBAL_METHOD_DATA, BaseTypeDescriptor.V);
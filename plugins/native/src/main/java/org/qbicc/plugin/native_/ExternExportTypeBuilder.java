@@ -13,7 +13,6 @@ import org.qbicc.object.DataDeclaration;
 import org.qbicc.object.Linkage;
 import org.qbicc.object.ModuleSection;
 import org.qbicc.object.ProgramModule;
-import org.qbicc.object.ThreadLocalMode;
 import org.qbicc.plugin.core.ConditionEvaluation;
 import org.qbicc.type.FunctionType;
 import org.qbicc.type.MethodType;
@@ -143,30 +142,14 @@ public class ExternExportTypeBuilder implements DefinedTypeDefinition.Builder.De
                     if (! resolved.isStatic()) {
                         ctxt.error(resolved, "External (imported) fields must be `static`");
                     }
-                    // declare it
-                    ProgramModule programModule = ctxt.getOrAddProgramModule(enclosing);
-                    ValueType fieldType = resolved.getType();
-                    DataDeclaration decl = programModule.declareData(resolved, name, fieldType);
-                    if (resolved.hasAllModifiersOf(ClassFile.I_ACC_THREAD_LOCAL)) {
-                        decl.setThreadLocalMode(ThreadLocalMode.GENERAL_DYNAMIC);
-                    }
-                    decl.setLinkage(Linkage.COMMON);
-                    // and register as an external data object
-                    addExtern(nativeInfo, resolved, decl);
+                    // declare it and register as an external data object
+                    addExtern(nativeInfo, resolved, declareExternField(ctxt, enclosing, resolved, name));
                 } else if (isExport) {
                     if (! resolved.isStatic()) {
                         ctxt.error(resolved, "Exported fields must be `static`");
                     }
-                    // define it
-                    ModuleSection section = ctxt.getOrAddProgramModule(enclosing).getOrAddSection(CompilationContext.IMPLICIT_SECTION_NAME);
-                    ValueType fieldType = resolved.getType();
-                    Data data = section.addData(resolved, name, ctxt.getLiteralFactory().zeroInitializerLiteralOfType(fieldType));
-                    if (resolved.hasAllModifiersOf(ClassFile.I_ACC_THREAD_LOCAL)) {
-                        data.setThreadLocalMode(ThreadLocalMode.GENERAL_DYNAMIC);
-                    }
-                    data.setLinkage(Linkage.COMMON);
-                    // and register it
-                    addExport(nativeInfo, resolved, data);
+                    // define it and register it
+                    addExport(nativeInfo, resolved, defineExportField(ctxt, enclosing, resolved, name));
                 }
                 return resolved;
             }
@@ -191,6 +174,45 @@ public class ExternExportTypeBuilder implements DefinedTypeDefinition.Builder.De
         }, index, name, descriptor);
     }
 
+    /**
+     * Declare the data object of an external (imported) field. A thread-local field may be defined outside of the
+     * image.
+     *
+     * @param ctxt the compilation context
+     * @param enclosing the enclosing type of the field
+     * @param field the field
+     * @param name the name of the data object
+     * @return the data declaration
+     */
+    static DataDeclaration declareExternField(CompilationContext ctxt, DefinedTypeDefinition enclosing, FieldElement field, String name) {
+        ProgramModule programModule = ctxt.getOrAddProgramModule(enclosing);
+        DataDeclaration decl = programModule.declareData(field, name, field.getType());
+        if (field.hasAllModifiersOf(ClassFile.I_ACC_THREAD_LOCAL)) {
+            decl.setThreadLocalMode(Driver.get(ctxt).getThreadLocalMode(false));
+        }
+        decl.setLinkage(Linkage.COMMON);
+        return decl;
+    }
+
+    /**
+     * Define the data object of an exported field, which is always defined within the image.
+     *
+     * @param ctxt the compilation context
+     * @param enclosing the enclosing type of the field
+     * @param field the field
+     * @param name the name of the data object
+     * @return the data definition
+     */
+    static Data defineExportField(CompilationContext ctxt, DefinedTypeDefinition enclosing, FieldElement field, String name) {
+        ModuleSection section = ctxt.getOrAddProgramModule(enclosing).getOrAddSection(CompilationContext.IMPLICIT_SECTION_NAME);
+        Data data = section.addData(field, name, ctxt.getLiteralFactory().zeroInitializerLiteralOfType(field.getType()));
+        if (field.hasAllModifiersOf(ClassFile.I_ACC_THREAD_LOCAL)) {
+            data.setThreadLocalMode(Driver.get(ctxt).getThreadLocalMode(true));
+        }
+        data.setLinkage(Linkage.COMMON);
+        return data;
+    }
+
     public void addMethod(final MethodResolver resolver, final int index, String name, MethodDescriptor descriptor) {
         delegate.addMethod(new MethodResolver() {
             public MethodElement resolveMethod(final int index, final DefinedTypeDefinition enclosing, MethodElement.Builder builder) {
@@ -354,11 +376,9 @@ public class ExternExportTypeBuilder implements DefinedTypeDefinition.Builder.De
                     pp.processAnnotation(annotation);
                 }
                 pp.accept(builder);
-                builder.probeMacroFunctionName(origMethod.getName(), origMethod.getSourceFileName(), 0);
-                CProbe probe = builder.build();
                 CProbe.Result result;
                 try {
-                    result = probe.run(ctxt.getAttachment(Driver.C_TOOL_CHAIN_KEY), ctxt.getAttachment(Driver.OBJ_PROVIDER_TOOL_KEY), null);
+                    result = ProbeUtils.getProbeBatch(ctxt).submit(builder, b -> b.probeMacroFunctionName(origMethod.getName(), origMethod.getSourceFileName(), 0), null).getResult();
                     if (result == null) {
                         return null;
                     }
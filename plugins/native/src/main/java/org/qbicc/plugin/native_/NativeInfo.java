@@ -17,7 +17,6 @@ import java.util.concurrent.atomic.AtomicReference;
 import io.smallrye.common.constraint.Assert;
 import org.qbicc.context.AttachmentKey;
 import org.qbicc.context.CompilationContext;
-import org.qbicc.driver.Driver;
 import org.qbicc.machine.probe.CProbe;
 import org.qbicc.machine.probe.Qualifier;
 import org.qbicc.plugin.core.ConditionEvaluation;
@@ -315,10 +314,8 @@ final class NativeInfo {
                             resolved = ts.getIncompleteCompoundType(tag, simpleName);
                         } else {
                             CProbe.Type probeType = tb.build();
-                            pb.probeType(probeType);
-                            CProbe probe = pb.build();
                             try {
-                                CProbe.Result result = probe.run(ctxt.getAttachment(Driver.C_TOOL_CHAIN_KEY), ctxt.getAttachment(Driver.OBJ_PROVIDER_TOOL_KEY), ctxt);
+                                CProbe.Result result = ProbeUtils.getProbeBatch(ctxt).submit(pb, b -> b.probeType(probeType), ctxt).getResult();
                                 if (result != null) {
                                     CProbe.Type.Info typeInfo = result.getTypeInfo(probeType);
                                     long size = typeInfo.getSize();
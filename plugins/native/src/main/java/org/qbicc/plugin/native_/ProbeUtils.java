@@ -4,9 +4,14 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.function.Consumer;
 
+import org.qbicc.context.AttachmentKey;
 import org.qbicc.context.ClassContext;
+import org.qbicc.context.CompilationContext;
 import org.qbicc.context.Locatable;
+import org.qbicc.driver.Driver;
 import org.qbicc.machine.probe.CProbe;
+import org.qbicc.machine.probe.CProbeBatch;
+import org.qbicc.machine.probe.CProbeCache;
 import org.qbicc.plugin.core.ConditionEvaluation;
 import org.qbicc.type.annotation.Annotation;
 import org.qbicc.type.annotation.ArrayAnnotationValue;
@@ -14,8 +19,20 @@ import org.qbicc.type.annotation.StringAnnotationValue;
 import org.qbicc.type.descriptor.ClassTypeDescriptor;
 
 final class ProbeUtils {
+    private static final AttachmentKey<CProbeBatch> BATCH_KEY = new AttachmentKey<>();
+
     private ProbeUtils() {}
 
+    /**
+     * Get the probe batch of the compilation, which resolves probes that share the same preamble together.
+     *
+     * @param ctxt the compilation context
+     * @return the probe batch
+     */
+    static CProbeBatch getProbeBatch(CompilationContext ctxt) {
+        return ctxt.computeAttachmentIfAbsent(BATCH_KEY, () -> new CProbeBatch(ctxt.getAttachment(Driver.C_TOOL_CHAIN_KEY), ctxt.getAttachment(Driver.OBJ_PROVIDER_TOOL_KEY), CProbeCache.get(ctxt)));
+    }
+
     static final class ProbeProcessor implements Consumer<CProbe.Builder> {
         private final ClassContext classContext;
         private final Locatable locatable;
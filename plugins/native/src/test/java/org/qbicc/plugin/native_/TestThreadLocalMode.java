@@ -0,0 +1,60 @@
+package org.qbicc.plugin.native_;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.qbicc.object.Data;
+import org.qbicc.object.DataDeclaration;
+import org.qbicc.object.ThreadLocalMode;
+import org.qbicc.test.AbstractCompilerTestCase;
+import org.qbicc.type.definition.DefinedTypeDefinition;
+import org.qbicc.type.definition.classfile.ClassFile;
+import org.qbicc.type.definition.element.FieldElement;
+import org.qbicc.type.descriptor.BaseTypeDescriptor;
+import org.qbicc.type.generic.BaseTypeSignature;
+
+/**
+ * Tests for the thread-local storage models of the data objects of {@code @extern} and {@code @export} fields. The
+ * output is an executable, so no thread-local is accessed through {@code __tls_get_addr}.
+ */
+public final class TestThreadLocalMode extends AbstractCompilerTestCase {
+
+    DefinedTypeDefinition enclosingType;
+
+    @BeforeEach
+    public void setUpEach() {
+        enclosingType = defineClass("TestNative", null);
+    }
+
+    @Test
+    public void testExportedThreadLocalIsLocalExec() {
+        // an exported thread-local is defined in the image, at a fixed offset from the thread pointer
+        final Data data = ExternExportTypeBuilder.defineExportField(ctxt, enclosingType, createField("exported", true), "exported");
+        assertEquals(ThreadLocalMode.LOCAL_EXEC, data.getThreadLocalMode());
+    }
+
+    @Test
+    public void testExternalThreadLocalIsInitialExec() {
+        // an external thread-local may be defined by a shared library which is loaded at startup
+        final DataDeclaration decl = ExternExportTypeBuilder.declareExternField(ctxt, enclosingType, createField("imported", true), "imported");
+        assertEquals(ThreadLocalMode.INITIAL_EXEC, decl.getThreadLocalMode());
+    }
+
+    @Test
+    public void testGlobalsAreNotThreadLocal() {
+        assertNull(ExternExportTypeBuilder.defineExportField(ctxt, enclosingType, createField("exportedGlobal", false), "exportedGlobal").getThreadLocalMode());
+        assertNull(ExternExportTypeBuilder.declareExternField(ctxt, enclosingType, createField("importedGlobal", false), "importedGlobal").getThreadLocalMode());
+    }
+
+    private FieldElement createField(String name, boolean threadLocal) {
+        final FieldElement.Builder builder = FieldElement.builder(name, BaseTypeDescriptor.I, 0);
+        builder.setEnclosingType(enclosingType);
+        builder.setModifiers(ClassFile.ACC_STATIC | (threadLocal ? ClassFile.I_ACC_THREAD_LOCAL : 0));
+        builder.setType(ts.getSignedInteger32Type());
+        builder.setSignature(BaseTypeSignature.I);
+        builder.setTypeParameterContext(enclosingType);
+        return builder.build();
+    }
+}
@@ -0,0 +1,82 @@
+package org.qbicc.plugin.objectmonitor;
+
+import java.util.List;
+
+import org.qbicc.context.CompilationContext;
+import org.qbicc.graph.BasicBlock;
+import org.qbicc.graph.BasicBlockBuilder;
+import org.qbicc.graph.BlockLabel;
+import org.qbicc.graph.DelegatingBasicBlockBuilder;
+import org.qbicc.graph.InstanceMethodElementHandle;
+import org.qbicc.graph.Node;
+import org.qbicc.graph.StaticMethodElementHandle;
+import org.qbicc.graph.Value;
+import org.qbicc.graph.ValueHandle;
+import org.qbicc.type.definition.element.MethodElement;
+
+/**
+ * A graph factory which generates calls to the thin lock runtime for object monitor bytecodes. Operations which
+ * only know about the fat object monitor ({@code wait}, {@code notify}, {@code notifyAll}, and
+ * {@code Thread.holdsLock}) are preceded by a call which inflates the lock if the current thread holds it thinly.
+ */
+public class ThinLockBasicBlockBuilder extends DelegatingBasicBlockBuilder {
+    private final ThinLocks thinLocks;
+
+    public ThinLockBasicBlockBuilder(CompilationContext ctxt, BasicBlockBuilder delegate) {
+        super(delegate);
+        thinLocks = ThinLocks.get(ctxt);
+    }
+
+    public Node monitorEnter(final Value object) {
+        BasicBlockBuilder fb = getFirstBuilder();
+        return fb.call(fb.staticMethod(thinLocks.getEnterMethod()), List.of(object));
+    }
+
+    public Node monitorExit(final Value object) {
+        BasicBlockBuilder fb = getFirstBuilder();
+        return fb.call(fb.staticMethod(thinLocks.getExitMethod()), List.of(object));
+    }
+
+    public Value call(ValueHandle target, List<Value> arguments) {
+        inflateIfNeeded(target, arguments);
+        return super.call(target, arguments);
+    }
+
+    public Value invoke(ValueHandle target, List<Value> arguments, BlockLabel catchLabel, BlockLabel resumeLabel) {
+        inflateIfNeeded(target, arguments);
+        return super.invoke(target, arguments, catchLabel, resumeLabel);
+    }
+
+    public BasicBlock tailCall(ValueHandle target, List<Value> arguments) {
+        inflateIfNeeded(target, arguments);
+        return super.tailCall(target, arguments);
+    }
+
+    public BasicBlock tailInvoke(ValueHandle target, List<Value> arguments, BlockLabel catchLabel) {
+        inflateIfNeeded(target, arguments);
+        return super.tailInvoke(target, arguments, catchLabel);
+    }
+
+    private void inflateIfNeeded(ValueHandle target, List<Value> arguments) {
+        Value object = null;
+        if (target instanceof InstanceMethodElementHandle handle && isObjectMonitorMethod(handle.getExecutable())) {
+            object = handle.getInstance();
+        } else if (target instanceof StaticMethodElementHandle handle && isHoldsLock(handle.getExecutable())) {
+            object = arguments.get(0);
+        }
+        if (object != null) {
+            BasicBlockBuilder fb = getFirstBuilder();
+            fb.call(fb.staticMethod(thinLocks.getInflateMethod()), List.of(object));
+        }
+    }
+
+    private static boolean isObjectMonitorMethod(MethodElement method) {
+        return method.getEnclosingType().internalNameEquals("java/lang/Object")
+            && (method.nameEquals("wait") || method.nameEquals("notify") || method.nameEquals("notifyAll"));
+    }
+
+    private static boolean isHoldsLock(MethodElement method) {
+        return method.getEnclosingType().internalNameEquals("java/lang/Thread")
+            && method.nameEquals("holdsLock");
+    }
+}
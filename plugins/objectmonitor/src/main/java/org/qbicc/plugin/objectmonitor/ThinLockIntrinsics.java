@@ -0,0 +1,100 @@
+package org.qbicc.plugin.objectmonitor;
+
+import static org.qbicc.graph.CmpAndSwap.Strength.STRONG;
+import static org.qbicc.graph.atomic.AccessModes.*;
+
+import java.util.List;
+
+import org.qbicc.context.ClassContext;
+import org.qbicc.context.CompilationContext;
+import org.qbicc.driver.Phase;
+import org.qbicc.graph.BasicBlockBuilder;
+import org.qbicc.graph.CmpAndSwap;
+import org.qbicc.graph.Value;
+import org.qbicc.graph.ValueHandle;
+import org.qbicc.graph.literal.LiteralFactory;
+import org.qbicc.plugin.coreclasses.CoreClasses;
+import org.qbicc.plugin.intrinsics.Intrinsics;
+import org.qbicc.plugin.intrinsics.StaticIntrinsic;
+import org.qbicc.type.IntegerType;
+import org.qbicc.type.TypeSystem;
+import org.qbicc.type.definition.LoadedTypeDefinition;
+import org.qbicc.type.definition.element.MethodElement;
+import org.qbicc.type.descriptor.BaseTypeDescriptor;
+import org.qbicc.type.descriptor.ClassTypeDescriptor;
+import org.qbicc.type.descriptor.MethodDescriptor;
+
+/**
+ * Intrinsics which give the thin lock runtime access to the object header and to the fat object monitor.
+ */
+public final class ThinLockIntrinsics {
+    private ThinLockIntrinsics() {}
+
+    public static void register(CompilationContext ctxt) {
+        ThinLocks.get(ctxt); // Causes the thin lock runtime class to be loaded.
+        Intrinsics intrinsics = Intrinsics.get(ctxt);
+        ClassContext classContext = ctxt.getBootstrapClassContext();
+        LiteralFactory lf = ctxt.getLiteralFactory();
+        TypeSystem ts = ctxt.getTypeSystem();
+        CoreClasses coreClasses = CoreClasses.get(ctxt);
+        IntegerType headerType = (IntegerType) coreClasses.getObjectHeaderField().getType();
+
+        LoadedTypeDefinition jlo = classContext.findDefinedType("java/lang/Object").load();
+        MethodElement monitorEnterMethod = jlo.getMethod(jlo.findSingleMethodIndex(me -> me.nameEquals("monitorEnter")));
+        MethodElement monitorExitMethod = jlo.getMethod(jlo.findSingleMethodIndex(me -> me.nameEquals("monitorExit")));
+
+        ClassTypeDescriptor thinLockDesc = ClassTypeDescriptor.synthesize(classContext, ThinLocks.THIN_LOCK_CLASS);
+        ClassTypeDescriptor objDesc = ClassTypeDescriptor.synthesize(classContext, "java/lang/Object");
+
+        MethodDescriptor voidToIntDesc = MethodDescriptor.synthesize(classContext, BaseTypeDescriptor.I, List.of());
+        MethodDescriptor objToLongDesc = MethodDescriptor.synthesize(classContext, BaseTypeDescriptor.J, List.of(objDesc));
+        MethodDescriptor objToVoidDesc = MethodDescriptor.synthesize(classContext, BaseTypeDescriptor.V, List.of(objDesc));
+        MethodDescriptor casDesc = MethodDescriptor.synthesize(classContext, BaseTypeDescriptor.Z, List.of(objDesc, BaseTypeDescriptor.J, BaseTypeDescriptor.J));
+
+        intrinsics.registerIntrinsic(thinLockDesc, "getLockShift", voidToIntDesc, (builder, target, arguments) ->
+            lf.literalOf(ThinLocks.get(ctxt).getLockShift()));
+
+        MethodDescriptor voidToLongDesc = MethodDescriptor.synthesize(classContext, BaseTypeDescriptor.J, List.of());
+
+        intrinsics.registerIntrinsic(thinLockDesc, "getLockMask", voidToLongDesc, (builder, target, arguments) ->
+            lf.literalOf(ThinLocks.get(ctxt).getLockMask()));
+
+        StaticIntrinsic getHeader = (builder, target, arguments) -> {
+            Value header = builder.load(headerHandle(builder, coreClasses, arguments.get(0)), SingleOpaque);
+            if (headerType.getMinBits() < 64) {
+                header = builder.extend(header, ts.getUnsignedInteger64Type());
+            }
+            return builder.bitCast(header, ts.getSignedInteger64Type());
+        };
+
+        intrinsics.registerIntrinsic(Phase.LOWER, thinLockDesc, "getHeader", objToLongDesc, getHeader);
+
+        StaticIntrinsic compareAndSetHeader = (builder, target, arguments) -> {
+            Value expect = toHeader(builder, ts, headerType, arguments.get(1));
+            Value update = toHeader(builder, ts, headerType, arguments.get(2));
+            Value result = builder.cmpAndSwap(headerHandle(builder, coreClasses, arguments.get(0)), expect, update, GlobalSeqCst, GlobalSeqCst, STRONG);
+            return builder.extractMember(result, CmpAndSwap.getResultType(ctxt, headerType).getMember(1));
+        };
+
+        intrinsics.registerIntrinsic(Phase.LOWER, thinLockDesc, "compareAndSetHeader", casDesc, compareAndSetHeader);
+
+        StaticIntrinsic fatEnter = (builder, target, arguments) ->
+            builder.call(builder.exactMethodOf(arguments.get(0), monitorEnterMethod), List.of());
+
+        intrinsics.registerIntrinsic(Phase.LOWER, thinLockDesc, "fatEnter", objToVoidDesc, fatEnter);
+
+        StaticIntrinsic fatExit = (builder, target, arguments) ->
+            builder.call(builder.exactMethodOf(arguments.get(0), monitorExitMethod), List.of());
+
+        intrinsics.registerIntrinsic(Phase.LOWER, thinLockDesc, "fatExit", objToVoidDesc, fatExit);
+    }
+
+    private static ValueHandle headerHandle(BasicBlockBuilder builder, CoreClasses coreClasses, Value object) {
+        return builder.instanceFieldOf(builder.referenceHandle(object), coreClasses.getObjectHeaderField());
+    }
+
+    private static Value toHeader(BasicBlockBuilder builder, TypeSystem ts, IntegerType headerType, Value value) {
+        Value bits = builder.bitCast(value, ts.getUnsignedInteger64Type());
+        return headerType.getMinBits() < 64 ? builder.truncate(bits, headerType) : bits;
+    }
+}
@@ -0,0 +1,84 @@
+package org.qbicc.plugin.objectmonitor;
+
+import org.qbicc.context.AttachmentKey;
+import org.qbicc.context.CompilationContext;
+import org.qbicc.plugin.coreclasses.HeaderBits;
+import org.qbicc.plugin.coreclasses.RuntimeMethodFinder;
+import org.qbicc.type.definition.element.MethodElement;
+
+/**
+ * Compile-time support for thin object monitors, which are held in reserved bits of the object header and are
+ * managed by the {@code org.qbicc.runtime.main.ThinLock} runtime class.
+ */
+public final class ThinLocks {
+    private static final AttachmentKey<Integer> HEADER_BIT_KEY = new AttachmentKey<>();
+    private static final AttachmentKey<ThinLocks> KEY = new AttachmentKey<>();
+
+    static final String THIN_LOCK_CLASS = "org/qbicc/runtime/main/ThinLock";
+
+    /**
+     * The number of header bits used by a thin lock. The runtime gets the lock mask from {@link #getLockMask()}.
+     */
+    static final int LOCK_BITS = 32;
+
+    private final int lockShift;
+    private final MethodElement enterMethod;
+    private final MethodElement exitMethod;
+    private final MethodElement inflateMethod;
+
+    private ThinLocks(final CompilationContext ctxt) {
+        Integer headerBit = ctxt.getAttachment(HEADER_BIT_KEY);
+        if (headerBit == null) {
+            throw new IllegalStateException("The thin lock header bits were not reserved");
+        }
+        lockShift = headerBit.intValue();
+        RuntimeMethodFinder methodFinder = RuntimeMethodFinder.get(ctxt);
+        enterMethod = methodFinder.getMethod(THIN_LOCK_CLASS, "enter");
+        exitMethod = methodFinder.getMethod(THIN_LOCK_CLASS, "exit");
+        inflateMethod = methodFinder.getMethod(THIN_LOCK_CLASS, "inflate");
+    }
+
+    public static ThinLocks get(CompilationContext ctxt) {
+        return ctxt.computeAttachmentIfAbsent(KEY, () -> new ThinLocks(ctxt));
+    }
+
+    /**
+     * Reserve the object header bits which hold thin locks. This must be called before the core classes
+     * are initialized.
+     *
+     * @param ctxt the compilation context (must not be {@code null})
+     */
+    public static void reserveHeaderBits(CompilationContext ctxt) {
+        ctxt.putAttachment(HEADER_BIT_KEY, Integer.valueOf(HeaderBits.get(ctxt).reserveHeaderBits(LOCK_BITS)));
+    }
+
+    /**
+     * Get the index of the lowest thin lock bit within the object header value.
+     *
+     * @return the bit index
+     */
+    public int getLockShift() {
+        return lockShift;
+    }
+
+    /**
+     * Get the mask of the thin lock bits, once they are shifted down to bit 0.
+     *
+     * @return the lock mask
+     */
+    public long getLockMask() {
+        return (1L << LOCK_BITS) - 1;
+    }
+
+    public MethodElement getEnterMethod() {
+        return enterMethod;
+    }
+
+    public MethodElement getExitMethod() {
+        return exitMethod;
+    }
+
+    public MethodElement getInflateMethod() {
+        return inflateMethod;
+    }
+}
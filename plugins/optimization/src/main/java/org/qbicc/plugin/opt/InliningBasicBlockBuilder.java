@@ -14,13 +14,10 @@ import org.qbicc.graph.BlockLabel;
 import org.qbicc.graph.Call;
 import org.qbicc.graph.CallNoReturn;
 import org.qbicc.graph.CallNoSideEffects;
-import org.qbicc.graph.ConstructorElementHandle;
 import org.qbicc.graph.Convert;
 import org.qbicc.graph.DelegatingBasicBlockBuilder;
 import org.qbicc.graph.Div;
-import org.qbicc.graph.ExactMethodElementHandle;
 import org.qbicc.graph.Extend;
-import org.qbicc.graph.FunctionElementHandle;
 import org.qbicc.graph.If;
 import org.qbicc.graph.Invoke;
 import org.qbicc.graph.InvokeNoReturn;
@@ -43,7 +40,6 @@ import org.qbicc.graph.Rol;
 import org.qbicc.graph.Ror;
 import org.qbicc.graph.Shl;
 import org.qbicc.graph.Shr;
-import org.qbicc.graph.StaticMethodElementHandle;
 import org.qbicc.graph.Sub;
 import org.qbicc.graph.Switch;
 import org.qbicc.graph.TailCall;
@@ -52,7 +48,6 @@ import org.qbicc.graph.Terminator;
 import org.qbicc.graph.Truncate;
 import org.qbicc.graph.Value;
 import org.qbicc.graph.ValueHandle;
-import org.qbicc.graph.ValueHandleVisitor;
 import org.qbicc.graph.ValueReturn;
 import org.qbicc.graph.Xor;
 import org.qbicc.object.DataDeclaration;
@@ -64,20 +59,21 @@ import org.qbicc.object.ModuleSection;
 import org.qbicc.type.definition.MethodBody;
 import org.qbicc.type.definition.classfile.ClassFile;
 import org.qbicc.type.definition.element.ExecutableElement;
-import org.qbicc.type.definition.element.FunctionElement;
 
 /**
- * The inliner.  Every method call is speculatively inlined unless it is specifically annotated otherwise.
+ * The inliner.  Call sites are inlined according to the {@linkplain InliningPlanner inlining plan} of the calling
+ * element.  Call sites which are not in the plan are speculatively inlined unless they are specifically annotated
+ * otherwise, and the inlining is abandoned if it costs too much.
  */
-public class  InliningBasicBlockBuilder extends DelegatingBasicBlockBuilder implements ValueHandleVisitor<Void, ExecutableElement> {
+public class  InliningBasicBlockBuilder extends DelegatingBasicBlockBuilder {
     private final CompilationContext ctxt;
-    // todo: this is arbitrary
-    private final float costThreshold = 80.0f;
+    private final InliningPlanner planner;
     private float cost;
 
     public InliningBasicBlockBuilder(final CompilationContext ctxt, final BasicBlockBuilder delegate) {
         super(delegate);
         this.ctxt = ctxt;
+        planner = InliningPlanner.get(ctxt);
     }
 
     @Override
@@ -188,47 +184,21 @@ public class  InliningBasicBlockBuilder extends DelegatingBasicBlockBuilder impl
     }
 
     private ExecutableElement getInlinedElement(final ValueHandle target) {
-        ExecutableElement element = target.accept(this, null);
-        if (element != null && element.hasNoModifiersOf(ClassFile.I_ACC_NEVER_INLINE)) {
-            return element;
-        } else {
+        ExecutableElement caller = getCurrentElement();
+        ExecutableElement element = InliningPlanner.getInlinableTarget(caller, target);
+        if (element == null || planner.getDecision(caller, getLocation().getByteCodeIndex(), element) == InliningPlanner.Decision.DO_NOT_INLINE) {
             return null;
         }
-    }
-
-    // all the value handles we could inline
-
-    @Override
-    public ExecutableElement visitUnknown(Void param, ValueHandle node) {
-        return null;
-    }
-
-    @Override
-    public ExecutableElement visit(Void param, FunctionElementHandle node) {
-        // only inline functions from functions
-        return getCurrentElement() instanceof FunctionElement ? node.getExecutable() : null;
-    }
-
-    @Override
-    public ExecutableElement visit(Void param, ConstructorElementHandle node) {
-        return getCurrentElement() instanceof FunctionElement ? null : node.getExecutable();
-    }
-
-    @Override
-    public ExecutableElement visit(Void param, ExactMethodElementHandle node) {
-        return getCurrentElement() instanceof FunctionElement ? null : node.getExecutable();
-    }
-
-    @Override
-    public ExecutableElement visit(Void param, StaticMethodElementHandle node) {
-        return getCurrentElement() instanceof FunctionElement ? null : node.getExecutable();
+        return element;
     }
 
     private BasicBlock doInline(ValueHandle target, ExecutableElement element, List<Value> arguments, BlockLabel catchLabel, Function<Value, BasicBlock> onReturn, Runnable andThen) {
-        MethodBody body = element.getPreviousMethodBody();
+        MethodBody body = InliningPlanner.getInlinedBody(element);
         if (body != null) {
             float savedCost = this.cost;
-            boolean alwaysInline = element.hasAllModifiersOf(ClassFile.I_ACC_ALWAYS_INLINE);
+            // a planned call site is known to fit, so it is never abandoned
+            boolean speculative = element.hasNoModifiersOf(ClassFile.I_ACC_ALWAYS_INLINE)
+                && planner.getDecision(getCurrentElement(), getLocation().getByteCodeIndex(), element) == InliningPlanner.Decision.UNPLANNED;
             BlockLabel inlined = new BlockLabel();
             BasicBlock fromBlock = goto_(inlined);
             Terminator callSite = fromBlock.getTerminator();
@@ -237,7 +207,7 @@ public class  InliningBasicBlockBuilder extends DelegatingBasicBlockBuilder impl
                 BasicBlock copied;
                 try {
                     copied = Node.Copier.execute(body.getEntryBlock(), getFirstBuilder(), ctxt, (ctxt, visitor) ->
-                        new Visitor(visitor, arguments, target, onReturn, catchLabel, alwaysInline));
+                        new Visitor(visitor, arguments, target, onReturn, catchLabel, speculative));
                 } catch (BlockEarlyTermination e) {
                     copied = e.getTerminatedBlock();
                 }
@@ -289,27 +259,27 @@ public class  InliningBasicBlockBuilder extends DelegatingBasicBlockBuilder impl
         private final Value this_;
         private final Function<Value, BasicBlock> onReturn;
         private final BlockLabel catchLabel;
-        private final boolean alwaysInline;
+        private final boolean speculative;
 
-        Visitor(final NodeVisitor<Node.Copier, Value, Node, BasicBlock, ValueHandle> delegate, final BlockLabel resume, final PhiValue returnValue, final List<Value> arguments, final Value this_, final boolean alwaysInline) {
+        Visitor(final NodeVisitor<Node.Copier, Value, Node, BasicBlock, ValueHandle> delegate, final BlockLabel resume, final PhiValue returnValue, final List<Value> arguments, final Value this_, final boolean speculative) {
             this(delegate, arguments, this_, val -> {
                 BasicBlock basicBlock = goto_(resume);
                 returnValue.setValueForBlock(ctxt, getCurrentElement(), basicBlock, val);
                 return basicBlock;
-            }, null, alwaysInline);
+            }, null, speculative);
         }
 
-        Visitor(final NodeVisitor<Node.Copier, Value, Node, BasicBlock, ValueHandle> delegate, final List<Value> arguments, final ValueHandle target, final Function<Value, BasicBlock> onReturn, final BlockLabel catchLabel, final boolean alwaysInline) {
-            this(delegate, arguments, target.hasValueHandleDependency() ? referenceTo(target.getValueHandle()) : null, onReturn, catchLabel, alwaysInline);
+        Visitor(final NodeVisitor<Node.Copier, Value, Node, BasicBlock, ValueHandle> delegate, final List<Value> arguments, final ValueHandle target, final Function<Value, BasicBlock> onReturn, final BlockLabel catchLabel, final boolean speculative) {
+            this(delegate, arguments, target.hasValueHandleDependency() ? referenceTo(target.getValueHandle()) : null, onReturn, catchLabel, speculative);
         }
 
-        Visitor(final NodeVisitor<Node.Copier, Value, Node, BasicBlock, ValueHandle> delegate, final List<Value> arguments, final Value this_, final Function<Value, BasicBlock> onReturn, final BlockLabel catchLabel, final boolean alwaysInline) {
+        Visitor(final NodeVisitor<Node.Copier, Value, Node, BasicBlock, ValueHandle> delegate, final List<Value> arguments, final Value this_, final Function<Value, BasicBlock> onReturn, final BlockLabel catchLabel, final boolean speculative) {
             this.delegate = delegate;
             this.arguments = arguments;
             this.this_ = this_;
             this.onReturn = onReturn;
             this.catchLabel = catchLabel;
-            this.alwaysInline = alwaysInline;
+            this.speculative = speculative;
         }
 
         public NodeVisitor<Node.Copier, Value, Node, BasicBlock, ValueHandle> getDelegateNodeVisitor() {
@@ -345,129 +315,129 @@ public class  InliningBasicBlockBuilder extends DelegatingBasicBlockBuilder impl
         // Simple ops
 
         public Value visit(final Node.Copier param, final Add node) {
-            addCost(param, 1);
+            addCost(param, node);
             return delegate.visit(param, node);
         }
 
         public Value visit(final Node.Copier param, final And node) {
-            addCost(param, 1);
+            addCost(param, node);
             return delegate.visit(param, node);
         }
 
         public Value visit(final Node.Copier param, final Div node) {
-            addCost(param, 1);
+            addCost(param, node);
             return delegate.visit(param, node);
         }
 
         public Value visit(final Node.Copier param, final Mod node) {
-            addCost(param, 1);
+            addCost(param, node);
             return delegate.visit(param, node);
         }
 
         public Value visit(final Node.Copier param, final Multiply node) {
-            addCost(param, 1);
+            addCost(param, node);
             return delegate.visit(param, node);
         }
 
         public Value visit(final Node.Copier param, final Neg node) {
-            addCost(param, 1);
+            addCost(param, node);
             return delegate.visit(param, node);
         }
 
         public Value visit(final Node.Copier param, final Or node) {
-            addCost(param, 1);
+            addCost(param, node);
             return delegate.visit(param, node);
         }
 
         public Value visit(final Node.Copier param, final Sub node) {
-            addCost(param, 1);
+            addCost(param, node);
             return delegate.visit(param, node);
         }
 
         public Value visit(final Node.Copier param, final Xor node) {
-            addCost(param, 1);
+            addCost(param, node);
             return delegate.visit(param, node);
         }
 
         public Value visit(final Node.Copier param, final IsEq node) {
-            addCost(param, 1);
+            addCost(param, node);
             return delegate.visit(param, node);
         }
 
         public Value visit(final Node.Copier param, final IsGe node) {
-            addCost(param, 1);
+            addCost(param, node);
             return delegate.visit(param, node);
         }
 
         public Value visit(final Node.Copier param, final IsGt node) {
-            addCost(param, 1);
+            addCost(param, node);
             return delegate.visit(param, node);
         }
 
         public Value visit(final Node.Copier param, final IsLe node) {
-            addCost(param, 1);
+            addCost(param, node);
             return delegate.visit(param, node);
         }
 
         public Value visit(final Node.Copier param, final IsLt node) {
-            addCost(param, 1);
+            addCost(param, node);
             return delegate.visit(param, node);
         }
 
         public Value visit(final Node.Copier param, final IsNe node) {
-            addCost(param, 1);
+            addCost(param, node);
             return delegate.visit(param, node);
         }
 
         public Value visit(final Node.Copier param, final BitCast node) {
-            addCost(param, 1);
+            addCost(param, node);
             return delegate.visit(param, node);
         }
 
         public Value visit(final Node.Copier param, final Convert node) {
-            addCost(param, 1);
+            addCost(param, node);
             return delegate.visit(param, node);
         }
 
         public Value visit(final Node.Copier param, final Extend node) {
-            addCost(param, 1);
+            addCost(param, node);
             return delegate.visit(param, node);
         }
 
         public Value visit(final Node.Copier param, final Truncate node) {
-            addCost(param, 1);
+            addCost(param, node);
             return delegate.visit(param, node);
         }
 
         public Value visit(final Node.Copier param, final Rol node) {
-            addCost(param, 1);
+            addCost(param, node);
             return delegate.visit(param, node);
         }
 
         public Value visit(final Node.Copier param, final Ror node) {
-            addCost(param, 1);
+            addCost(param, node);
             return delegate.visit(param, node);
         }
 
         public Value visit(final Node.Copier param, final Shl node) {
-            addCost(param, 1);
+            addCost(param, node);
             return delegate.visit(param, node);
         }
 
         public Value visit(final Node.Copier param, final Shr node) {
-            addCost(param, 1);
+            addCost(param, node);
             return delegate.visit(param, node);
         }
 
         // terminators
 
         public BasicBlock visit(final Node.Copier param, final If node) {
-            addCost(param, 4);
+            addCost(param, node);
             return delegate.visit(param, node);
         }
 
         public BasicBlock visit(final Node.Copier param, final Switch node) {
-            addCost(param, 2 * (node.getNumberOfValues() + 1));
+            addCost(param, node);
             return delegate.visit(param, node);
         }
 
@@ -475,8 +445,7 @@ public class  InliningBasicBlockBuilder extends DelegatingBasicBlockBuilder impl
 
         @Override
         public Value visit(Node.Copier param, Call node) {
-            // todo: this is totally arbitrary
-            addCost(param, 10);
+            addCost(param, node);
             if (catchLabel != null) {
                 // transform to invoke
                 param.copyNode(node.getDependency());
@@ -491,8 +460,7 @@ public class  InliningBasicBlockBuilder extends DelegatingBasicBlockBuilder impl
 
         @Override
         public Value visit(Node.Copier param, CallNoSideEffects node) {
-            // todo: this is totally arbitrary
-            addCost(param, 10);
+            addCost(param, node);
             if (catchLabel != null) {
                 // transform to invoke
                 BlockLabel resume = new BlockLabel();
@@ -506,8 +474,7 @@ public class  InliningBasicBlockBuilder extends DelegatingBasicBlockBuilder impl
 
         @Override
         public BasicBlock visit(Node.Copier param, CallNoReturn node) {
-            // todo: this is totally arbitrary
-            addCost(param, 10);
+            addCost(param, node);
             if (catchLabel != null) {
                 // transform to invoke
                 param.copyNode(node.getDependency());
@@ -519,8 +486,7 @@ public class  InliningBasicBlockBuilder extends DelegatingBasicBlockBuilder impl
 
         @Override
         public BasicBlock visit(Node.Copier param, TailCall node) {
-            // todo: this is totally arbitrary
-            addCost(param, 10);
+            addCost(param, node);
             if (catchLabel != null) {
                 // transform to invoke
                 param.copyNode(node.getDependency());
@@ -532,36 +498,34 @@ public class  InliningBasicBlockBuilder extends DelegatingBasicBlockBuilder impl
 
         @Override
         public BasicBlock visit(Node.Copier param, Invoke node) {
-            addCost(param, 10);
+            addCost(param, node);
             return delegate.visit(param, node);
         }
 
         @Override
         public BasicBlock visit(Node.Copier param, InvokeNoReturn node) {
-            addCost(param, 10);
+            addCost(param, node);
             return delegate.visit(param, node);
         }
 
         @Override
         public BasicBlock visit(Node.Copier param, TailInvoke node) {
-            addCost(param, 10);
+            addCost(param, node);
             return delegate.visit(param, node);
         }
 
         // invocations - old
 
-        void addCost(final Node.Copier copier, int amount) {
-            if (! alwaysInline) {
-                float cost = InliningBasicBlockBuilder.this.cost + amount;
-                if (cost >= costThreshold) {
-                    // force termination
-                    try {
-                        copier.getBlockBuilder().unreachable();
-                    } catch (IllegalStateException | BlockEarlyTermination ignored) {}
-                    throw new Cancel();
-                }
-                InliningBasicBlockBuilder.this.cost = cost;
+        void addCost(final Node.Copier copier, Node node) {
+            float cost = InliningBasicBlockBuilder.this.cost + InliningPlanner.getCost(node);
+            if (speculative && ! InliningPlanner.isWithinThreshold(cost)) {
+                // force termination
+                try {
+                    copier.getBlockBuilder().unreachable();
+                } catch (IllegalStateException | BlockEarlyTermination ignored) {}
+                throw new Cancel();
             }
+            InliningBasicBlockBuilder.this.cost = cost;
         }
     }
 }
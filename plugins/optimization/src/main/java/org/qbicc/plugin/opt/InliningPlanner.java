@@ -0,0 +1,404 @@
+package org.qbicc.plugin.opt;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.qbicc.context.AttachmentKey;
+import org.qbicc.context.CompilationContext;
+import org.qbicc.graph.BasicBlock;
+import org.qbicc.graph.BinaryValue;
+import org.qbicc.graph.BitCast;
+import org.qbicc.graph.Call;
+import org.qbicc.graph.CallNoReturn;
+import org.qbicc.graph.CallNoSideEffects;
+import org.qbicc.graph.ConstructorElementHandle;
+import org.qbicc.graph.Convert;
+import org.qbicc.graph.ExactMethodElementHandle;
+import org.qbicc.graph.Extend;
+import org.qbicc.graph.FunctionElementHandle;
+import org.qbicc.graph.If;
+import org.qbicc.graph.InstanceMethodElementHandle;
+import org.qbicc.graph.InterfaceMethodElementHandle;
+import org.qbicc.graph.Invoke;
+import org.qbicc.graph.InvokeNoReturn;
+import org.qbicc.graph.Neg;
+import org.qbicc.graph.Node;
+import org.qbicc.graph.StaticMethodElementHandle;
+import org.qbicc.graph.Switch;
+import org.qbicc.graph.TailCall;
+import org.qbicc.graph.TailInvoke;
+import org.qbicc.graph.Terminator;
+import org.qbicc.graph.Truncate;
+import org.qbicc.graph.ValueHandle;
+import org.qbicc.graph.VirtualMethodElementHandle;
+import org.qbicc.graph.schedule.Schedule;
+import org.qbicc.plugin.profile.Profile;
+import org.qbicc.type.definition.MethodBody;
+import org.qbicc.type.definition.classfile.ClassFile;
+import org.qbicc.type.definition.element.ExecutableElement;
+import org.qbicc.type.definition.element.FunctionElement;
+import org.qbicc.type.definition.element.MethodElement;
+
+/**
+ * The inlining decisions of the program. The plan of an element gives the call sites of the element which are to be
+ * inlined, and the estimated cost of the element once they are.
+ * <p>
+ * Plans are computed bottom-up over the call graph: the plan of an element is computed after the plans of its
+ * callees, so that the cost of inlining a call site includes everything the callee itself inlines. The call sites
+ * of an element are considered in order of priority (always-inline methods, then methods which the profile shows to
+ * be hot, then the cheapest methods), and are selected for as long as they fit within the inlining budget of the
+ * element and the code growth budget of the whole program. Since the costs are estimated from the bodies which are
+ * copied by the inliner, an inlining which is planned never needs to be abandoned part way through.
+ * <p>
+ * The call graph is found in the bodies of the previous phase. Every element which was processed in that phase is
+ * {@linkplain #registerElement registered}, and all of the plans are {@linkplain #planAll computed} on one thread
+ * before the inliner runs, visiting the elements in a stable order, so that the plans (and the share of the code
+ * growth budget given to each element) do not depend on the order in which threads happen to process the elements.
+ * Call sites which are only introduced in the current phase have no plan, and are left to the inliner to decide.
+ */
+public final class InliningPlanner {
+    private static final AttachmentKey<InliningPlanner> KEY = new AttachmentKey<>();
+
+    // todo: these are arbitrary
+    private static final int CALL_COST = 10;
+    /**
+     * The greatest cost of all inlining into one method.
+     */
+    private static final int COST_THRESHOLD = 80;
+    /**
+     * The greatest cost of all inlining into one method of methods which the profile shows to be hot.
+     */
+    private static final int HOT_COST_THRESHOLD = 3 * COST_THRESHOLD;
+    /**
+     * The greatest cost of a method which the profile shows to be never called, for it to be inlined.
+     */
+    private static final int COLD_COST_THRESHOLD = 8;
+    /**
+     * The greatest estimated cost of a method once all of its planned call sites are inlined.
+     */
+    private static final int MAX_COST = 10 * COST_THRESHOLD;
+    /**
+     * The greatest total growth of all methods due to inlining.
+     */
+    private static final long GROWTH_BUDGET = 1L << 22;
+    /**
+     * The deepest call chain which is planned at once.
+     */
+    private static final int MAX_DEPTH = 64;
+
+    private static final Plan NOT_INLINABLE = new Plan(-1, Map.of());
+
+    private static final Comparator<ExecutableElement> ELEMENT_ORDER = Comparator.comparing((ExecutableElement e) -> e.getEnclosingType().getInternalName())
+        .thenComparingInt(ExecutableElement::getIndex)
+        .thenComparing(Object::toString);
+
+    private final Profile profile;
+    private final Set<ExecutableElement> elements = ConcurrentHashMap.newKeySet();
+    // written by planAll before the inliner runs, and only read afterwards
+    private final Map<ExecutableElement, Plan> plans = new HashMap<>();
+    private final Set<ExecutableElement> inProgress = new HashSet<>();
+    private long remainingGrowth = GROWTH_BUDGET;
+
+    InliningPlanner(final CompilationContext ctxt) {
+        profile = Profile.get(ctxt);
+    }
+
+    static InliningPlanner get(CompilationContext ctxt) {
+        return ctxt.computeAttachmentIfAbsent(KEY, () -> new InliningPlanner(ctxt));
+    }
+
+    /**
+     * Register an element whose body may be inlined or inlined into. This is an element handler of the phase before
+     * the one in which the inliner runs.
+     *
+     * @param element the element (must not be {@code null})
+     */
+    public static void registerElement(ExecutableElement element) {
+        get(element.getEnclosingType().getContext().getCompilationContext()).addElement(element);
+    }
+
+    /**
+     * Compute the inlining plans of all of the registered elements. This is a pre-hook of the phase in which the
+     * inliner runs.
+     *
+     * @param ctxt the compilation context (must not be {@code null})
+     */
+    public static void planAll(CompilationContext ctxt) {
+        get(ctxt).plan();
+    }
+
+    void addElement(ExecutableElement element) {
+        elements.add(element);
+    }
+
+    void plan() {
+        List<ExecutableElement> sorted = new ArrayList<>(elements);
+        elements.clear();
+        sorted.sort(ELEMENT_ORDER);
+        for (ExecutableElement element : sorted) {
+            getPlan(element);
+        }
+    }
+
+    /**
+     * The decision for one call site.
+     */
+    enum Decision {
+        /**
+         * The call site is inlined.
+         */
+        INLINE,
+        /**
+         * The call site is not inlined.
+         */
+        DO_NOT_INLINE,
+        /**
+         * The call site was not found in the plan of the caller.
+         */
+        UNPLANNED,
+    }
+
+    /**
+     * Get the decision for the call site of the given callee at the given bytecode index of the given caller.
+     *
+     * @param caller the calling element (must not be {@code null})
+     * @param bci the bytecode index of the call site
+     * @param callee the called element (must not be {@code null})
+     * @return the decision (not {@code null})
+     */
+    Decision getDecision(ExecutableElement caller, int bci, ExecutableElement callee) {
+        Plan plan = plans.get(caller);
+        Boolean inline = plan == null ? null : plan.sites().get(new Site(bci, callee));
+        return inline == null ? Decision.UNPLANNED : inline.booleanValue() ? Decision.INLINE : Decision.DO_NOT_INLINE;
+    }
+
+    /**
+     * Get the body which is copied in order to inline the given element. This is the body of the element from the
+     * previous phase, whether or not the element has yet been processed in the current phase.
+     *
+     * @param element the element (must not be {@code null})
+     * @return the body, or {@code null} if the element has no body
+     */
+    static MethodBody getInlinedBody(ExecutableElement element) {
+        return element.getPreviousMethodBody();
+    }
+
+    /**
+     * Get the element which would be inlined for a call to the given target from the given caller. Functions are
+     * only inlined into functions, and methods and constructors are only inlined into methods and constructors.
+     *
+     * @param caller the calling element (must not be {@code null})
+     * @param target the call target (must not be {@code null})
+     * @return the element to inline, or {@code null} if the call cannot be inlined
+     */
+    static ExecutableElement getInlinableTarget(ExecutableElement caller, ValueHandle target) {
+        ExecutableElement element;
+        if (target instanceof FunctionElementHandle handle) {
+            element = caller instanceof FunctionElement ? handle.getExecutable() : null;
+        } else if (caller instanceof FunctionElement) {
+            element = null;
+        } else if (target instanceof ConstructorElementHandle handle) {
+            element = handle.getExecutable();
+        } else if (target instanceof ExactMethodElementHandle handle) {
+            element = handle.getExecutable();
+        } else if (target instanceof StaticMethodElementHandle handle) {
+            element = handle.getExecutable();
+        } else if (target instanceof VirtualMethodElementHandle || target instanceof InterfaceMethodElementHandle) {
+            // the devirtualizer will bind these to exact calls
+            MethodElement method = ((InstanceMethodElementHandle) target).getExecutable();
+            element = method.isFinal() || method.getEnclosingType().isFinal() || method.isPrivate() ? method : null;
+        } else {
+            element = null;
+        }
+        return element == null || element.hasAllModifiersOf(ClassFile.I_ACC_NEVER_INLINE) ? null : element;
+    }
+
+    /**
+     * Get the estimated cost of the code generated for the given node.
+     *
+     * @param node the node (must not be {@code null})
+     * @return the estimated cost
+     */
+    static int getCost(Node node) {
+        if (node instanceof BinaryValue || node instanceof Neg || node instanceof BitCast || node instanceof Convert || node instanceof Extend || node instanceof Truncate) {
+            return 1;
+        } else if (node instanceof If) {
+            return 4;
+        } else if (node instanceof Switch sw) {
+            return 2 * (sw.getNumberOfValues() + 1);
+        } else if (isCall(node)) {
+            return CALL_COST;
+        } else {
+            return 0;
+        }
+    }
+
+    /**
+     * Determine whether the given element may be inlined into a method whose inlining has so far cost the given amount.
+     * This is used for the call sites which have no plan.
+     *
+     * @param cost the cost of inlining so far
+     * @return {@code true} if more may be inlined, or {@code false} if not
+     */
+    static boolean isWithinThreshold(float cost) {
+        return cost < COST_THRESHOLD;
+    }
+
+    private static boolean isCall(Node node) {
+        return node instanceof Call || node instanceof CallNoSideEffects || node instanceof CallNoReturn || node instanceof TailCall
+            || node instanceof Invoke || node instanceof InvokeNoReturn || node instanceof TailInvoke;
+    }
+
+    private Plan getPlan(ExecutableElement element) {
+        Plan plan = plans.get(element);
+        if (plan != null) {
+            return plan;
+        }
+        if (inProgress.size() >= MAX_DEPTH || ! inProgress.add(element)) {
+            // recursive call, or a call chain too deep to plan at once; a registered element which is cut off here
+            // is planned later on its own
+            return NOT_INLINABLE;
+        }
+        try {
+            plan = computePlan(element);
+        } finally {
+            inProgress.remove(element);
+        }
+        plans.put(element, plan);
+        if (plan.growth() > 0) {
+            remainingGrowth -= plan.growth();
+        }
+        return plan;
+    }
+
+    private Plan computePlan(ExecutableElement element) {
+        MethodBody body = getInlinedBody(element);
+        if (body == null) {
+            return NOT_INLINABLE;
+        }
+        Schedule schedule = body.getSchedule();
+        int cost = 0;
+        List<Candidate> candidates = new ArrayList<>();
+        Map<Site, Boolean> sites = new HashMap<>();
+        Set<BasicBlock> visited = new HashSet<>();
+        ArrayDeque<BasicBlock> queue = new ArrayDeque<>();
+        queue.add(body.getEntryBlock());
+        visited.add(body.getEntryBlock());
+        while (! queue.isEmpty()) {
+            BasicBlock block = queue.poll();
+            for (Node node : schedule.getNodesForBlock(block)) {
+                cost += getCost(node);
+                if (isCall(node)) {
+                    ExecutableElement target = getInlinableTarget(element, node.getValueHandle());
+                    if (target != null) {
+                        Site site = new Site(node.getBytecodeIndex(), target);
+                        sites.put(site, Boolean.FALSE);
+                        Plan targetPlan = getPlan(target);
+                        if (targetPlan.cost() >= 0) {
+                            candidates.add(new Candidate(site, targetPlan.cost(), getPriority(target)));
+                        }
+                    }
+                }
+            }
+            Terminator t = block.getTerminator();
+            int cnt = t.getSuccessorCount();
+            for (int i = 0; i < cnt; i ++) {
+                BasicBlock successor = t.getSuccessor(i);
+                if (visited.add(successor)) {
+                    queue.add(successor);
+                }
+            }
+        }
+        // the sort is stable, so call sites of equal priority and cost are considered in program order
+        candidates.sort(Comparator.comparingInt(Candidate::priority).thenComparingInt(Candidate::cost));
+        long remaining = remainingGrowth;
+        int inlined = 0;
+        int growth = 0;
+        for (Candidate candidate : candidates) {
+            // the inlined body replaces the call
+            int delta = candidate.cost() - CALL_COST;
+            boolean select;
+            if (candidate.priority() == PRIORITY_ALWAYS) {
+                select = true;
+            } else if (delta <= 0) {
+                // inlining does not make the caller any bigger
+                select = true;
+            } else {
+                select = inlined + candidate.cost() <= getThreshold(candidate)
+                    && cost + growth + delta <= MAX_COST
+                    && growth + delta <= remaining;
+            }
+            if (select) {
+                sites.put(candidate.site(), Boolean.TRUE);
+                inlined += candidate.cost();
+                growth += delta;
+            }
+        }
+        return new Plan(cost + growth, growth, Map.copyOf(sites));
+    }
+
+    private static final int PRIORITY_ALWAYS = 0;
+    private static final int PRIORITY_HOT = 1;
+    private static final int PRIORITY_NORMAL = 2;
+    private static final int PRIORITY_COLD = 3;
+
+    private int getPriority(ExecutableElement target) {
+        if (target.hasAllModifiersOf(ClassFile.I_ACC_ALWAYS_INLINE)) {
+            return PRIORITY_ALWAYS;
+        } else if (profile == null) {
+            return PRIORITY_NORMAL;
+        } else if (profile.isHot(target)) {
+            return PRIORITY_HOT;
+        } else if (profile.getEntryCount(target) == 0) {
+            return PRIORITY_COLD;
+        } else {
+            return PRIORITY_NORMAL;
+        }
+    }
+
+    private static int getThreshold(Candidate candidate) {
+        return switch (candidate.priority()) {
+            case PRIORITY_HOT -> HOT_COST_THRESHOLD;
+            // only trivial methods which were never called are inlined
+            case PRIORITY_COLD -> candidate.cost() <= COLD_COST_THRESHOLD ? COST_THRESHOLD : 0;
+            default -> COST_THRESHOLD;
+        };
+    }
+
+    /**
+     * A call site within a method.
+     *
+     * @param bci the bytecode index of the call
+     * @param target the called element
+     */
+    record Site(int bci, ExecutableElement target) {}
+
+    /**
+     * A call site which may be inlined.
+     *
+     * @param site the call site
+     * @param cost the estimated cost of the inlined body
+     * @param priority the priority of the call site (lower values come first)
+     */
+    record Candidate(Site site, int cost, int priority) {}
+
+    /**
+     * The inlining plan of one element.
+     *
+     * @param cost the estimated cost of the element with its planned call sites inlined, or -1 if it cannot be inlined
+     * @param growth the growth of the element due to inlining
+     * @param sites the known call sites, mapped to whether each is inlined
+     */
+    record Plan(int cost, int growth, Map<Site, Boolean> sites) {
+        Plan(int cost, Map<Site, Boolean> sites) {
+            this(cost, 0, sites);
+        }
+    }
+}
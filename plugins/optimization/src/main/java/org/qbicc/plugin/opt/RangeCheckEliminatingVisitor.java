@@ -0,0 +1,217 @@
+package org.qbicc.plugin.opt;
+
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.qbicc.context.CompilationContext;
+import org.qbicc.graph.Add;
+import org.qbicc.graph.BasicBlock;
+import org.qbicc.graph.BitCast;
+import org.qbicc.graph.If;
+import org.qbicc.graph.InstanceFieldOf;
+import org.qbicc.graph.IsGe;
+import org.qbicc.graph.IsGt;
+import org.qbicc.graph.IsLe;
+import org.qbicc.graph.IsLt;
+import org.qbicc.graph.Load;
+import org.qbicc.graph.Node;
+import org.qbicc.graph.NodeVisitor;
+import org.qbicc.graph.PhiValue;
+import org.qbicc.graph.ReferenceHandle;
+import org.qbicc.graph.Value;
+import org.qbicc.graph.ValueHandle;
+import org.qbicc.graph.literal.IntegerLiteral;
+import org.qbicc.plugin.coreclasses.CoreClasses;
+import org.qbicc.type.SignedIntegerType;
+import org.qbicc.type.UnsignedIntegerType;
+import org.qbicc.type.definition.element.FieldElement;
+
+/**
+ * A copier which removes array index checks that are proven to pass by the condition of an enclosing counted loop.
+ * <p>
+ * An index check (an unsigned comparison of the index against the array length) is removed when the index is
+ * the induction variable of a loop whose header exits unless the induction variable is less than the length of the
+ * same array, where the check is dominated by the loop body, and where the induction variable starts at a non-negative
+ * value and is only ever incremented by one within the loop body.
+ */
+public class RangeCheckEliminatingVisitor implements NodeVisitor.Delegating<Node.Copier, Value, Node, BasicBlock, ValueHandle> {
+    private final CompilationContext context;
+    private final NodeVisitor<Node.Copier, Value, Node, BasicBlock, ValueHandle> delegate;
+    private final FieldElement lengthField;
+
+    public RangeCheckEliminatingVisitor(final CompilationContext context, final NodeVisitor<Node.Copier, Value, Node, BasicBlock, ValueHandle> delegate) {
+        this(context, delegate, CoreClasses.get(context).getArrayLengthField());
+    }
+
+    RangeCheckEliminatingVisitor(final CompilationContext context, final NodeVisitor<Node.Copier, Value, Node, BasicBlock, ValueHandle> delegate, final FieldElement lengthField) {
+        this.context = context;
+        this.delegate = delegate;
+        this.lengthField = lengthField;
+    }
+
+    public NodeVisitor<Node.Copier, Value, Node, BasicBlock, ValueHandle> getDelegateNodeVisitor() {
+        return delegate;
+    }
+
+    @Override
+    public BasicBlock visit(final Node.Copier param, final If node) {
+        if (node.getCondition() instanceof IsGe isGe
+            && isGe.getLeftInput() instanceof BitCast index
+            && isGe.getRightInput() instanceof BitCast length
+            && index.getType() instanceof UnsignedIntegerType
+            && isInBounds(node.getTerminatedBlock(), index.getInput(), length.getInput())
+        ) {
+            // the index is always in range, so the check always takes the false branch
+            param.copyNode(node.getDependency());
+            return param.getBlockBuilder().goto_(param.copyBlock(node.getFalseBranch()));
+        }
+        return getDelegateTerminatorVisitor().visit(param, node);
+    }
+
+    /**
+     * Determine whether {@code 0 <= index < length} holds in the given block.
+     */
+    boolean isInBounds(BasicBlock block, Value index, Value length) {
+        Value array = arrayOf(length);
+        if (array == null || ! (unwrap(index) instanceof PhiValue phi) || ! (phi.getType() instanceof SignedIntegerType)) {
+            return false;
+        }
+        BasicBlock header = phi.getPinnedBlock();
+        if (header.getLoops().stream().noneMatch(loop -> loop.getStartBlock() == header) || ! (header.getTerminator() instanceof If guard)) {
+            return false;
+        }
+        BasicBlock body = guardedSuccessor(guard, phi, array);
+        if (body == null || ! body.getIncoming().equals(Set.of(header)) || ! dominates(body, block)) {
+            return false;
+        }
+        // the check is reached only when the guard held for the current value of the induction variable;
+        // now prove that the induction variable is never negative
+        for (BasicBlock incoming : header.getIncoming()) {
+            if (! incoming.isReachable()) {
+                continue;
+            }
+            Value value = phi.getValueForInput(incoming.getTerminator());
+            if (value == null) {
+                return false;
+            }
+            value = unwrap(value);
+            if (value == phi) {
+                continue;
+            }
+            if (value instanceof IntegerLiteral lit && lit.longValue() >= 0) {
+                continue;
+            }
+            // the guard holds on this edge, so incrementing by one cannot overflow
+            if (value instanceof Add add && isIncrement(add, phi) && dominates(body, incoming)) {
+                continue;
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Get the successor of the loop guard which is only taken when the induction variable is less than the length
+     * of the given array.
+     */
+    private BasicBlock guardedSuccessor(If guard, PhiValue phi, Value array) {
+        if (guard.getTrueBranch() == guard.getFalseBranch()) {
+            return null;
+        }
+        Value cond = guard.getCondition();
+        if (cond instanceof IsLt lt && unwrap(lt.getLeftInput()) == phi && array.equals(arrayOf(lt.getRightInput()))) {
+            return guard.getTrueBranch();
+        } else if (cond instanceof IsGt gt && unwrap(gt.getRightInput()) == phi && array.equals(arrayOf(gt.getLeftInput()))) {
+            return guard.getTrueBranch();
+        } else if (cond instanceof IsGe ge && unwrap(ge.getLeftInput()) == phi && array.equals(arrayOf(ge.getRightInput()))) {
+            return guard.getFalseBranch();
+        } else if (cond instanceof IsLe le && unwrap(le.getRightInput()) == phi && array.equals(arrayOf(le.getLeftInput()))) {
+            return guard.getFalseBranch();
+        }
+        return null;
+    }
+
+    private boolean isIncrement(Add add, PhiValue phi) {
+        Value left = unwrap(add.getLeftInput());
+        Value right = unwrap(add.getRightInput());
+        return left == phi && right instanceof IntegerLiteral lit && lit.longValue() == 1
+            || right == phi && left instanceof IntegerLiteral lit2 && lit2.longValue() == 1;
+    }
+
+    /**
+     * Get the array whose length is given by the given value.
+     *
+     * @return the array reference, or {@code null} if the value is not an array length
+     */
+    private Value arrayOf(Value length) {
+        if (unwrap(length) instanceof Load load
+            && load.getValueHandle() instanceof InstanceFieldOf fieldOf
+            && fieldOf.getVariableElement() == lengthField
+            && fieldOf.getValueHandle() instanceof ReferenceHandle ref
+        ) {
+            // array lengths are immutable, so any load of the length of the same array is equivalent
+            return unwrap(ref.getReferenceValue());
+        }
+        return null;
+    }
+
+    /**
+     * Determine whether every path from the entry block to {@code block} passes through {@code dominator}.
+     */
+    private static boolean dominates(BasicBlock dominator, BasicBlock block) {
+        Set<BasicBlock> visited = new HashSet<>();
+        ArrayDeque<BasicBlock> queue = new ArrayDeque<>();
+        queue.add(block);
+        while (! queue.isEmpty()) {
+            BasicBlock current = queue.poll();
+            if (current == dominator || ! visited.add(current)) {
+                continue;
+            }
+            Set<BasicBlock> incoming = current.getIncoming();
+            if (incoming.isEmpty()) {
+                // reached the entry block
+                return false;
+            }
+            for (BasicBlock pred : incoming) {
+                if (pred.isReachable()) {
+                    queue.add(pred);
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Strip away constraints and phis which only ever have one input value.
+     */
+    private static Value unwrap(Value value) {
+        Set<PhiValue> visited = new HashSet<>();
+        for (;;) {
+            value = value.unconstrained();
+            if (! (value instanceof PhiValue phi) || ! visited.add(phi)) {
+                return value;
+            }
+            Value single = null;
+            for (BasicBlock incoming : phi.getPinnedBlock().getIncoming()) {
+                if (incoming.isReachable()) {
+                    Value input = phi.getValueForInput(incoming.getTerminator());
+                    if (input == null) {
+                        return phi;
+                    }
+                    input = input.unconstrained();
+                    if (input != phi && input != single) {
+                        if (single != null) {
+                            return phi;
+                        }
+                        single = input;
+                    }
+                }
+            }
+            if (single == null) {
+                return phi;
+            }
+            value = single;
+        }
+    }
+}
@@ -0,0 +1,296 @@
+package org.qbicc.plugin.opt;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.qbicc.context.CompilationContext;
+import org.qbicc.graph.BasicBlockBuilder;
+import org.qbicc.graph.BlockLabel;
+import org.qbicc.graph.DelegatingBasicBlockBuilder;
+import org.qbicc.graph.Field;
+import org.qbicc.graph.Node;
+import org.qbicc.graph.OrderedNode;
+import org.qbicc.graph.PinnedNode;
+import org.qbicc.graph.Unschedulable;
+import org.qbicc.graph.Value;
+import org.qbicc.graph.ValueHandle;
+import org.qbicc.graph.atomic.ReadAccessMode;
+import org.qbicc.type.CompoundType;
+import org.qbicc.type.WordType;
+import org.qbicc.type.definition.element.ConstructorElement;
+import org.qbicc.type.definition.element.ExecutableElement;
+import org.qbicc.type.definition.element.FieldElement;
+import org.qbicc.type.definition.element.InitializerElement;
+
+/**
+ * A graph factory which performs global value numbering. Side-effect-free values which are structurally equal
+ * (the same operation on the same operands) are replaced by the first such value built for the method.
+ * <p>
+ * This is valid anywhere in the method because a floating value is always scheduled to the earliest block in which
+ * all of its operands are available, which is the same block for equal values, and which dominates every use.
+ * Values which are ordered or pinned to a block (loads, calls, phis, and so on) are never merged, with one exception:
+ * a load of a final field is merged with an earlier load of the same field in the same block. The field does not
+ * change once it is initialized, so the loads read the same value even if memory is written in between. Loads in
+ * the constructors and initializers of the field's class, which initialize it, are not merged.
+ */
+public class ValueNumberingBasicBlockBuilder extends DelegatingBasicBlockBuilder {
+    private final Map<Value, Value> values = new HashMap<>();
+    private final Map<FinalFieldLoad, Value> finalFieldLoads = new HashMap<>();
+
+    public ValueNumberingBasicBlockBuilder(final CompilationContext ctxt, final BasicBlockBuilder delegate) {
+        super(delegate);
+    }
+
+    @Override
+    public Value add(Value v1, Value v2) {
+        return unique(super.add(v1, v2));
+    }
+
+    @Override
+    public Value multiply(Value v1, Value v2) {
+        return unique(super.multiply(v1, v2));
+    }
+
+    @Override
+    public Value and(Value v1, Value v2) {
+        return unique(super.and(v1, v2));
+    }
+
+    @Override
+    public Value or(Value v1, Value v2) {
+        return unique(super.or(v1, v2));
+    }
+
+    @Override
+    public Value xor(Value v1, Value v2) {
+        return unique(super.xor(v1, v2));
+    }
+
+    @Override
+    public Value isEq(Value v1, Value v2) {
+        return unique(super.isEq(v1, v2));
+    }
+
+    @Override
+    public Value isNe(Value v1, Value v2) {
+        return unique(super.isNe(v1, v2));
+    }
+
+    @Override
+    public Value shr(Value v1, Value v2) {
+        return unique(super.shr(v1, v2));
+    }
+
+    @Override
+    public Value shl(Value v1, Value v2) {
+        return unique(super.shl(v1, v2));
+    }
+
+    @Override
+    public Value sub(Value v1, Value v2) {
+        return unique(super.sub(v1, v2));
+    }
+
+    @Override
+    public Value divide(Value v1, Value v2) {
+        return unique(super.divide(v1, v2));
+    }
+
+    @Override
+    public Value remainder(Value v1, Value v2) {
+        return unique(super.remainder(v1, v2));
+    }
+
+    @Override
+    public Value min(Value v1, Value v2) {
+        return unique(super.min(v1, v2));
+    }
+
+    @Override
+    public Value max(Value v1, Value v2) {
+        return unique(super.max(v1, v2));
+    }
+
+    @Override
+    public Value isLt(Value v1, Value v2) {
+        return unique(super.isLt(v1, v2));
+    }
+
+    @Override
+    public Value isGt(Value v1, Value v2) {
+        return unique(super.isGt(v1, v2));
+    }
+
+    @Override
+    public Value isLe(Value v1, Value v2) {
+        return unique(super.isLe(v1, v2));
+    }
+
+    @Override
+    public Value isGe(Value v1, Value v2) {
+        return unique(super.isGe(v1, v2));
+    }
+
+    @Override
+    public Value rol(Value v1, Value v2) {
+        return unique(super.rol(v1, v2));
+    }
+
+    @Override
+    public Value ror(Value v1, Value v2) {
+        return unique(super.ror(v1, v2));
+    }
+
+    @Override
+    public Value cmp(Value v1, Value v2) {
+        return unique(super.cmp(v1, v2));
+    }
+
+    @Override
+    public Value cmpG(Value v1, Value v2) {
+        return unique(super.cmpG(v1, v2));
+    }
+
+    @Override
+    public Value cmpL(Value v1, Value v2) {
+        return unique(super.cmpL(v1, v2));
+    }
+
+    @Override
+    public Value notNull(Value v) {
+        return unique(super.notNull(v));
+    }
+
+    @Override
+    public Value negate(Value v) {
+        return unique(super.negate(v));
+    }
+
+    @Override
+    public Value complement(Value v) {
+        return unique(super.complement(v));
+    }
+
+    @Override
+    public Value byteSwap(Value v) {
+        return unique(super.byteSwap(v));
+    }
+
+    @Override
+    public Value bitReverse(Value v) {
+        return unique(super.bitReverse(v));
+    }
+
+    @Override
+    public Value countLeadingZeros(Value v) {
+        return unique(super.countLeadingZeros(v));
+    }
+
+    @Override
+    public Value countTrailingZeros(Value v) {
+        return unique(super.countTrailingZeros(v));
+    }
+
+    @Override
+    public Value populationCount(Value v) {
+        return unique(super.populationCount(v));
+    }
+
+    @Override
+    public Value truncate(Value value, WordType toType) {
+        return unique(super.truncate(value, toType));
+    }
+
+    @Override
+    public Value extend(Value value, WordType toType) {
+        return unique(super.extend(value, toType));
+    }
+
+    @Override
+    public Value bitCast(Value value, WordType toType) {
+        return unique(super.bitCast(value, toType));
+    }
+
+    @Override
+    public Value valueConvert(Value value, WordType toType) {
+        return unique(super.valueConvert(value, toType));
+    }
+
+    @Override
+    public Value offsetOfField(FieldElement fieldElement) {
+        return unique(super.offsetOfField(fieldElement));
+    }
+
+    @Override
+    public Value extractElement(Value array, Value index) {
+        return unique(super.extractElement(array, index));
+    }
+
+    @Override
+    public Value extractMember(Value compound, CompoundType.Member member) {
+        return unique(super.extractMember(compound, member));
+    }
+
+    @Override
+    public Value select(Value condition, Value trueValue, Value falseValue) {
+        return unique(super.select(condition, trueValue, falseValue));
+    }
+
+    @Override
+    public Value classOf(Value typeId, Value dims) {
+        return unique(super.classOf(typeId, dims));
+    }
+
+    @Override
+    public Value addressOf(ValueHandle handle) {
+        return unique(super.addressOf(handle));
+    }
+
+    @Override
+    public Value callNoSideEffects(ValueHandle target, List<Value> arguments) {
+        return unique(super.callNoSideEffects(target, arguments));
+    }
+
+    @Override
+    public Node begin(BlockLabel blockLabel) {
+        // a load is pinned to its block, which need not dominate the next one
+        finalFieldLoads.clear();
+        return super.begin(blockLabel);
+    }
+
+    @Override
+    public Value load(ValueHandle handle, ReadAccessMode accessMode) {
+        if (! isInitializedFinalField(handle)) {
+            return super.load(handle, accessMode);
+        }
+        FinalFieldLoad key = new FinalFieldLoad(handle, accessMode);
+        Value existing = finalFieldLoads.get(key);
+        if (existing != null) {
+            return existing;
+        }
+        Value loaded = super.load(handle, accessMode);
+        finalFieldLoads.put(key, loaded);
+        return loaded;
+    }
+
+    private boolean isInitializedFinalField(ValueHandle handle) {
+        if (! (handle instanceof Field f) || ! f.getVariableElement().isReallyFinal()) {
+            return false;
+        }
+        ExecutableElement current = getCurrentElement();
+        return ! (current instanceof ConstructorElement || current instanceof InitializerElement)
+            || ! current.getEnclosingType().equals(f.getVariableElement().getEnclosingType());
+    }
+
+    private Value unique(Value value) {
+        if (value instanceof OrderedNode || value instanceof PinnedNode || value instanceof Unschedulable) {
+            // literals are unschedulable, and are already unique
+            return value;
+        }
+        Value existing = values.putIfAbsent(value, value);
+        return existing == null ? value : existing;
+    }
+
+    record FinalFieldLoad(ValueHandle handle, ReadAccessMode accessMode) {}
+}
@@ -4,9 +4,11 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 import org.qbicc.graph.Call;
@@ -66,6 +68,13 @@ final class ConnectionGraph {
      */
     private final Map<Node, EscapeValue> escapeValues = new HashMap<>();
 
+    /**
+     * Track New nodes whose only uses are loads and stores of their own instance fields.
+     * Such objects are never address-taken, nor merged with other references through phi values,
+     * so if they also do not escape, their fields can be replaced with SSA values.
+     */
+    private final Set<New> scalarReplaceable = new LinkedHashSet<>();
+
     /**
      * Track parameters for the method call.
      */
@@ -126,6 +135,33 @@ final class ConnectionGraph {
         setEscapeValue(new_, escapeValue);
     }
 
+    void addScalarReplaceable(Collection<New> newNodes) {
+        scalarReplaceable.addAll(newNodes);
+    }
+
+    /**
+     * Returns the New nodes that do not escape and whose fields can be replaced with SSA values.
+     */
+    List<New> getScalarReplaceable() {
+        return scalarReplaceable.stream()
+            .filter(new_ -> getEscapeValue(new_).isNoEscape())
+            .toList();
+    }
+
+    boolean isScalarReplaceable(New new_) {
+        return scalarReplaceable.contains(new_) && getEscapeValue(new_).isNoEscape();
+    }
+
+    /**
+     * Returns all the New nodes that have an escape value.
+     */
+    List<New> getNewNodes() {
+        return escapeValues.keySet().stream()
+            .filter(New.class::isInstance)
+            .map(New.class::cast)
+            .toList();
+    }
+
     boolean addParameter(ParameterValue param) {
         return parameters.addIfAbsent(param);
     }
@@ -266,6 +302,7 @@ final class ConnectionGraph {
         if (Objects.nonNull(other)) {
             this.pointsToEdges.putAll(other.pointsToEdges);
             this.fieldEdges.putAll(other.fieldEdges);
+            this.scalarReplaceable.addAll(other.scalarReplaceable);
 
             final Map<Node, EscapeValue> mergedEscapeValues = mergeEscapeValues(other);
             this.escapeValues.clear();
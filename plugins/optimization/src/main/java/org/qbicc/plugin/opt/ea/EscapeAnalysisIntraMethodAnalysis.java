@@ -2,8 +2,10 @@ package org.qbicc.plugin.opt.ea;
 
 import static java.lang.Boolean.TRUE;
 
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -96,6 +98,7 @@ public class EscapeAnalysisIntraMethodAnalysis implements ElementVisitor<Compila
         @Override
         public Void visit(AnalysisContext param, New node) {
             if (visitKnown(param, node)) {
+                param.newNodes.add(node);
                 param.connectionGraph.setNewEscapeValue(node, defaultEscapeValue(param, node.getClassObjectType()));
             }
 
@@ -482,6 +485,7 @@ public class EscapeAnalysisIntraMethodAnalysis implements ElementVisitor<Compila
 
     static final class AnalysisContext {
         final Set<Node> visited = new HashSet<>();
+        final Set<New> newNodes = new LinkedHashSet<>(); // in visit order, for a stable result
         final Map<Node, Boolean> supported = new HashMap<>();
         final Set<Class<?>> knownTypes = new HashSet<>(); // known supported types
         final EscapeAnalysisState escapeAnalysisState;
@@ -529,6 +533,60 @@ public class EscapeAnalysisIntraMethodAnalysis implements ElementVisitor<Compila
                 .toList();
 
             connectionGraph.validateNewNodes(notGlobalEscapeNewNodes);
+            final List<New> candidates = newNodes.stream()
+                .filter(notGlobalEscapeNewNodes::contains)
+                .toList();
+            connectionGraph.addScalarReplaceable(findScalarReplaceableNewNodes(visited, candidates));
+        }
+
+        /**
+         * Find the New nodes that are only used to load and store their own instance fields.
+         * Any other use, such as passing the reference to a call, storing it, comparing it,
+         * merging it into a phi value, or taking the address of one of its fields,
+         * disqualifies the object from scalar replacement.
+         */
+        static Set<New> findScalarReplaceableNewNodes(Collection<? extends Node> nodes, List<New> candidates) {
+            final Set<New> result = new LinkedHashSet<>(candidates);
+            if (result.isEmpty()) {
+                return result;
+            }
+
+            for (Node node : nodes) {
+                int cnt = node.getValueDependencyCount();
+                for (int i = 0; i < cnt; i ++) {
+                    // p = new T(); ... only as the base of a reference handle
+                    if (node.getValueDependency(i) instanceof New new_ && !(node instanceof ReferenceHandle)) {
+                        result.remove(new_);
+                    }
+                }
+
+                if (node.hasValueHandleDependency()) {
+                    final ValueHandle handle = node.getValueHandle();
+                    if (handle instanceof ReferenceHandle ref && ref.getReferenceValue() instanceof New new_) {
+                        // p.f ... only as an instance field
+                        if (!(node instanceof InstanceFieldOf)) {
+                            result.remove(new_);
+                        }
+                    } else if (handle instanceof InstanceFieldOf fieldOf
+                        && fieldOf.getValueHandle() instanceof ReferenceHandle ref
+                        && ref.getReferenceValue() instanceof New new_) {
+                        // x = p.f; or p.f = x; only
+                        if (!(node instanceof Load) && !(node instanceof Store)) {
+                            result.remove(new_);
+                        }
+                    }
+                }
+
+                if (node instanceof PhiValue phi) {
+                    for (Value value : phi.getPossibleValues()) {
+                        if (value instanceof New new_) {
+                            result.remove(new_);
+                        }
+                    }
+                }
+            }
+
+            return result;
         }
     }
 }
@@ -2,7 +2,6 @@ package org.qbicc.plugin.opt.ea;
 
 import java.util.List;
 
-import org.qbicc.context.ClassContext;
 import org.qbicc.context.CompilationContext;
 import org.qbicc.graph.BasicBlock;
 import org.qbicc.graph.BasicBlockBuilder;
@@ -17,13 +16,12 @@ import org.qbicc.graph.ValueHandle;
 import org.qbicc.graph.literal.IntegerLiteral;
 import org.qbicc.graph.literal.LiteralFactory;
 import org.qbicc.plugin.coreclasses.BasicHeaderInitializer;
+import org.qbicc.plugin.coreclasses.RuntimeMethodFinder;
 import org.qbicc.plugin.layout.Layout;
 import org.qbicc.plugin.layout.LayoutInfo;
 import org.qbicc.type.ClassObjectType;
 import org.qbicc.type.CompoundType;
 import org.qbicc.type.StaticMethodType;
-import org.qbicc.type.definition.DefinedTypeDefinition;
-import org.qbicc.type.definition.LoadedTypeDefinition;
 import org.qbicc.type.definition.element.MethodElement;
 
 public final class EscapeAnalysisOptimizeVisitor implements NodeVisitor.Delegating<Node.Copier, Value, Node, BasicBlock, ValueHandle> {
@@ -37,25 +35,7 @@ public final class EscapeAnalysisOptimizeVisitor implements NodeVisitor.Delegati
         this.delegate = delegate;
         this.escapeAnalysisState = EscapeAnalysisState.getPrevious(ctxt);
 
-        ClassContext classContext = ctxt.getBootstrapClassContext();
-        DefinedTypeDefinition defined = classContext.findDefinedType("org/qbicc/runtime/gc/nogc/NoGcHelpers");
-        if (defined == null) {
-            throw runtimeMissing();
-        }
-        LoadedTypeDefinition loaded = defined.load();
-        int index = loaded.findMethodIndex(e -> e.getName().equals("clear"));
-        if (index == -1) {
-            throw methodMissing();
-        }
-        zeroMethod = loaded.getMethod(index);
-    }
-
-    private static IllegalStateException runtimeMissing() {
-        return new IllegalStateException("The NoGC helpers runtime classes are not present in the bootstrap class path");
-    }
-
-    private static IllegalStateException methodMissing() {
-        return new IllegalStateException("Required method is missing from the NoGC helpers");
+        zeroMethod = RuntimeMethodFinder.get(ctxt).getMethod("clearObjectMemory");
     }
 
     public NodeVisitor<Node.Copier, Value, Node, BasicBlock, ValueHandle> getDelegateNodeVisitor() {
@@ -65,6 +45,10 @@ public final class EscapeAnalysisOptimizeVisitor implements NodeVisitor.Delegati
     @Override
     public Value visit(Node.Copier param, New original) {
         final BasicBlockBuilder bbb = param.getBlockBuilder();
+        if (escapeAnalysisState.isScalarReplaceable(original, bbb.getRootElement())) {
+            // ScalarReplacingBasicBlockBuilder replaces the fields of the object with SSA values
+            return NodeVisitor.Delegating.super.visit(param, original);
+        }
         if (isStackAllocate(original, bbb)) {
             // Copy dependency so that stack allocation can be scheduled in the right place
             param.copyNode(original.getDependency());
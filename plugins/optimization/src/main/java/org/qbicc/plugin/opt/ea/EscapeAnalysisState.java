@@ -50,6 +50,29 @@ final class EscapeAnalysisState {
         return connectionGraph != null && connectionGraph.getEscapeValue(new_).isNoEscape();
     }
 
+    boolean isScalarReplaceable(New new_, ExecutableElement element) {
+        final ConnectionGraph connectionGraph = connectionGraphs.get(element);
+        return connectionGraph != null && connectionGraph.isScalarReplaceable(new_);
+    }
+
+    /**
+     * Returns all the New nodes of the given method.
+     * If method not found, an empty list is returned.
+     */
+    List<New> getNewNodes(ExecutableElement element) {
+        final ConnectionGraph connectionGraph = connectionGraphs.get(element);
+        return connectionGraph != null ? connectionGraph.getNewNodes() : Collections.emptyList();
+    }
+
+    /**
+     * Returns the New nodes of the given method whose fields can be replaced with SSA values.
+     * If method not found, an empty list is returned.
+     */
+    List<New> getScalarReplaceable(ExecutableElement element) {
+        final ConnectionGraph connectionGraph = connectionGraphs.get(element);
+        return connectionGraph != null ? connectionGraph.getScalarReplaceable() : Collections.emptyList();
+    }
+
     static EscapeAnalysisState get(CompilationContext ctxt) {
         EscapeAnalysisState state = ctxt.getAttachment(KEY);
         if (state == null) {
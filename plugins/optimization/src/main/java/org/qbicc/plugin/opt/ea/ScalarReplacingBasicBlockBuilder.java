@@ -0,0 +1,236 @@
+package org.qbicc.plugin.opt.ea;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.qbicc.context.CompilationContext;
+import org.qbicc.graph.BasicBlock;
+import org.qbicc.graph.BasicBlockBuilder;
+import org.qbicc.graph.BlockLabel;
+import org.qbicc.graph.DelegatingBasicBlockBuilder;
+import org.qbicc.graph.New;
+import org.qbicc.graph.Node;
+import org.qbicc.graph.PhiValue;
+import org.qbicc.graph.Terminator;
+import org.qbicc.graph.Value;
+import org.qbicc.graph.ValueHandle;
+import org.qbicc.graph.atomic.ReadAccessMode;
+import org.qbicc.graph.atomic.WriteAccessMode;
+import org.qbicc.type.ClassObjectType;
+import org.qbicc.type.ValueType;
+import org.qbicc.type.definition.element.ExecutableElement;
+import org.qbicc.type.definition.element.FieldElement;
+
+/**
+ * A block builder which replaces the instance fields of objects that are only used to load and store their own
+ * fields with SSA values.
+ * <p>
+ * The objects are found by the escape analysis of {@code ANALYZE}, which sees the method after its constructor calls
+ * have been inlined. When the method is copied, the allocation of such an object is dropped. A load of one of its
+ * fields is replaced by the value last stored to the field in the same block, or by zero if the object was allocated
+ * in that block. Otherwise, the value comes from a phi at the start of the block. The predecessors of a block are only
+ * all known once the method has been built, so the incoming values of these phis are set in {@link #finish()}.
+ * Loop headers get their phis in the same way, so this also works for objects used within loops.
+ * <p>
+ * The object is never allocated, zeroed, loaded from or stored to.
+ */
+public final class ScalarReplacingBasicBlockBuilder extends DelegatingBasicBlockBuilder {
+    private final CompilationContext ctxt;
+    private final Set<Site> sites;
+    private final Set<Value> objects = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final Map<ValueHandle, Value> objectHandles = new IdentityHashMap<>();
+    private final Map<ValueHandle, Slot> fieldHandles = new IdentityHashMap<>();
+    private final Map<BlockLabel, BlockState> blockStates = new HashMap<>();
+    private final List<PendingPhi> pendingPhis = new ArrayList<>();
+
+    public ScalarReplacingBasicBlockBuilder(final CompilationContext ctxt, final BasicBlockBuilder delegate) {
+        this(ctxt, delegate, EscapeAnalysisState.getPrevious(ctxt), delegate.getRootElement());
+    }
+
+    private ScalarReplacingBasicBlockBuilder(final CompilationContext ctxt, final BasicBlockBuilder delegate, final EscapeAnalysisState state, final ExecutableElement element) {
+        this(ctxt, delegate, state.getScalarReplaceable(element), state.getNewNodes(element));
+    }
+
+    ScalarReplacingBasicBlockBuilder(final CompilationContext ctxt, final BasicBlockBuilder delegate, final Collection<New> replaceable, final Collection<New> allNewNodes) {
+        super(delegate);
+        this.ctxt = ctxt;
+        this.sites = findSites(replaceable, allNewNodes);
+    }
+
+    /**
+     * Find the sites of the given allocations. The copy of an allocation is recognized by its site, so an allocation
+     * whose site is shared with another allocation of the method is left alone.
+     */
+    private static Set<Site> findSites(Collection<New> replaceable, Collection<New> allNewNodes) {
+        if (replaceable.isEmpty()) {
+            return Set.of();
+        }
+        final Set<Site> seen = new HashSet<>();
+        final Set<Site> ambiguous = new HashSet<>();
+        for (New new_ : allNewNodes) {
+            final Site site = Site.of(new_);
+            if (! seen.add(site)) {
+                ambiguous.add(site);
+            }
+        }
+        final Set<Site> result = new HashSet<>();
+        for (New new_ : replaceable) {
+            final Site site = Site.of(new_);
+            if (! ambiguous.contains(site)) {
+                result.add(site);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public Value new_(ClassObjectType type, Value typeId, Value size, Value align) {
+        if (sites.isEmpty() || ! sites.contains(new Site(getCurrentElement(), getLocation().getByteCodeIndex(), Site.of(getCallSite())))) {
+            return super.new_(type, typeId, size, align);
+        }
+        final BlockLabel block = currentBlock();
+        // Stands for the reference to the object. It is only ever used to build the handles of the object's fields,
+        // which are never loaded from or stored to, so it is never scheduled.
+        final PhiValue object = super.phi(type.getReference(), block, PhiValue.Flag.NOT_NULL);
+        objects.add(object);
+        stateOf(block).allocated.add(object);
+        return object;
+    }
+
+    @Override
+    public ValueHandle referenceHandle(Value reference) {
+        final ValueHandle handle = super.referenceHandle(reference);
+        if (objects.contains(reference)) {
+            objectHandles.put(handle, reference);
+        }
+        return handle;
+    }
+
+    @Override
+    public ValueHandle instanceFieldOf(ValueHandle instance, FieldElement field) {
+        final ValueHandle handle = super.instanceFieldOf(instance, field);
+        final Value object = objectHandles.get(instance);
+        if (object != null) {
+            fieldHandles.put(handle, new Slot(object, field, handle.getValueType()));
+        }
+        return handle;
+    }
+
+    @Override
+    public Value load(ValueHandle handle, ReadAccessMode accessMode) {
+        final Slot slot = fieldHandles.get(handle);
+        if (slot == null) {
+            return super.load(handle, accessMode);
+        }
+        return read(currentBlock(), slot);
+    }
+
+    @Override
+    public Node store(ValueHandle handle, Value value, WriteAccessMode accessMode) {
+        final Slot slot = fieldHandles.get(handle);
+        if (slot == null) {
+            return super.store(handle, value, accessMode);
+        }
+        stateOf(currentBlock()).values.put(slot, value);
+        return nop();
+    }
+
+    @Override
+    public void finish() {
+        if (! pendingPhis.isEmpty()) {
+            final Map<BasicBlock, Set<BasicBlock>> predecessors = findPredecessors(getFirstBlock());
+            // reading the value at the end of a predecessor may add more phis to the list
+            for (int i = 0; i < pendingPhis.size(); i ++) {
+                final PendingPhi pending = pendingPhis.get(i);
+                final BasicBlock block = pending.phi().getPinnedBlock();
+                for (BasicBlock predecessor : predecessors.getOrDefault(block, Set.of())) {
+                    final Value value = read(predecessor.getBlockEntry().getPinnedBlockLabel(), pending.slot());
+                    pending.phi().setValueForBlock(ctxt, getRootElement(), predecessor, value);
+                }
+            }
+        }
+        super.finish();
+    }
+
+    /**
+     * Get the current value of a field in the given block. Once the block is terminated, this is the value at the
+     * end of the block.
+     */
+    private Value read(BlockLabel block, Slot slot) {
+        final BlockState state = stateOf(block);
+        Value value = state.values.get(slot);
+        if (value == null) {
+            if (state.allocated.contains(slot.object())) {
+                value = ctxt.getLiteralFactory().zeroInitializerLiteralOfType(slot.type());
+            } else {
+                // the value at the start of the block
+                final PhiValue phi = super.phi(slot.type(), block);
+                pendingPhis.add(new PendingPhi(phi, slot));
+                value = phi;
+            }
+            state.values.put(slot, value);
+        }
+        return value;
+    }
+
+    private BlockLabel currentBlock() {
+        // ask the delegate, since the blocks begun by the builders below this one are never seen here
+        return getBlockEntry().getPinnedBlockLabel();
+    }
+
+    private BlockState stateOf(BlockLabel block) {
+        return blockStates.computeIfAbsent(block, k -> new BlockState());
+    }
+
+    private static Map<BasicBlock, Set<BasicBlock>> findPredecessors(BasicBlock entryBlock) {
+        final Map<BasicBlock, Set<BasicBlock>> predecessors = new HashMap<>();
+        final Set<BasicBlock> visited = new HashSet<>();
+        final Deque<BasicBlock> queue = new ArrayDeque<>();
+        visited.add(entryBlock);
+        queue.add(entryBlock);
+        BasicBlock block;
+        while ((block = queue.poll()) != null) {
+            final Terminator terminator = block.getTerminator();
+            final int cnt = terminator.getSuccessorCount();
+            for (int i = 0; i < cnt; i ++) {
+                final BasicBlock successor = terminator.getSuccessor(i);
+                predecessors.computeIfAbsent(successor, k -> new LinkedHashSet<>()).add(block);
+                if (visited.add(successor)) {
+                    queue.add(successor);
+                }
+            }
+        }
+        return predecessors;
+    }
+
+    /**
+     * The position of an allocation in the original program, including the call sites it was inlined through.
+     */
+    record Site(ExecutableElement element, int bci, Site callSite) {
+        static Site of(Node node) {
+            return node == null ? null : new Site(node.getElement(), node.getBytecodeIndex(), of(node.getCallSite()));
+        }
+    }
+
+    /**
+     * An instance field of a replaced object.
+     */
+    record Slot(Value object, FieldElement field, ValueType type) {}
+
+    record PendingPhi(PhiValue phi, Slot slot) {}
+
+    static final class BlockState {
+        final Set<Value> allocated = Collections.newSetFromMap(new IdentityHashMap<>());
+        final Map<Slot, Value> values = new HashMap<>();
+    }
+}
@@ -0,0 +1,152 @@
+package org.qbicc.plugin.opt;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.qbicc.graph.BasicBlock;
+import org.qbicc.graph.BasicBlockBuilder;
+import org.qbicc.graph.BlockLabel;
+import org.qbicc.graph.schedule.Schedule;
+import org.qbicc.test.AbstractCompilerTestCase;
+import org.qbicc.type.StaticMethodType;
+import org.qbicc.type.definition.DefinedTypeDefinition;
+import org.qbicc.type.definition.MethodBody;
+import org.qbicc.type.definition.classfile.ClassFile;
+import org.qbicc.type.definition.element.MethodElement;
+import org.qbicc.type.descriptor.MethodDescriptor;
+import org.qbicc.type.generic.MethodSignature;
+
+public final class TestInliningPlanner extends AbstractCompilerTestCase {
+
+    DefinedTypeDefinition enclosingType;
+    int nextIndex;
+
+    MethodElement leaf;
+    MethodElement caller;
+    MethodElement opaque;
+    MethodElement big;
+    MethodElement callsBig;
+    MethodElement recursive;
+    MethodElement a;
+    MethodElement b;
+
+    @BeforeEach
+    public void setUpEach() {
+        enclosingType = defineClass("TestClass", null);
+        nextIndex = 0;
+
+        leaf = defineMethod("leaf", bbb -> {});
+        caller = defineMethod("caller", bbb -> call(bbb, 1, leaf));
+        opaque = defineMethod("opaque", null);
+        // twenty calls cost more than the inlining budget of any one method
+        big = defineMethod("big", bbb -> {
+            for (int i = 0; i < 20; i ++) {
+                call(bbb, i, opaque);
+            }
+        });
+        callsBig = defineMethod("callsBig", bbb -> call(bbb, 2, big));
+        recursive = defineMethod("recursive", bbb -> call(bbb, 3, recursive));
+        a = defineMethod("a", bbb -> call(bbb, 4, b));
+        b = defineMethod("b", bbb -> call(bbb, 5, a));
+        for (MethodElement element : List.of(leaf, caller, big, callsBig, recursive, a, b)) {
+            element.tryCreateMethodBody();
+        }
+    }
+
+    @Test
+    public void testCheapCallee() {
+        final InliningPlanner planner = plan(leaf, caller);
+        assertEquals(InliningPlanner.Decision.INLINE, planner.getDecision(caller, 1, leaf));
+    }
+
+    @Test
+    public void testExpensiveCallee() {
+        final InliningPlanner planner = plan(opaque, big, callsBig);
+        assertEquals(InliningPlanner.Decision.DO_NOT_INLINE, planner.getDecision(callsBig, 2, big));
+        // a callee without a body is never inlined
+        assertEquals(InliningPlanner.Decision.DO_NOT_INLINE, planner.getDecision(big, 0, opaque));
+    }
+
+    @Test
+    public void testRecursion() {
+        final InliningPlanner planner = plan(recursive);
+        assertEquals(InliningPlanner.Decision.DO_NOT_INLINE, planner.getDecision(recursive, 3, recursive));
+    }
+
+    @Test
+    public void testUnplanned() {
+        final InliningPlanner planner = plan(leaf);
+        assertEquals(InliningPlanner.Decision.UNPLANNED, planner.getDecision(caller, 1, leaf));
+        // a call site which is not in the plan of its caller
+        final InliningPlanner planner2 = plan(leaf, caller);
+        assertEquals(InliningPlanner.Decision.UNPLANNED, planner2.getDecision(caller, 99, leaf));
+    }
+
+    @Test
+    public void testStableOrder() {
+        // the plans of mutually recursive methods depend on which is planned first, which must not depend on the
+        // order in which the elements were registered
+        final InliningPlanner planner1 = plan(a, b);
+        final InliningPlanner planner2 = plan(b, a);
+        assertEquals(InliningPlanner.Decision.INLINE, planner1.getDecision(a, 4, b));
+        assertEquals(InliningPlanner.Decision.DO_NOT_INLINE, planner1.getDecision(b, 5, a));
+        assertEquals(planner1.getDecision(a, 4, b), planner2.getDecision(a, 4, b));
+        assertEquals(planner1.getDecision(b, 5, a), planner2.getDecision(b, 5, a));
+    }
+
+    @Test
+    public void testInlinedBody() {
+        assertEquals(leaf.getMethodBody(), InliningPlanner.getInlinedBody(leaf));
+        assertNull(InliningPlanner.getInlinedBody(opaque));
+    }
+
+    private InliningPlanner plan(MethodElement... elements) {
+        final InliningPlanner planner = new InliningPlanner(ctxt);
+        for (MethodElement element : elements) {
+            planner.addElement(element);
+        }
+        planner.plan();
+        return planner;
+    }
+
+    private void call(BasicBlockBuilder bbb, int bci, MethodElement target) {
+        bbb.setBytecodeIndex(bci);
+        bbb.call(bbb.staticMethod(target, target.getDescriptor(), (StaticMethodType) target.getType()), List.of());
+    }
+
+    /**
+     * Define a static method of the test class whose body is generated by the given action and then returns,
+     * or which has no body if the action is {@code null}.
+     */
+    private MethodElement defineMethod(String name, Consumer<BasicBlockBuilder> body) {
+        final MethodElement.Builder builder = MethodElement.builder(name, MethodDescriptor.VOID_METHOD_DESCRIPTOR, nextIndex ++);
+        builder.setEnclosingType(enclosingType);
+        builder.setSignature(MethodSignature.VOID_METHOD_SIGNATURE);
+        builder.setModifiers(ClassFile.ACC_STATIC);
+        builder.setParameters(List.of());
+        if (body != null) {
+            builder.setMethodBodyFactory((index, e) -> {
+                final BasicBlockBuilder bbb = BasicBlockBuilder.simpleBuilder(ts, e);
+                bbb.startMethod(List.of());
+                final BlockLabel entryLabel = new BlockLabel();
+                bbb.begin(entryLabel);
+                body.accept(bbb);
+                bbb.return_();
+                bbb.finish();
+                final BasicBlock entryBlock = BlockLabel.getTargetOf(entryLabel);
+                return MethodBody.of(
+                    entryBlock,
+                    Schedule.forMethod(entryBlock),
+                    null,
+                    List.of()
+                );
+            }, 0);
+        }
+        return builder.build();
+    }
+}
@@ -0,0 +1,169 @@
+package org.qbicc.plugin.opt;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.qbicc.graph.atomic.AccessModes.SingleUnshared;
+
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.qbicc.graph.BasicBlock;
+import org.qbicc.graph.BasicBlockBuilder;
+import org.qbicc.graph.BlockLabel;
+import org.qbicc.graph.PhiValue;
+import org.qbicc.graph.Value;
+import org.qbicc.test.AbstractCompilerTestCase;
+import org.qbicc.type.ClassObjectType;
+import org.qbicc.type.definition.DefinedTypeDefinition;
+import org.qbicc.type.definition.element.FieldElement;
+import org.qbicc.type.definition.element.LocalVariableElement;
+import org.qbicc.type.definition.element.MethodElement;
+import org.qbicc.type.descriptor.BaseTypeDescriptor;
+import org.qbicc.type.generic.BaseTypeSignature;
+
+/**
+ * Tests for the proof which allows {@link RangeCheckEliminatingVisitor} to drop an array index check. Each test
+ * builds a counted loop of the shape {@code for (int i = start; i < array.length; i += step) { check(checked, i) }},
+ * with the index check in the form emitted by {@code RuntimeChecksBasicBlockBuilder}.
+ */
+public final class TestRangeCheckElimination extends AbstractCompilerTestCase {
+
+    MethodElement element;
+    ClassObjectType arrayType;
+    FieldElement lengthField;
+    RangeCheckEliminatingVisitor visitor;
+
+    @BeforeEach
+    public void setUpEach() {
+        final DefinedTypeDefinition enclosingType = defineClass("TestArray", null);
+        element = defineTestMethod(enclosingType);
+        arrayType = enclosingType.load().getClassType();
+
+        // stands in for the length field of arrays
+        final FieldElement.Builder fieldBuilder = FieldElement.builder("length", BaseTypeDescriptor.I, 0);
+        fieldBuilder.setEnclosingType(enclosingType);
+        fieldBuilder.setType(ts.getSignedInteger32Type());
+        fieldBuilder.setSignature(BaseTypeSignature.I);
+        fieldBuilder.setTypeParameterContext(enclosingType);
+        lengthField = fieldBuilder.build();
+        visitor = new RangeCheckEliminatingVisitor(ctxt, null, lengthField);
+    }
+
+    @Test
+    public void testCountedLoop() {
+        assertTrue(buildLoop(Start.ZERO, 1, false, false));
+    }
+
+    @Test
+    public void testOtherArray() {
+        // for (int i = 0; i < a.length; i ++) b[i]
+        assertFalse(buildLoop(Start.ZERO, 1, true, false));
+    }
+
+    @Test
+    public void testUnknownStart() {
+        // for (int i = n; i < a.length; i ++) a[i], where n may be negative
+        assertFalse(buildLoop(Start.UNKNOWN, 1, false, false));
+    }
+
+    @Test
+    public void testNegativeStart() {
+        assertFalse(buildLoop(Start.NEGATIVE, 1, false, false));
+    }
+
+    @Test
+    public void testStride() {
+        // for (int i = 0; i < a.length; i += 2) a[i] is in bounds, but i += 2 may overflow
+        assertFalse(buildLoop(Start.ZERO, 2, false, false));
+    }
+
+    @Test
+    public void testCheckAfterLoop() {
+        // for (int i = 0; i < a.length; i ++) {} a[i]
+        assertFalse(buildLoop(Start.ZERO, 1, false, true));
+    }
+
+    enum Start {
+        ZERO,
+        NEGATIVE,
+        UNKNOWN,
+    }
+
+    /**
+     * Build the loop and determine whether its index check would be removed.
+     */
+    private boolean buildLoop(Start start, int step, boolean checkOtherArray, boolean checkAfterLoop) {
+        final BasicBlockBuilder bbb = BasicBlockBuilder.simpleBuilder(ts, element);
+        bbb.startMethod(List.of());
+        bbb.begin(new BlockLabel());
+        final Value array = newArray(bbb);
+        final Value otherArray = newArray(bbb);
+        final Value startValue = switch (start) {
+            case ZERO -> lf.literalOf(0);
+            case NEGATIVE -> lf.literalOf(-1);
+            case UNKNOWN -> bbb.load(bbb.localVariable(createLocalVar("n")), SingleUnshared);
+        };
+        final BlockLabel header = new BlockLabel();
+        final BlockLabel body = new BlockLabel();
+        final BlockLabel exit = new BlockLabel();
+        final BasicBlock entry = bbb.goto_(header);
+
+        bbb.begin(header);
+        final PhiValue i = bbb.phi(ts.getSignedInteger32Type(), header);
+        bbb.if_(bbb.isLt(i, lengthOf(bbb, array)), body, exit);
+
+        bbb.begin(body);
+        final Value checkedArray = checkOtherArray ? otherArray : array;
+        Value checkedLength = null;
+        BasicBlock checkBlock = null;
+        if (! checkAfterLoop) {
+            checkedLength = lengthOf(bbb, checkedArray);
+            checkBlock = indexCheck(bbb, i, checkedLength);
+        }
+        final Value next = bbb.add(i, lf.literalOf(step));
+        final BasicBlock latch = bbb.goto_(header);
+
+        bbb.begin(exit);
+        if (checkAfterLoop) {
+            checkedLength = lengthOf(bbb, checkedArray);
+            checkBlock = indexCheck(bbb, i, checkedLength);
+        }
+        bbb.return_();
+
+        i.setValueForBlock(ctxt, element, entry, startValue);
+        i.setValueForBlock(ctxt, element, latch, next);
+        bbb.finish();
+        return visitor.isInBounds(checkBlock, i, checkedLength);
+    }
+
+    /**
+     * Emit the index check as {@code RuntimeChecksBasicBlockBuilder} does, and continue in the in-bounds block.
+     */
+    private BasicBlock indexCheck(BasicBlockBuilder bbb, Value index, Value length) {
+        final BlockLabel fail = new BlockLabel();
+        final BlockLabel pass = new BlockLabel();
+        final BasicBlock checkBlock = bbb.if_(bbb.isGe(bbb.bitCast(index, ts.getUnsignedInteger32Type()), bbb.bitCast(length, ts.getUnsignedInteger32Type())), fail, pass);
+        bbb.begin(fail);
+        bbb.unreachable();
+        bbb.begin(pass);
+        return checkBlock;
+    }
+
+    private Value lengthOf(BasicBlockBuilder bbb, Value array) {
+        return bbb.load(bbb.instanceFieldOf(bbb.referenceHandle(array), lengthField), SingleUnshared);
+    }
+
+    private Value newArray(BasicBlockBuilder bbb) {
+        return bbb.new_(arrayType, lf.literalOfType(arrayType), lf.literalOf(16L), lf.literalOf(8L));
+    }
+
+    private LocalVariableElement createLocalVar(String name) {
+        final LocalVariableElement.Builder builder = LocalVariableElement.builder(name, BaseTypeDescriptor.I, 0);
+        builder.setEnclosingType(element.getEnclosingType());
+        builder.setType(ts.getSignedInteger32Type());
+        builder.setSignature(BaseTypeSignature.I);
+        builder.setTypeParameterContext(element.getEnclosingType());
+        return builder.build();
+    }
+}
@@ -0,0 +1,175 @@
+package org.qbicc.plugin.opt;
+
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.qbicc.graph.atomic.AccessModes.SingleUnshared;
+
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.qbicc.graph.BasicBlockBuilder;
+import org.qbicc.graph.BlockLabel;
+import org.qbicc.graph.Value;
+import org.qbicc.graph.ValueHandle;
+import org.qbicc.test.AbstractCompilerTestCase;
+import org.qbicc.type.ClassObjectType;
+import org.qbicc.type.StaticMethodType;
+import org.qbicc.type.definition.DefinedTypeDefinition;
+import org.qbicc.type.definition.classfile.ClassFile;
+import org.qbicc.type.definition.element.FieldElement;
+import org.qbicc.type.definition.element.LocalVariableElement;
+import org.qbicc.type.definition.element.MethodElement;
+import org.qbicc.type.descriptor.BaseTypeDescriptor;
+import org.qbicc.type.generic.BaseTypeSignature;
+
+/**
+ * Tests for {@link ValueNumberingBasicBlockBuilder}: which values and final field loads are shared with an earlier
+ * equal one, and which are kept apart.
+ */
+public final class TestValueNumbering extends AbstractCompilerTestCase {
+
+    MethodElement element;
+    ClassObjectType classType;
+    FieldElement finalField;
+    FieldElement mutableField;
+
+    @BeforeEach
+    public void setUpEach() {
+        final DefinedTypeDefinition enclosingType = defineClass("TestClass", null);
+        element = defineTestMethod(enclosingType);
+        classType = enclosingType.load().getClassType();
+        finalField = createField(enclosingType, "finalField", ClassFile.ACC_FINAL);
+        mutableField = createField(enclosingType, "mutableField", 0);
+    }
+
+    @Test
+    public void testEqualExpressionsShared() {
+        final BasicBlockBuilder bbb = makeBlockBuilder();
+        final Value v1 = loadLocal(bbb, "v1");
+        final Value v2 = loadLocal(bbb, "v2");
+        final Value sum = bbb.add(v1, v2);
+        assertSame(sum, bbb.add(v1, v2));
+        assertSame(bbb.isLt(sum, v2), bbb.isLt(sum, v2));
+        assertSame(bbb.extend(sum, ts.getSignedInteger64Type()), bbb.extend(sum, ts.getSignedInteger64Type()));
+    }
+
+    @Test
+    public void testDifferentExpressionsKept() {
+        final BasicBlockBuilder bbb = makeBlockBuilder();
+        final Value v1 = loadLocal(bbb, "v1");
+        final Value v2 = loadLocal(bbb, "v2");
+        assertNotSame(bbb.add(v1, v2), bbb.sub(v1, v2));
+        assertNotSame(bbb.sub(v1, v2), bbb.sub(v2, v1));
+    }
+
+    @Test
+    public void testLoadsNotMerged() {
+        final BasicBlockBuilder bbb = makeBlockBuilder();
+        final LocalVariableElement local = createLocalVar("v");
+        final Value first = bbb.load(bbb.localVariable(local), SingleUnshared);
+        final Value second = bbb.load(bbb.localVariable(local), SingleUnshared);
+        // the variable may have been stored to in between
+        assertNotSame(first, second);
+        assertNotSame(bbb.add(first, first), bbb.add(second, second));
+    }
+
+    @Test
+    public void testCallsNotMerged() {
+        final BasicBlockBuilder bbb = makeBlockBuilder();
+        final ValueHandle target = bbb.staticMethod(element, element.getDescriptor(), (StaticMethodType) element.getType());
+        assertNotSame(bbb.call(target, List.of()), bbb.call(target, List.of()));
+    }
+
+    @Test
+    public void testAcrossBlocks() {
+        final BasicBlockBuilder bbb = makeBlockBuilder();
+        final LocalVariableElement local = createLocalVar("v");
+        final Value v1 = loadLocal(bbb, "v1");
+        final Value v2 = loadLocal(bbb, "v2");
+        final BlockLabel left = new BlockLabel();
+        final BlockLabel right = new BlockLabel();
+        bbb.if_(bbb.isEq(v1, v2), left, right);
+
+        bbb.begin(left);
+        final Value leftSum = bbb.add(v1, v2);
+        final Value leftLocal = bbb.add(bbb.load(bbb.localVariable(local), SingleUnshared), v2);
+        bbb.return_();
+
+        bbb.begin(right);
+        // operands from the entry block: the value is scheduled there, so it may be shared by both branches
+        assertSame(leftSum, bbb.add(v1, v2));
+        // operands from each branch are distinct, so their values are too
+        assertNotSame(leftLocal, bbb.add(bbb.load(bbb.localVariable(local), SingleUnshared), v2));
+        bbb.return_();
+        bbb.finish();
+    }
+
+    @Test
+    public void testFinalFieldLoadsMerged() {
+        final BasicBlockBuilder bbb = makeBlockBuilder();
+        final Value object = newObject(bbb);
+        final Value first = bbb.load(bbb.instanceFieldOf(bbb.referenceHandle(object), finalField), SingleUnshared);
+        // a store to the object does not change a final field
+        bbb.store(bbb.instanceFieldOf(bbb.referenceHandle(object), mutableField), lf.literalOf(1), SingleUnshared);
+        assertSame(first, bbb.load(bbb.instanceFieldOf(bbb.referenceHandle(object), finalField), SingleUnshared));
+        // but the same field of another object is another value
+        assertNotSame(first, bbb.load(bbb.instanceFieldOf(bbb.referenceHandle(newObject(bbb)), finalField), SingleUnshared));
+    }
+
+    @Test
+    public void testMutableFieldLoadsNotMerged() {
+        final BasicBlockBuilder bbb = makeBlockBuilder();
+        final Value object = newObject(bbb);
+        final Value first = bbb.load(bbb.instanceFieldOf(bbb.referenceHandle(object), mutableField), SingleUnshared);
+        assertNotSame(first, bbb.load(bbb.instanceFieldOf(bbb.referenceHandle(object), mutableField), SingleUnshared));
+    }
+
+    @Test
+    public void testFinalFieldLoadsNotMergedAcrossBlocks() {
+        final BasicBlockBuilder bbb = makeBlockBuilder();
+        final Value object = newObject(bbb);
+        final Value first = bbb.load(bbb.instanceFieldOf(bbb.referenceHandle(object), finalField), SingleUnshared);
+        final BlockLabel next = new BlockLabel();
+        bbb.goto_(next);
+        bbb.begin(next);
+        // the load is pinned to the first block
+        assertNotSame(first, bbb.load(bbb.instanceFieldOf(bbb.referenceHandle(object), finalField), SingleUnshared));
+        bbb.return_();
+        bbb.finish();
+    }
+
+    private BasicBlockBuilder makeBlockBuilder() {
+        final BasicBlockBuilder bbb = new ValueNumberingBasicBlockBuilder(ctxt, BasicBlockBuilder.simpleBuilder(ts, element));
+        bbb.startMethod(List.of());
+        bbb.begin(new BlockLabel());
+        return bbb;
+    }
+
+    private Value newObject(BasicBlockBuilder bbb) {
+        return bbb.new_(classType, lf.literalOfType(classType), lf.literalOf(16L), lf.literalOf(8L));
+    }
+
+    private FieldElement createField(DefinedTypeDefinition enclosingType, String name, int modifiers) {
+        final FieldElement.Builder builder = FieldElement.builder(name, BaseTypeDescriptor.I, 0);
+        builder.setEnclosingType(enclosingType);
+        builder.setModifiers(modifiers);
+        builder.setType(ts.getSignedInteger32Type());
+        builder.setSignature(BaseTypeSignature.I);
+        builder.setTypeParameterContext(enclosingType);
+        return builder.build();
+    }
+
+    private Value loadLocal(BasicBlockBuilder bbb, String name) {
+        return bbb.load(bbb.localVariable(createLocalVar(name)), SingleUnshared);
+    }
+
+    private LocalVariableElement createLocalVar(String name) {
+        final LocalVariableElement.Builder builder = LocalVariableElement.builder(name, BaseTypeDescriptor.I, 0);
+        builder.setEnclosingType(element.getEnclosingType());
+        builder.setType(ts.getSignedInteger32Type());
+        builder.setSignature(BaseTypeSignature.I);
+        builder.setTypeParameterContext(element.getEnclosingType());
+        return builder.build();
+    }
+}
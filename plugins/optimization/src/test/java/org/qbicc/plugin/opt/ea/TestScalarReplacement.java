@@ -0,0 +1,207 @@
+package org.qbicc.plugin.opt.ea;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.qbicc.graph.atomic.AccessModes.SingleUnshared;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.qbicc.graph.BasicBlock;
+import org.qbicc.graph.BasicBlockBuilder;
+import org.qbicc.graph.BlockLabel;
+import org.qbicc.graph.Call;
+import org.qbicc.graph.Load;
+import org.qbicc.graph.New;
+import org.qbicc.graph.Node;
+import org.qbicc.graph.PhiValue;
+import org.qbicc.graph.StackAllocation;
+import org.qbicc.graph.Store;
+import org.qbicc.graph.Terminator;
+import org.qbicc.graph.Value;
+import org.qbicc.graph.ValueHandle;
+import org.qbicc.graph.schedule.Schedule;
+import org.qbicc.test.AbstractCompilerTestCase;
+import org.qbicc.type.ClassObjectType;
+import org.qbicc.type.definition.DefinedTypeDefinition;
+import org.qbicc.type.definition.element.FieldElement;
+import org.qbicc.type.definition.element.MethodElement;
+import org.qbicc.type.descriptor.BaseTypeDescriptor;
+import org.qbicc.type.generic.BaseTypeSignature;
+
+/**
+ * Tests for {@link ScalarReplacingBasicBlockBuilder}: a method is copied through the builder, and the copy must
+ * neither allocate the object nor access its memory.
+ */
+public final class TestScalarReplacement extends AbstractCompilerTestCase {
+
+    MethodElement element;
+    ClassObjectType classType;
+    FieldElement field;
+
+    @BeforeEach
+    public void setUpEach() {
+        final DefinedTypeDefinition enclosingType = defineClass("TestClass", null);
+        element = defineTestMethod(enclosingType);
+        classType = enclosingType.load().getClassType();
+
+        final FieldElement.Builder fieldBuilder = FieldElement.builder("value", BaseTypeDescriptor.I, 0);
+        fieldBuilder.setEnclosingType(enclosingType);
+        fieldBuilder.setType(ts.getSignedInteger32Type());
+        fieldBuilder.setSignature(BaseTypeSignature.I);
+        fieldBuilder.setTypeParameterContext(enclosingType);
+        field = fieldBuilder.build();
+    }
+
+    @Test
+    public void testStraightLine() {
+        // o = new T(); o.value = 42; return o.value;
+        final BasicBlockBuilder bbb = makeBlockBuilder();
+        final New new_ = newObject(bbb);
+        final ValueHandle fieldHandle = bbb.instanceFieldOf(bbb.referenceHandle(new_), field);
+        bbb.store(fieldHandle, lf.literalOf(42), SingleUnshared);
+        final BasicBlock entry = bbb.return_(bbb.load(fieldHandle, SingleUnshared));
+        bbb.finish();
+
+        final BasicBlock copy = copy(entry, new_);
+        assertNoObject(copy);
+        assertEquals(lf.literalOf(42), copy.getTerminator().getValueDependency(0));
+    }
+
+    @Test
+    public void testLoop() {
+        // o = new T(); while (o.value < 10) { o.value = o.value + 1; } return o.value;
+        final BasicBlockBuilder bbb = makeBlockBuilder();
+        final BlockLabel header = new BlockLabel();
+        final BlockLabel body = new BlockLabel();
+        final BlockLabel exit = new BlockLabel();
+        final New new_ = newObject(bbb);
+        final BasicBlock entry = bbb.goto_(header);
+
+        bbb.begin(header);
+        bbb.if_(bbb.isLt(bbb.load(fieldOf(bbb, new_), SingleUnshared), lf.literalOf(10)), body, exit);
+
+        bbb.begin(body);
+        final Value value = bbb.load(fieldOf(bbb, new_), SingleUnshared);
+        bbb.store(fieldOf(bbb, new_), bbb.add(value, lf.literalOf(1)), SingleUnshared);
+        bbb.goto_(header);
+
+        bbb.begin(exit);
+        bbb.return_(bbb.load(fieldOf(bbb, new_), SingleUnshared));
+        bbb.finish();
+
+        final BasicBlock copy = copy(entry, new_);
+        assertNoObject(copy);
+
+        // the value of the field at the loop header is a phi of zero and the incremented value
+        final BasicBlock copiedHeader = copy.getTerminator().getSuccessor(0);
+        final PhiValue phi = (PhiValue) copiedHeader.getTerminator().getValueDependency(0).getValueDependency(0);
+        assertEquals(copiedHeader, phi.getPinnedBlock());
+        assertEquals(lf.literalOf(0), phi.getValueForInput(copy.getTerminator()));
+        final BasicBlock copiedBody = copiedHeader.getTerminator().getSuccessor(0);
+        final Value incremented = phi.getValueForInput(copiedBody.getTerminator());
+        assertEquals(lf.literalOf(1), incremented.getValueDependency(1));
+    }
+
+    @Test
+    public void testAllocatedInLoop() {
+        // for (;;) { o = new T(); o.value = o.value + 1; if (o.value == 1) continue; return; }
+        final BasicBlockBuilder bbb = makeBlockBuilder();
+        final BlockLabel header = new BlockLabel();
+        final BlockLabel exit = new BlockLabel();
+        final BasicBlock entry = bbb.goto_(header);
+
+        bbb.begin(header);
+        final New new_ = newObject(bbb);
+        final Value value = bbb.load(fieldOf(bbb, new_), SingleUnshared);
+        bbb.store(fieldOf(bbb, new_), bbb.add(value, lf.literalOf(1)), SingleUnshared);
+        bbb.if_(bbb.isEq(bbb.load(fieldOf(bbb, new_), SingleUnshared), lf.literalOf(1)), header, exit);
+
+        bbb.begin(exit);
+        bbb.return_();
+        bbb.finish();
+
+        assertNoObject(copy(entry, new_));
+    }
+
+    @Test
+    public void testOtherObjectKept() {
+        final BasicBlockBuilder bbb = makeBlockBuilder();
+        final New replaced = newObject(bbb);
+        final New kept = newObject(bbb);
+        bbb.store(fieldOf(bbb, replaced), lf.literalOf(1), SingleUnshared);
+        bbb.store(fieldOf(bbb, kept), lf.literalOf(2), SingleUnshared);
+        final BasicBlock entry = bbb.return_(bbb.load(fieldOf(bbb, kept), SingleUnshared));
+        bbb.finish();
+
+        // the allocations share their site, so neither may be replaced
+        final List<Node> nodes = scheduledNodes(copy(entry, List.of(replaced), List.of(replaced, kept)));
+        assertEquals(2, nodes.stream().filter(New.class::isInstance).count());
+    }
+
+    private void assertNoObject(BasicBlock copy) {
+        for (Node node : scheduledNodes(copy)) {
+            // no allocation, no zeroing and no memory access
+            assertFalse(node instanceof New, "allocation");
+            assertFalse(node instanceof StackAllocation, "stack allocation");
+            assertFalse(node instanceof Call, "call");
+            assertFalse(node instanceof Load, "load");
+            assertFalse(node instanceof Store, "store");
+        }
+    }
+
+    private BasicBlock copy(BasicBlock entry, New replaceable) {
+        return copy(entry, List.of(replaceable), List.of(replaceable));
+    }
+
+    private BasicBlock copy(BasicBlock entry, List<New> replaceable, List<New> allNewNodes) {
+        final BasicBlockBuilder bbb = new ScalarReplacingBasicBlockBuilder(ctxt, BasicBlockBuilder.simpleBuilder(ts, element), replaceable, allNewNodes);
+        bbb.startMethod(List.of());
+        final BasicBlock copy = Node.Copier.execute(entry, bbb, ctxt, (c, v) -> v);
+        bbb.finish();
+        return copy;
+    }
+
+    private static List<Node> scheduledNodes(BasicBlock entry) {
+        final Schedule schedule = Schedule.forMethod(entry);
+        final List<Node> nodes = new ArrayList<>();
+        final Set<BasicBlock> visited = new HashSet<>();
+        final Deque<BasicBlock> queue = new ArrayDeque<>();
+        visited.add(entry);
+        queue.add(entry);
+        BasicBlock block;
+        while ((block = queue.poll()) != null) {
+            nodes.addAll(schedule.getNodesForBlock(block));
+            final Terminator terminator = block.getTerminator();
+            for (int i = 0; i < terminator.getSuccessorCount(); i ++) {
+                if (visited.add(terminator.getSuccessor(i))) {
+                    queue.add(terminator.getSuccessor(i));
+                }
+            }
+        }
+        assertTrue(nodes.contains(entry.getTerminator()));
+        return nodes;
+    }
+
+    private ValueHandle fieldOf(BasicBlockBuilder bbb, Value object) {
+        return bbb.instanceFieldOf(bbb.referenceHandle(object), field);
+    }
+
+    private New newObject(BasicBlockBuilder bbb) {
+        return (New) bbb.new_(classType, lf.literalOfType(classType), lf.literalOf(16L), lf.literalOf(8L));
+    }
+
+    private BasicBlockBuilder makeBlockBuilder() {
+        final BasicBlockBuilder bbb = BasicBlockBuilder.simpleBuilder(ts, element);
+        bbb.startMethod(List.of());
+        bbb.begin(new BlockLabel());
+        return bbb;
+    }
+}
@@ -0,0 +1,137 @@
+package org.qbicc.plugin.opt.ea;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.qbicc.graph.atomic.AccessModes.SingleUnshared;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.qbicc.graph.BasicBlock;
+import org.qbicc.graph.BasicBlockBuilder;
+import org.qbicc.graph.BlockLabel;
+import org.qbicc.graph.New;
+import org.qbicc.graph.Node;
+import org.qbicc.graph.PhiValue;
+import org.qbicc.graph.Value;
+import org.qbicc.graph.ValueHandle;
+import org.qbicc.test.AbstractCompilerTestCase;
+import org.qbicc.type.ClassObjectType;
+import org.qbicc.type.StaticMethodType;
+import org.qbicc.type.definition.DefinedTypeDefinition;
+import org.qbicc.type.definition.element.FieldElement;
+import org.qbicc.type.definition.element.MethodElement;
+import org.qbicc.type.descriptor.BaseTypeDescriptor;
+import org.qbicc.type.generic.BaseTypeSignature;
+
+public final class TestScalarReplacementEligibility extends AbstractCompilerTestCase {
+
+    MethodElement element;
+    ClassObjectType classType;
+    FieldElement field;
+    List<Node> nodes;
+
+    @BeforeEach
+    public void setUpEach() {
+        final DefinedTypeDefinition enclosingType = defineClass("TestClass", null);
+        element = defineTestMethod(enclosingType);
+        classType = enclosingType.load().getClassType();
+
+        final FieldElement.Builder fieldBuilder = FieldElement.builder("value", BaseTypeDescriptor.I, 0);
+        fieldBuilder.setEnclosingType(enclosingType);
+        fieldBuilder.setType(ts.getSignedInteger32Type());
+        fieldBuilder.setSignature(BaseTypeSignature.I);
+        fieldBuilder.setTypeParameterContext(enclosingType);
+        field = fieldBuilder.build();
+        nodes = new ArrayList<>();
+    }
+
+    @Test
+    public void testFieldAccessOnly() {
+        final BasicBlockBuilder bbb = makeBlockBuilder();
+        final New new_ = newObject(bbb);
+        final ValueHandle fieldHandle = track(bbb.instanceFieldOf(track(bbb.referenceHandle(new_)), field));
+        track(bbb.store(fieldHandle, lf.literalOf(42), SingleUnshared));
+        final Value loaded = track(bbb.load(fieldHandle, SingleUnshared));
+        track(bbb.return_(loaded).getTerminator());
+
+        assertEquals(Set.of(new_), findScalarReplaceable(new_));
+    }
+
+    @Test
+    public void testPassedToCall() {
+        final BasicBlockBuilder bbb = makeBlockBuilder();
+        final New new_ = newObject(bbb);
+        final ValueHandle fieldHandle = track(bbb.instanceFieldOf(track(bbb.referenceHandle(new_)), field));
+        track(bbb.store(fieldHandle, lf.literalOf(42), SingleUnshared));
+        final ValueHandle target = track(bbb.staticMethod(element, element.getDescriptor(), (StaticMethodType) element.getType()));
+        track(bbb.call(target, List.of(new_)));
+        track(bbb.return_().getTerminator());
+
+        assertTrue(findScalarReplaceable(new_).isEmpty());
+    }
+
+    @Test
+    public void testStoredIntoField() {
+        final BasicBlockBuilder bbb = makeBlockBuilder();
+        final New holder = newObject(bbb);
+        final New new_ = newObject(bbb);
+        final ValueHandle fieldHandle = track(bbb.instanceFieldOf(track(bbb.referenceHandle(holder)), field));
+        track(bbb.store(fieldHandle, new_, SingleUnshared));
+        track(bbb.return_().getTerminator());
+
+        assertEquals(Set.of(holder), findScalarReplaceable(holder, new_));
+    }
+
+    @Test
+    public void testMergedByPhi() {
+        final BasicBlockBuilder bbb = makeBlockBuilder();
+        final BlockLabel merge = new BlockLabel();
+        final New new_ = newObject(bbb);
+        final BasicBlock from = bbb.goto_(merge);
+        bbb.begin(merge);
+        final PhiValue phi = track(bbb.phi(classType.getReference(), merge));
+        phi.setValueForBlock(ctxt, element, from, new_);
+        final ValueHandle fieldHandle = track(bbb.instanceFieldOf(track(bbb.referenceHandle(phi)), field));
+        track(bbb.load(fieldHandle, SingleUnshared));
+        track(bbb.return_().getTerminator());
+        bbb.finish();
+
+        assertTrue(findScalarReplaceable(new_).isEmpty());
+    }
+
+    @Test
+    public void testStableOrder() {
+        final BasicBlockBuilder bbb = makeBlockBuilder();
+        final List<New> created = new ArrayList<>();
+        for (int i = 0; i < 16; i ++) {
+            created.add(newObject(bbb));
+        }
+        track(bbb.return_().getTerminator());
+
+        assertEquals(created, List.copyOf(findScalarReplaceable(created.toArray(New[]::new))));
+    }
+
+    private Set<New> findScalarReplaceable(New... candidates) {
+        return EscapeAnalysisIntraMethodAnalysis.AnalysisContext.findScalarReplaceableNewNodes(nodes, List.of(candidates));
+    }
+
+    private New newObject(BasicBlockBuilder bbb) {
+        return (New) track(bbb.new_(classType, lf.literalOfType(classType), lf.literalOf(16L), lf.literalOf(8L)));
+    }
+
+    private <N extends Node> N track(N node) {
+        nodes.add(node);
+        return node;
+    }
+
+    private BasicBlockBuilder makeBlockBuilder() {
+        final BasicBlockBuilder bbb = BasicBlockBuilder.simpleBuilder(ts, element);
+        bbb.startMethod(List.of());
+        bbb.begin(new BlockLabel());
+        return bbb;
+    }
+}
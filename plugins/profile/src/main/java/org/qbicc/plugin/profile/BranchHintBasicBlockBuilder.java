@@ -0,0 +1,189 @@
+package org.qbicc.plugin.profile;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.qbicc.context.CompilationContext;
+import org.qbicc.driver.Phase;
+import org.qbicc.graph.BasicBlock;
+import org.qbicc.graph.BasicBlockBuilder;
+import org.qbicc.graph.BinaryValue;
+import org.qbicc.graph.BlockLabel;
+import org.qbicc.graph.CastValue;
+import org.qbicc.graph.Comp;
+import org.qbicc.graph.DelegatingBasicBlockBuilder;
+import org.qbicc.graph.If;
+import org.qbicc.graph.IsEq;
+import org.qbicc.graph.IsNe;
+import org.qbicc.graph.StaticMethodElementHandle;
+import org.qbicc.graph.Value;
+import org.qbicc.graph.ValueHandle;
+import org.qbicc.graph.literal.FloatLiteral;
+import org.qbicc.graph.literal.Literal;
+import org.qbicc.type.definition.element.ExecutableElement;
+import org.qbicc.type.definition.element.MethodElement;
+
+/**
+ * A graph factory which turns the likelihood hints of {@code org.qbicc.runtime.Tuning} into branch weights.
+ * <p>
+ * In the {@link Phase#ADD ADD} phase, calls to the hint methods are replaced by their first argument, and each branch
+ * whose condition is a hinted value (or a null check of a hinted reference) is given weights from the hinted
+ * likelihood. In each later phase the weights are carried over to the copy of the branch, and in the
+ * {@link Phase#LOWER LOWER} phase they are recorded as the {@link BranchWeights} of the branch unless a profile has
+ * already given it weights.
+ */
+public final class BranchHintBasicBlockBuilder extends DelegatingBasicBlockBuilder {
+    private static final String TUNING_INT_NAME = "org/qbicc/runtime/Tuning";
+    /**
+     * The total weight of the outcomes of a hinted branch.
+     */
+    private static final int SCALE = 1 << 20;
+
+    private final CompilationContext ctxt;
+    private final Phase phase;
+    private final BranchHints branchHints;
+    /**
+     * The likelihood of each hinted boolean value being {@code true}.
+     */
+    private final Map<Value, Float> likelyTrue = new IdentityHashMap<>();
+    /**
+     * The likelihood of each hinted reference value being {@code null}.
+     */
+    private final Map<Value, Float> likelyNull = new IdentityHashMap<>();
+
+    private BranchHintBasicBlockBuilder(final CompilationContext ctxt, final BasicBlockBuilder delegate, final Phase phase) {
+        super(delegate);
+        this.ctxt = ctxt;
+        this.phase = phase;
+        branchHints = BranchHints.get(ctxt);
+    }
+
+    public static BranchHintBasicBlockBuilder createForAddPhase(final CompilationContext ctxt, final BasicBlockBuilder delegate) {
+        return new BranchHintBasicBlockBuilder(ctxt, delegate, Phase.ADD);
+    }
+
+    public static BranchHintBasicBlockBuilder createForAnalyzePhase(final CompilationContext ctxt, final BasicBlockBuilder delegate) {
+        return new BranchHintBasicBlockBuilder(ctxt, delegate, Phase.ANALYZE);
+    }
+
+    public static BranchHintBasicBlockBuilder createForLowerPhase(final CompilationContext ctxt, final BasicBlockBuilder delegate) {
+        return new BranchHintBasicBlockBuilder(ctxt, delegate, Phase.LOWER);
+    }
+
+    @Override
+    public Value call(ValueHandle target, List<Value> arguments) {
+        if (phase == Phase.ADD && target instanceof StaticMethodElementHandle handle && arguments.size() == 2) {
+            MethodElement element = handle.getExecutable();
+            if (element.getEnclosingType().internalNameEquals(TUNING_INT_NAME)) {
+                Value value = arguments.get(0);
+                float likelihood = arguments.get(1) instanceof FloatLiteral fl ? Math.max(0, Math.min(1, fl.floatValue())) : Float.NaN;
+                if (! Float.isNaN(likelihood)) {
+                    switch (element.getName()) {
+                        case "mayBeTrue" -> likelyTrue.put(value, Float.valueOf(likelihood));
+                        case "mayBeFalse" -> likelyTrue.put(value, Float.valueOf(1 - likelihood));
+                        case "mayBeNull" -> likelyNull.put(value, Float.valueOf(likelihood));
+                        case "mayBeNonNull" -> likelyNull.put(value, Float.valueOf(1 - likelihood));
+                    }
+                }
+                // the hint methods are identity functions
+                return value;
+            }
+        }
+        return super.call(target, arguments);
+    }
+
+    @Override
+    public BasicBlock if_(Value condition, BlockLabel trueTarget, BlockLabel falseTarget) {
+        BasicBlock block = super.if_(condition, trueTarget, falseTarget);
+        if (! (block.getTerminator() instanceof If node) || trueTarget == falseTarget) {
+            return block;
+        }
+        int trueWeight, falseWeight;
+        if (phase == Phase.ADD) {
+            float likelihood = getLikelihood(condition);
+            if (Float.isNaN(likelihood)) {
+                return block;
+            }
+            trueWeight = Math.max(1, Math.round(likelihood * SCALE));
+            falseWeight = Math.max(1, SCALE - trueWeight);
+        } else {
+            // the branch is being copied from the previous phase, so the targets have the orientation of its node there
+            BranchWeights.Weights hint = branchHints.getHint(phase == Phase.ANALYZE ? Phase.ADD : Phase.ANALYZE, node.getElement(), node.getBytecodeIndex());
+            if (hint == null) {
+                return block;
+            }
+            trueWeight = hint.trueWeight();
+            falseWeight = hint.falseWeight();
+        }
+        if (phase == Phase.LOWER) {
+            BranchWeights branchWeights = BranchWeights.get(ctxt);
+            if (branchWeights.getWeights(node) == null) {
+                branchWeights.setWeights(block, trueTarget, falseTarget, trueWeight, falseWeight);
+            }
+        } else if (node.getTrueBranchLabel() == trueTarget && node.getFalseBranchLabel() == falseTarget) {
+            branchHints.putHint(phase, node, trueWeight, falseWeight);
+        } else if (node.getTrueBranchLabel() == falseTarget && node.getFalseBranchLabel() == trueTarget) {
+            // the condition was inverted
+            branchHints.putHint(phase, node, falseWeight, trueWeight);
+        }
+        return block;
+    }
+
+    /**
+     * Get the hinted likelihood of the given condition being {@code true}.
+     *
+     * @param condition the branch condition
+     * @return the likelihood, or {@code NaN} if the condition was not hinted
+     */
+    private float getLikelihood(Value condition) {
+        if (condition instanceof Comp comp) {
+            // `if (hint)` branches on `hint == false`, which may have been folded to the complement of the hint
+            float likelihood = getLikelihood(comp.getInput());
+            return Float.isNaN(likelihood) ? likelihood : 1 - likelihood;
+        }
+        Float likelihood = findHint(likelyTrue, condition);
+        if (likelihood != null) {
+            return likelihood.floatValue();
+        }
+        boolean eq = condition instanceof IsEq;
+        if (! eq && ! (condition instanceof IsNe)) {
+            return Float.NaN;
+        }
+        Value left = ((BinaryValue) condition).getLeftInput();
+        Value right = ((BinaryValue) condition).getRightInput();
+        if (left instanceof Literal lit && lit.isZero()) {
+            left = right;
+        } else if (! (right instanceof Literal lit && lit.isZero())) {
+            return Float.NaN;
+        }
+        // comparing a hinted boolean against false inverts it
+        likelihood = findHint(likelyTrue, left);
+        if (likelihood != null) {
+            return eq ? 1 - likelihood.floatValue() : likelihood.floatValue();
+        }
+        // a null check of a hinted reference
+        likelihood = findHint(likelyNull, left);
+        if (likelihood != null) {
+            return eq ? likelihood.floatValue() : 1 - likelihood.floatValue();
+        }
+        return Float.NaN;
+    }
+
+    /**
+     * Find the hinted likelihood of the given value, looking through any casts of the hint method result, such as the
+     * extension of a {@code boolean} to {@code int}.
+     *
+     * @param hints the hinted likelihoods
+     * @param value the value
+     * @return the likelihood, or {@code null} if the value was not hinted
+     */
+    private static Float findHint(Map<Value, Float> hints, Value value) {
+        Float likelihood = hints.get(value);
+        while (likelihood == null && value instanceof CastValue cast) {
+            value = cast.getInput();
+            likelihood = hints.get(value);
+        }
+        return likelihood;
+    }
+}
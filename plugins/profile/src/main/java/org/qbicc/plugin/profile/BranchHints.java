@@ -0,0 +1,61 @@
+package org.qbicc.plugin.profile;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.qbicc.context.AttachmentKey;
+import org.qbicc.context.CompilationContext;
+import org.qbicc.driver.Phase;
+import org.qbicc.graph.If;
+import org.qbicc.type.definition.element.ExecutableElement;
+
+/**
+ * The branch weights which were derived from the likelihood hints of the source program, such as
+ * {@code Tuning.mayBeTrue}. The hints are only visible when a method is first built, so the weights of each hinted
+ * branch are carried from phase to phase by the element and bytecode index of the branch, which are preserved when
+ * a method body is copied or inlined.
+ */
+public final class BranchHints {
+    private static final AttachmentKey<BranchHints> KEY = new AttachmentKey<>();
+
+    private final Map<Phase, Map<Site, BranchWeights.Weights>> hints = new ConcurrentHashMap<>();
+
+    private BranchHints() {}
+
+    /**
+     * Get the branch hints for the compilation.
+     *
+     * @param ctxt the compilation context (must not be {@code null})
+     * @return the branch hints (not {@code null})
+     */
+    public static BranchHints get(CompilationContext ctxt) {
+        return ctxt.computeAttachmentIfAbsent(KEY, BranchHints::new);
+    }
+
+    /**
+     * Record the weights of the outcomes of a hinted branch which was built in the given phase.
+     *
+     * @param phase the phase which built the branch (must not be {@code null})
+     * @param node the branch (must not be {@code null})
+     * @param trueWeight the weight of the {@code true} outcome of the branch node
+     * @param falseWeight the weight of the {@code false} outcome of the branch node
+     */
+    void putHint(Phase phase, If node, int trueWeight, int falseWeight) {
+        hints.computeIfAbsent(phase, p -> new ConcurrentHashMap<>()).put(new Site(node.getElement(), node.getBytecodeIndex()), new BranchWeights.Weights(trueWeight, falseWeight));
+    }
+
+    /**
+     * Get the weights of the outcomes of the hinted branch at the given location which was built in the given phase.
+     *
+     * @param phase the phase which built the branch (must not be {@code null})
+     * @param element the element of the branch
+     * @param bci the bytecode index of the branch
+     * @return the weights, oriented like the branch node of the given phase, or {@code null} if the branch has no hint
+     */
+    BranchWeights.Weights getHint(Phase phase, ExecutableElement element, int bci) {
+        Map<Site, BranchWeights.Weights> map = hints.get(phase);
+        return map == null ? null : map.get(new Site(element, bci));
+    }
+
+    record Site(ExecutableElement element, int bci) {}
+}
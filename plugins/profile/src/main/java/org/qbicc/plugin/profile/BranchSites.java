@@ -0,0 +1,33 @@
+package org.qbicc.plugin.profile;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.qbicc.graph.BasicBlockBuilder;
+import org.qbicc.graph.Node;
+import org.qbicc.type.definition.element.ExecutableElement;
+
+/**
+ * The keys of the conditional branches of one function, in the order in which they are built. The ordinal of a
+ * branch is counted separately for each inlined copy of an element, so that every copy has the same keys as the
+ * element would have when it is not inlined.
+ */
+final class BranchSites {
+    private final Map<Node, Map<String, Integer>> ordinals = new IdentityHashMap<>();
+
+    /**
+     * Get the key of the next branch built by the given builder.
+     *
+     * @param bbb the builder (must not be {@code null})
+     * @return the branch key
+     */
+    String next(BasicBlockBuilder bbb) {
+        ExecutableElement element = bbb.getCurrentElement();
+        int bci = bbb.getLocation().getByteCodeIndex();
+        Map<String, Integer> map = ordinals.computeIfAbsent(bbb.getCallSite(), k -> new HashMap<>());
+        String key = ProfileKeys.elementKey(element) + "@" + bci;
+        int ordinal = map.merge(key, Integer.valueOf(1), Integer::sum).intValue() - 1;
+        return ProfileKeys.branchSite(element, bci, ordinal);
+    }
+}
@@ -0,0 +1,100 @@
+package org.qbicc.plugin.profile;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.qbicc.context.AttachmentKey;
+import org.qbicc.context.CompilationContext;
+import org.qbicc.graph.BasicBlock;
+import org.qbicc.graph.BlockLabel;
+import org.qbicc.graph.If;
+import org.qbicc.graph.Terminator;
+
+/**
+ * The relative weights of the outcomes of conditional branches, which are passed to the back end to guide block
+ * placement and branch layout.
+ */
+public final class BranchWeights {
+    private static final AttachmentKey<BranchWeights> KEY = new AttachmentKey<>();
+
+    /**
+     * The largest weight which can be given to a branch outcome; the back end holds weights as unsigned 32-bit values.
+     */
+    private static final long MAX_WEIGHT = 0xffff_ffffL;
+
+    private final Map<If, Weights> weights = new ConcurrentHashMap<>();
+
+    private BranchWeights() {}
+
+    /**
+     * Get the branch weights for the compilation.
+     *
+     * @param ctxt the compilation context (must not be {@code null})
+     * @return the branch weights (not {@code null})
+     */
+    public static BranchWeights get(CompilationContext ctxt) {
+        return ctxt.computeAttachmentIfAbsent(KEY, BranchWeights::new);
+    }
+
+    /**
+     * Get the branch weights for the compilation if any branch has been given a weight.
+     *
+     * @param ctxt the compilation context (must not be {@code null})
+     * @return the branch weights, or {@code null} if no branch has been given a weight
+     */
+    public static BranchWeights getIfPresent(CompilationContext ctxt) {
+        return ctxt.getAttachment(KEY);
+    }
+
+    /**
+     * Give weights to the outcomes of the conditional branch which terminates the given block. The weights are only
+     * recorded if the block is terminated by a conditional branch to the given targets, in either order. The weights
+     * are scaled down as needed to fit into the range of the back end.
+     *
+     * @param block the block returned from building the branch (must not be {@code null})
+     * @param trueTarget the target for a {@code true} condition as passed to the builder (must not be {@code null})
+     * @param falseTarget the target for a {@code false} condition as passed to the builder (must not be {@code null})
+     * @param trueWeight the weight of the {@code true} outcome
+     * @param falseWeight the weight of the {@code false} outcome
+     */
+    public void setWeights(BasicBlock block, BlockLabel trueTarget, BlockLabel falseTarget, long trueWeight, long falseWeight) {
+        Terminator t = block.getTerminator();
+        if (! (t instanceof If node) || trueTarget == falseTarget) {
+            // the branch was folded away
+            return;
+        }
+        if (node.getTrueBranchLabel() == falseTarget && node.getFalseBranchLabel() == trueTarget) {
+            // the condition was inverted
+            long tmp = trueWeight;
+            trueWeight = falseWeight;
+            falseWeight = tmp;
+        } else if (node.getTrueBranchLabel() != trueTarget || node.getFalseBranchLabel() != falseTarget) {
+            return;
+        }
+        long max = Math.max(trueWeight, falseWeight);
+        if (max > MAX_WEIGHT) {
+            long divisor = max / MAX_WEIGHT + 1;
+            trueWeight /= divisor;
+            falseWeight /= divisor;
+        }
+        weights.put(node, new Weights((int) trueWeight, (int) falseWeight));
+    }
+
+    /**
+     * Get the weights of the outcomes of the given branch.
+     *
+     * @param node the branch (must not be {@code null})
+     * @return the weights, or {@code null} if the branch has no weights
+     */
+    public Weights getWeights(If node) {
+        return weights.get(node);
+    }
+
+    /**
+     * The weights of the outcomes of a conditional branch, as unsigned 32-bit values.
+     *
+     * @param trueWeight the weight of the {@code true} outcome
+     * @param falseWeight the weight of the {@code false} outcome
+     */
+    public record Weights(int trueWeight, int falseWeight) {}
+}
@@ -0,0 +1,116 @@
+package org.qbicc.plugin.profile;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.qbicc.context.AttachmentKey;
+import org.qbicc.context.CompilationContext;
+import org.qbicc.type.definition.element.ExecutableElement;
+
+/**
+ * An execution profile which was written by a profile instrumented build of the program. The profile is a text file
+ * in which each line holds a record name (see {@link ProfileKeys}) followed by a space and an unsigned decimal count.
+ * Records which were never counted are omitted, so a missing record counts as zero.
+ */
+public final class Profile {
+    private static final AttachmentKey<Profile> KEY = new AttachmentKey<>();
+
+    private final Map<String, Long> counts;
+    private final long maxEntryCount;
+
+    private Profile(final Map<String, Long> counts) {
+        this.counts = counts;
+        long max = 0;
+        for (Map.Entry<String, Long> entry : counts.entrySet()) {
+            if (entry.getKey().startsWith("e ")) {
+                max = Math.max(max, entry.getValue().longValue());
+            }
+        }
+        maxEntryCount = max;
+    }
+
+    /**
+     * Load the profile which is used for the compilation.
+     *
+     * @param ctxt the compilation context (must not be {@code null})
+     * @param path the path of the profile file (must not be {@code null})
+     */
+    public static void load(CompilationContext ctxt, Path path) {
+        Map<String, Long> counts = new HashMap<>();
+        int lineNumber = 0;
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isBlank()) {
+                    continue;
+                }
+                int idx = line.lastIndexOf(' ');
+                long count;
+                try {
+                    count = idx == -1 ? -1 : Long.parseUnsignedLong(line, idx + 1, line.length(), 10);
+                } catch (NumberFormatException e) {
+                    count = -1;
+                }
+                if (count == -1) {
+                    ctxt.warning("Ignoring malformed record at line %d of profile \"%s\"", Integer.valueOf(lineNumber), path);
+                    continue;
+                }
+                // a record may appear more than once if it was counted in more than one place
+                counts.merge(line.substring(0, idx), Long.valueOf(count), Long::sum);
+            }
+        } catch (IOException e) {
+            ctxt.error(e, "Failed to read profile \"%s\"", path);
+            return;
+        }
+        ctxt.putAttachment(KEY, new Profile(counts));
+    }
+
+    /**
+     * Get the profile which is used for the compilation.
+     *
+     * @param ctxt the compilation context (must not be {@code null})
+     * @return the profile, or {@code null} if the compilation is not guided by a profile
+     */
+    public static Profile get(CompilationContext ctxt) {
+        return ctxt.getAttachment(KEY);
+    }
+
+    /**
+     * Get the count of the record with the given name.
+     *
+     * @param record the record name (must not be {@code null})
+     * @return the count, or zero if the record was not counted
+     */
+    public long getCount(String record) {
+        Long count = counts.get(record);
+        return count == null ? 0 : count.longValue();
+    }
+
+    /**
+     * Get the number of times that the given element was entered.
+     *
+     * @param element the element (must not be {@code null})
+     * @return the entry count
+     */
+    public long getEntryCount(ExecutableElement element) {
+        return getCount(ProfileKeys.entry(element));
+    }
+
+    /**
+     * Determine whether the given element was entered often enough to be considered hot. An element is hot if its entry
+     * count is at least one percent of the entry count of the most frequently entered element.
+     *
+     * @param element the element (must not be {@code null})
+     * @return {@code true} if the element is hot, or {@code false} otherwise
+     */
+    public boolean isHot(ExecutableElement element) {
+        long count = getEntryCount(element);
+        return count > 0 && count >= maxEntryCount / 100;
+    }
+}
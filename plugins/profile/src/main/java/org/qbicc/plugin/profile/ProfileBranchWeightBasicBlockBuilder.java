@@ -0,0 +1,42 @@
+package org.qbicc.plugin.profile;
+
+import org.qbicc.context.CompilationContext;
+import org.qbicc.graph.BasicBlock;
+import org.qbicc.graph.BasicBlockBuilder;
+import org.qbicc.graph.BlockLabel;
+import org.qbicc.graph.DelegatingBasicBlockBuilder;
+import org.qbicc.graph.Value;
+
+/**
+ * A graph factory which gives the conditional branches the weights which were recorded in the profile. It must be
+ * placed at the same position in the builder chain as the {@link ProfileInstrumentingBasicBlockBuilder} of the
+ * instrumented build, so that both see the same branches.
+ */
+public class ProfileBranchWeightBasicBlockBuilder extends DelegatingBasicBlockBuilder {
+    private final BranchWeights branchWeights;
+    private final Profile profile;
+    private final BranchSites branchSites = new BranchSites();
+
+    public ProfileBranchWeightBasicBlockBuilder(final CompilationContext ctxt, final BasicBlockBuilder delegate) {
+        super(delegate);
+        branchWeights = BranchWeights.get(ctxt);
+        profile = Profile.get(ctxt);
+    }
+
+    @Override
+    public BasicBlock if_(Value condition, BlockLabel trueTarget, BlockLabel falseTarget) {
+        if (profile == null) {
+            // the profile could not be read
+            return super.if_(condition, trueTarget, falseTarget);
+        }
+        String site = branchSites.next(this);
+        BasicBlock block = super.if_(condition, trueTarget, falseTarget);
+        long trueCount = profile.getCount(ProfileKeys.branch(site, true));
+        long falseCount = profile.getCount(ProfileKeys.branch(site, false));
+        if (trueCount != 0 || falseCount != 0) {
+            // an outcome which was never seen is made unlikely rather than impossible
+            branchWeights.setWeights(block, trueTarget, falseTarget, trueCount + 1, falseCount + 1);
+        }
+        return block;
+    }
+}
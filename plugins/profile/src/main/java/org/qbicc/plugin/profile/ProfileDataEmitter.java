@@ -0,0 +1,77 @@
+package org.qbicc.plugin.profile;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.qbicc.context.CompilationContext;
+import org.qbicc.graph.literal.Literal;
+import org.qbicc.graph.literal.LiteralFactory;
+import org.qbicc.object.Data;
+import org.qbicc.object.ModuleSection;
+import org.qbicc.type.CompoundType;
+import org.qbicc.type.TypeSystem;
+import org.qbicc.type.WordType;
+
+/**
+ * A generation pre-hook which defines the profile counters, their names, and the global profile data structure which
+ * refers to them. The names are held in a single table of consecutive zero-terminated strings, in counter index order.
+ */
+public final class ProfileDataEmitter implements Consumer<CompilationContext> {
+    public ProfileDataEmitter() {
+    }
+
+    @Override
+    public void accept(CompilationContext ctxt) {
+        ProfileInstrumentation instrumentation = ProfileInstrumentation.get(ctxt);
+        if (instrumentation == null) {
+            return;
+        }
+        TypeSystem ts = ctxt.getTypeSystem();
+        LiteralFactory lf = ctxt.getLiteralFactory();
+        List<String> records = instrumentation.getRecords();
+
+        byte[] namesBytes = encodeNames(records);
+        // avoid zero-length tables
+        int counterCount = Math.max(1, records.size());
+        Data counters = defineData(ctxt, "qbicc_profile_counters", lf.zeroInitializerLiteralOfType(ts.getArrayType(ts.getUnsignedInteger64Type(), counterCount)));
+        Data namesTable = defineData(ctxt, "qbicc_profile_names", lf.literalOf(ts.getArrayType(ts.getUnsignedInteger8Type(), namesBytes.length), namesBytes));
+
+        CompoundType profileDataType = instrumentation.getProfileDataType();
+        HashMap<CompoundType.Member, Literal> valueMap = new HashMap<>();
+        CompoundType.Member member;
+
+        member = profileDataType.getMember("counters");
+        valueMap.put(member, lf.bitcastLiteral(lf.literalOf(counters), (WordType) member.getType()));
+
+        member = profileDataType.getMember("names");
+        valueMap.put(member, lf.bitcastLiteral(lf.literalOf(namesTable), (WordType) member.getType()));
+
+        valueMap.put(profileDataType.getMember("counterCount"), lf.literalOf(records.size()));
+
+        defineData(ctxt, ProfileInstrumentation.QBICC_PROFILE_DATA, lf.literalOf(profileDataType, valueMap));
+    }
+
+    /**
+     * Encode the names table for the given records.
+     *
+     * @param records the record names, in counter index order
+     * @return the names table, which is never empty
+     */
+    static byte[] encodeNames(List<String> records) {
+        ByteArrayOutputStream names = new ByteArrayOutputStream();
+        for (String record : records) {
+            names.writeBytes(record.getBytes(StandardCharsets.UTF_8));
+            names.write(0);
+        }
+        byte[] namesBytes = names.toByteArray();
+        return namesBytes.length == 0 ? new byte[1] : namesBytes;
+    }
+
+    private Data defineData(CompilationContext ctxt, String variableName, Literal value) {
+        ModuleSection section = ctxt.getImplicitSection(ctxt.getDefaultTypeDefinition());
+        return section.addData(null, variableName, value);
+    }
+}
@@ -0,0 +1,128 @@
+package org.qbicc.plugin.profile;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.qbicc.context.AttachmentKey;
+import org.qbicc.context.CompilationContext;
+import org.qbicc.object.ProgramModule;
+import org.qbicc.type.CompoundType;
+import org.qbicc.type.TypeSystem;
+import org.qbicc.type.definition.DefinedTypeDefinition;
+import org.qbicc.type.definition.element.ExecutableElement;
+import org.qbicc.type.definition.element.GlobalVariableElement;
+import org.qbicc.type.descriptor.BaseTypeDescriptor;
+import org.qbicc.type.generic.BaseTypeSignature;
+
+/**
+ * The profile counters of a profile instrumented build. Each counter is named by a profile record (see
+ * {@link ProfileKeys}). The counters and their names are reached through the {@code qbicc_profile_data} global
+ * structure, which is defined by the {@link ProfileDataEmitter} once every counter has been allocated. At exit, the
+ * {@code org.qbicc.runtime.main.ProfileData} run time class writes the counters to the profile file.
+ */
+public final class ProfileInstrumentation {
+    private static final AttachmentKey<ProfileInstrumentation> KEY = new AttachmentKey<>();
+
+    public static final String QBICC_PROFILE_DATA = "qbicc_profile_data";
+
+    private final CompilationContext ctxt;
+    private final CompoundType profileDataType;
+    private final GlobalVariableElement profileData;
+    private final List<String> records = new ArrayList<>();
+
+    private ProfileInstrumentation(final CompilationContext ctxt) {
+        this.ctxt = ctxt;
+        TypeSystem ts = ctxt.getTypeSystem();
+        profileDataType = CompoundType.builder(ts)
+            .setTag(CompoundType.Tag.STRUCT)
+            .setName("qbicc_profile_data")
+            .setOverallAlignment(ts.getPointerSize())
+            .addNextMember("counters", ts.getUnsignedInteger64Type().getPointer())
+            .addNextMember("names", ts.getUnsignedInteger8Type().getPointer())
+            .addNextMember("counterCount", ts.getUnsignedInteger32Type())
+            .build();
+        GlobalVariableElement.Builder builder = GlobalVariableElement.builder(QBICC_PROFILE_DATA, BaseTypeDescriptor.V);
+        builder.setType(profileDataType);
+        builder.setEnclosingType(ctxt.getDefaultTypeDefinition().load());
+        builder.setSignature(BaseTypeSignature.V);
+        profileData = builder.build();
+    }
+
+    /**
+     * Enable profile instrumentation for the compilation, and load the run time class which writes the profile.
+     *
+     * @param ctxt the compilation context
+     */
+    public static void enable(CompilationContext ctxt) {
+        install(ctxt);
+        DefinedTypeDefinition defined = ctxt.getBootstrapClassContext().findDefinedType("org/qbicc/runtime/main/ProfileData");
+        if (defined == null) {
+            ctxt.error("The profile data run time class is not present in the bootstrap class path");
+            return;
+        }
+        defined.load();
+    }
+
+    /**
+     * Install the profile instrumentation for the compilation, without loading the run time class.
+     *
+     * @param ctxt the compilation context
+     * @return the profile instrumentation
+     */
+    static ProfileInstrumentation install(CompilationContext ctxt) {
+        return ctxt.computeAttachmentIfAbsent(KEY, () -> new ProfileInstrumentation(ctxt));
+    }
+
+    /**
+     * Get the profile instrumentation for the compilation.
+     *
+     * @param ctxt the compilation context
+     * @return the profile instrumentation, or {@code null} if profile instrumentation is not enabled
+     */
+    public static ProfileInstrumentation get(CompilationContext ctxt) {
+        return ctxt.getAttachment(KEY);
+    }
+
+    /**
+     * Allocate a new counter for the given profile record. More than one counter may be allocated for the same record;
+     * their counts are added together when the profile is read.
+     *
+     * @param record the record name (must not be {@code null})
+     * @return the index of the counter
+     */
+    public int allocateCounter(String record) {
+        synchronized (records) {
+            records.add(record);
+            return records.size() - 1;
+        }
+    }
+
+    /**
+     * Get the record names of all of the counters allocated so far, in counter index order.
+     *
+     * @return the record names
+     */
+    public List<String> getRecords() {
+        synchronized (records) {
+            return List.copyOf(records);
+        }
+    }
+
+    public CompoundType getProfileDataType() {
+        return profileDataType;
+    }
+
+    /**
+     * Get the global profile data variable, declaring it in the program module of the given element if needed.
+     *
+     * @param rootElement the element being built (must not be {@code null})
+     * @return the global profile data variable
+     */
+    public GlobalVariableElement getAndRegisterProfileData(ExecutableElement rootElement) {
+        if (! profileData.getEnclosingType().equals(rootElement.getEnclosingType())) {
+            ProgramModule programModule = ctxt.getOrAddProgramModule(rootElement.getEnclosingType());
+            programModule.declareData(null, profileData.getName(), profileData.getType());
+        }
+        return profileData;
+    }
+}
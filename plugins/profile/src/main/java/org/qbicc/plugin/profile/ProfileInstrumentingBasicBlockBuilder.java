@@ -0,0 +1,150 @@
+package org.qbicc.plugin.profile;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.qbicc.context.CompilationContext;
+import org.qbicc.graph.BasicBlock;
+import org.qbicc.graph.BasicBlockBuilder;
+import org.qbicc.graph.BlockLabel;
+import org.qbicc.graph.DelegatingBasicBlockBuilder;
+import org.qbicc.graph.InstanceMethodElementHandle;
+import org.qbicc.graph.InterfaceMethodElementHandle;
+import org.qbicc.graph.Node;
+import org.qbicc.graph.ParameterValue;
+import org.qbicc.graph.Value;
+import org.qbicc.graph.ValueHandle;
+import org.qbicc.graph.VirtualMethodElementHandle;
+import org.qbicc.graph.literal.LiteralFactory;
+import org.qbicc.plugin.coreclasses.CoreClasses;
+import org.qbicc.plugin.reachability.ReachabilityInfo;
+import org.qbicc.type.CompoundType;
+import org.qbicc.type.definition.LoadedTypeDefinition;
+import org.qbicc.type.definition.element.MethodElement;
+
+/**
+ * A graph factory which counts method entries, the outcomes of conditional branches, and the receiver classes of
+ * virtual and interface calls into the profile counters.
+ * <p>
+ * The counters are plain (non-atomic) memory locations, so some counts may be lost when several threads update the
+ * same counter at once; this is tolerable for a profile. The receiver classes are computed from the instantiated
+ * classes found by the reachability analysis, so this builder must only be used during {@code LOWER}. It must be
+ * placed at the same position in the builder chain as the {@link ProfileBranchWeightBasicBlockBuilder} of the
+ * optimized build, so that both see the same branches.
+ */
+public class ProfileInstrumentingBasicBlockBuilder extends DelegatingBasicBlockBuilder {
+    /**
+     * The maximum number of receiver classes which are counted at a call site.
+     */
+    private static final int MAX_RECEIVERS = 16;
+
+    private final CompilationContext ctxt;
+    private final ProfileInstrumentation instrumentation;
+    private final BranchSites branchSites = new BranchSites();
+    private boolean entryPending;
+
+    public ProfileInstrumentingBasicBlockBuilder(final CompilationContext ctxt, final BasicBlockBuilder delegate) {
+        super(delegate);
+        this.ctxt = ctxt;
+        instrumentation = ProfileInstrumentation.get(ctxt);
+    }
+
+    @Override
+    public void startMethod(List<ParameterValue> arguments) {
+        super.startMethod(arguments);
+        entryPending = true;
+    }
+
+    @Override
+    public Node begin(BlockLabel blockLabel) {
+        Node node = super.begin(blockLabel);
+        if (entryPending) {
+            // this is the entry block
+            entryPending = false;
+            increment(ctxt.getLiteralFactory().literalOf(instrumentation.allocateCounter(ProfileKeys.entry(getRootElement()))));
+        }
+        return node;
+    }
+
+    @Override
+    public BasicBlock if_(Value condition, BlockLabel trueTarget, BlockLabel falseTarget) {
+        String site = branchSites.next(this);
+        LiteralFactory lf = ctxt.getLiteralFactory();
+        int trueCounter = instrumentation.allocateCounter(ProfileKeys.branch(site, true));
+        int falseCounter = instrumentation.allocateCounter(ProfileKeys.branch(site, false));
+        increment(getFirstBuilder().select(condition, lf.literalOf(trueCounter), lf.literalOf(falseCounter)));
+        return super.if_(condition, trueTarget, falseTarget);
+    }
+
+    @Override
+    public Value call(ValueHandle target, List<Value> arguments) {
+        if (target instanceof VirtualMethodElementHandle || target instanceof InterfaceMethodElementHandle) {
+            countReceivers((InstanceMethodElementHandle) target);
+        }
+        return super.call(target, arguments);
+    }
+
+    private void countReceivers(InstanceMethodElementHandle handle) {
+        MethodElement method = handle.getExecutable();
+        List<LoadedTypeDefinition> receivers = findReceivers(method);
+        if (receivers == null) {
+            return;
+        }
+        BasicBlockBuilder fb = getFirstBuilder();
+        LiteralFactory lf = ctxt.getLiteralFactory();
+        String site = ProfileKeys.callSite(getCurrentElement(), getLocation().getByteCodeIndex(), method);
+        int[] typeIds = new int[receivers.size()];
+        BlockLabel[] targets = new BlockLabel[typeIds.length];
+        for (int i = 0; i < typeIds.length; i ++) {
+            typeIds[i] = receivers.get(i).getTypeId();
+            targets[i] = new BlockLabel();
+        }
+        BlockLabel join = new BlockLabel();
+        Value typeId = fb.load(fb.instanceFieldOf(fb.referenceHandle(handle.getInstance()), CoreClasses.get(ctxt).getObjectTypeIdField()));
+        // the switch is built by the delegate, so that it is not mistaken for a branch of the program
+        super.switch_(typeId, typeIds, targets, join);
+        for (int i = 0; i < typeIds.length; i ++) {
+            begin(targets[i]);
+            increment(lf.literalOf(instrumentation.allocateCounter(ProfileKeys.receiver(site, receivers.get(i)))));
+            goto_(join);
+        }
+        begin(join);
+    }
+
+    /**
+     * Find the instantiated receiver classes of the given method.
+     *
+     * @return the receiver classes, or {@code null} if there are too few or too many to be worth counting
+     */
+    private List<LoadedTypeDefinition> findReceivers(MethodElement target) {
+        ReachabilityInfo info = ReachabilityInfo.get(ctxt);
+        LoadedTypeDefinition owner = target.getEnclosingType().load();
+        List<LoadedTypeDefinition> candidates = new ArrayList<>();
+        if (owner.isInterface()) {
+            info.visitReachableImplementors(owner, candidates::add);
+        } else {
+            candidates.add(owner);
+            info.visitReachableSubclassesPreOrder(owner, candidates::add);
+        }
+        List<LoadedTypeDefinition> receivers = new ArrayList<>();
+        for (LoadedTypeDefinition candidate : candidates) {
+            if (! candidate.isInterface() && info.isInstantiatedClass(candidate)) {
+                receivers.add(candidate);
+                if (receivers.size() > MAX_RECEIVERS) {
+                    return null;
+                }
+            }
+        }
+        return receivers.size() < 2 ? null : receivers;
+    }
+
+    private void increment(Value index) {
+        BasicBlockBuilder fb = getFirstBuilder();
+        LiteralFactory lf = ctxt.getLiteralFactory();
+        CompoundType profileDataType = instrumentation.getProfileDataType();
+        ValueHandle profileData = fb.globalVariable(instrumentation.getAndRegisterProfileData(getRootElement()));
+        Value counters = fb.load(fb.memberOf(profileData, profileDataType.getMember("counters")));
+        ValueHandle counter = fb.pointerHandle(counters, index);
+        fb.store(counter, fb.add(fb.load(counter), lf.literalOf(ctxt.getTypeSystem().getUnsignedInteger64Type(), 1)));
+    }
+}
@@ -0,0 +1,99 @@
+package org.qbicc.plugin.profile;
+
+import org.qbicc.type.definition.LoadedTypeDefinition;
+import org.qbicc.type.definition.element.ConstructorElement;
+import org.qbicc.type.definition.element.ExecutableElement;
+import org.qbicc.type.definition.element.MethodElement;
+import org.qbicc.type.definition.element.NamedElement;
+
+/**
+ * The names of the records of a profile. Records are named after the program elements and bytecode indices which
+ * they describe rather than after anything that is assigned during compilation, so that a profile which was written
+ * by an instrumented build can be matched against the elements of a later build of the same program.
+ * <p>
+ * Every record name consists of a single-character kind followed by a space and a key which contains no white space:
+ * <ul>
+ *     <li>{@code e <method>} counts the entries of a method;</li>
+ *     <li>{@code t <site>} and {@code f <site>} count the outcomes of a conditional branch;</li>
+ *     <li>{@code r <site> <class>} counts the receiver classes of a virtual or interface call.</li>
+ * </ul>
+ */
+public final class ProfileKeys {
+    private ProfileKeys() {}
+
+    /**
+     * Get the key of the given element, which has the form {@code owner.name(descriptor)}.
+     *
+     * @param element the element (must not be {@code null})
+     * @return the key
+     */
+    public static String elementKey(ExecutableElement element) {
+        StringBuilder b = new StringBuilder();
+        b.append(element.getEnclosingType().getInternalName()).append('.');
+        if (element instanceof NamedElement ne) {
+            b.append(ne.getName());
+        } else if (element instanceof ConstructorElement) {
+            b.append("<init>");
+        } else {
+            b.append("<clinit>");
+        }
+        return element.getDescriptor().toString(b).toString();
+    }
+
+    /**
+     * Get the name of the record which counts the entries of the given element.
+     *
+     * @param element the element (must not be {@code null})
+     * @return the record name
+     */
+    public static String entry(ExecutableElement element) {
+        return "e " + elementKey(element);
+    }
+
+    /**
+     * Get the key of a conditional branch. Branches which share an element and a bytecode index are told apart by
+     * their order of appearance.
+     *
+     * @param element the element containing the branch (must not be {@code null})
+     * @param bci the bytecode index of the branch
+     * @param ordinal the number of earlier branches with the same element and bytecode index
+     * @return the key
+     */
+    public static String branchSite(ExecutableElement element, int bci, int ordinal) {
+        return elementKey(element) + "@" + bci + "#" + ordinal;
+    }
+
+    /**
+     * Get the name of the record which counts the number of times that the given branch was taken.
+     *
+     * @param site the branch key (must not be {@code null})
+     * @param outcome the branch outcome
+     * @return the record name
+     */
+    public static String branch(String site, boolean outcome) {
+        return (outcome ? "t " : "f ") + site;
+    }
+
+    /**
+     * Get the key of a virtual or interface call site.
+     *
+     * @param element the element containing the call (must not be {@code null})
+     * @param bci the bytecode index of the call
+     * @param target the called method (must not be {@code null})
+     * @return the key
+     */
+    public static String callSite(ExecutableElement element, int bci, MethodElement target) {
+        return elementKey(element) + "@" + bci + ">" + target.getName() + target.getDescriptor();
+    }
+
+    /**
+     * Get the name of the record which counts the calls with a receiver of the given class at the given call site.
+     *
+     * @param site the call site key (must not be {@code null})
+     * @param receiver the receiver class (must not be {@code null})
+     * @return the record name
+     */
+    public static String receiver(String site, LoadedTypeDefinition receiver) {
+        return "r " + site + " " + receiver.getInternalName();
+    }
+}
@@ -0,0 +1,166 @@
+package org.qbicc.plugin.profile;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.qbicc.graph.atomic.AccessModes.SingleUnshared;
+
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.qbicc.driver.Phase;
+import org.qbicc.graph.BasicBlock;
+import org.qbicc.graph.BasicBlockBuilder;
+import org.qbicc.graph.BlockLabel;
+import org.qbicc.graph.If;
+import org.qbicc.graph.Value;
+import org.qbicc.graph.schedule.Schedule;
+import org.qbicc.test.AbstractCompilerTestCase;
+import org.qbicc.type.StaticMethodType;
+import org.qbicc.type.ValueType;
+import org.qbicc.type.definition.DefinedTypeDefinition;
+import org.qbicc.type.definition.MethodBody;
+import org.qbicc.type.definition.classfile.ClassFile;
+import org.qbicc.type.definition.element.ExecutableElement;
+import org.qbicc.type.definition.element.LocalVariableElement;
+import org.qbicc.type.definition.element.MethodElement;
+import org.qbicc.type.descriptor.BaseTypeDescriptor;
+import org.qbicc.type.descriptor.ClassTypeDescriptor;
+import org.qbicc.type.descriptor.MethodDescriptor;
+import org.qbicc.type.generic.BaseTypeSignature;
+import org.qbicc.type.generic.ClassSignature;
+import org.qbicc.type.generic.MethodSignature;
+
+public final class TestBranchHintBasicBlockBuilder extends AbstractCompilerTestCase {
+
+    ExecutableElement element;
+    MethodElement mayBeTrue;
+
+    @BeforeEach
+    public void setUpEach() {
+        final DefinedTypeDefinition testClass = defineType("TestClass");
+        final DefinedTypeDefinition tuning = defineType("org/qbicc/runtime/Tuning");
+        element = defineStaticMethod(testClass, "testMethod", MethodDescriptor.VOID_METHOD_DESCRIPTOR);
+        mayBeTrue = defineStaticMethod(tuning, "mayBeTrue", MethodDescriptor.synthesize(bootClassContext, BaseTypeDescriptor.Z, List.of(BaseTypeDescriptor.Z, BaseTypeDescriptor.F)));
+    }
+
+    @Test
+    public void testIfHintFolded() {
+        // if (Tuning.mayBeTrue(v, 0.9f)) { then } else { else }
+        // compiles to `ifeq else`, whose condition may be folded to the complement of the hint
+        final BasicBlockBuilder bbb = makeBlockBuilder(10);
+        final Value hint = hint(bbb, 0.9f);
+        assertHint(bbb, 10, bbb.complement(hint), 0.1f);
+    }
+
+    @Test
+    public void testIfHintUnfolded() {
+        // if (Tuning.mayBeTrue(v, 0.9f)) { then } else { else }, as `ifeq else` on the extended hint
+        final BasicBlockBuilder bbb = makeBlockBuilder(20);
+        final Value hint = hint(bbb, 0.9f);
+        assertHint(bbb, 20, bbb.isEq(bbb.extend(hint, ts.getSignedInteger32Type()), lf.literalOf(0)), 0.1f);
+    }
+
+    @Test
+    public void testIfNotHint() {
+        // if (! Tuning.mayBeTrue(v, 0.9f)) { then } else { else }
+        // compiles to `ifne else`
+        final BasicBlockBuilder bbb = makeBlockBuilder(30);
+        final Value hint = hint(bbb, 0.9f);
+        assertHint(bbb, 30, bbb.isNe(bbb.extend(hint, ts.getSignedInteger32Type()), lf.literalOf(0)), 0.9f);
+    }
+
+    @Test
+    public void testIfNotHintFolded() {
+        // the complement of the complement of the hint
+        final BasicBlockBuilder bbb = makeBlockBuilder(40);
+        final Value hint = hint(bbb, 0.9f);
+        assertHint(bbb, 40, bbb.complement(bbb.complement(hint)), 0.9f);
+    }
+
+    @Test
+    public void testNoHint() {
+        final BasicBlockBuilder bbb = makeBlockBuilder(50);
+        final Value v = bbb.load(bbb.localVariable(createLocalVar("v", ts.getBooleanType())), SingleUnshared);
+        final BlockLabel thenLabel = new BlockLabel();
+        final BlockLabel elseLabel = new BlockLabel();
+        bbb.if_(bbb.complement(v), elseLabel, thenLabel);
+        assertNull(BranchHints.get(ctxt).getHint(Phase.ADD, element, 50));
+    }
+
+    /**
+     * Branch to {@code else} on the given condition, and check that the {@code true} outcome of the branch node
+     * was given the expected share of the weight.
+     */
+    private void assertHint(BasicBlockBuilder bbb, int bci, Value condition, float expectedLikelihood) {
+        final BlockLabel thenLabel = new BlockLabel();
+        final BlockLabel elseLabel = new BlockLabel();
+        final BasicBlock block = bbb.if_(condition, elseLabel, thenLabel);
+        final If node = (If) block.getTerminator();
+        assertSame(elseLabel, node.getTrueBranchLabel());
+        final BranchWeights.Weights weights = BranchHints.get(ctxt).getHint(Phase.ADD, element, bci);
+        assertNotNull(weights);
+        final float total = (float) weights.trueWeight() + weights.falseWeight();
+        assertEquals(expectedLikelihood, weights.trueWeight() / total, 0.001f);
+    }
+
+    private Value hint(BasicBlockBuilder bbb, float likelihood) {
+        final Value v = bbb.load(bbb.localVariable(createLocalVar("v", ts.getBooleanType())), SingleUnshared);
+        return bbb.call(bbb.staticMethod(mayBeTrue, mayBeTrue.getDescriptor(), (StaticMethodType) mayBeTrue.getType()), List.of(v, lf.literalOf(likelihood)));
+    }
+
+    private DefinedTypeDefinition defineType(String name) {
+        final DefinedTypeDefinition.Builder typeBuilder = DefinedTypeDefinition.Builder.basic();
+        typeBuilder.setContext(bootClassContext);
+        typeBuilder.setName(name);
+        typeBuilder.setSuperClassName(null);
+        typeBuilder.setDescriptor(ClassTypeDescriptor.synthesize(bootClassContext, name));
+        typeBuilder.setModifiers(ClassFile.ACC_SUPER | ClassFile.ACC_PUBLIC);
+        typeBuilder.setSignature(ClassSignature.synthesize(bootClassContext, null, List.of()));
+        typeBuilder.setSimpleName(name.substring(name.lastIndexOf('/') + 1));
+        typeBuilder.setInitializer((index, enclosing, builder) -> {
+            builder.setEnclosingType(enclosing);
+            return builder.build();
+        }, 0);
+        return typeBuilder.build();
+    }
+
+    private MethodElement defineStaticMethod(DefinedTypeDefinition enclosingType, String name, MethodDescriptor descriptor) {
+        final MethodElement.Builder builder = MethodElement.builder(name, descriptor, 0);
+        builder.setEnclosingType(enclosingType);
+        builder.setSignature(MethodSignature.synthesize(bootClassContext, descriptor));
+        builder.setModifiers(ClassFile.ACC_STATIC);
+        builder.setParameters(List.of());
+        builder.setMethodBodyFactory((index, e) -> {
+            final BasicBlockBuilder bbb = BasicBlockBuilder.simpleBuilder(ts, e);
+            BasicBlock emptyBlock = bbb.unreachable();
+            bbb.finish();
+            return MethodBody.of(
+                emptyBlock,
+                Schedule.forMethod(emptyBlock),
+                null,
+                List.of()
+            );
+        }, 0);
+        return builder.build();
+    }
+
+    private LocalVariableElement createLocalVar(String name, ValueType type) {
+        final LocalVariableElement.Builder builder = LocalVariableElement.builder(name, BaseTypeDescriptor.V, 0);
+        builder.setEnclosingType(element.getEnclosingType());
+        builder.setType(type);
+        builder.setSignature(BaseTypeSignature.V);
+        builder.setTypeParameterContext(element.getEnclosingType());
+        return builder.build();
+    }
+
+    private BasicBlockBuilder makeBlockBuilder(int bci) {
+        final BasicBlockBuilder bbb = BranchHintBasicBlockBuilder.createForAddPhase(ctxt, BasicBlockBuilder.simpleBuilder(ts, element));
+        bbb.startMethod(List.of());
+        bbb.begin(new BlockLabel());
+        bbb.setBytecodeIndex(bci);
+        return bbb;
+    }
+}
@@ -0,0 +1,155 @@
+package org.qbicc.plugin.profile;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.qbicc.graph.BasicBlock;
+import org.qbicc.graph.BasicBlockBuilder;
+import org.qbicc.graph.BlockLabel;
+import org.qbicc.graph.Node;
+import org.qbicc.graph.OrderedNode;
+import org.qbicc.graph.PointerHandle;
+import org.qbicc.graph.Select;
+import org.qbicc.graph.Store;
+import org.qbicc.graph.Value;
+import org.qbicc.graph.literal.IntegerLiteral;
+import org.qbicc.test.AbstractCompilerTestCase;
+import org.qbicc.type.definition.element.MethodElement;
+
+/**
+ * Tests for the counters and records of a profile instrumented build, and for the profile which such a build writes.
+ */
+public final class TestProfileInstrumentation extends AbstractCompilerTestCase {
+
+    MethodElement element;
+    ProfileInstrumentation instrumentation;
+
+    @BeforeEach
+    public void setUpEach() {
+        element = defineTestMethod(defineClass("TestClass", null));
+        instrumentation = ProfileInstrumentation.install(ctxt);
+    }
+
+    @Test
+    public void testEntryCounter() {
+        final int first = instrumentation.getRecords().size();
+        final BasicBlockBuilder bbb = makeBlockBuilder();
+        final BasicBlock block = bbb.return_();
+        bbb.finish();
+        assertEquals(List.of("e TestClass.testMethod()V"), newRecords(first));
+        final List<Value> counters = incrementedCounters(block);
+        assertEquals(1, counters.size());
+        assertEquals(first, ((IntegerLiteral) counters.get(0)).intValue());
+    }
+
+    @Test
+    public void testBranchCounters() {
+        final int first = instrumentation.getRecords().size();
+        final BasicBlockBuilder bbb = makeBlockBuilder();
+        final Value condition = bbb.parameter(ts.getBooleanType(), "p", 0);
+        bbb.setBytecodeIndex(7);
+        final BlockLabel second = new BlockLabel();
+        final BlockLabel third = new BlockLabel();
+        final BlockLabel exit = new BlockLabel();
+        bbb.if_(condition, second, exit);
+        bbb.begin(second);
+        // a second branch at the same bytecode index, as a lowered switch would build
+        final BasicBlock block = bbb.if_(condition, third, exit);
+        bbb.begin(third);
+        bbb.goto_(exit);
+        bbb.begin(exit);
+        bbb.return_();
+        bbb.finish();
+        assertEquals(List.of(
+            "e TestClass.testMethod()V",
+            "t TestClass.testMethod()V@7#0",
+            "f TestClass.testMethod()V@7#0",
+            "t TestClass.testMethod()V@7#1",
+            "f TestClass.testMethod()V@7#1"
+        ), newRecords(first));
+        // the branch selects the counter of its outcome
+        final List<Value> counters = incrementedCounters(block);
+        assertEquals(1, counters.size());
+        assertTrue(counters.get(0) instanceof Select);
+        final Select select = (Select) counters.get(0);
+        assertEquals(condition, select.getCondition());
+        assertEquals(first + 3, ((IntegerLiteral) select.getTrueValue()).intValue());
+        assertEquals(first + 4, ((IntegerLiteral) select.getFalseValue()).intValue());
+    }
+
+    @Test
+    public void testNames() {
+        final List<String> records = List.of("e A.a()V", "t A.a()V@3#0", "f A.a()V@3#0");
+        final byte[] names = ProfileDataEmitter.encodeNames(records);
+        // the run time steps from one name to the next past each terminating zero
+        final List<String> decoded = new ArrayList<>();
+        int start = 0;
+        for (int i = 0; i < names.length; i ++) {
+            if (names[i] == 0) {
+                decoded.add(new String(names, start, i - start, StandardCharsets.UTF_8));
+                start = i + 1;
+            }
+        }
+        assertEquals(records, decoded);
+        assertArrayEquals(new byte[1], ProfileDataEmitter.encodeNames(List.of()));
+    }
+
+    @Test
+    public void testProfileRoundTrip(@TempDir Path dir) throws IOException {
+        final Path path = dir.resolve("qbicc.profile");
+        // as written by the run time, where a record counted in more than one place appears more than once
+        Files.writeString(path, String.join("\n",
+            "e TestClass.testMethod()V 1000",
+            "t TestClass.testMethod()V@7#0 600",
+            "f TestClass.testMethod()V@7#0 400",
+            "t TestClass.testMethod()V@7#0 5",
+            "not a record",
+            ""
+        ), StandardCharsets.UTF_8);
+        Profile.load(ctxt, path);
+        final Profile profile = Profile.get(ctxt);
+        assertEquals(1000, profile.getEntryCount(element));
+        assertTrue(profile.isHot(element));
+        assertEquals(605, profile.getCount(ProfileKeys.branch(ProfileKeys.branchSite(element, 7, 0), true)));
+        assertEquals(400, profile.getCount(ProfileKeys.branch(ProfileKeys.branchSite(element, 7, 0), false)));
+        assertEquals(0, profile.getCount(ProfileKeys.branch(ProfileKeys.branchSite(element, 7, 1), true)));
+    }
+
+    private List<String> newRecords(int first) {
+        final List<String> records = instrumentation.getRecords();
+        return records.subList(first, records.size());
+    }
+
+    /**
+     * Get the index values of the counters which are incremented in the given block, in program order.
+     */
+    private static List<Value> incrementedCounters(BasicBlock block) {
+        final List<Value> counters = new ArrayList<>();
+        Node node = block.getTerminator().getDependency();
+        while (node instanceof OrderedNode on) {
+            if (on instanceof Store store && store.getValueHandle() instanceof PointerHandle ph) {
+                counters.add(0, ph.getOffsetValue());
+            }
+            node = on.getDependency();
+        }
+        return counters;
+    }
+
+    private BasicBlockBuilder makeBlockBuilder() {
+        final BasicBlockBuilder bbb = new ProfileInstrumentingBasicBlockBuilder(ctxt, BasicBlockBuilder.simpleBuilder(ts, element));
+        bbb.startMethod(List.of());
+        bbb.begin(new BlockLabel());
+        return bbb;
+    }
+}
@@ -171,6 +171,10 @@ public final class RapidTypeAnalysis implements ReachabilityAnalysis {
         toRemove.forEach(deferredDispatchableMethods::remove);
     }
 
+    public boolean isInstantiatedClass(final LoadedTypeDefinition type) {
+        return instantiatedClasses.contains(type);
+    }
+
     public void clear() {
         instantiatedClasses.clear();
         deferredDispatchableMethods.clear();
@@ -32,6 +32,8 @@ interface ReachabilityAnalysis {
 
     void processInstantiatedClass(final LoadedTypeDefinition type, boolean onHeapType, ExecutableElement currentElement);
 
+    boolean isInstantiatedClass(final LoadedTypeDefinition type);
+
     void clear();
 
     void reportStats();
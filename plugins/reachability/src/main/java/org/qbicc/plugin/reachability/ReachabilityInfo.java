@@ -181,6 +181,10 @@ public class ReachabilityInfo {
         return classHierarchy.containsKey(type);
     }
 
+    public boolean isInstantiatedClass(LoadedTypeDefinition type) {
+        return analysis.isInstantiatedClass(type);
+    }
+
     public boolean isReachableInterface(LoadedTypeDefinition type) {
         return interfaceHierarchy.containsKey(type);
     }
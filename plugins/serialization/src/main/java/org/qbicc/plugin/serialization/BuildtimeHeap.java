@@ -1,5 +1,6 @@
 package org.qbicc.plugin.serialization;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
@@ -72,6 +73,14 @@ public class BuildtimeHeap {
      * For interning VmObjects
      */
     private final IdentityHashMap<VmObject, DataDeclaration> vmObjects = new IdentityHashMap<>();
+    /**
+     * For sharing the backing byte[] of equal Strings, keyed by section and then by contents
+     */
+    private final HashMap<ModuleSection, HashMap<ByteBuffer, DataDeclaration>> stringContents = new HashMap<>();
+    /**
+     * The java.lang.String field which holds the backing byte[]
+     */
+    private final FieldElement stringValueField;
     /**
      * The array of root classes which is intended to be the first object in the initial heap
      */
@@ -100,11 +109,14 @@ public class BuildtimeHeap {
     private Literal[] rootClasses;
 
     private int literalCounter = 0;
+    private long sharedStringArrays = 0;
+    private long sharedStringBytes = 0;
 
     private BuildtimeHeap(CompilationContext ctxt) {
         this.ctxt = ctxt;
         this.layout = Layout.get(ctxt);
         this.coreClasses = CoreClasses.get(ctxt);
+        this.stringValueField = ctxt.getBootstrapClassContext().findDefinedType("java/lang/String").load().findField("value");
 
         this.classSection = ctxt.getImplicitSection(ctxt.getBootstrapClassContext().findDefinedType("org/qbicc/runtime/main/InitialHeap$ClassSection").load());
         this.stringSection = ctxt.getImplicitSection(ctxt.getBootstrapClassContext().findDefinedType("org/qbicc/runtime/main/InitialHeap$InternedStringSection").load());
@@ -197,6 +209,24 @@ public class BuildtimeHeap {
         return vmObjects.containsKey(value);
     }
 
+    /**
+     * Get the number of String backing arrays which were not emitted because an equal array was shared instead.
+     *
+     * @return the number of shared backing arrays
+     */
+    public synchronized long getSharedStringArrayCount() {
+        return sharedStringArrays;
+    }
+
+    /**
+     * Get the number of bytes of the initial heap which were saved by sharing the backing arrays of equal Strings.
+     *
+     * @return the number of bytes saved
+     */
+    public synchronized long getSharedStringBytes() {
+        return sharedStringBytes;
+    }
+
     public synchronized Literal referToSerializedVmObject(VmObject value, NullableType desiredType, ProgramModule from) {
         if (isRootClass(value)) {
             LiteralFactory lf  = ctxt.getLiteralFactory();
@@ -218,6 +248,37 @@ public class BuildtimeHeap {
         }
     }
 
+    /**
+     * Refer to every serialized object which might hold a reference to an object that is allocated at run time.
+     * This is every root class, plus every instance and reference array outside of the interned string section.
+     * A moving garbage collector must treat these objects as roots.
+     *
+     * @param desiredType the type of each reference literal
+     * @param from the program module which will contain the references
+     * @return the list of reference literals, in a stable order
+     */
+    public synchronized List<Literal> referToMutableObjects(NullableType desiredType, ProgramModule from) {
+        LiteralFactory lf = ctxt.getLiteralFactory();
+        ArrayList<Literal> list = new ArrayList<>();
+        DataDeclaration d = from.declareData(rootClassesDecl);
+        d.setAddrspace(1);
+        Literal base = lf.bitcastLiteral(lf.literalOf(ProgramObjectPointer.of(rootClassesDecl)), ((ArrayType)rootClassesDecl.getValueType()).getElementType().getPointer().asCollected());
+        for (int typeId = 1; typeId < rootClasses.length; typeId ++) {
+            list.add(lf.bitcastLiteral(lf.elementOfLiteral(base, lf.literalOf(typeId)), desiredType));
+        }
+        ProgramModule objectModule = objectSection.getProgramModule();
+        vmObjects.entrySet().stream()
+            .filter(e -> e.getValue().getProgramModule() == objectModule && !(e.getKey().getObjectType() instanceof PrimitiveArrayObjectType))
+            .map(e -> e.getValue())
+            .sorted(Comparator.comparing(ProgramObject::getName))
+            .forEachOrdered(objDecl -> {
+                DataDeclaration decl = from.declareData(objDecl);
+                decl.setAddrspace(1);
+                list.add(lf.bitcastLiteral(lf.literalOf(decl), desiredType));
+            });
+        return list;
+    }
+
     public synchronized void serializeVmObject(VmObject value, boolean toInternedStringSection) {
         if (toInternedStringSection) {
             serializeVmObject(value, stringSection);
@@ -405,7 +466,11 @@ public class BuildtimeHeap {
                 if (contents == null) {
                     memberMap.put(om, lf.zeroInitializerLiteralOfType(om.getType()));
                 } else {
-                    serializeVmObject(contents, into == classSection ? objectSection : into);
+                    if (f.equals(stringValueField)) {
+                        serializeStringContents(contents, into == classSection ? objectSection : into);
+                    } else {
+                        serializeVmObject(contents, into == classSection ? objectSection : into);
+                    }
                     memberMap.put(om, referToSerializedVmObject(contents, rt, into.getProgramModule()));
                 }
             } else if (im.getType() instanceof PointerType pt) {
@@ -429,6 +494,28 @@ public class BuildtimeHeap {
         }
     }
 
+    private void serializeStringContents(VmObject value, ModuleSection into) {
+        if (vmObjects.containsKey(value)) {
+            return;
+        }
+        if (!(value instanceof VmArray array && array.getArray() instanceof byte[] contents)) {
+            serializeVmObject(value, into);
+            return;
+        }
+        // Strings are immutable, so equal Strings within a section can safely share one backing array
+        HashMap<ByteBuffer, DataDeclaration> shared = stringContents.computeIfAbsent(into, s -> new HashMap<>());
+        ByteBuffer key = ByteBuffer.wrap(contents);
+        DataDeclaration decl = shared.get(key);
+        if (decl == null) {
+            serializeVmObject(value, into);
+            shared.put(key, vmObjects.get(value));
+        } else {
+            vmObjects.put(value, decl);
+            sharedStringArrays ++;
+            sharedStringBytes += decl.getValueType().getSize();
+        }
+    }
+
     private void serializeRefArray(ReferenceArrayObjectType at, CompoundType literalCT, int length, ModuleSection into, DataDeclaration sl, VmArray value) {
         LoadedTypeDefinition jlo = ctxt.getBootstrapClassContext().findDefinedType("java/lang/Object").load();
         LiteralFactory lf = ctxt.getLiteralFactory();
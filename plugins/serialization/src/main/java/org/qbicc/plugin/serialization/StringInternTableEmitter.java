@@ -1,9 +1,9 @@
 package org.qbicc.plugin.serialization;
 
+import org.jboss.logging.Logger;
 import org.qbicc.context.CompilationContext;
 import org.qbicc.graph.literal.Literal;
 import org.qbicc.interpreter.VmClass;
-import org.qbicc.interpreter.VmObject;
 import org.qbicc.interpreter.VmReferenceArray;
 import org.qbicc.interpreter.VmString;
 import org.qbicc.object.Data;
@@ -14,9 +14,14 @@ import org.qbicc.type.definition.element.FieldElement;
 
 import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.List;
 import java.util.function.Consumer;
+import java.util.function.IntFunction;
+import java.util.function.ToIntFunction;
 
 public class StringInternTableEmitter implements Consumer<CompilationContext> {
+    private static final Logger slog = Logger.getLogger("org.qbicc.plugin.stringpool.stats");
+
     @Override
     public void accept(CompilationContext ctxt) {
         BuildtimeHeap bth = BuildtimeHeap.get(ctxt);
@@ -27,22 +32,62 @@ public class StringInternTableEmitter implements Consumer<CompilationContext> {
             }
         });
 
-        // Sort used so String$_native.intern() can use Arrays.binarySearch for runtime lookup
+        // Sort used so that the layout of the hash table is the same from one build to the next
         used.sort(Comparator.comparing(VmString::getContent));
-
-        // Construct and serialize the VmReferenceArray of interned VmStrings
         VmClass jls = ctxt.getBootstrapClassContext().findDefinedType("java/lang/String").load().getVmClass();
-        VmReferenceArray internedStrings = ctxt.getVm().newArrayOf(jls, used.toArray(new VmObject[used.size()]));
-        bth.serializeVmObject(internedStrings, true);
-
-        // Initialize InitialHeap.internedStrings to refer to it
         LoadedTypeDefinition ih = ctxt.getBootstrapClassContext().findDefinedType("org/qbicc/runtime/main/InitialHeap").load();
-        FieldElement field = ih.findField("internedStrings");
         ModuleSection section = ctxt.getImplicitSection(ih);
-        Literal theTable = bth.referToSerializedVmObject(internedStrings, internedStrings.getObjectType().getReference(), section.getProgramModule());
+
+        // Construct and serialize the hash table of the interned VmStrings and initialize InitialHeap.internedStringTable to refer to it
+        VmString[] table = buildHashTable(used, vs -> vs.getContent().hashCode(), VmString[]::new);
+        VmReferenceArray internedStringTable = ctxt.getVm().newArrayOf(jls, table);
+        emitTable(bth, ih, section, "internedStringTable", internedStringTable);
+
+        if (slog.isDebugEnabled()) {
+            int displaced = 0;
+            for (int i = 0; i < table.length; i ++) {
+                if (table[i] != null && (table[i].getContent().hashCode() & (table.length - 1)) != i) {
+                    displaced ++;
+                }
+            }
+            slog.debugf("The intern hash table holds %,d strings in %,d slots (%,d displaced by collisions).", used.size(), table.length, displaced);
+            slog.debugf("Sharing the backing arrays of equal strings removed %,d arrays and saved %,d bytes.", bth.getSharedStringArrayCount(), bth.getSharedStringBytes());
+        }
+    }
+
+    private static void emitTable(BuildtimeHeap bth, LoadedTypeDefinition ih, ModuleSection section, String fieldName, VmReferenceArray array) {
+        bth.serializeVmObject(array, true);
+        FieldElement field = ih.findField(fieldName);
+        Literal theTable = bth.referToSerializedVmObject(array, array.getObjectType().getReference(), section.getProgramModule());
         String name = ih.getInternalName().replace('/', '.') + "." + field.getName();
         Data d = section.addData(null, name, theTable);
         d.setLinkage(Linkage.EXTERNAL);
         d.setDsoLocal();
     }
+
+    /**
+     * Lay out the given items as an open-addressed hash table with linear probing, as probed by
+     * {@code InitialHeap.findInternedString}. The table length is a power of two and the table is at most
+     * half full, so every probe sequence ends at a {@code null} slot. Items are placed in list order, so a
+     * sorted list gives a reproducible layout.
+     *
+     * @param items the items to place (must not be {@code null})
+     * @param hashFunction the hash function of the items
+     * @param arrayFactory the factory for the table array
+     * @return the table
+     * @param <T> the item type
+     */
+    static <T> T[] buildHashTable(List<T> items, ToIntFunction<? super T> hashFunction, IntFunction<T[]> arrayFactory) {
+        int capacity = Integer.highestOneBit(Math.max(1, items.size()) * 2 - 1) << 1;
+        int mask = capacity - 1;
+        T[] table = arrayFactory.apply(capacity);
+        for (T item : items) {
+            int idx = hashFunction.applyAsInt(item) & mask;
+            while (table[idx] != null) {
+                idx = (idx + 1) & mask;
+            }
+            table[idx] = item;
+        }
+        return table;
+    }
 }
@@ -0,0 +1,88 @@
+package org.qbicc.plugin.serialization;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+import org.junit.jupiter.api.Test;
+
+public final class TestStringInternHashTable {
+
+    @Test
+    public void testEmpty() {
+        String[] table = StringInternTableEmitter.buildHashTable(List.of(), String::hashCode, String[]::new);
+        assertEquals(2, table.length);
+        assertNull(probe(table, "anything"));
+    }
+
+    @Test
+    public void testSizing() {
+        for (int size = 1; size <= 300; size ++) {
+            String[] table = StringInternTableEmitter.buildHashTable(strings(size), String::hashCode, String[]::new);
+            assertEquals(1, Integer.bitCount(table.length), "power of two");
+            assertTrue(table.length >= size * 2, "at most half full");
+            assertTrue(table.length < size * 4, "not oversized");
+            assertEquals(size, Arrays.stream(table).filter(Objects::nonNull).count());
+        }
+    }
+
+    @Test
+    public void testProbe() {
+        List<String> items = strings(1000);
+        String[] table = StringInternTableEmitter.buildHashTable(items, String::hashCode, String[]::new);
+        for (String item : items) {
+            // equal but not identical strings must find the table entry
+            assertSame(item, probe(table, new String(item)));
+        }
+        assertNull(probe(table, "absent"));
+        assertNull(probe(table, ""));
+    }
+
+    @Test
+    public void testCollisions() {
+        // "Aa" and "BB" (and their concatenations) share a hash code
+        List<String> items = List.of("AaAa", "AaBB", "BBAa", "BBBB");
+        String[] table = StringInternTableEmitter.buildHashTable(items, String::hashCode, String[]::new);
+        for (String item : items) {
+            assertSame(item, probe(table, new String(item)));
+        }
+        assertNull(probe(table, "AaAb"));
+    }
+
+    @Test
+    public void testReproducibleLayout() {
+        List<String> items = strings(500);
+        String[] table1 = StringInternTableEmitter.buildHashTable(items, String::hashCode, String[]::new);
+        String[] table2 = StringInternTableEmitter.buildHashTable(new ArrayList<>(items), String::hashCode, String[]::new);
+        assertArrayEquals(table1, table2);
+    }
+
+    /**
+     * The same probe sequence as {@code InitialHeap.findInternedString}.
+     */
+    private static String probe(String[] table, String str) {
+        int mask = table.length - 1;
+        for (int idx = str.hashCode() & mask; ; idx = (idx + 1) & mask) {
+            String candidate = table[idx];
+            if (candidate == null || candidate.equals(str)) {
+                return candidate;
+            }
+        }
+    }
+
+    private static List<String> strings(int count) {
+        List<String> list = new ArrayList<>(count);
+        for (int i = 0; i < count; i ++) {
+            list.add("string" + i);
+        }
+        list.sort(null);
+        return list;
+    }
+}
@@ -1,7 +1,9 @@
 package org.qbicc.runtime;
 
 /**
- *
+ * Likelihood hints for the compiler. Each method returns its first argument; a branch on the result (or, for
+ * references, a null check of the result) is given branch weights from the likelihood, which must be a constant
+ * between {@code 0} and {@code 1}.
  */
 public final class Tuning {
     private Tuning() {}
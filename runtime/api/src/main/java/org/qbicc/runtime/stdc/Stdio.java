@@ -24,6 +24,8 @@ public final class Stdio {
     public static final class FILE_ptr_const_ptr extends ptr<@c_const FILE_ptr> {}
     public static final class const_FILE_ptr_const_ptr extends ptr<@c_const const_FILE_ptr> {}
 
+    public static native FILE_ptr fopen(@restrict const_char_ptr path, @restrict const_char_ptr mode);
+
     @define("_POSIX_C_SOURCE")
     public static native FILE_ptr fdopen(c_int fd, const_char_ptr mode);
 
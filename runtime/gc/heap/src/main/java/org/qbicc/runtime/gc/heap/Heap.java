@@ -80,6 +80,14 @@ public final class Heap {
      */
     public static native int getConfiguredObjectAlignment();
 
+    /**
+     * Get the build-time-configured size of thread-local allocation buffers.  Allocators which use thread-local
+     * buffers should round this value up to the page size.
+     *
+     * @return the configured thread-local allocation buffer size in bytes
+     */
+    public static native long getConfiguredTlabSize();
+
     /**
      * An OOME that can always be safely thrown without allocating anything on the heap.
      */
@@ -6,6 +6,7 @@ import static org.qbicc.runtime.stdc.String.*;
 
 import org.qbicc.runtime.AutoQueued;
 import org.qbicc.runtime.Hidden;
+import org.qbicc.runtime.ThreadScoped;
 import org.qbicc.runtime.gc.heap.Heap;
 
 /**
@@ -14,43 +15,49 @@ import org.qbicc.runtime.gc.heap.Heap;
 public final class NoGcHelpers {
     private NoGcHelpers() {}
 
-    // our allocation position
-    private static long pos;
+    /**
+     * The current thread's allocation buffer position, as a heap offset.
+     */
+    @ThreadScoped
+    @export(withScope = ExportScope.LOCAL)
+    private static long tlabPos;
+
+    /**
+     * The current thread's allocation buffer limit, as a heap offset.
+     */
+    @ThreadScoped
+    @export(withScope = ExportScope.LOCAL)
+    private static long tlabLimit;
 
     @Hidden
     @AutoQueued
     public static Object allocate(long size, int align) {
         // todo: per-object alignment - should we allow it? perhaps not (ignore for now)
-        int64_t_ptr posPtr = addr_of(pos);
+        int objAlignMask = Heap.getConfiguredObjectAlignment() - 1;
+        size = size + objAlignMask & ~objAlignMask;
+        long pos = tlabPos;
+        if (size <= tlabLimit - pos) {
+            // fast path: bump the thread-local position; no other thread can see it
+            tlabPos = pos + size;
+            return ptrToRef(Heap.pointerToOffset(pos));
+        }
+        return allocateSlow(size);
+    }
 
-        long oldPos, newPos;
-        long oldRegionPos;
-        for (;;) {
-            oldPos = posPtr.loadSingleAcquire().longValue();
-            oldRegionPos = Heap.getCurrentHeapOffset();
-            if (oldPos + size >= oldRegionPos) {
-                // allocate some more pages
-                long pageSize = Heap.getPageSize();
-                long pageMask = pageSize - 1;
-                // this is how far over we are (in pages)
-                long amount = size - oldRegionPos + oldPos + pageMask & ~pageMask;
-                if (Heap.allocateRegion(oldRegionPos, amount) != oldRegionPos) {
-                    // our requested heap was not allocated; retry the loop
-                    continue;
-                }
-            }
-            newPos = oldPos + size;
-            int objAlign = Heap.getConfiguredObjectAlignment();
-            int objAlignMask = objAlign - 1;
-            long misalign = newPos & objAlignMask;
-            if (misalign != 0) {
-                newPos += objAlign - misalign;
-            }
-            if (posPtr.compareAndSetRelease(word(oldPos), word(newPos))) {
-                return ptrToRef(Heap.pointerToOffset(oldPos));
-            }
-            Thread.onSpinWait();
+    @Hidden
+    private static Object allocateSlow(long size) {
+        long pageMask = Heap.getPageSize() - 1;
+        long tlabSize = Heap.getConfiguredTlabSize() + pageMask & ~pageMask;
+        if (size > tlabSize >> 1) {
+            // large object: give it a region of its own and keep the current buffer
+            long offset = Heap.allocateRegion(-1, size + pageMask & ~pageMask);
+            return ptrToRef(Heap.pointerToOffset(offset));
         }
+        // retire the current buffer (the remainder is wasted) and take a fresh one
+        long offset = Heap.allocateRegion(-1, tlabSize);
+        tlabPos = offset + size;
+        tlabLimit = offset + tlabSize;
+        return ptrToRef(Heap.pointerToOffset(offset));
     }
 
     @Hidden
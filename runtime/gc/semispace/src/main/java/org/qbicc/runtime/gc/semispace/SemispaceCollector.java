@@ -0,0 +1,686 @@
+package org.qbicc.runtime.gc.semispace;
+
+import static org.qbicc.runtime.CNative.*;
+import static org.qbicc.runtime.stdc.Stdint.*;
+import static org.qbicc.runtime.stdc.Stdio.*;
+import static org.qbicc.runtime.stdc.Stdlib.*;
+import static org.qbicc.runtime.stdc.String.*;
+
+import org.qbicc.runtime.Hidden;
+import org.qbicc.runtime.gc.heap.Heap;
+import org.qbicc.runtime.main.CompilerIntrinsics;
+import org.qbicc.runtime.main.VM;
+import org.qbicc.runtime.stackwalk.MethodData;
+import org.qbicc.runtime.stackwalk.StackWalker;
+
+/**
+ * A block-structured, mostly-copying semispace collector.
+ * <p>
+ * The heap is carved into fixed-size blocks, each of which belongs to one of two spaces. Allocation takes blocks
+ * for the current space; a collection evacuates the live objects of the current space into fresh blocks of the
+ * other space, and then returns every block which is still in the old space to the free list.
+ * <p>
+ * The frames of compiled methods are scanned precisely using the live reference slots which the compiler records
+ * for each call; any other frame is scanned conservatively. Any block which is referenced from the stack (or which
+ * holds the current thread object) is promoted into the new space as a whole rather than being evacuated, so objects
+ * which are referenced from the stack never move. Everything else (heap objects, static fields, and the initial heap)
+ * is traced precisely using the type tables emitted by the compiler. Large objects get a run of blocks of their own
+ * and are never moved either.
+ * <p>
+ * The referent of a reference object is not traced. Once everything else has been traced, a referent which was
+ * reached some other way is updated, and any other referent is cleared. Cleared references are not enqueued, and
+ * soft references are cleared just like weak references.
+ * <p>
+ * There are no safepoints yet, so the compiler refuses to build a program which can start threads with this
+ * collector. As a last line of defence, a collection is skipped if another thread has been started anyway; the
+ * heap then grows until it is exhausted, at which point allocation fails with a message saying why.
+ */
+public final class SemispaceCollector {
+    private SemispaceCollector() {}
+
+    // type kinds; these must agree with the compiler's type table
+
+    static final int KIND_NONE = 0;
+    static final int KIND_INSTANCE = 1;
+    static final int KIND_PRIM_ARRAY = 2;
+    static final int KIND_REF_ARRAY = 3;
+    static final int KIND_REFERENCE = 4;
+
+    // block states
+
+    private static final int FREE = 0;
+    private static final int SPACE_MASK = 0b11;
+    private static final int LARGE_HEAD = 0b100;
+    private static final int LARGE_TAIL = 0b1000;
+
+    private static final int NONE = -1;
+
+    private static int lock;
+    private static boolean initialized;
+    private static int blockShift;
+    private static int maxBlocks;
+    /**
+     * The state of each block.
+     */
+    private static uint8_t_ptr blockStates;
+    /**
+     * The link of each block: the next block on the free list or on a collection queue, or the head block for
+     * the tail blocks of a large object.
+     */
+    private static int32_t_ptr blockLinks;
+    private static int currentSpace;
+    private static int freeList;
+    private static int usedBlocks;
+    private static int collectThreshold;
+    /**
+     * {@code true} if the last collection was skipped because other threads were running.
+     */
+    private static boolean collectionSkipped;
+
+    // collection state
+
+    private static int fromSpace;
+    private static int toSpace;
+    private static long heapBase;
+    private static int promotedHead;
+    /**
+     * The addresses of the reference objects found while tracing, whose referents are processed last.
+     */
+    private static int64_t_ptr discovered;
+    private static int discoveredCount;
+    private static int discoveredCapacity;
+    private static int promotedTail;
+    private static int copyHead;
+    private static int copyBlock;
+    private static long copyPos;
+    private static long copyLimit;
+
+    /**
+     * Get the size of a heap block, which is also the size of an allocation buffer. The block size is the
+     * configured TLAB size, rounded up to a power of two which is at least the page size.
+     *
+     * @return the block size in bytes
+     */
+    static long getBlockSize() {
+        long pageMask = Heap.getPageSize() - 1;
+        long size = Heap.getConfiguredTlabSize() + pageMask & ~pageMask;
+        return Long.highestOneBit(size - 1) << 1;
+    }
+
+    /**
+     * Get the size above which objects are allocated in blocks of their own.
+     *
+     * @return the large object threshold in bytes
+     */
+    static long getLargeObjectThreshold() {
+        return getBlockSize() >> 1;
+    }
+
+    /**
+     * Take a fresh block for the current space, collecting first if the threshold has been reached.
+     *
+     * @return the heap offset of the block
+     * @throws OutOfMemoryError if the heap is exhausted
+     */
+    @Hidden
+    static long allocateBlock() {
+        lock();
+        try {
+            ensureInitialized();
+            if (usedBlocks >= collectThreshold) {
+                collectIfPossible();
+            }
+            int block = takeBlock();
+            if (block == NONE) {
+                throw exhausted();
+            }
+            setState(block, currentSpace);
+            usedBlocks ++;
+            return blockOffset(block);
+        } finally {
+            unlock();
+        }
+    }
+
+    /**
+     * Allocate a run of blocks for a single large object.
+     *
+     * @param size the object size in bytes
+     * @return the heap offset of the object
+     * @throws OutOfMemoryError if the heap is exhausted
+     */
+    @Hidden
+    static long allocateLarge(long size) {
+        lock();
+        try {
+            ensureInitialized();
+            long blockMask = (1L << blockShift) - 1;
+            long runSize = size + blockMask & ~blockMask;
+            int count = (int) (runSize >>> blockShift);
+            if (usedBlocks + count > collectThreshold) {
+                collectIfPossible();
+            }
+            // runs are always carved from fresh memory so that they are contiguous
+            if (Heap.getHeapUnallocated() < runSize) {
+                throw exhausted();
+            }
+            int head = (int) (Heap.allocateRegion(-1, runSize) >>> blockShift);
+            setState(head, currentSpace | LARGE_HEAD);
+            for (int i = 1; i < count; i ++) {
+                setState(head + i, currentSpace | LARGE_TAIL);
+                setLink(head + i, head);
+            }
+            usedBlocks += count;
+            return blockOffset(head);
+        } finally {
+            unlock();
+        }
+    }
+
+    private static void lock() {
+        int32_t_ptr lockPtr = addr_of(lock);
+        while (! lockPtr.compareAndSetAcquire(word(0), word(1))) {
+            // spin; the lock is only held while taking blocks or collecting
+        }
+    }
+
+    private static void unlock() {
+        int32_t_ptr lockPtr = addr_of(lock);
+        lockPtr.storeSingleRelease(word(0));
+    }
+
+    private static void ensureInitialized() {
+        if (initialized) {
+            return;
+        }
+        long blockSize = getBlockSize();
+        blockShift = Long.numberOfTrailingZeros(blockSize);
+        // the heap never grows past its limit, so the block tables can be sized up front
+        maxBlocks = (int) ((Heap.getCurrentHeapOffset() + Heap.getHeapUnallocated()) >>> blockShift);
+        blockStates = calloc(word(maxBlocks), word(1));
+        blockLinks = calloc(word(maxBlocks), word(4));
+        if (blockStates.isNull() || blockLinks.isNull()) {
+            throw Heap.OOME;
+        }
+        currentSpace = 1;
+        freeList = NONE;
+        usedBlocks = 0;
+        collectThreshold = maxBlocks >> 1;
+        initialized = true;
+    }
+
+    private static long blockOffset(int block) {
+        return (long) block << blockShift;
+    }
+
+    private static int getState(int block) {
+        return blockStates.plus(block).loadUnshared().intValue() & 0xff;
+    }
+
+    private static void setState(int block, int state) {
+        blockStates.plus(block).storeUnshared(word(state));
+    }
+
+    private static int getLink(int block) {
+        return blockLinks.plus(block).loadUnshared().intValue();
+    }
+
+    private static void setLink(int block, int link) {
+        blockLinks.plus(block).storeUnshared(word(link));
+    }
+
+    /**
+     * Take a block from the free list, or carve a new one from the unallocated part of the heap.
+     * The returned block is always zero-filled, so that the end of the objects in a block can be found by
+     * looking for a zero type ID.
+     *
+     * @return the block index, or {@link #NONE} if the heap is exhausted
+     */
+    private static int takeBlock() {
+        int block = freeList;
+        long blockSize = 1L << blockShift;
+        if (block != NONE) {
+            freeList = getLink(block);
+            memset(Heap.pointerToOffset(blockOffset(block)), word(0), word(blockSize));
+            return block;
+        }
+        if (Heap.getHeapUnallocated() < blockSize) {
+            return NONE;
+        }
+        return (int) (Heap.allocateRegion(-1, blockSize) >>> blockShift);
+    }
+
+    private static void collectIfPossible() {
+        if (VM.hasStartedThreads()) {
+            // no safepoints yet, so there is no way to stop the other threads; just keep growing
+            collectionSkipped = true;
+            return;
+        }
+        collectionSkipped = false;
+        collect();
+    }
+
+    /**
+     * Report that the heap is exhausted. If the last collection was skipped because other threads were running,
+     * the heap may well be full of garbage, so say so rather than failing as if every object were live.
+     *
+     * @return the error to throw
+     */
+    private static OutOfMemoryError exhausted() {
+        if (collectionSkipped) {
+            fprintf(stderr, utf8z("Heap exhausted: garbage cannot be collected once other threads have been started\n").cast());
+        }
+        return Heap.OOME;
+    }
+
+    @Hidden
+    private static void collect() {
+        fromSpace = currentSpace;
+        toSpace = fromSpace ^ SPACE_MASK;
+        heapBase = Heap.pointerToOffset(0).longValue();
+        promotedHead = promotedTail = NONE;
+        copyHead = copyBlock = NONE;
+        copyPos = copyLimit = 0;
+        // the current allocation buffer is in the space being evacuated
+        SemispaceHelpers.retireTlab();
+        // first pin everything which might be referenced from somewhere that cannot be updated
+        pinStack();
+        pin(((ptr<?>)refToPtr(Thread.currentThread())).longValue());
+        // then trace precisely from the static fields and the initial heap
+        int cnt = getStaticRootCount();
+        for (int i = 0; i < cnt; i ++) {
+            updateSlot(getStaticRoot(i).longValue());
+        }
+        cnt = getInitialHeapObjectCount();
+        for (int i = 0; i < cnt; i ++) {
+            scanObject(((ptr<?>)refToPtr(getInitialHeapObject(i))).longValue());
+        }
+        evacuate();
+        processReferences();
+        reclaim();
+        currentSpace = toSpace;
+        // collect again once half of the remaining space has been used, leaving room to evacuate into
+        collectThreshold = usedBlocks + (maxBlocks - usedBlocks >> 1);
+    }
+
+    /**
+     * Pin every block which is referred to from the current thread's stack. The frame of a compiled method is
+     * scanned precisely, using the live reference slots recorded for the call it is making. Any other frame, as
+     * well as the frame of the collector itself (which holds the registers captured by the stack walker), is
+     * scanned conservatively.
+     */
+    private static void pinStack() {
+        StackWalker walker = new StackWalker();
+        long low = ((ptr<?>)refToPtr(walker)).longValue();
+        boolean precise = false;
+        while (walker.next()) {
+            long sp = walker.getSp().longValue();
+            if (! precise) {
+                // the previous frame ends where this one begins
+                pinRange(low, sp);
+            }
+            int liveSlotIndex = MethodData.findLiveSlotIndex(walker.getIp().longValue());
+            precise = liveSlotIndex != -1;
+            if (precise) {
+                int cnt = MethodData.getLiveSlotCount(liveSlotIndex);
+                for (int n = 0; n < cnt; n ++) {
+                    long base = walker.getRegister(MethodData.getLiveSlotRegister(liveSlotIndex, n)).longValue();
+                    int64_t_ptr slot = word(base + MethodData.getLiveSlotOffset(liveSlotIndex, n));
+                    // derived pointers are recorded too, and cannot be updated on their own, so pin rather than forward
+                    pin(slot.loadUnshared().longValue());
+                }
+            }
+            low = sp;
+        }
+    }
+
+    private static void pinRange(long low, long high) {
+        long wordSize = sizeof(void_ptr.class).longValue();
+        for (long addr = low & -wordSize; addr < high; addr += wordSize) {
+            int64_t_ptr slot = word(addr);
+            pin(slot.loadUnshared().longValue());
+        }
+    }
+
+    private static void pin(long address) {
+        long offset = address - heapBase;
+        if (offset < 0 || offset >= Heap.getCurrentHeapOffset()) {
+            return;
+        }
+        int block = (int) (offset >>> blockShift);
+        int state = getState(block);
+        if ((state & SPACE_MASK) != fromSpace) {
+            // free, or already promoted
+            return;
+        }
+        if ((state & LARGE_TAIL) != 0) {
+            block = getLink(block);
+            state = getState(block);
+        }
+        promote(block, state);
+    }
+
+    /**
+     * Move a whole block (or large object run) into the new space without moving its contents, and queue it for
+     * scanning.
+     */
+    private static void promote(int block, int state) {
+        setState(block, state & ~SPACE_MASK | toSpace);
+        if ((state & LARGE_HEAD) != 0) {
+            for (int tail = block + 1; tail < maxBlocks && getState(tail) == (fromSpace | LARGE_TAIL) && getLink(tail) == block; tail ++) {
+                setState(tail, toSpace | LARGE_TAIL);
+            }
+        }
+        setLink(block, NONE);
+        if (promotedTail == NONE) {
+            promotedHead = block;
+        } else {
+            setLink(promotedTail, block);
+        }
+        promotedTail = block;
+    }
+
+    /**
+     * Get the new address of the object at the given address, evacuating it if needed.
+     */
+    private static long forward(long address) {
+        long offset = address - heapBase;
+        if (offset < 0 || offset >= Heap.getCurrentHeapOffset()) {
+            // null, or an initial heap object
+            return address;
+        }
+        int block = (int) (offset >>> blockShift);
+        int state = getState(block);
+        if ((state & SPACE_MASK) != fromSpace) {
+            return address;
+        }
+        if ((state & (LARGE_HEAD | LARGE_TAIL)) != 0) {
+            if ((state & LARGE_TAIL) != 0) {
+                block = getLink(block);
+                state = getState(block);
+            }
+            promote(block, state);
+            return address;
+        }
+        int64_t_ptr header = word(address);
+        long word0 = header.loadUnshared().longValue();
+        int bit = getForwardedBit();
+        long lowMask = (1L << bit) - 1;
+        if ((word0 & 1L << bit) != 0) {
+            // the new address is stored around the forwarded bit
+            return word0 >>> bit + 1 << bit | word0 & lowMask;
+        }
+        long size = sizeOf(address);
+        long newAddress = heapBase + copyAllocate(size);
+        memcpy(word(newAddress), word(address), word(size));
+        header.storeUnshared(word(newAddress >>> bit << bit + 1 | 1L << bit | newAddress & lowMask));
+        return newAddress;
+    }
+
+    /**
+     * Get the new address of the object at the given address if it was reached while tracing, without evacuating
+     * it.
+     *
+     * @return the new address, or {@code 0} if the object was not reached
+     */
+    private static long forwardIfLive(long address) {
+        long offset = address - heapBase;
+        if (offset < 0 || offset >= Heap.getCurrentHeapOffset()) {
+            // null, or an initial heap object
+            return address;
+        }
+        int block = (int) (offset >>> blockShift);
+        int state = getState(block);
+        if ((state & LARGE_TAIL) != 0) {
+            state = getState(getLink(block));
+        }
+        if ((state & SPACE_MASK) != fromSpace) {
+            // promoted
+            return address;
+        }
+        if ((state & LARGE_HEAD) != 0) {
+            return 0;
+        }
+        int64_t_ptr header = word(address);
+        long word0 = header.loadUnshared().longValue();
+        int bit = getForwardedBit();
+        if ((word0 & 1L << bit) == 0) {
+            return 0;
+        }
+        return word0 >>> bit + 1 << bit | word0 & (1L << bit) - 1;
+    }
+
+    private static void discover(long address) {
+        if (discoveredCount == discoveredCapacity) {
+            int newCapacity = Math.max(64, discoveredCapacity << 1);
+            int64_t_ptr newDiscovered = realloc(discovered, word((long) newCapacity << 3));
+            if (newDiscovered.isNull()) {
+                fprintf(stderr, utf8z("Out of memory while processing references during garbage collection\n").cast());
+                abort();
+            }
+            discovered = newDiscovered;
+            discoveredCapacity = newCapacity;
+        }
+        discovered.plus(discoveredCount ++).storeUnshared(word(address));
+    }
+
+    /**
+     * Update the referent of every discovered reference object which was reached some other way, and clear the rest.
+     */
+    private static void processReferences() {
+        int referentOffset = getReferentOffset();
+        for (int i = 0; i < discoveredCount; i ++) {
+            int64_t_ptr slot = word(discovered.plus(i).loadUnshared().longValue() + referentOffset);
+            long value = slot.loadUnshared().longValue();
+            long updated = forwardIfLive(value);
+            if (updated != value) {
+                slot.storeUnshared(word(updated));
+            }
+        }
+        discoveredCount = 0;
+    }
+
+    private static long copyAllocate(long size) {
+        if (copyLimit - copyPos < size) {
+            int block = takeBlock();
+            if (block == NONE) {
+                // the heap cannot be left in a consistent state at this point
+                fprintf(stderr, utf8z("Heap exhausted during garbage collection\n").cast());
+                abort();
+            }
+            setState(block, toSpace);
+            setLink(block, NONE);
+            if (copyBlock == NONE) {
+                copyHead = block;
+            } else {
+                setLink(copyBlock, block);
+            }
+            copyBlock = block;
+            copyPos = blockOffset(block);
+            copyLimit = copyPos + (1L << blockShift);
+        }
+        long offset = copyPos;
+        copyPos = offset + size;
+        return offset;
+    }
+
+    private static void updateSlot(long slotAddress) {
+        int64_t_ptr slot = word(slotAddress);
+        long value = slot.loadUnshared().longValue();
+        long updated = forward(value);
+        if (updated != value) {
+            slot.storeUnshared(word(updated));
+        }
+    }
+
+    private static int typeIdAt(long address) {
+        void_ptr ptr = word(address);
+        return CompilerIntrinsics.typeIdOf(ptrToRef(ptr)).intValue();
+    }
+
+    private static long sizeOf(long address) {
+        void_ptr ptr = word(address);
+        Object obj = ptrToRef(ptr);
+        int typeId = CompilerIntrinsics.typeIdOf(obj).intValue();
+        long size = getTypeSize(typeId);
+        int kind = getTypeKind(typeId);
+        if (kind == KIND_PRIM_ARRAY || kind == KIND_REF_ARRAY) {
+            size += (long) CompilerIntrinsics.lengthOf(obj) << getElementShift(typeId);
+        }
+        int objAlignMask = Heap.getConfiguredObjectAlignment() - 1;
+        return size + objAlignMask & ~objAlignMask;
+    }
+
+    /**
+     * Update every reference held by the object at the given address.
+     */
+    private static void scanObject(long address) {
+        void_ptr ptr = word(address);
+        Object obj = ptrToRef(ptr);
+        int typeId = CompilerIntrinsics.typeIdOf(obj).intValue();
+        int kind = getTypeKind(typeId);
+        long refSize = sizeof(void_ptr.class).longValue();
+        if (kind == KIND_INSTANCE || kind == KIND_REFERENCE) {
+            // the referent of a reference object is left out of the map
+            int index = getRefMapIndex(typeId);
+            int cnt = getRefMapWordCount(typeId);
+            for (int i = 0; i < cnt; i ++) {
+                long bits = getRefMapWord(index + i);
+                while (bits != 0) {
+                    int bit = Long.numberOfTrailingZeros(bits);
+                    bits &= bits - 1;
+                    updateSlot(address + (i << 6 | bit) * refSize);
+                }
+            }
+            if (kind == KIND_REFERENCE) {
+                discover(address);
+            }
+        } else if (kind == KIND_REF_ARRAY) {
+            // for arrays, the base size is the offset of the content
+            long base = address + getTypeSize(typeId);
+            int length = CompilerIntrinsics.lengthOf(obj);
+            for (int i = 0; i < length; i ++) {
+                updateSlot(base + i * refSize);
+            }
+        }
+    }
+
+    /**
+     * Scan every object in a block, stopping at the first zero type ID.
+     */
+    private static void scanBlock(int block) {
+        long pos = heapBase + blockOffset(block);
+        long end = pos + (1L << blockShift);
+        while (pos < end && typeIdAt(pos) != 0) {
+            long size = sizeOf(pos);
+            scanObject(pos);
+            pos += size;
+        }
+    }
+
+    /**
+     * Scan promoted blocks and evacuated objects until there is nothing left to scan.
+     */
+    private static void evacuate() {
+        int scanBlock = NONE;
+        long scanPos = 0;
+        for (;;) {
+            if (promotedHead != NONE) {
+                int block = promotedHead;
+                promotedHead = getLink(block);
+                if (promotedHead == NONE) {
+                    promotedTail = NONE;
+                }
+                if ((getState(block) & LARGE_HEAD) != 0) {
+                    scanObject(heapBase + blockOffset(block));
+                } else {
+                    scanBlock(block);
+                }
+                continue;
+            }
+            // Cheney scan of the evacuated objects
+            if (scanBlock == NONE) {
+                if (copyHead == NONE) {
+                    return;
+                }
+                scanBlock = copyHead;
+                scanPos = blockOffset(scanBlock);
+            }
+            long end = scanBlock == copyBlock ? copyPos : blockOffset(scanBlock) + (1L << blockShift);
+            if (scanPos < end && typeIdAt(heapBase + scanPos) != 0) {
+                long address = heapBase + scanPos;
+                long size = sizeOf(address);
+                scanObject(address);
+                scanPos += size;
+                continue;
+            }
+            if (scanBlock == copyBlock) {
+                // caught up with allocation, and nothing else is queued
+                return;
+            }
+            scanBlock = getLink(scanBlock);
+            scanPos = blockOffset(scanBlock);
+        }
+    }
+
+    /**
+     * Free every block which was left in the old space.
+     */
+    private static void reclaim() {
+        int limit = (int) (Heap.getCurrentHeapOffset() >>> blockShift);
+        int used = 0;
+        for (int block = 0; block < limit; block ++) {
+            int state = getState(block);
+            if (state == FREE) {
+                continue;
+            }
+            if ((state & SPACE_MASK) == fromSpace) {
+                setState(block, FREE);
+                setLink(block, freeList);
+                freeList = block;
+            } else {
+                used ++;
+            }
+        }
+        usedBlocks = used;
+    }
+
+    // tables emitted by the compiler
+
+    /**
+     * Get the bit of the first word of an object which marks it as evacuated. The remaining bits of the first word
+     * of an evacuated object hold its new address.
+     */
+    private static native int getForwardedBit();
+
+    /**
+     * Get the offset of the referent field within a reference object.
+     */
+    private static native int getReferentOffset();
+
+    private static native int getTypeKind(int typeId);
+
+    /**
+     * Get the instance size for the given type, or the base size if it is an array type.
+     */
+    private static native long getTypeSize(int typeId);
+
+    private static native int getElementShift(int typeId);
+
+    private static native int getRefMapIndex(int typeId);
+
+    private static native int getRefMapWordCount(int typeId);
+
+    private static native long getRefMapWord(int index);
+
+    private static native int getStaticRootCount();
+
+    /**
+     * Get the address of a static field which holds a reference.
+     */
+    private static native void_ptr getStaticRoot(int index);
+
+    private static native int getInitialHeapObjectCount();
+
+    private static native Object getInitialHeapObject(int index);
+}
@@ -0,0 +1,77 @@
+package org.qbicc.runtime.gc.semispace;
+
+import static org.qbicc.runtime.CNative.*;
+import static org.qbicc.runtime.stdc.Stdint.*;
+import static org.qbicc.runtime.stdc.String.*;
+
+import org.qbicc.runtime.AutoQueued;
+import org.qbicc.runtime.Hidden;
+import org.qbicc.runtime.ThreadScoped;
+import org.qbicc.runtime.gc.heap.Heap;
+
+/**
+ * Allocation entry points for the semispace collector.
+ */
+public final class SemispaceHelpers {
+    private SemispaceHelpers() {}
+
+    /**
+     * The current thread's allocation buffer position, as a heap offset.
+     */
+    @ThreadScoped
+    @export(withScope = ExportScope.LOCAL)
+    private static long tlabPos;
+
+    /**
+     * The current thread's allocation buffer limit, as a heap offset.
+     */
+    @ThreadScoped
+    @export(withScope = ExportScope.LOCAL)
+    private static long tlabLimit;
+
+    @Hidden
+    @AutoQueued
+    public static Object allocate(long size, int align) {
+        // todo: per-object alignment - should we allow it? perhaps not (ignore for now)
+        int objAlignMask = Heap.getConfiguredObjectAlignment() - 1;
+        size = size + objAlignMask & ~objAlignMask;
+        long pos = tlabPos;
+        if (size <= tlabLimit - pos) {
+            // fast path: bump the thread-local position; no other thread can see it
+            tlabPos = pos + size;
+            return ptrToRef(Heap.pointerToOffset(pos));
+        }
+        return allocateSlow(size);
+    }
+
+    @Hidden
+    private static Object allocateSlow(long size) {
+        if (size > SemispaceCollector.getLargeObjectThreshold()) {
+            // large object: give it a run of blocks of its own and keep the current buffer
+            return ptrToRef(Heap.pointerToOffset(SemispaceCollector.allocateLarge(size)));
+        }
+        // retire the current buffer (the remainder stays zeroed) and take a fresh block; this may collect
+        long offset = SemispaceCollector.allocateBlock();
+        tlabPos = offset + size;
+        tlabLimit = offset + SemispaceCollector.getBlockSize();
+        return ptrToRef(Heap.pointerToOffset(offset));
+    }
+
+    /**
+     * Retire the current thread's allocation buffer so that the next allocation takes a new block.
+     */
+    static void retireTlab() {
+        tlabPos = 0;
+        tlabLimit = 0;
+    }
+
+    @Hidden
+    @AutoQueued
+    public static void clear(Object ptr, long size) { memset((void_ptr)(ptr<?>)refToPtr(ptr), word(0), word(size)); }
+
+    @Hidden
+    @AutoQueued
+    public static void copy(Object to, Object from, long size) {
+        memcpy((void_ptr)(ptr<?>)refToPtr(to), (const_void_ptr)(ptr<?>)refToPtr(from), word(size));
+    }
+}
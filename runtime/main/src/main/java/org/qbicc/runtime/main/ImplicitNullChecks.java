@@ -0,0 +1,130 @@
+package org.qbicc.runtime.main;
+
+import static org.qbicc.runtime.CNative.*;
+import static org.qbicc.runtime.posix.Signal.*;
+import static org.qbicc.runtime.posix.Ucontext.*;
+import static org.qbicc.runtime.stdc.Signal.*;
+import static org.qbicc.runtime.stdc.Stdlib.*;
+
+import org.qbicc.runtime.Build;
+import org.qbicc.runtime.stackwalk.MethodData;
+
+/**
+ * Run time support for implicit null checks. When a null check has been folded into the first memory access of
+ * the checked reference, dereferencing {@code null} raises {@code SIGSEGV}. The handler installed here looks up the
+ * faulting instruction in the implicit null check table and resumes execution at the explicit null path of the
+ * check, which raises the {@link NullPointerException} outside of the signal handler. Other faults are passed on to
+ * the action which was installed before.
+ * <p>
+ * The handler runs on an alternate signal stack, so that it can also run (and pass the fault on) when the fault was
+ * caused by a stack overflow. Each thread other than the main thread installs its own alternate stack when it starts.
+ */
+@SuppressWarnings("unused")
+public final class ImplicitNullChecks {
+    private ImplicitNullChecks() {}
+
+    /**
+     * The size of the low memory region in which a fault is considered to be a null dereference. This must not be
+     * larger than the page size assumed by the back end when folding the checks.
+     */
+    private static final long NULL_PAGE_SIZE = 4096;
+
+    /**
+     * The size of the alternate signal stack of each thread.
+     */
+    private static final long SIGNAL_STACK_SIZE = 65536;
+
+    /**
+     * The action which was installed for {@code SIGSEGV} before the handler, or {@code null} if the handler is not
+     * installed.
+     */
+    private static struct_sigaction_ptr previousAction;
+
+    /**
+     * Get the address of {@link #handleImplicitNullCheckFault}.
+     *
+     * @return the signal handler function pointer
+     */
+    static native function_ptr<SignalAction> faultHandler();
+
+    @constructor
+    @export
+    static void installImplicitNullCheckHandler(c_int argc, char_ptr_ptr argv) {
+        if (! Build.Target.isLinux() || ! (Build.Target.isAmd64() || Build.Target.isI386())) {
+            // the faulting program counter cannot be read from the signal context
+            return;
+        }
+        struct_sigaction_ptr previous = malloc(sizeof(struct_sigaction.class));
+        if (previous.isNull()) {
+            return;
+        }
+        struct_sigaction act = auto();
+        sigemptyset(addr_of(act.sa_mask));
+        act.sa_sigaction = faultHandler();
+        act.sa_flags = word(SA_SIGINFO.intValue() | SA_ONSTACK.intValue());
+        if (sigaction(SIGSEGV, addr_of(act).cast(), previous).intValue() != 0) {
+            free(previous.cast());
+            return;
+        }
+        previousAction = previous;
+        installSignalStack();
+    }
+
+    /**
+     * Give the current thread an alternate signal stack, if the handler is installed.
+     *
+     * @return the memory of the stack, to be passed to {@link #removeSignalStack} before the thread exits, or
+     *      {@code null} if no stack was installed
+     */
+    static void_ptr installSignalStack() {
+        if (previousAction.isNull()) {
+            return zero();
+        }
+        void_ptr stack = malloc(word(SIGNAL_STACK_SIZE));
+        if (stack.isNull()) {
+            // the handler still runs on the thread's own stack
+            return stack;
+        }
+        stack_t ss = auto();
+        ss.ss_sp = stack;
+        ss.ss_flags = word(0);
+        ss.ss_size = word(SIGNAL_STACK_SIZE);
+        if (sigaltstack(addr_of(ss).cast(), zero()).intValue() != 0) {
+            free(stack);
+            return zero();
+        }
+        return stack;
+    }
+
+    /**
+     * Remove the alternate signal stack of the current thread.
+     *
+     * @param stack the memory of the stack which was returned by {@link #installSignalStack}
+     */
+    static void removeSignalStack(void_ptr stack) {
+        if (! stack.isNull()) {
+            stack_t ss = auto();
+            ss.ss_sp = zero();
+            ss.ss_flags = SS_DISABLE;
+            ss.ss_size = word(0);
+            sigaltstack(addr_of(ss).cast(), zero());
+            free(stack);
+        }
+    }
+
+    @export
+    static void handleImplicitNullCheckFault(c_int sigNum, siginfo_t_ptr sigInfo, void_ptr context) {
+        ucontext_t_ptr uc = context.cast();
+        ptr<greg_t> pcPtr = addr_of(uc.sel().uc_mcontext.gregs[REG_PC.intValue()]);
+        long addr = sigInfo.sel().si_addr.longValue();
+        if (Long.compareUnsigned(addr, NULL_PAGE_SIZE) < 0) {
+            long handler = MethodData.findImplicitNullCheckHandler(pcPtr.loadUnshared().longValue());
+            if (handler != 0) {
+                pcPtr.storeUnshared(word(handler));
+                return;
+            }
+        }
+        // not a null check; the previous action handles the fault when the instruction is restarted
+        sigaction(SIGSEGV, previousAction.cast(), zero());
+    }
+}
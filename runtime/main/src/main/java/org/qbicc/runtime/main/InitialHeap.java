@@ -1,17 +1,53 @@
 package org.qbicc.runtime.main;
 
+import java.util.concurrent.ConcurrentHashMap;
+
 @SuppressWarnings("unused")
 public class InitialHeap {
-    // All of the interned String objects carried over from build time.
-    // The array is sorted in "natural order" to enable Arrays.binarySearch
-    // to be used at runtime by String.intern() for efficient lookup.
-    public static String[] internedStrings;
+    // All of the interned String objects carried over from build time, as an open-addressed hash table keyed by
+    // String.hashCode with linear probing; its length is a power of two and at least half of its slots are null.
+    // Probed by findInternedString.
+    public static String[] internedStringTable;
+    // The String objects which were first interned at run time.
+    private static final ConcurrentHashMap<String, String> runtimeInternedStrings = new ConcurrentHashMap<>();
 
     // Tables to allow runtime mapping of a <ClassLoader, String> pair to a build-time loaded Class object.
     // Used to implement Class.forName0, ClassLoader.findBootstrapClass, and ClassLoader.findLoadedClass0
     static String[] bootstrapClassNames;  // sorted in natural order for Arrays.binarySearch
     static Class<?>[] bootstrapClasses;   // bootstrapClasses[i].name == bootstrapClassNames[i]
 
+    /**
+     * Get the canonical instance of the given String. Calls to String.intern() are replaced by calls to this method.
+     *
+     * @param str the string to intern (must not be {@code null})
+     * @return the interned string which is equal to {@code str}
+     */
+    public static String intern(String str) {
+        String interned = findInternedString(str);
+        if (interned != null) {
+            return interned;
+        }
+        interned = runtimeInternedStrings.putIfAbsent(str, str);
+        return interned == null ? str : interned;
+    }
+
+    /**
+     * Find the build-time interned String which is equal to the given String.
+     *
+     * @param str the string to look up (must not be {@code null})
+     * @return the equal interned string, or {@code null} if there is none
+     */
+    public static String findInternedString(String str) {
+        String[] table = internedStringTable;
+        int mask = table.length - 1;
+        for (int idx = str.hashCode() & mask; ; idx = (idx + 1) & mask) {
+            String candidate = table[idx];
+            if (candidate == null || candidate.equals(str)) {
+                return candidate;
+            }
+        }
+    }
+
     static class ClassSection {}
     static class InternedStringSection {}
     static class ObjectSection {}
@@ -0,0 +1,51 @@
+package org.qbicc.runtime.main;
+
+import static org.qbicc.runtime.CNative.*;
+import static org.qbicc.runtime.stdc.Stdio.*;
+import static org.qbicc.runtime.stdc.Stdlib.*;
+import static org.qbicc.runtime.stdc.String.*;
+
+/**
+ * Run time support for profile instrumented builds. At exit, the profile counters are written to the file named by
+ * the {@code QBICC_PROFILE} environment variable, or to {@code qbicc.profile} in the current directory if it is not
+ * set. Each line of the file holds the name of a profile record followed by its count; counters which are zero are
+ * omitted. The profile is not written if the program is terminated by a signal.
+ */
+@SuppressWarnings("unused")
+public final class ProfileData {
+    private ProfileData() {}
+
+    static native int getCounterCount();
+
+    static native long getCounter(int index);
+
+    /**
+     * Get the names of the counters, as consecutive zero-terminated strings in counter index order.
+     *
+     * @return the pointer to the first name
+     */
+    static native const_char_ptr getNames();
+
+    @destructor
+    @export
+    static void writeProfile() {
+        const_char_ptr path = getenv(utf8z("QBICC_PROFILE")).cast();
+        if (path.isNull()) {
+            path = utf8z("qbicc.profile");
+        }
+        FILE_ptr file = fopen(path, utf8z("w"));
+        if (file.isNull()) {
+            return;
+        }
+        const_char_ptr name = getNames();
+        int count = getCounterCount();
+        for (int i = 0; i < count; i ++) {
+            long value = getCounter(i);
+            if (value != 0) {
+                fprintf(file, utf8z("%s %llu\n"), name, word(value));
+            }
+            name = name.plus(strlen(name).longValue() + 1);
+        }
+        fclose(file);
+    }
+}
@@ -0,0 +1,245 @@
+package org.qbicc.runtime.main;
+
+import static org.qbicc.runtime.CNative.*;
+import static org.qbicc.runtime.stdc.Stdint.*;
+
+import org.qbicc.runtime.AutoQueued;
+import org.qbicc.runtime.Hidden;
+import org.qbicc.runtime.ThreadScoped;
+
+/**
+ * Object monitor fast path, using a thin lock held in reserved bits of the object header.
+ * <p>
+ * The lock bits are laid out as follows (starting from the lowest reserved header bit):
+ * <ul>
+ *     <li>bit 0: the lock is inflated, and the object's {@link Monitor} is used from now on</li>
+ *     <li>bit 1: another thread is waiting for the thin lock to be released</li>
+ *     <li>bits 2-7: the recursion count of a thin lock, less one</li>
+ *     <li>bits 8 and up: the lock ID of the thread which holds the thin lock, or zero if the lock is free</li>
+ * </ul>
+ * The number of lock bits is decided by the compiler, which reserves them.
+ * <p>
+ * A thin lock is only ever modified by the thread which holds it, except that any thread may acquire a free lock,
+ * and a contending thread may set the contention bit. A contending thread enters the fat monitor, sets the contention
+ * bit and then waits on the fat monitor; since the bit is only set while holding the fat monitor, the owner cannot
+ * miss it. When the owner sees the contention bit on its last exit, it inflates the lock and wakes the waiting
+ * threads, which then hold (or contend for) the fat monitor. The owner also inflates the lock itself before
+ * {@code wait}, {@code notify}, or when the recursion count overflows. Once inflated, a lock stays inflated.
+ */
+@SuppressWarnings("unused")
+public final class ThinLock {
+    private ThinLock() {}
+
+    private static final long INFLATED = 1L;
+    private static final long CONTENDED = 1L << 1;
+    private static final int COUNT_SHIFT = 2;
+    private static final long COUNT_ONE = 1L << COUNT_SHIFT;
+    private static final long COUNT_MASK = 0x3fL << COUNT_SHIFT;
+    private static final int OWNER_SHIFT = 8;
+    private static final long FLAGS_MASK = (1L << OWNER_SHIFT) - 1;
+
+    /**
+     * The lock ID of the current thread, or zero if it has not yet been assigned.
+     */
+    @ThreadScoped
+    private static int lockId;
+
+    /**
+     * The last lock ID assigned to a thread.
+     */
+    private static int lastLockId;
+
+    private static native long getHeader(Object obj);
+
+    private static native boolean compareAndSetHeader(Object obj, long expect, long update);
+
+    private static native int getLockShift();
+
+    /**
+     * Get the mask of the lock bits, once they are shifted down to bit 0.
+     */
+    private static native long getLockMask();
+
+    private static native void fatEnter(Object obj);
+
+    private static native void fatExit(Object obj);
+
+    /**
+     * Get the current thread's lock ID, assigning one if needed.
+     *
+     * @return the lock ID, or -1 if lock IDs are exhausted (in which case only fat locks may be used)
+     */
+    private static int currentLockId() {
+        int id = lockId;
+        if (id == 0) {
+            int32_t_ptr lastPtr = addr_of(lastLockId);
+            id = lastPtr.getAndAdd(word(1)).intValue() + 1;
+            if (id <= 0 || id > getLockMask() >>> OWNER_SHIFT) {
+                id = -1;
+            }
+            lockId = id;
+        }
+        return id;
+    }
+
+    @Hidden
+    @AutoQueued
+    public static void enter(Object obj) {
+        int id = currentLockId();
+        int shift = getLockShift();
+        long header = getHeader(obj);
+        long lock = header >>> shift & getLockMask();
+        if (lock == 0 && id > 0) {
+            // uncontended acquire
+            if (compareAndSetHeader(obj, header, header | (long) id << OWNER_SHIFT << shift)) {
+                return;
+            }
+        } else if ((lock & ~FLAGS_MASK) == (long) id << OWNER_SHIFT && id > 0 && (lock & COUNT_MASK) != COUNT_MASK) {
+            // recursive acquire; other threads can only set the contention bit while this thread holds the lock
+            if (compareAndSetHeader(obj, header, header + (COUNT_ONE << shift))) {
+                return;
+            }
+        }
+        enterSlow(obj, id, shift);
+    }
+
+    @Hidden
+    private static void enterSlow(Object obj, int id, int shift) {
+        for (;;) {
+            long header = getHeader(obj);
+            long lock = header >>> shift & getLockMask();
+            if ((lock & INFLATED) != 0) {
+                fatEnter(obj);
+                return;
+            } else if (lock == 0) {
+                if (id > 0) {
+                    // lost a race for the free lock; try again
+                    if (compareAndSetHeader(obj, header, header | (long) id << OWNER_SHIFT << shift)) {
+                        return;
+                    }
+                } else if (compareAndSetHeader(obj, header, header | INFLATED << shift)) {
+                    // this thread cannot use thin locks, so inflate while the lock is free
+                    fatEnter(obj);
+                    return;
+                }
+            } else if ((lock & ~FLAGS_MASK) == (long) id << OWNER_SHIFT) {
+                if ((lock & COUNT_MASK) == COUNT_MASK) {
+                    // the recursion count would overflow
+                    inflateOwned(obj, header, lock, shift);
+                    fatEnter(obj);
+                    return;
+                } else if (compareAndSetHeader(obj, header, header + (COUNT_ONE << shift))) {
+                    // a contending thread changed the header under the fast path
+                    return;
+                }
+            } else {
+                contend(obj, shift);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Acquire the lock of the given object, which is held thinly by another thread. The lock is acquired inflated, by
+     * holding the object's fat monitor.
+     */
+    @Hidden
+    private static void contend(Object obj, int shift) {
+        boolean interrupted = false;
+        fatEnter(obj);
+        for (;;) {
+            long header = getHeader(obj);
+            long lock = header >>> shift & getLockMask();
+            if ((lock & INFLATED) != 0) {
+                // handed off: the fat monitor which this thread holds is now the lock
+                break;
+            } else if (lock == 0) {
+                // released before the contention bit was seen; inflate it while the lock is free
+                if (compareAndSetHeader(obj, header, header | INFLATED << shift)) {
+                    break;
+                }
+            } else if ((lock & CONTENDED) != 0 || compareAndSetHeader(obj, header, header | CONTENDED << shift)) {
+                // releases the fat monitor until the owner hands off the lock; this is a real call rather than an
+                // intrinsic so that the interrupt can be caught
+                try {
+                    obj.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            // acquiring a monitor cannot be interrupted; leave the interrupt for the caller
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Hidden
+    @AutoQueued
+    public static void exit(Object obj) throws IllegalMonitorStateException {
+        int shift = getLockShift();
+        for (;;) {
+            long header = getHeader(obj);
+            long lock = header >>> shift & getLockMask();
+            if ((lock & INFLATED) != 0) {
+                fatExit(obj);
+                return;
+            }
+            int id = lockId;
+            if (id <= 0 || (lock & ~FLAGS_MASK) != (long) id << OWNER_SHIFT) {
+                throw new IllegalMonitorStateException();
+            }
+            if ((lock & COUNT_MASK) != 0) {
+                if (compareAndSetHeader(obj, header, header - (COUNT_ONE << shift))) {
+                    return;
+                }
+            } else if ((lock & CONTENDED) == 0) {
+                if (compareAndSetHeader(obj, header, header & ~(getLockMask() << shift))) {
+                    return;
+                }
+            } else if (compareAndSetHeader(obj, header, header & ~(getLockMask() << shift) | INFLATED << shift)) {
+                // hand the now inflated lock off to the threads which are waiting for it on the fat monitor
+                fatEnter(obj);
+                obj.notifyAll();
+                fatExit(obj);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Inflate the lock of the given object if it is thin-locked by the current thread, so that operations which
+     * only know about the object's {@link Monitor} (such as {@code wait} and {@code notify}) find it held.
+     *
+     * @param obj the object (must not be {@code null})
+     */
+    @Hidden
+    @AutoQueued
+    public static void inflate(Object obj) {
+        int id = lockId;
+        if (id > 0) {
+            int shift = getLockShift();
+            long header = getHeader(obj);
+            long lock = header >>> shift & getLockMask();
+            if ((lock & INFLATED) == 0 && (lock & ~FLAGS_MASK) == (long) id << OWNER_SHIFT) {
+                inflateOwned(obj, header, lock, shift);
+            }
+        }
+    }
+
+    @Hidden
+    private static void inflateOwned(Object obj, long header, long lock, int shift) {
+        // take the fat lock as many times as the thin lock is held before publishing the inflation
+        long count = (lock & COUNT_MASK) >>> COUNT_SHIFT;
+        for (long i = 0; i <= count; i++) {
+            fatEnter(obj);
+        }
+        while (! compareAndSetHeader(obj, header, header & ~(getLockMask() << shift) | INFLATED << shift)) {
+            header = getHeader(obj);
+        }
+        if ((header >>> shift & CONTENDED) != 0) {
+            // wake the contending threads now, so that a later notify cannot pick one of them instead of a real waiter
+            obj.notifyAll();
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package org.qbicc.runtime.main;
 
 import static org.qbicc.runtime.CNative.*;
+import static org.qbicc.runtime.stdc.Stdint.*;
 
 import org.qbicc.runtime.ThreadScoped;
 
@@ -19,4 +20,38 @@ public final class VM {
     @export
     @SuppressWarnings("unused")
     static Thread _qbicc_bound_thread;
+
+    /**
+     * The number of threads which were started by {@code Thread.start()} and have not yet finished running.
+     * The initial thread is not counted.
+     */
+    private static int startedThreadCount;
+
+    /**
+     * Record that a thread is about to be started. This must be called before the native thread is created, so
+     * that the GC never observes a running thread which has not been counted.
+     */
+    static void threadStarting() {
+        int32_t_ptr countPtr = addr_of(startedThreadCount);
+        countPtr.getAndAdd(word(1));
+    }
+
+    /**
+     * Record that a started thread has finished running (or failed to start).
+     */
+    static void threadFinished() {
+        int32_t_ptr countPtr = addr_of(startedThreadCount);
+        countPtr.getAndAdd(word(-1));
+    }
+
+    /**
+     * Determine whether any thread other than the initial thread may be running. A GC which cannot yet stop other
+     * threads may use this to decide whether it is safe to collect.
+     *
+     * @return {@code true} if some started thread may still be running, {@code false} otherwise
+     */
+    public static boolean hasStartedThreads() {
+        int32_t_ptr countPtr = addr_of(startedThreadCount);
+        return countPtr.loadSingleAcquire().intValue() != 0;
+    }
 }
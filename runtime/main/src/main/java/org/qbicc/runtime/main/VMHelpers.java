@@ -14,6 +14,7 @@ import static org.qbicc.runtime.CNative.*;
 import static org.qbicc.runtime.posix.PThread.*;
 import static org.qbicc.runtime.stdc.Stdint.*;
 import static org.qbicc.runtime.stdc.Stdlib.*;
+import static org.qbicc.runtime.stdc.String.*;
 
 /**
  * Runtime Helpers to support the operation of the compiled code.
@@ -206,7 +207,11 @@ public final class VMHelpers {
             // TODO this is a workaround until addr_of_function is working
             return threadParam;
         }
-        return CompilerIntrinsics.threadWrapperNative(threadParam);
+        void_ptr signalStack = ImplicitNullChecks.installSignalStack();
+        void_ptr result = CompilerIntrinsics.threadWrapperNative(threadParam);
+        ImplicitNullChecks.removeSignalStack(signalStack);
+        VM.threadFinished();
+        return result;
     }
 
     /**
@@ -232,9 +237,11 @@ public final class VMHelpers {
             free(pthreadPtr.cast());
             throw new OutOfMemoryError();
         }
+        VM.threadStarting();
 
         int result = pthread_create(pthreadPtr, zero(), runFuncPtr, thread).intValue();
         if (0 != result) {
+            VM.threadFinished();
             free(pthreadPtr.cast());
             throw new InternalError("pthread error code: " + result);
         }
@@ -261,4 +268,27 @@ public final class VMHelpers {
         // TODO: Extend lookup structures to support additional classloaders
         return null;
     }
+
+    /**
+     * Zero the storage of an object, independently of the GC in use.
+     * @param obj the object whose storage should be cleared
+     * @param size the number of bytes to clear
+     */
+    @Hidden
+    @AutoQueued
+    public static void clearObjectMemory(Object obj, long size) {
+        memset((void_ptr)(ptr<?>)refToPtr(obj), word(0), word(size));
+    }
+
+    /**
+     * Copy the storage of one object to another, independently of the GC in use.
+     * @param to the destination object
+     * @param from the source object
+     * @param size the number of bytes to copy
+     */
+    @Hidden
+    @AutoQueued
+    public static void copyObjectMemory(Object to, Object from, long size) {
+        memcpy((void_ptr)(ptr<?>)refToPtr(to), (const_void_ptr)(ptr<?>)refToPtr(from), word(size));
+    }
 }
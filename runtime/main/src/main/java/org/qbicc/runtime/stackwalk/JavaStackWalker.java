@@ -1,5 +1,10 @@
 package org.qbicc.runtime.stackwalk;
 
+import static org.qbicc.runtime.CNative.*;
+import static org.qbicc.runtime.llvm.LLVM.*;
+
+import java.util.Arrays;
+
 import org.qbicc.runtime.AutoQueued;
 import org.qbicc.runtime.Hidden;
 import org.qbicc.runtime.StackObject;
@@ -100,6 +105,100 @@ public final class JavaStackWalker extends StackObject {
         }
     }
 
+    /**
+     * Capture the raw instruction pointers of the current stack, using libunwind. The instruction pointers are
+     * decoded into Java frames by {@link #decodeBacktrace(Throwable)} when the stack trace is first used.
+     *
+     * @return the instruction pointers of the frames, innermost first
+     */
+    @Hidden
+    @AutoQueued
+    public static long[] captureBacktrace() {
+        StackWalker sw = new StackWalker();
+        long[] ips = new long[32];
+        int cnt = 0;
+        while (sw.next()) {
+            if (cnt == ips.length) {
+                ips = Arrays.copyOf(ips, cnt << 1);
+            }
+            ips[cnt ++] = sw.getIp().longValue();
+        }
+        return Arrays.copyOf(ips, cnt);
+    }
+
+    /**
+     * Capture the raw instruction pointers of the current stack by following the chain of frame pointers, which
+     * avoids the cost of libunwind. The walk stops at the first frame which was not called from Java code, so frames
+     * beyond native code or signal handlers are not captured.
+     *
+     * @return the instruction pointers of the frames, innermost first
+     */
+    @Hidden
+    @AutoQueued
+    public static long[] captureBacktraceFromFramePointers() {
+        long[] ips = new long[32];
+        int cnt = 0;
+        // every frame starts with the caller's frame pointer, followed by the return address
+        void_ptr_ptr fp = frameAddress(word(0)).cast();
+        while (! fp.isNull()) {
+            long ip = fp.get(1).longValue();
+            if (MethodData.findInstructionIndex(ip) == -1) {
+                break;
+            }
+            if (cnt == ips.length) {
+                ips = Arrays.copyOf(ips, cnt << 1);
+            }
+            ips[cnt ++] = ip;
+            void_ptr_ptr callerFp = fp.get(0).cast();
+            // the stack grows down, so anything else is not a valid frame
+            if (callerFp.longValue() <= fp.longValue()) {
+                break;
+            }
+            fp = callerFp;
+        }
+        return Arrays.copyOf(ips, cnt);
+    }
+
+    /**
+     * Decode the raw instruction pointers captured for the given throwable into the source code indices of its Java
+     * frames, if that has not already been done.
+     *
+     * @param throwable the throwable (must not be {@code null})
+     */
+    @Hidden
+    @AutoQueued
+    public static void decodeBacktrace(Throwable throwable) {
+        ThrowableAccess access = (ThrowableAccess) (Object) throwable;
+        synchronized (throwable) {
+            if (access.backtrace instanceof long[]) {
+                long[] ips = (long[]) access.backtrace;
+                int[] sourceCodeIndexList = new int[decodeFrames(ips, null)];
+                decodeFrames(ips, sourceCodeIndexList);
+                access.backtrace = sourceCodeIndexList;
+                access.depth = sourceCodeIndexList.length;
+            }
+        }
+    }
+
+    private static int decodeFrames(long[] ips, int[] sourceCodeIndexList) {
+        int cnt = 0;
+        for (long ip : ips) {
+            int ii = MethodData.findInstructionIndex(ip);
+            if (ii == -1) {
+                continue;
+            }
+            for (int sc = MethodData.getSourceCodeInfoIndex(ii); sc != -1; sc = MethodData.getInlinedAtIndex(sc)) {
+                if (MethodData.hasNoModifiersOf(MethodData.getMethodInfoIndex(sc), I_ACC_HIDDEN)) {
+                    if (sourceCodeIndexList != null) {
+                        sourceCodeIndexList[cnt] = sc;
+                    }
+                    cnt ++;
+                }
+            }
+        }
+        return cnt;
+    }
+
     public int getIndex() {
         return index;
     }
@@ -44,6 +44,79 @@ public final class MethodData {
     public static native long getInstructionAddress(int index);
     public static native int getInstructionListSize();
 
+    public static native int getLiveSlotIndex(int index);
+    public static native int getLiveSlotWord(int i);
+
+    public static native int getImplicitNullCheckTableSize();
+    public static native long getImplicitNullCheckAddress(int index);
+
+    /**
+     * Find the live slot map of the call site whose return address is {@code ip}.
+     *
+     * @param ip the return address of the call site
+     * @return the live slot map index, or -1 if {@code ip} is not a known call site
+     */
+    public static int findLiveSlotIndex(long ip) {
+        int index = findInstructionIndex(ip);
+        return index == -1 ? -1 : getLiveSlotIndex(index);
+    }
+
+    /**
+     * Get the number of stack slots which hold live references in the given live slot map.
+     *
+     * @param liveSlotIndex the live slot map index
+     * @return the number of live reference slots
+     */
+    public static int getLiveSlotCount(int liveSlotIndex) {
+        return getLiveSlotWord(liveSlotIndex);
+    }
+
+    /**
+     * Get the DWARF number of the base register of a live reference slot.
+     *
+     * @param liveSlotIndex the live slot map index
+     * @param n the slot number, less than {@link #getLiveSlotCount(int)}
+     * @return the base register number
+     */
+    public static int getLiveSlotRegister(int liveSlotIndex, int n) {
+        return getLiveSlotWord(liveSlotIndex + 1 + n) & 0xff;
+    }
+
+    /**
+     * Get the offset from the base register of a live reference slot.
+     *
+     * @param liveSlotIndex the live slot map index
+     * @param n the slot number, less than {@link #getLiveSlotCount(int)}
+     * @return the signed offset in bytes
+     */
+    public static int getLiveSlotOffset(int liveSlotIndex, int n) {
+        return getLiveSlotWord(liveSlotIndex + 1 + n) >> 8;
+    }
+
+    /**
+     * Find the explicit null path of the implicit null check whose memory access faulted at {@code pc}.
+     *
+     * @param pc the address of the faulting instruction
+     * @return the address to resume execution at, or 0 if {@code pc} is not an implicit null check
+     */
+    public static long findImplicitNullCheckHandler(long pc) {
+        // do a binary search in the implicit null check table, which is sorted by faulting instruction address
+        int upper = getImplicitNullCheckTableSize() - 1;
+        int lower = 0;
+        while (upper >= lower) {
+            int mid = ( upper + lower ) >>> 1;
+            long addr = getImplicitNullCheckAddress(mid << 1);
+            if (pc == addr) {
+                return getImplicitNullCheckAddress((mid << 1) + 1);
+            } else if (pc > addr) {
+                lower = mid+1;
+            } else {
+                upper = mid-1;
+            }
+        }
+        return 0;
+    }
+
     static int findInstructionIndex(long ip) {
         // do a binary search in instruction table
         int upper = MethodData.getInstructionListSize();
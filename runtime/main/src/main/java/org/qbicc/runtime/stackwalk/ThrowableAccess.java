@@ -0,0 +1,11 @@
+package org.qbicc.runtime.stackwalk;
+
+import org.qbicc.runtime.patcher.PatchClass;
+
+@PatchClass(Throwable.class)
+class ThrowableAccess {
+    // alias
+    transient Object backtrace;
+    // alias
+    transient int depth;
+}
@@ -24,8 +24,12 @@ public final class Signal {
 
     public static native c_int sigpending(sigset_t_ptr set);
 
+    public static native c_int sigemptyset(sigset_t_ptr set);
+
     public static native c_int sigaction(c_int sigNum, const_struct_sigaction_ptr act, struct_sigaction_ptr oldAct);
 
+    public static native c_int sigaltstack(const_stack_t_ptr ss, stack_t_ptr oldSs);
+
     public interface SignalAction {
         void handle(c_int sigNum, siginfo_t_ptr sigInfo, void_ptr data);
     }
@@ -37,6 +41,15 @@ public final class Signal {
         public c_int sa_flags;
     }
 
+    // sa_flags values
+    public static final c_int SA_NOCLDSTOP = constant();
+    public static final c_int SA_ONSTACK = constant();
+    public static final c_int SA_RESETHAND = constant();
+    public static final c_int SA_RESTART = constant();
+    public static final c_int SA_SIGINFO = constant();
+    public static final c_int SA_NOCLDWAIT = constant();
+    public static final c_int SA_NODEFER = constant();
+
     public static final class struct_sigaction_ptr extends ptr<struct_sigaction> {}
     public static final class const_struct_sigaction_ptr extends ptr<@c_const struct_sigaction> {}
     public static final class struct_sigaction_ptr_ptr extends ptr<struct_sigaction_ptr> {}
@@ -105,11 +118,15 @@ public final class Signal {
     public static final class const_siginfo_t_ptr_const_ptr extends ptr<@c_const const_siginfo_t_ptr> {}
 
     public static final class stack_t extends object {
-        void_ptr ss_sp;
-        c_int ss_flags;
-        size_t ss_size;
+        public void_ptr ss_sp;
+        public c_int ss_flags;
+        public size_t ss_size;
     }
 
+    // ss_flags values
+    public static final c_int SS_ONSTACK = constant();
+    public static final c_int SS_DISABLE = constant();
+
     public static final class stack_t_ptr extends ptr<stack_t> {}
     public static final class const_stack_t_ptr extends ptr<@c_const stack_t> {}
     public static final class stack_t_ptr_ptr extends ptr<stack_t_ptr> {}
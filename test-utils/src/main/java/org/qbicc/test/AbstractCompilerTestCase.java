@@ -5,6 +5,7 @@ import static org.junit.jupiter.api.Assertions.fail;
 
 import java.nio.file.Path;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Optional;
 
 import org.junit.jupiter.api.AfterAll;
@@ -13,12 +14,26 @@ import org.qbicc.context.ClassContext;
 import org.qbicc.context.CompilationContext;
 import org.qbicc.driver.BaseDiagnosticContext;
 import org.qbicc.driver.Driver;
+import org.qbicc.graph.BasicBlock;
+import org.qbicc.graph.BasicBlockBuilder;
 import org.qbicc.graph.literal.LiteralFactory;
+import org.qbicc.graph.schedule.Schedule;
 import org.qbicc.machine.arch.Platform;
 import org.qbicc.machine.object.ObjectFileProvider;
 import org.qbicc.machine.tool.CToolChain;
 import org.qbicc.tool.llvm.LlvmToolChain;
 import org.qbicc.type.TypeSystem;
+import org.qbicc.type.ValueType;
+import org.qbicc.type.definition.DefinedTypeDefinition;
+import org.qbicc.type.definition.MethodBody;
+import org.qbicc.type.definition.classfile.ClassFile;
+import org.qbicc.type.definition.element.MethodElement;
+import org.qbicc.type.descriptor.BaseTypeDescriptor;
+import org.qbicc.type.descriptor.ClassTypeDescriptor;
+import org.qbicc.type.descriptor.MethodDescriptor;
+import org.qbicc.type.generic.BaseTypeSignature;
+import org.qbicc.type.generic.ClassSignature;
+import org.qbicc.type.generic.MethodSignature;
 
 /**
  * A class which is usable as a base class for simple test cases which use the compiler and need a compiler context.
@@ -83,6 +98,79 @@ public abstract class AbstractCompilerTestCase {
         driver.close();
     }
 
+    /**
+     * Define a class without members which is not registered with the class context.
+     *
+     * @param name the internal name of the class
+     * @param superClass the super class, or {@code null} for a root class
+     * @return the class definition
+     */
+    protected static DefinedTypeDefinition defineClass(String name, DefinedTypeDefinition superClass) {
+        return defineClass(name, superClass, List.of());
+    }
+
+    /**
+     * Define a class with the given instance fields which is not registered with the class context. The fields are
+     * named {@code f0}, {@code f1} and so on, in the order of their types.
+     *
+     * @param name the internal name of the class
+     * @param superClass the super class, or {@code null} for a root class
+     * @param fieldTypes the types of the instance fields
+     * @return the class definition
+     */
+    protected static DefinedTypeDefinition defineClass(String name, DefinedTypeDefinition superClass, List<ValueType> fieldTypes) {
+        final DefinedTypeDefinition.Builder typeBuilder = DefinedTypeDefinition.Builder.basic();
+        typeBuilder.setContext(bootClassContext);
+        typeBuilder.setName(name);
+        typeBuilder.setSuperClassName(superClass == null ? null : superClass.getInternalName());
+        typeBuilder.setSuperClass(superClass);
+        typeBuilder.setDescriptor(ClassTypeDescriptor.synthesize(bootClassContext, name));
+        typeBuilder.setModifiers(ClassFile.ACC_SUPER | ClassFile.ACC_PUBLIC);
+        typeBuilder.setSignature(ClassSignature.synthesize(bootClassContext, null, List.of()));
+        typeBuilder.setSimpleName(name);
+        typeBuilder.setInitializer((index, enclosing, builder) -> {
+            builder.setEnclosingType(enclosing);
+            return builder.build();
+        }, 0);
+        for (int i = 0; i < fieldTypes.size(); i ++) {
+            ValueType fieldType = fieldTypes.get(i);
+            typeBuilder.addField((index, enclosing, builder) -> {
+                builder.setEnclosingType(enclosing);
+                builder.setType(fieldType);
+                builder.setSignature(BaseTypeSignature.V);
+                return builder.build();
+            }, i, "f" + i, BaseTypeDescriptor.V);
+        }
+        return typeBuilder.build();
+    }
+
+    /**
+     * Define a static method {@code void testMethod()} whose body is a single unreachable block. Graphs which are
+     * built in a test use it as their enclosing element.
+     *
+     * @param enclosingType the enclosing class
+     * @return the method
+     */
+    protected static MethodElement defineTestMethod(DefinedTypeDefinition enclosingType) {
+        final MethodElement.Builder builder = MethodElement.builder("testMethod", MethodDescriptor.VOID_METHOD_DESCRIPTOR, 0);
+        builder.setEnclosingType(enclosingType);
+        builder.setSignature(MethodSignature.VOID_METHOD_SIGNATURE);
+        builder.setModifiers(ClassFile.ACC_STATIC);
+        builder.setParameters(List.of());
+        builder.setMethodBodyFactory((index, e) -> {
+            final BasicBlockBuilder bbb = BasicBlockBuilder.simpleBuilder(ts, e);
+            BasicBlock emptyBlock = bbb.unreachable();
+            bbb.finish();
+            return MethodBody.of(
+                emptyBlock,
+                Schedule.forMethod(emptyBlock),
+                null,
+                List.of()
+            );
+        }, 0);
+        return builder.build();
+    }
+
     static Platform getPlatform() {
         return Platform.HOST_PLATFORM;
     }